@@ -6,6 +6,9 @@
   <tiles:putAttribute name="title">Search results</tiles:putAttribute>
   <tiles:putAttribute name="heading">Search results for '<c:out value="${param.query}"/>'</tiles:putAttribute>
   <tiles:putAttribute name="content">
+    <c:forEach var="warning" items="${warnings}">
+      <p class="text-warning"><c:out value="${warning}"/></p>
+    </c:forEach>
     <c:choose>  
       <c:when test="${not empty results}">
       	<c:set var="lastWiki" value="${null}"/>
@@ -41,6 +44,15 @@
           <c:set var="lastWiki" value="${match.wiki}"/>
         </c:forEach>
         </ul>
+        <p class="results-paging">
+          Results ${offset + 1} to ${end} of ${total}.
+          <c:if test="${previousOffset != null}">
+            <a rel="prev" href="<c:url value=""><c:param name="query" value="${param.query}"/><c:if test="${param.force != null}"><c:param name="force" value=""/></c:if><c:param name="offset" value="${previousOffset}"/><c:param name="limit" value="${limit}"/></c:url>">Previous</a>
+          </c:if>
+          <c:if test="${nextOffset != null}">
+            <a rel="next" href="<c:url value=""><c:param name="query" value="${param.query}"/><c:if test="${param.force != null}"><c:param name="force" value=""/></c:if><c:param name="offset" value="${nextOffset}"/><c:param name="limit" value="${limit}"/></c:url>">Next</a>
+          </c:if>
+        </p>
       </c:when>
       <c:otherwise>
         <p>No results found.</p>
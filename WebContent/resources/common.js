@@ -76,7 +76,7 @@ function parseTxtResults(txt, q, options) {
 
 reviki.configureAutoSuggest = function() {
   var options = {};
-  options.source = reviki.SEARCH_URL + "?ctype=txt&limit=20&force";
+  options.source = reviki.SEARCH_URL + "/suggest?limit=20";
   options.param = 'query';
   options.delay = 100;
   options.selectClass = 'ui-autocomplete-over';
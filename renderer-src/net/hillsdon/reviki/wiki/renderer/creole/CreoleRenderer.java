@@ -31,8 +31,14 @@ public class CreoleRenderer {
   /**
    * Macro expansion depth limit. This gets reset when rendering a page, but not
    * when rendering a partial page. If it hits zero, no macros are expanded.
+   * Per-thread as pages may be rendered concurrently.
    */
-  private static int _expansionLimit;
+  private static final ThreadLocal<Integer> _expansionLimit = new ThreadLocal<Integer>() {
+    @Override
+    protected Integer initialValue() {
+      return MACRO_DEPTH_LIMIT;
+    }
+  };
 
   /**
    * Try to run a parser, resetting the input on failure.
@@ -83,15 +89,16 @@ public class CreoleRenderer {
 
     // Expand macros
     if (reset) {
-      _expansionLimit = MACRO_DEPTH_LIMIT;
+      _expansionLimit.set(MACRO_DEPTH_LIMIT);
     }
 
     ASTNode expanded = rendered;
 
-    if (_expansionLimit > 0) {
-      _expansionLimit--;
+    final int limit = _expansionLimit.get();
+    if (limit > 0) {
+      _expansionLimit.set(limit - 1);
       expanded = rendered.expandMacros(macros);
-      _expansionLimit++;
+      _expansionLimit.set(limit);
     }
 
     return expanded;
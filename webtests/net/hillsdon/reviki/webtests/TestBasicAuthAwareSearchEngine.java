@@ -28,10 +28,13 @@ import net.hillsdon.reviki.configuration.WikiConfiguration;
 import net.hillsdon.reviki.search.SearchMatch;
 import net.hillsdon.reviki.search.impl.BasicAuthAwareSearchEngine;
 import net.hillsdon.reviki.search.impl.LuceneSearcher;
+import net.hillsdon.reviki.search.impl.SearchIndices;
 import net.hillsdon.reviki.vc.PageStoreAuthenticationException;
 import net.hillsdon.reviki.vc.impl.PageInfoImpl;
+import net.hillsdon.reviki.vc.impl.WikiRootLocationCache;
 import net.hillsdon.reviki.web.common.ViewTypeConstants;
 import net.hillsdon.reviki.web.pages.impl.TextFormatSearchResults;
+import net.hillsdon.reviki.web.vcintegration.SVNSessionPool;
 import net.hillsdon.reviki.wiki.MarkupRenderer;
 
 /**
@@ -44,6 +47,8 @@ public class TestBasicAuthAwareSearchEngine extends RequestLifecycleTest {
   private static final String PAGE_THE_NAME = "TheName";
   private static final String PAGE_THE_NAME2 = "TheName2";
   private static final Set<SearchMatch> JUST_THE_PAGE = unmodifiableSet(singleton(new SearchMatch(true, WIKI_NAME, PAGE_THE_NAME, null)));
+  private SearchIndices _indices;
+  private SVNSessionPool _sessions;
   private File _dir;
   private File _dir2;
   private LuceneSearcher _searcher;
@@ -57,10 +62,19 @@ public class TestBasicAuthAwareSearchEngine extends RequestLifecycleTest {
     return file;
   }
 
+  @Override
+  protected void tearDown() throws Exception {
+    _indices.dispose();
+    _sessions.dispose();
+    super.tearDown();
+  }
+
   @Override
   protected void setUp() throws Exception {
     super.setUp();
 
+    _indices = new SearchIndices();
+    _sessions = new SVNSessionPool();
     _dir = createTempDir();
     _dir2 = createTempDir();
     final WikiConfiguration publicWikiConfiguration = new WikiConfiguration() {
@@ -109,6 +123,10 @@ public class TestBasicAuthAwareSearchEngine extends RequestLifecycleTest {
         return _dir;
       }
 
+      public File getCacheDirectory() {
+        return null;
+      }
+
       @Override
       public String getSVNUser() {
         return null;
@@ -134,7 +152,7 @@ public class TestBasicAuthAwareSearchEngine extends RequestLifecycleTest {
         return "http://public.example.com/";
       }
     };
-    _searcher = new LuceneSearcher(publicWikiConfiguration.getWikiName(), publicWikiConfiguration.getSearchIndexDirectory(), publicWikiConfiguration.getOtherSearchIndexDirectories(), MarkupRenderer.AS_IS);
+    _searcher = new LuceneSearcher(_indices, publicWikiConfiguration.getWikiName(), publicWikiConfiguration.getSearchIndexDirectory(), publicWikiConfiguration.getOtherSearchIndexDirectories(), MarkupRenderer.AS_IS);
 
     final WikiConfiguration restrictedWikiConfiguration = new WikiConfiguration() {
       public void setUrl(String url) throws IllegalArgumentException {
@@ -182,6 +200,10 @@ public class TestBasicAuthAwareSearchEngine extends RequestLifecycleTest {
         return _dir2;
       }
 
+      public File getCacheDirectory() {
+        return null;
+      }
+
       @Override
       public String getSVNUser() {
         return System.getProperty("wiki.username");
@@ -207,7 +229,7 @@ public class TestBasicAuthAwareSearchEngine extends RequestLifecycleTest {
         return "http://restricted.example.com/";
       }
     };
-    _searcher2 = new LuceneSearcher(restrictedWikiConfiguration.getWikiName(), restrictedWikiConfiguration.getSearchIndexDirectory(), restrictedWikiConfiguration.getOtherSearchIndexDirectories(), MarkupRenderer.AS_IS);
+    _searcher2 = new LuceneSearcher(_indices, restrictedWikiConfiguration.getWikiName(), restrictedWikiConfiguration.getSearchIndexDirectory(), restrictedWikiConfiguration.getOtherSearchIndexDirectories(), MarkupRenderer.AS_IS);
 
     _config = new DeploymentConfiguration() {
 
@@ -249,7 +271,7 @@ public class TestBasicAuthAwareSearchEngine extends RequestLifecycleTest {
    * This behaviour is important, scripts may rely on these results (e.g. https://svn-dev.int.corefiling.com/svn/usr/js/scripts/weekly-report.py ).
    */
   public void testTextResultNoAuth() throws Exception {
-    BasicAuthAwareSearchEngine se = new BasicAuthAwareSearchEngine(_searcher, _config);
+    BasicAuthAwareSearchEngine se = new BasicAuthAwareSearchEngine(_searcher, _config, _sessions, new WikiRootLocationCache());
 
     startRequest(se.getRequestLifecycleAware(), ViewTypeConstants.CTYPE_TEXT, false);
     try {
@@ -266,7 +288,7 @@ public class TestBasicAuthAwareSearchEngine extends RequestLifecycleTest {
    * https://jira.int.corefiling.com/browse/REVIKI-653
    */
   public void testTestResultLoginLinkWorks() throws Exception {
-    BasicAuthAwareSearchEngine se = new BasicAuthAwareSearchEngine(_searcher, _config);
+    BasicAuthAwareSearchEngine se = new BasicAuthAwareSearchEngine(_searcher, _config, _sessions, new WikiRootLocationCache());
 
     final Map<String, String> params = new LinkedHashMap<String, String>();
     params.put("query", "content");
@@ -325,7 +347,7 @@ public class TestBasicAuthAwareSearchEngine extends RequestLifecycleTest {
 
   /** Without auth normal results page should require auth */
   public void testDefaultResultsNoAuth() throws Exception {
-    BasicAuthAwareSearchEngine se = new BasicAuthAwareSearchEngine(_searcher, _config);
+    BasicAuthAwareSearchEngine se = new BasicAuthAwareSearchEngine(_searcher, _config, _sessions, new WikiRootLocationCache());
 
     startRequest(se.getRequestLifecycleAware(), ViewTypeConstants.CTYPE_DEFAULT, false);
     try {
@@ -342,7 +364,7 @@ public class TestBasicAuthAwareSearchEngine extends RequestLifecycleTest {
 
   /** Without auth normal results can be returned if restricted to the current wiki (https://jira.int.corefiling.com/browse/REVIKI-654) */
   public void testDefaultResultsNoAuthSingleWiki() throws Exception {
-    BasicAuthAwareSearchEngine se = new BasicAuthAwareSearchEngine(_searcher, _config);
+    BasicAuthAwareSearchEngine se = new BasicAuthAwareSearchEngine(_searcher, _config, _sessions, new WikiRootLocationCache());
 
     startRequest(se.getRequestLifecycleAware(), ViewTypeConstants.CTYPE_DEFAULT, false);
     try {
@@ -355,7 +377,7 @@ public class TestBasicAuthAwareSearchEngine extends RequestLifecycleTest {
 
   /** With auth both results should appear in the results for all CTYPEs. */
   public void testResultsWithAuth() throws Exception {
-    BasicAuthAwareSearchEngine se = new BasicAuthAwareSearchEngine(_searcher, _config);
+    BasicAuthAwareSearchEngine se = new BasicAuthAwareSearchEngine(_searcher, _config, _sessions, new WikiRootLocationCache());
 
     Set<SearchMatch> both = unmodifiableSet(ImmutableSet.of(new SearchMatch(true, WIKI_NAME, PAGE_THE_NAME, null), new SearchMatch(true, WIKI_NAME2, PAGE_THE_NAME2, null)));
 
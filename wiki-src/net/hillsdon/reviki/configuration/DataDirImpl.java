@@ -35,6 +35,7 @@ public class DataDirImpl implements DataDir {
   public static final String DATA_DIR_CONTEXT_PARAM = "reviki-data-dir";
   private static final String DEFAULT_CONFIG_DIR_NAME = "reviki-data";
   private static final String SEARCH_INDEX_DIR_NAME = "search-index";
+  private static final String CACHE_DIR_NAME = "cache";
   private static final String CONFIG_FILE_NAME = "reviki.properties";
   
   private final ServletContext _servletContext;
@@ -99,6 +100,11 @@ public class DataDirImpl implements DataDir {
     File searchDir = getWritableChildDir(getConfigurationLocation(), SEARCH_INDEX_DIR_NAME);
     return searchDir == null ? null : getWritableChildDir(searchDir, identifier);
   }
+
+  public File getCacheDirectory(String identifier) {
+    File cacheDir = getWritableChildDir(getConfigurationLocation(), CACHE_DIR_NAME);
+    return cacheDir == null ? null : getWritableChildDir(cacheDir, identifier);
+  }
   
   private File getWritableChildDir(final File dir, final String child) {
     File indexDir = new File(dir, child);
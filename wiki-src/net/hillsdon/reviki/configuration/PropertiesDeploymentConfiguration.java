@@ -103,6 +103,10 @@ public class PropertiesDeploymentConfiguration implements DeploymentConfiguratio
     return _dataDir.getSearchIndexDirectory(wikiName);
   }
 
+  File getCacheDirectory(final String wikiName) {
+    return _dataDir.getCacheDirectory(wikiName);
+  }
+
   void setUrl(final String wikiName, final String url) throws IllegalArgumentException {
     try {
       SVNURL svnUrl = SVNURL.parseURIDecoded(url);
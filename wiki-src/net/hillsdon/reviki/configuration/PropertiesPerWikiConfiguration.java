@@ -38,6 +38,10 @@ class PropertiesPerWikiConfiguration implements WikiConfiguration {
     return _deploymentConfiguration.getSearchIndexDirectory(_wikiName);
   }
 
+  public File getCacheDirectory() {
+    return _deploymentConfiguration.getCacheDirectory(_wikiName);
+  }
+
   public List<File> getOtherSearchIndexDirectories() {
     Iterable<WikiConfiguration> otherWikis = Iterables.filter(_deploymentConfiguration.getWikis(), Predicates.not(Predicates.<WikiConfiguration>equalTo(this)));
     return Lists.newArrayList(Iterables.transform(otherWikis, WikiConfiguration.TO_SEARCH_INDEX_DIR));
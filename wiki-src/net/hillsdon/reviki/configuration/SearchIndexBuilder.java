@@ -4,21 +4,33 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
-import javax.servlet.ServletContext;
+import java.util.Set;
 
+import net.hillsdon.reviki.search.AttachmentTextExtractor;
+import net.hillsdon.reviki.search.impl.AttachmentIndexer;
 import net.hillsdon.reviki.search.impl.ExternalCommitAwareSearchEngine;
+import net.hillsdon.reviki.search.impl.IndexRebuildPipeline;
 import net.hillsdon.reviki.search.impl.LuceneSearcher;
+import net.hillsdon.reviki.search.impl.MarkupTextExtractor;
+import net.hillsdon.reviki.search.impl.PlainTextExtractor;
+import net.hillsdon.reviki.search.impl.SearchIndices;
+import net.hillsdon.reviki.vc.ChangeInfo;
 import net.hillsdon.reviki.vc.PageInfo;
-import net.hillsdon.reviki.vc.VersionedPageInfo;
 import net.hillsdon.reviki.vc.PageReference;
 import net.hillsdon.reviki.vc.PageStoreAuthenticationException;
 import net.hillsdon.reviki.vc.PageStoreException;
-import net.hillsdon.reviki.vc.impl.ConfigPageCachingPageStore;
+import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.vc.impl.BasicSVNOperations;
+import net.hillsdon.reviki.vc.impl.DeletedRevisionTracker;
+import net.hillsdon.reviki.vc.impl.HeadPageCachingPageStore;
 import net.hillsdon.reviki.vc.impl.InMemoryDeletedRevisionTracker;
+import net.hillsdon.reviki.vc.impl.LogEntryFilter;
+import net.hillsdon.reviki.vc.impl.PageReferenceImpl;
 import net.hillsdon.reviki.vc.impl.RepositoryBasicSVNOperations;
 import net.hillsdon.reviki.vc.impl.SVNPageStore;
+import net.hillsdon.reviki.vc.impl.WikiRootLocationCache;
 import net.hillsdon.reviki.web.urls.InternalLinker;
 import net.hillsdon.reviki.web.urls.URLOutputFilter;
 import net.hillsdon.reviki.web.urls.WikiUrls;
@@ -29,6 +41,7 @@ import net.hillsdon.reviki.wiki.MarkupRenderer;
 import net.hillsdon.reviki.wiki.graph.WikiGraph;
 import net.hillsdon.reviki.wiki.graph.WikiGraphImpl;
 import net.hillsdon.reviki.wiki.macros.AttrMacro;
+import net.hillsdon.reviki.wiki.macros.FacetsMacro;
 import net.hillsdon.reviki.wiki.macros.IncomingLinksMacro;
 import net.hillsdon.reviki.wiki.macros.OutgoingLinksMacro;
 import net.hillsdon.reviki.wiki.macros.SearchMacro;
@@ -40,6 +53,7 @@ import net.hillsdon.reviki.wiki.renderer.macro.Macro;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.picocontainer.Startable;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
 import org.tmatesoft.svn.core.internal.io.dav.DAVRepositoryFactory;
@@ -47,25 +61,30 @@ import org.tmatesoft.svn.core.io.SVNRepository;
 import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
 
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
 
-public class SearchIndexBuilder implements Runnable {
+/**
+ * Brings the search index of each wiki up to date with its repository in the
+ * background, as an application component started with the application.
+ */
+public class SearchIndexBuilder implements Runnable, Startable {
   private static final Log LOG = LogFactory.getLog(SearchIndexBuilder.class);
+  private static final long SHUTDOWN_WAIT_MILLIS = 10000;
 
   private SvnWikiRenderer _renderer;
   private ExternalCommitAwareSearchEngine _searchEngine;
   private Plugins _plugins;
   private Thread _thread;
-  private boolean _shuttingDown;
+  private volatile boolean _shuttingDown;
+  private volatile IndexRebuildPipeline _pipeline;
   private final DeploymentConfiguration _configuration;
+  private final SearchIndices _searchIndices;
+  private final WikiRootLocationCache _rootLocations;
 
-  public SearchIndexBuilder(ServletContext servletContext) {
-    DataDir dataDir = new DataDirImpl(servletContext);
-    _configuration = new PropertiesDeploymentConfiguration(dataDir);
-    // build the search index for every wiki
-  }
-
-  public SearchIndexBuilder(DeploymentConfiguration configuration) {
+  public SearchIndexBuilder(DeploymentConfiguration configuration, SearchIndices searchIndices, WikiRootLocationCache rootLocations) {
     _configuration = configuration;
+    _searchIndices = searchIndices;
+    _rootLocations = rootLocations;
   }
 
   public void start() {
@@ -76,6 +95,17 @@ public class SearchIndexBuilder implements Runnable {
 
   public void stop() {
     _shuttingDown = true;
+    IndexRebuildPipeline pipeline = _pipeline;
+    if (pipeline != null) {
+      pipeline.cancel();
+    }
+    // The search indices are closed once we've stopped.
+    try {
+      _thread.join(SHUTDOWN_WAIT_MILLIS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   public void run() {
@@ -92,7 +122,7 @@ public class SearchIndexBuilder implements Runnable {
     }
   }
 
-  public void indexWiki(WikiConfiguration wikiConf) throws PageStoreAuthenticationException {
+  public void indexWiki(final WikiConfiguration wikiConf) throws PageStoreAuthenticationException {
     String wikiName = wikiConf.getWikiName();
     File primarySearchDir = wikiConf.getSearchIndexDirectory();
     List<File> otherSearchDirs = wikiConf.getOtherSearchIndexDirectories();
@@ -108,37 +138,23 @@ public class SearchIndexBuilder implements Runnable {
         return _renderer.render(ast, urlOutputFilter);
       }
     };
-    LuceneSearcher searcher = new LuceneSearcher(wikiConf.getWikiName(), primarySearchDir, otherSearchDirs, renderer);
+    LuceneSearcher searcher = new LuceneSearcher(_searchIndices, wikiConf.getWikiName(), primarySearchDir, otherSearchDirs, renderer);
     _searchEngine = new ExternalCommitAwareSearchEngine(searcher);
-    long latestRevision = -1;
+    long indexedRevision = -1;
+    final List<BasicSVNOperations> sessions = new ArrayList<BasicSVNOperations>();
     try {
+      // Off the request path as it rewrites every document of an old index.
+      searcher.upgradeIndexIfNecessary();
       DAVRepositoryFactory.setup();
-      SVNRepository repository = SVNRepositoryFactory.create(wikiConf.getUrl());
-      String user = wikiConf.getSVNUser();
-      String password = wikiConf.getSVNPassword();
-      repository.setAuthenticationManager(new BasicAuthenticationManager(user, password));
-      RepositoryBasicSVNOperations operations = new RepositoryBasicSVNOperations(repository, null);
-      final SVNPageStore store = new SVNPageStore(wikiName, new InMemoryDeletedRevisionTracker(), operations, null, null);
+      final DeletedRevisionTracker tracker = new InMemoryDeletedRevisionTracker();
+      final SVNPageStore store = createStore(wikiConf, tracker, sessions);
       _plugins = new PluginsImpl(store);
       _searchEngine.setPageStore(store);
-      ConfigPageCachingPageStore cachingPageStore = new ConfigPageCachingPageStore(store);
-      AutoProperiesFromConfigPage autoProperties = new AutoProperiesFromConfigPage();
-      autoProperties.setPageStore(cachingPageStore);
-      String base = wikiConf.getFixedBaseUrl();
-      ApplicationUrlsImpl urls = new ApplicationUrlsImpl(base, _configuration);
-      WikiUrls wikiUrls = urls.get(wikiName);
-      InternalLinker internalLinker = new InternalLinker(wikiUrls);
-      final WikiGraph wikiGraph = new WikiGraphImpl(cachingPageStore, _searchEngine);
-      _renderer = new SvnWikiRenderer(new PageStoreConfiguration(cachingPageStore, urls), store, internalLinker, new Supplier<List<Macro>>() {
-        public List<Macro> get() {
-          List<Macro> macros = new ArrayList<Macro>(Arrays.<Macro>asList(new IncomingLinksMacro(wikiGraph), new OutgoingLinksMacro(wikiGraph), new SearchMacro(_searchEngine), new AttrMacro(store)));
-          macros.addAll(_plugins.getImplementations(Macro.class));
-          return macros;
-        }
-      });
+      _renderer = createRenderer(wikiConf, store);
 
-      latestRevision = operations.getLatestRevision();
+      final long latestRevision = store.getLatestRevision();
       long latestIndexed = searcher.getHighestIndexedRevision();
+      indexedRevision = latestRevision;
       LOG.debug(wikiName + " revision " + latestRevision + " (latest indexed " + latestIndexed + ")");
       // if latest indexed == 0 shortcut to do latest rev of each page
       // also seen latest indexed == -1
@@ -146,22 +162,45 @@ public class SearchIndexBuilder implements Runnable {
       // Would need to base the second one on the filtered log, the rev numbers would include far too much that's outside the wiki.
       if (latestIndexed < latestRevision) {
         long start = System.currentTimeMillis();
+        // Pick up where we left off next time unless the rebuild runs to completion.
+        indexedRevision = latestIndexed;
         searcher.setIndexBeingBuilt(true);
-        final Collection<PageReference> minimized = store.getChangedBetween(latestIndexed + 1, latestRevision);
-
-        for (PageReference page : minimized) {
-          try {
-            if(_shuttingDown) return;
-            VersionedPageInfo info = store.get(page, -1);
-            if (info.isNewPage()) {
-              searcher.delete(info.getWiki(), info.getPath(), true);
+        // The last change to each page tells us whether to index or delete it.
+        final List<ChangeInfo> log = sessions.get(0).log("", -1, LogEntryFilter.DESCENDANTS, false, latestIndexed + 1, latestRevision);
+        final List<ChangeInfo> chronological = ImmutableList.copyOf(log).reverse();
+        tracker.handleChanges(latestRevision, chronological);
+        final Set<PageReference> existing = new LinkedHashSet<PageReference>();
+        final Set<PageReference> deleted = new LinkedHashSet<PageReference>();
+        final List<ChangeInfo> attachmentChanges = new ArrayList<ChangeInfo>();
+        for (ChangeInfo change : chronological) {
+          if (change.getKind() == StoreKind.PAGE) {
+            PageReference page = new PageReferenceImpl(change.getPage());
+            (tracker.getChangeThatDeleted(page.getPath()) == null ? existing : deleted).add(page);
+          }
+          else if (change.getKind() == StoreKind.ATTACHMENT) {
+            attachmentChanges.add(change);
+          }
+        }
+
+        // Renderers aren't thread-safe so each worker gets its own, with its own SVN session.
+        final Supplier<MarkupRenderer<?>> workerRenderers = new Supplier<MarkupRenderer<?>>() {
+          public MarkupRenderer<?> get() {
+            try {
+              synchronized (sessions) {
+                return createRenderer(wikiConf, createStore(wikiConf, tracker, sessions));
+              }
             }
-            else {
-              searcher.index(info, true);
+            catch (SVNException ex) {
+              throw new RuntimeException(ex);
             }
           }
-          catch (Exception e) {
-            e.printStackTrace();
+        };
+        IndexRebuildPipeline pipeline = new IndexRebuildPipeline(store, searcher, workerRenderers, Runtime.getRuntime().availableProcessors(), createAttachmentIndexer(wikiConf, searcher));
+        _pipeline = pipeline;
+        if (!_shuttingDown) {
+          pipeline.run(existing, deleted, attachmentChanges, latestRevision);
+          if (!_shuttingDown && !pipeline.isCancelled()) {
+            indexedRevision = latestRevision;
           }
         }
         LOG.debug("indexed in " + (System.currentTimeMillis() - start) + "ms");
@@ -182,11 +221,69 @@ public class SearchIndexBuilder implements Runnable {
     catch (IOException e) {
       e.printStackTrace();
     }
+    catch (InterruptedException e) {
+      e.printStackTrace();
+    }
     finally {
-      writeIndexedRevision(searcher, latestRevision);
+      _pipeline = null;
+      for (BasicSVNOperations session : sessions) {
+        session.dispose();
+      }
+      writeIndexedRevision(searcher, indexedRevision);
     }
   }
 
+  private SVNPageStore createStore(final WikiConfiguration wikiConf, final DeletedRevisionTracker tracker, final List<BasicSVNOperations> sessions) throws SVNException {
+    SVNRepository repository = SVNRepositoryFactory.create(wikiConf.getUrl());
+    String user = wikiConf.getSVNUser();
+    String password = wikiConf.getSVNPassword();
+    repository.setAuthenticationManager(new BasicAuthenticationManager(user, password));
+    RepositoryBasicSVNOperations operations = new RepositoryBasicSVNOperations(repository, null, _rootLocations);
+    sessions.add(operations);
+    return new SVNPageStore(wikiConf.getWikiName(), tracker, operations, null, null);
+  }
+
+  private AttachmentIndexer createAttachmentIndexer(final WikiConfiguration wikiConf, final LuceneSearcher searcher) {
+    return new AttachmentIndexer(_searchIndices, wikiConf.getWikiName(), searcher, new Supplier<BasicSVNOperations>() {
+      public BasicSVNOperations get() {
+        try {
+          SVNRepository repository = SVNRepositoryFactory.create(wikiConf.getUrl());
+          repository.setAuthenticationManager(new BasicAuthenticationManager(wikiConf.getSVNUser(), wikiConf.getSVNPassword()));
+          return new RepositoryBasicSVNOperations(repository, null, _rootLocations);
+        }
+        catch (SVNException ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+    }, new Supplier<List<AttachmentTextExtractor>>() {
+      public List<AttachmentTextExtractor> get() {
+        List<AttachmentTextExtractor> extractors = new ArrayList<AttachmentTextExtractor>(Arrays.<AttachmentTextExtractor>asList(new PlainTextExtractor(), new MarkupTextExtractor()));
+        extractors.addAll(_plugins.getImplementations(AttachmentTextExtractor.class));
+        return extractors;
+      }
+    }, AttachmentIndexer.DEFAULT_MAX_BYTES);
+  }
+
+  private SvnWikiRenderer createRenderer(final WikiConfiguration wikiConf, final SVNPageStore store) {
+    final String wikiName = wikiConf.getWikiName();
+    // Locks don't matter to the index.
+    HeadPageCachingPageStore cachingPageStore = new HeadPageCachingPageStore(store, null);
+    AutoProperiesFromConfigPage autoProperties = new AutoProperiesFromConfigPage();
+    autoProperties.setPageStore(cachingPageStore);
+    String base = wikiConf.getFixedBaseUrl();
+    ApplicationUrlsImpl urls = new ApplicationUrlsImpl(base, _configuration);
+    WikiUrls wikiUrls = urls.get(wikiName);
+    InternalLinker internalLinker = new InternalLinker(wikiUrls);
+    final WikiGraph wikiGraph = new WikiGraphImpl(cachingPageStore, _searchEngine);
+    return new SvnWikiRenderer(new PageStoreConfiguration(cachingPageStore, urls), store, internalLinker, new Supplier<List<Macro>>() {
+      public List<Macro> get() {
+        List<Macro> macros = new ArrayList<Macro>(Arrays.<Macro>asList(new IncomingLinksMacro(wikiGraph), new OutgoingLinksMacro(wikiGraph), new SearchMacro(_searchEngine), new FacetsMacro(_searchEngine), new AttrMacro(store)));
+        macros.addAll(_plugins.getImplementations(Macro.class));
+        return macros;
+      }
+    });
+  }
+
   private void writeUnsuccessful(LuceneSearcher searcher) {
     writeIndexedRevision(searcher, -1L);
   }
@@ -93,6 +93,11 @@ public interface WikiConfiguration {
    */
   File getSearchIndexDirectory();
 
+  /**
+   * @return A directory for data about this wiki that can be fetched again from the repository, or null if not possible.
+   */
+  File getCacheDirectory();
+
   /**
    * @return An array of directories to the other wikis use to store the search engine indices in.
    */
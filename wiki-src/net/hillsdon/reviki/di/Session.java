@@ -29,6 +29,11 @@ public interface Session {
    */
   void start();
 
+  /**
+   * Stops then disposes of the objects in the session, it can't be used again.
+   */
+  void dispose();
+
   void configure(MutablePicoContainer container);
 
 }
@@ -21,9 +21,13 @@ import net.hillsdon.reviki.configuration.DataDir;
 import net.hillsdon.reviki.configuration.DataDirImpl;
 import net.hillsdon.reviki.configuration.DeploymentConfiguration;
 import net.hillsdon.reviki.configuration.PropertiesDeploymentConfiguration;
+import net.hillsdon.reviki.configuration.SearchIndexBuilder;
 import net.hillsdon.reviki.configuration.WikiConfiguration;
 import net.hillsdon.reviki.di.ApplicationSession;
 import net.hillsdon.reviki.di.WikiSession;
+import net.hillsdon.reviki.search.impl.PageNameIndices;
+import net.hillsdon.reviki.search.impl.SearchIndices;
+import net.hillsdon.reviki.vc.impl.WikiRootLocationCache;
 import net.hillsdon.reviki.web.dispatching.Dispatcher;
 import net.hillsdon.reviki.web.dispatching.impl.DispatcherImpl;
 import net.hillsdon.reviki.web.dispatching.impl.WikiChoiceImpl;
@@ -37,6 +41,7 @@ import net.hillsdon.reviki.web.vcintegration.RequestCompletedHandler;
 import net.hillsdon.reviki.web.vcintegration.RequestCompletedHandlerImpl;
 import net.hillsdon.reviki.web.vcintegration.RequestLifecycleAwareManager;
 import net.hillsdon.reviki.web.vcintegration.RequestLifecycleAwareManagerImpl;
+import net.hillsdon.reviki.web.vcintegration.SVNSessionPool;
 
 import org.picocontainer.MutablePicoContainer;
 
@@ -62,6 +67,11 @@ public class ApplicationSessionImpl extends AbstractSession implements Applicati
     container.addComponent(DeploymentConfiguration.class, PropertiesDeploymentConfiguration.class);
     container.addComponent(ListWikis.class, ListWikisImpl.class);
     container.addComponent(JumpToWikiUrl.class, JumpToWikiUrlImpl.class);
+    container.addComponent(PageNameIndices.class);
+    container.addComponent(SearchIndices.class);
+    container.addComponent(SearchIndexBuilder.class);
+    container.addComponent(SVNSessionPool.class, new SVNSessionPool());
+    container.addComponent(WikiRootLocationCache.class);
     container.addComponent(WikiChoiceImpl.class);
     container.addComponent(RequestLifecycleAwareManager.class, RequestLifecycleAwareManagerImpl.class);
     container.addComponent(ApplicationUrls.class, RequestScopedApplicationUrls.class);
@@ -24,20 +24,37 @@ import java.util.List;
 import net.hillsdon.reviki.configuration.DeploymentConfiguration;
 import net.hillsdon.reviki.configuration.WikiConfiguration;
 import net.hillsdon.reviki.di.WikiSession;
+import net.hillsdon.reviki.search.AttachmentTextExtractor;
+import net.hillsdon.reviki.search.impl.AttachmentIndexer;
 import net.hillsdon.reviki.search.impl.BasicAuthAwareSearchEngine;
+import net.hillsdon.reviki.search.impl.CachingSearchEngine;
 import net.hillsdon.reviki.search.impl.ExternalCommitAwareSearchEngine;
+import net.hillsdon.reviki.search.impl.IndexUpdateQueue;
 import net.hillsdon.reviki.search.impl.LuceneSearcher;
+import net.hillsdon.reviki.search.impl.MarkupTextExtractor;
+import net.hillsdon.reviki.search.impl.PageNameIndex;
+import net.hillsdon.reviki.search.impl.PageNameIndices;
+import net.hillsdon.reviki.search.impl.PageNameSuggestions;
+import net.hillsdon.reviki.search.impl.PlainTextExtractor;
+import net.hillsdon.reviki.search.impl.SearchIndices;
 import net.hillsdon.reviki.vc.PageInfo;
 import net.hillsdon.reviki.vc.PageStore;
 import net.hillsdon.reviki.vc.PageStoreException;
 import net.hillsdon.reviki.vc.impl.AutoPropertiesApplier;
 import net.hillsdon.reviki.vc.impl.AutoPropertiesApplierImpl;
+import net.hillsdon.reviki.vc.impl.BasicSVNOperations;
 import net.hillsdon.reviki.vc.impl.CachingPageStore;
 import net.hillsdon.reviki.vc.impl.ChangeNotificationDispatcherImpl;
-import net.hillsdon.reviki.vc.impl.ConfigPageCachingPageStore;
 import net.hillsdon.reviki.vc.impl.DeletedRevisionTracker;
 import net.hillsdon.reviki.vc.impl.FixedMimeIdentifier;
+import net.hillsdon.reviki.vc.impl.HeadPageCachingPageStore;
 import net.hillsdon.reviki.vc.impl.InMemoryDeletedRevisionTracker;
+import net.hillsdon.reviki.vc.impl.LockSnapshot;
+import net.hillsdon.reviki.vc.impl.PersistentDeletedRevisionTracker;
+import net.hillsdon.reviki.vc.impl.RepositoryBasicSVNOperations;
+import net.hillsdon.reviki.vc.impl.RevisionContentCache;
+import net.hillsdon.reviki.vc.impl.SVNLogCache;
+import net.hillsdon.reviki.vc.impl.WikiRootLocationCache;
 import net.hillsdon.reviki.web.dispatching.ResourceHandler;
 import net.hillsdon.reviki.web.dispatching.WikiHandler;
 import net.hillsdon.reviki.web.dispatching.impl.ResourceHandlerImpl;
@@ -69,12 +86,14 @@ import net.hillsdon.reviki.web.vcintegration.RequestLifecycleAwareManager;
 import net.hillsdon.reviki.web.vcintegration.RequestLifecycleAwareManagerImpl;
 import net.hillsdon.reviki.web.vcintegration.RequestScopedPageStore;
 import net.hillsdon.reviki.web.vcintegration.RequestScopedThreadLocalBasicSVNOperations;
+import net.hillsdon.reviki.web.vcintegration.SVNSessionPool;
 import net.hillsdon.reviki.wiki.MarkupRenderer;
 import net.hillsdon.reviki.wiki.feeds.AtomFeedWriter;
 import net.hillsdon.reviki.wiki.feeds.FeedWriter;
 import net.hillsdon.reviki.wiki.graph.WikiGraph;
 import net.hillsdon.reviki.wiki.graph.WikiGraphImpl;
 import net.hillsdon.reviki.wiki.macros.AttrMacro;
+import net.hillsdon.reviki.wiki.macros.FacetsMacro;
 import net.hillsdon.reviki.wiki.macros.IncomingLinksMacro;
 import net.hillsdon.reviki.wiki.macros.OutgoingLinksMacro;
 import net.hillsdon.reviki.wiki.macros.SearchMacro;
@@ -84,6 +103,10 @@ import net.hillsdon.reviki.wiki.renderer.creole.ast.ASTNode;
 import net.hillsdon.reviki.wiki.renderer.macro.Macro;
 
 import org.picocontainer.MutablePicoContainer;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
 
 import com.google.common.base.Supplier;
 
@@ -127,18 +150,48 @@ public class WikiSessionImpl extends AbstractSession implements WikiSession {
     InternalLinker internalLinker = new InternalLinker(container.getComponent(WikiUrls.class));
     AutoProperiesFromConfigPage autoProperties = new AutoProperiesFromConfigPage();
     AutoPropertiesApplier autoPropertiesApplier = new AutoPropertiesApplierImpl(autoProperties);
-    RequestScopedThreadLocalBasicSVNOperations operations = new RequestScopedThreadLocalBasicSVNOperations(new BasicAuthPassThroughBasicSVNOperationsFactory(configuration.getUrl(), autoPropertiesApplier));
-    BasicAuthAwareSearchEngine authSearch = new BasicAuthAwareSearchEngine(new LuceneSearcher(configuration.getWikiName(), primarySearchDir, otherSearchDirs, renderer), getParentContainer().getComponent(DeploymentConfiguration.class));
-    final ExternalCommitAwareSearchEngine searchEngine = new ExternalCommitAwareSearchEngine(authSearch);
-    DeletedRevisionTracker tracker = new InMemoryDeletedRevisionTracker();
-    Supplier<PageStore> pageStoreFactory = new PerRequestPageStoreFactory(configuration.getWikiName(), searchEngine, tracker, operations, autoPropertiesApplier, new FixedMimeIdentifier());
+    File cacheDir = configuration.getCacheDirectory();
+    SVNLogCache logCache = cacheDir == null ? null : new SVNLogCache(new File(cacheDir, "log"), configuration.getUrl().toString());
+    final SearchIndices searchIndices = getParentContainer().getComponent(SearchIndices.class);
+    final SVNSessionPool sessions = getParentContainer().getComponent(SVNSessionPool.class);
+    final WikiRootLocationCache rootLocations = getParentContainer().getComponent(WikiRootLocationCache.class);
+    RequestScopedThreadLocalBasicSVNOperations operations = new RequestScopedThreadLocalBasicSVNOperations(new BasicAuthPassThroughBasicSVNOperationsFactory(configuration.getUrl(), autoPropertiesApplier, sessions, rootLocations, logCache, new LockSnapshot()));
+    LuceneSearcher searcher = new LuceneSearcher(searchIndices, configuration.getWikiName(), primarySearchDir, otherSearchDirs, renderer);
+    BasicAuthAwareSearchEngine authSearch = new BasicAuthAwareSearchEngine(new CachingSearchEngine(searchIndices, searcher, primarySearchDir, otherSearchDirs), getParentContainer().getComponent(DeploymentConfiguration.class), sessions, rootLocations);
+    IndexUpdateQueue indexQueue = new IndexUpdateQueue(searchIndices, searcher, IndexUpdateQueue.DEFAULT_READ_YOUR_WRITES_MILLIS);
+    AttachmentIndexer attachmentIndexer = new AttachmentIndexer(searchIndices, configuration.getWikiName(), searcher, new Supplier<BasicSVNOperations>() {
+      public BasicSVNOperations get() {
+        // Off the request thread so we use the wiki's configured credentials, as the index builder does.
+        try {
+          SVNRepository repository = SVNRepositoryFactory.create(configuration.getUrl());
+          repository.setAuthenticationManager(new BasicAuthenticationManager(configuration.getSVNUser(), configuration.getSVNPassword()));
+          return new RepositoryBasicSVNOperations(repository, null, rootLocations);
+        }
+        catch (SVNException ex) {
+          throw new RuntimeException(ex);
+        }
+      }
+    }, new Supplier<List<AttachmentTextExtractor>>() {
+      public List<AttachmentTextExtractor> get() {
+        List<AttachmentTextExtractor> extractors = new ArrayList<AttachmentTextExtractor>(Arrays.<AttachmentTextExtractor>asList(new PlainTextExtractor(), new MarkupTextExtractor()));
+        extractors.addAll(_plugins.getImplementations(AttachmentTextExtractor.class));
+        return extractors;
+      }
+    }, AttachmentIndexer.DEFAULT_MAX_BYTES);
+    final ExternalCommitAwareSearchEngine searchEngine = new ExternalCommitAwareSearchEngine(authSearch, indexQueue, attachmentIndexer);
+    DeletedRevisionTracker tracker = cacheDir == null ? new InMemoryDeletedRevisionTracker() : new PersistentDeletedRevisionTracker(new File(cacheDir, "deleted-revisions"), configuration.getUrl().toString());
+    PageNameIndex pageNames = new PageNameIndex(tracker);
+    PageNameIndices allPageNames = getParentContainer().getComponent(PageNameIndices.class);
+    allPageNames.register(configuration.getWikiName(), pageNames);
+    RevisionContentCache revisionCache = cacheDir == null ? null : new RevisionContentCache(new File(cacheDir, "revisions"), configuration.getUrl().toString(), RevisionContentCache.DEFAULT_MAX_BYTES);
+    Supplier<PageStore> pageStoreFactory = new PerRequestPageStoreFactory(configuration.getWikiName(), searchEngine, indexQueue, tracker, operations, autoPropertiesApplier, new FixedMimeIdentifier(), revisionCache);
     final RequestScopedPageStore pageStore = new RequestScopedPageStore(pageStoreFactory);
-    ConfigPageCachingPageStore cachingPageStore = new ConfigPageCachingPageStore(pageStore);
+    HeadPageCachingPageStore cachingPageStore = new HeadPageCachingPageStore(pageStore, operations);
     PageStoreConfiguration pageStoreConfiguration = new PageStoreConfiguration(cachingPageStore, applicationUrls);
     final WikiGraph wikiGraph = new WikiGraphImpl(cachingPageStore, searchEngine);
     _renderer = new SvnWikiRenderer(pageStoreConfiguration, pageStore, internalLinker, new Supplier<List<Macro>>() {
       public List<Macro> get() {
-        List<Macro> macros = new ArrayList<Macro>(Arrays.<Macro>asList(new IncomingLinksMacro(wikiGraph), new OutgoingLinksMacro(wikiGraph), new SearchMacro(searchEngine), new AttrMacro(pageStore)));
+        List<Macro> macros = new ArrayList<Macro>(Arrays.<Macro>asList(new IncomingLinksMacro(wikiGraph), new OutgoingLinksMacro(wikiGraph), new SearchMacro(searchEngine), new FacetsMacro(searchEngine), new AttrMacro(pageStore)));
         macros.addAll(_plugins.getImplementations(Macro.class));
         return macros;
       }
@@ -150,7 +203,13 @@ public class WikiSessionImpl extends AbstractSession implements WikiSession {
 
     container.addComponent(authSearch.getRequestLifecycleAware()); // This needs adding so that RequestLifecycleAwareness works, but it shouldn't show up as the search engine
     container.addComponent(tracker);
+    container.addComponent(pageNames);
+    container.addComponent(new PageNameSuggestions(configuration.getWikiName(), allPageNames, authSearch));
     container.addComponent(operations);
+    if (logCache != null) {
+      // Disposed with the session so its file is closed.
+      container.addComponent(logCache);
+    }
     container.addComponent(PageStore.class, pageStore);
     container.addComponent(CachingPageStore.class, cachingPageStore);
     container.addComponent(RequestLifecycleAwareManager.class, RequestLifecycleAwareManagerImpl.class);
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Gets indexable text out of an attachment.  Plugins can provide
+ * implementations for further file types.
+ */
+public interface AttachmentTextExtractor {
+
+  /**
+   * @param fileName The attachment's name.
+   * @return true if we can extract text from attachments with that name.
+   */
+  boolean handles(String fileName);
+
+  /**
+   * @param fileName The attachment's name.
+   * @param in The attachment's content, possibly truncated.
+   * @param maxChars Stop after this much text.
+   * @return The text.
+   * @throws IOException On failure to read in.
+   */
+  String extract(String fileName, InputStream in, int maxChars) throws IOException;
+
+}
@@ -16,6 +16,8 @@
 package net.hillsdon.reviki.search;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import net.hillsdon.reviki.vc.PageInfo;
@@ -41,6 +43,33 @@ public interface SearchEngine {
    */
   Set<SearchMatch> search(String query, boolean provideExtracts, boolean singleWiki) throws IOException, QuerySyntaxException, PageStoreException;
 
+  /**
+   * Search for a page of results.  Only the returned matches have extracts generated.
+   *
+   * @param query Query.
+   * @param provideExtracts true if extracts from the matching text should be provided in the returned matches (slower).
+   * @param singleWiki true if the search should be restricted to the current wiki.
+   * @param offset Number of matches to skip.
+   * @param limit Maximum number of matches to return.
+   * @return The requested matches, in rank order, and the total number of matches.
+   * @throws IOException On error reading the search index.
+   * @throws QuerySyntaxException If the query is too broken to use.
+   * @throws PageStoreException If an error occurs reading wiki-data.
+   */
+  SearchResults search(String query, boolean provideExtracts, boolean singleWiki, int offset, int limit) throws IOException, QuerySyntaxException, PageStoreException;
+
+  /**
+   * Counts page attribute values across the pages in the current wiki that match a query.
+   *
+   * @param query Query, or the empty string for all pages.
+   * @param keys Attribute keys.
+   * @return For each key, in the order given, its values on the matching pages with the number of pages having each, most common first.
+   * @throws IOException On error reading the search index.
+   * @throws QuerySyntaxException If the query is too broken to use.
+   * @throws PageStoreException If an error occurs reading wiki-data.
+   */
+  Map<String, Map<String, Integer>> facets(String query, List<String> keys) throws IOException, QuerySyntaxException, PageStoreException;
+
   /**
    * @param page A page.
    * @return Outgoing links from that page, excluding that page.
@@ -57,6 +86,14 @@ public interface SearchEngine {
    */
   Set<String> incomingLinks(String page) throws IOException, PageStoreException;
 
+  /**
+   * @param existing The pages that exist now.
+   * @return Those with no incoming links from other pages in existing.
+   * @throws IOException On error reading the search index.
+   * @throws PageStoreException If an error occurs reading wiki-data.
+   */
+  Set<String> isolatedPages(Set<String> existing) throws IOException, PageStoreException;
+
   /**
    * Indexes page change.
    *
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of search results.
+ */
+public class SearchResults {
+
+  private final List<SearchMatch> _matches;
+  private final int _offset;
+  private final int _total;
+  private final List<String> _warnings;
+
+  public SearchResults(final List<SearchMatch> matches, final int offset, final int total) {
+    this(matches, offset, total, Collections.<String>emptyList());
+  }
+
+  /**
+   * @param warnings Why the results may be incomplete, e.g. a wiki's index didn't respond in time.
+   */
+  public SearchResults(final List<SearchMatch> matches, final int offset, final int total, final List<String> warnings) {
+    _matches = Collections.unmodifiableList(matches);
+    _offset = offset;
+    _total = total;
+    _warnings = Collections.unmodifiableList(warnings);
+  }
+
+  /**
+   * @return The matches on this page, in rank order.
+   */
+  public List<SearchMatch> getMatches() {
+    return _matches;
+  }
+
+  /**
+   * @return The rank of the first match on this page, counting from 0.
+   */
+  public int getOffset() {
+    return _offset;
+  }
+
+  /**
+   * @return The total number of matches across all pages.
+   */
+  public int getTotal() {
+    return _total;
+  }
+
+  /**
+   * @return Reasons the matches may be incomplete, empty if they aren't.
+   */
+  public List<String> getWarnings() {
+    return _warnings;
+  }
+
+  /**
+   * @return true if there are matches after this page.
+   */
+  public boolean hasMore() {
+    return _offset + _matches.size() < _total;
+  }
+
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import net.hillsdon.reviki.search.AttachmentTextExtractor;
+import net.hillsdon.reviki.vc.NotFoundException;
+import net.hillsdon.reviki.vc.PageStoreException;
+import net.hillsdon.reviki.vc.impl.BasicSVNOperations;
+import net.hillsdon.reviki.vc.impl.PageReferenceImpl;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.tmatesoft.svn.core.internal.util.SVNPathUtil;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Indexes the text of attachments on a background pool so neither the upload
+ * nor the page's indexing waits for it.
+ *
+ * Only the first few megabytes of an attachment are fetched, the download is
+ * abandoned once we have that much.  Further changes to an
+ * attachment while it's waiting are coalesced.
+ */
+public class AttachmentIndexer {
+
+  private static final Log LOG = LogFactory.getLog(AttachmentIndexer.class);
+
+  static final int THREADS = 2;
+  public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+  static final int MAX_CHARS = 1024 * 1024;
+
+  /**
+   * Keeps up to a limit then stops the transfer.
+   */
+  private static final class CappedOutputStream extends ByteArrayOutputStream {
+    private final int _max;
+    private boolean _truncated = false;
+
+    CappedOutputStream(final int max) {
+      _max = max;
+    }
+
+    @Override
+    public synchronized void write(final byte[] b, final int off, final int len) {
+      final int room = _max - count;
+      super.write(b, off, Math.min(len, room));
+      if (len > room) {
+        truncate();
+      }
+    }
+
+    @Override
+    public synchronized void write(final int b) {
+      if (count >= _max) {
+        truncate();
+      }
+      super.write(b);
+    }
+
+    private void truncate() {
+      _truncated = true;
+      // Unchecked so it passes through the SVN library, which abandons the transfer.
+      throw new IllegalStateException("Attachment truncated at " + _max + " bytes");
+    }
+
+    boolean isTruncated() {
+      return _truncated;
+    }
+
+    ByteArrayInputStream toInputStream() {
+      return new ByteArrayInputStream(buf, 0, count);
+    }
+  }
+
+  private final ExecutorService _pool;
+  private final String _wiki;
+  private final LuceneSearcher _searcher;
+  private final Supplier<BasicSVNOperations> _operations;
+  private final Supplier<? extends List<AttachmentTextExtractor>> _extractors;
+  private final int _maxBytes;
+  /** Attachments waiting, true to index, false to delete. */
+  private final Map<List<String>, Boolean> _pending = new LinkedHashMap<List<String>, Boolean>();
+  private final Set<List<String>> _running = new HashSet<List<String>>();
+
+  /**
+   * @param indices Whose attachment pool we run on.
+   * @param wiki Wiki name.
+   * @param searcher Where attachment text goes.
+   * @param operations Supplies a session for each fetch, disposed of afterwards.  Used off the request thread.
+   * @param extractors Tried in order, the first that handles an attachment is used.
+   * @param maxBytes How much of each attachment to fetch.
+   */
+  public AttachmentIndexer(final SearchIndices indices, final String wiki, final LuceneSearcher searcher, final Supplier<BasicSVNOperations> operations, final Supplier<? extends List<AttachmentTextExtractor>> extractors, final int maxBytes) {
+    _pool = indices.getAttachmentPool();
+    _wiki = wiki;
+    _searcher = searcher;
+    _operations = operations;
+    _extractors = extractors;
+    _maxBytes = maxBytes;
+  }
+
+  /**
+   * @param page The page the attachment is on.
+   * @param attachment Name of an attachment that was added or changed.
+   */
+  public void changed(final String page, final String attachment) {
+    submit(Arrays.asList(page, attachment), true);
+  }
+
+  /**
+   * @param page The page the attachment was on.
+   * @param attachment Name of an attachment that was deleted.
+   */
+  public void deleted(final String page, final String attachment) {
+    submit(Arrays.asList(page, attachment), false);
+  }
+
+  private synchronized void submit(final List<String> key, final boolean exists) {
+    // A task for the key will pick up the latest state.
+    final boolean scheduled = _pending.containsKey(key) || _running.contains(key);
+    _pending.put(key, exists);
+    if (!scheduled) {
+      _pool.execute(new Runnable() {
+        public void run() {
+          Boolean exists;
+          while ((exists = next(key)) != null) {
+            process(key.get(0), key.get(1), exists);
+          }
+        }
+      });
+    }
+  }
+
+  private synchronized Boolean next(final List<String> key) {
+    final Boolean exists = _pending.remove(key);
+    if (exists == null) {
+      _running.remove(key);
+      notifyAll();
+    }
+    else {
+      _running.add(key);
+    }
+    return exists;
+  }
+
+  /**
+   * @param timeoutMillis Maximum time to wait.
+   * @return true if there's nothing waiting or in progress.
+   */
+  public synchronized boolean awaitIdle(final long timeoutMillis) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + timeoutMillis;
+    long remaining = timeoutMillis;
+    while (!(_pending.isEmpty() && _running.isEmpty()) && remaining > 0) {
+      wait(remaining);
+      remaining = deadline - System.currentTimeMillis();
+    }
+    return _pending.isEmpty() && _running.isEmpty();
+  }
+
+  private void process(final String page, final String attachment, final boolean exists) {
+    try {
+      final AttachmentTextExtractor extractor = exists ? extractorFor(attachment) : null;
+      if (extractor == null) {
+        _searcher.deleteAttachment(_wiki, page, attachment);
+        return;
+      }
+      final CappedOutputStream content = new CappedOutputStream(_maxBytes);
+      final BasicSVNOperations operations = _operations.get();
+      try {
+        operations.getFile(SVNPathUtil.append(new PageReferenceImpl(page).getAttachmentPath(), attachment), -1, null, content);
+      }
+      catch (NotFoundException ex) {
+        // Gone since.
+        _searcher.deleteAttachment(_wiki, page, attachment);
+        return;
+      }
+      catch (PageStoreException ex) {
+        if (!content.isTruncated()) {
+          throw ex;
+        }
+      }
+      catch (IllegalStateException ex) {
+        if (!content.isTruncated()) {
+          throw ex;
+        }
+      }
+      finally {
+        operations.dispose();
+      }
+      _searcher.indexAttachment(_wiki, page, attachment, extractor.extract(attachment, content.toInputStream(), MAX_CHARS));
+    }
+    catch (Exception ex) {
+      LOG.error("Failed to index attachment " + attachment + " on " + page, ex);
+    }
+  }
+
+  private AttachmentTextExtractor extractorFor(final String attachment) {
+    for (AttachmentTextExtractor extractor : _extractors.get()) {
+      if (extractor.handles(attachment)) {
+        return extractor;
+      }
+    }
+    return null;
+  }
+
+}
@@ -18,8 +18,11 @@ package net.hillsdon.reviki.search.impl;
 import static net.hillsdon.reviki.web.common.ViewTypeConstants.CTYPE_TEXT;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -30,15 +33,18 @@ import net.hillsdon.reviki.configuration.WikiConfiguration;
 import net.hillsdon.reviki.search.QuerySyntaxException;
 import net.hillsdon.reviki.search.SearchEngine;
 import net.hillsdon.reviki.search.SearchMatch;
+import net.hillsdon.reviki.search.SearchResults;
 import net.hillsdon.reviki.vc.AutoProperties;
 import net.hillsdon.reviki.vc.PageInfo;
 import net.hillsdon.reviki.vc.PageStoreAuthenticationException;
 import net.hillsdon.reviki.vc.PageStoreException;
 import net.hillsdon.reviki.vc.impl.AutoPropertiesApplierImpl;
+import net.hillsdon.reviki.vc.impl.WikiRootLocationCache;
 import net.hillsdon.reviki.web.common.ViewTypeConstants;
 import net.hillsdon.reviki.web.vcintegration.BasicAuthPassThroughBasicSVNOperationsFactory;
 import net.hillsdon.reviki.web.vcintegration.RequestLifecycleAware;
 import net.hillsdon.reviki.web.vcintegration.RequestScopedThreadLocalBasicSVNOperations;
+import net.hillsdon.reviki.web.vcintegration.SVNSessionPool;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.Predicate;
@@ -56,11 +62,19 @@ public class BasicAuthAwareSearchEngine implements SearchEngine {
 
   private final SearchEngine _delegate;
   private final DeploymentConfiguration _config;
+  private final SVNSessionPool _sessions;
+  private final WikiRootLocationCache _rootLocations;
   private final ThreadLocal<HttpServletRequest> _request = new ThreadLocal<HttpServletRequest>();
 
-  public BasicAuthAwareSearchEngine(final SearchEngine delegate, final DeploymentConfiguration config) {
+  /**
+   * @param sessions Used to check access to restricted wikis.
+   * @param rootLocations Used to check access to restricted wikis.
+   */
+  public BasicAuthAwareSearchEngine(final SearchEngine delegate, final DeploymentConfiguration config, final SVNSessionPool sessions, final WikiRootLocationCache rootLocations) {
     _delegate = delegate;
     _config = config;
+    _sessions = sessions;
+    _rootLocations = rootLocations;
   }
 
   public RequestLifecycleAware getRequestLifecycleAware() {
@@ -85,6 +99,52 @@ public class BasicAuthAwareSearchEngine implements SearchEngine {
   }
 
   public Set<SearchMatch> search(final String query, final boolean provideExtracts, boolean singleWiki) throws IOException, QuerySyntaxException, PageStoreException {
+    checkLoginRequired(singleWiki);
+    Set<SearchMatch> results = new LinkedHashSet<SearchMatch>();
+    results.addAll(_delegate.search(query, provideExtracts, singleWiki));
+    filterInaccessible(results);
+    return results;
+  }
+
+  public SearchResults search(final String query, final boolean provideExtracts, final boolean singleWiki, final int offset, final int limit) throws IOException, QuerySyntaxException, PageStoreException {
+    checkLoginRequired(singleWiki);
+    if (!hasRestrictedWiki()) {
+      return _delegate.search(query, provideExtracts, singleWiki, offset, limit);
+    }
+    // Filtering changes the ranks so work out the page without extracts (cheap)...
+    final SearchResults unfiltered = _delegate.search(query, false, singleWiki, 0, Integer.MAX_VALUE);
+    final List<SearchMatch> all = unfiltered.getMatches();
+    final List<SearchMatch> accessible = new ArrayList<SearchMatch>(all);
+    filterInaccessible(accessible);
+    final int from = Math.min(offset, accessible.size());
+    final int to = (int) Math.min(accessible.size(), (long) offset + limit);
+    List<SearchMatch> page = accessible.subList(from, to);
+    if (provideExtracts && !page.isEmpty()) {
+      // ...then get extracts for the span of unfiltered results that covers it.
+      final int first = all.indexOf(page.get(0));
+      final int last = all.indexOf(page.get(page.size() - 1));
+      final List<SearchMatch> withExtracts = new ArrayList<SearchMatch>(_delegate.search(query, true, singleWiki, first, last - first + 1).getMatches());
+      withExtracts.retainAll(page);
+      page = withExtracts;
+    }
+    return new SearchResults(new ArrayList<SearchMatch>(page), offset, accessible.size(), unfiltered.getWarnings());
+  }
+
+  public Map<String, Map<String, Integer>> facets(final String query, final List<String> keys) throws IOException, QuerySyntaxException, PageStoreException {
+    // Only ever the current wiki, like the SearchMacro.
+    return _delegate.facets(query, keys);
+  }
+
+  private boolean hasRestrictedWiki() {
+    for (WikiConfiguration wiki: _config.getWikis()) {
+      if (isRestrictedWiki(wiki)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void checkLoginRequired(final boolean singleWiki) throws PageStoreAuthenticationException {
     // Assuming that there are any restricted wikis configured then to avoid leaking any information we must either:
     // 1) Silently drop restricted results, or
     // 2) Ask the user to log in whether or not their query results in hits to a restricted wiki.
@@ -99,9 +159,15 @@ public class BasicAuthAwareSearchEngine implements SearchEngine {
         }
       }
     }
+  }
+
+  /**
+   * Removes matches from wikis the current request can't read.
+   *
+   * @param results Matches, modified in place.
+   */
+  public void filterInaccessible(final Collection<SearchMatch> results) {
     final Map<String, Boolean> wikiAccessOkCache = new LinkedHashMap<String, Boolean>();
-	  Set<SearchMatch> results = new LinkedHashSet<SearchMatch>();
-    results.addAll(_delegate.search(query, provideExtracts, singleWiki));
     CollectionUtils.filter(results, new Predicate() {
       @Override
       public boolean evaluate(final Object o) {
@@ -118,7 +184,7 @@ public class BasicAuthAwareSearchEngine implements SearchEngine {
                 public Map<String, String> read() {
                   return new LinkedHashMap<String, String>();
                 }
-              })));
+              }), _sessions, _rootLocations));
               operations.create(_request.get());
               try {
                 operations.checkPath(match.getPage(), -1);
@@ -142,7 +208,6 @@ public class BasicAuthAwareSearchEngine implements SearchEngine {
         return accessOk;
       }
     });
-    return results;
   }
 
   public long getHighestSyncedRevision() throws IOException {
@@ -180,4 +245,8 @@ public class BasicAuthAwareSearchEngine implements SearchEngine {
   public Set<String> outgoingLinks(final String page) throws IOException, PageStoreException {
     return _delegate.outgoingLinks(page);
   }
+
+  public Set<String> isolatedPages(final Set<String> existing) throws IOException, PageStoreException {
+    return _delegate.isolatedPages(existing);
+  }
 }
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+
+/**
+ * A long-lived {@link IndexWriter} for a single index directory.
+ *
+ * Lucene allows at most one writer per index so all {@link LuceneSearcher}s
+ * for a directory share the instance returned by {@link SearchIndices#getWriter(File, Analyzer)}.
+ * Updates are buffered and committed once {@link #BATCH_SIZE} are pending or
+ * {@link #MAX_COMMIT_DELAY_MILLIS} has passed, whichever comes first.  We never
+ * optimize, the writer's merge factor keeps the segment count down as we go.
+ */
+public final class BatchingIndexWriter {
+
+  private static final Log LOG = LogFactory.getLog(BatchingIndexWriter.class);
+
+  static final int BATCH_SIZE = 500;
+  static final long MAX_COMMIT_DELAY_MILLIS = 1000;
+
+  private final SearchIndices _indices;
+  private final File _dir;
+  private final AtomicLong _generation;
+  private final ScheduledExecutorService _commitTimer;
+  private final IndexWriter _writer;
+  private int _pending = 0;
+  private boolean _commitScheduled = false;
+
+  BatchingIndexWriter(final SearchIndices indices, final File dir, final Analyzer analyzer) throws IOException {
+    _indices = indices;
+    _dir = dir;
+    _generation = indices.generationCounter(dir);
+    _commitTimer = indices.getCommitTimer();
+    _writer = new IndexWriter(dir, analyzer, !IndexReader.indexExists(dir));
+    // We decide when to commit, so don't let the writer flush behind our back.
+    _writer.setMaxBufferedDocs(BATCH_SIZE + 1);
+    _writer.setMaxBufferedDeleteTerms(BATCH_SIZE + 1);
+  }
+
+  /**
+   * Replace any documents matching key with document.
+   */
+  public synchronized void updateDocument(final Term key, final Document document) throws IOException {
+    _writer.updateDocument(key, document);
+    added();
+  }
+
+  public synchronized void deleteDocuments(final Term key) throws IOException {
+    _writer.deleteDocuments(key);
+    added();
+  }
+
+  /**
+   * Makes all updates so far visible to newly opened readers.
+   */
+  public synchronized void commit() throws IOException {
+    _writer.flush();
+    _pending = 0;
+    _indices.indexChanged(_dir);
+  }
+
+  public synchronized void commitIfPending() throws IOException {
+    if (_pending > 0) {
+      commit();
+    }
+  }
+
+  File getDirectory() {
+    return _dir;
+  }
+
+  synchronized int getPendingCount() {
+    return _pending;
+  }
+
+  private void added() throws IOException {
+    _generation.incrementAndGet();
+    _pending++;
+    if (_pending >= BATCH_SIZE) {
+      commit();
+    }
+    else if (!_commitScheduled) {
+      _commitScheduled = true;
+      _commitTimer.schedule(new Runnable() {
+        public void run() {
+          synchronized (BatchingIndexWriter.this) {
+            _commitScheduled = false;
+            try {
+              commitIfPending();
+            }
+            catch (IOException ex) {
+              LOG.error("Failed to commit search index: " + _dir, ex);
+            }
+          }
+        }
+      }, MAX_COMMIT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  synchronized void close() throws IOException {
+    _pending = 0;
+    _writer.close();
+    _indices.indexChanged(_dir);
+  }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+
+import net.hillsdon.reviki.vc.impl.PageInfoImpl;
+import net.hillsdon.reviki.wiki.MarkupRenderer;
+
+/**
+ * A throwaway index of generated pages for the benchmarks in this package.
+ * Call {@link #dispose()} when done to delete it.
+ */
+final class BenchmarkIndex {
+
+  static final String[] WORDS = {"the", "wiki", "page", "search", "index", "content", "link", "attachment", "revision", "user", "config", "macro", "table", "release", "build", "test"};
+
+  private final File _dir;
+  private final SearchIndices _indices = new SearchIndices();
+  private final LuceneSearcher _searcher;
+
+  BenchmarkIndex() throws IOException {
+    _dir = File.createTempFile("benchmark", "");
+    _dir.delete();
+    _dir.mkdir();
+    _searcher = new LuceneSearcher(_indices, "wiki", _dir, Collections.<File>emptyList(), MarkupRenderer.AS_IS);
+  }
+
+  /**
+   * @param random Source of words.
+   * @param words Number of word pairs, e.g. "the12 wiki".
+   * @param sentenceLength Pairs per sentence, or 0 for no full stops.
+   * @return Generated page content.
+   */
+  static String content(final Random random, final int words, final int sentenceLength) {
+    final StringBuilder content = new StringBuilder();
+    for (int j = 0; j < words; ++j) {
+      content.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(50)).append(' ');
+      content.append(WORDS[random.nextInt(WORDS.length)]).append(sentenceLength > 0 && j % sentenceLength == 0 ? ". " : " ");
+    }
+    return content.toString();
+  }
+
+  void index(final String path, final String content) throws Exception {
+    _searcher.index(new PageInfoImpl("wiki", path, content, Collections.<String, String>emptyMap()), true);
+  }
+
+  /**
+   * Makes the pages indexed so far visible to searches.
+   */
+  void commit() throws IOException {
+    _indices.commitPending(_dir);
+  }
+
+  LuceneSearcher getSearcher() {
+    return _searcher;
+  }
+
+  IndexSearcherPool.Lease acquire() throws IOException {
+    return _indices.getSearcherPool(_dir).acquire();
+  }
+
+  void dispose() {
+    _indices.dispose();
+    for (File f : _dir.listFiles()) {
+      f.delete();
+    }
+    _dir.delete();
+  }
+
+}
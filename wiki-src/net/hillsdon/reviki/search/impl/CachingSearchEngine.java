@@ -0,0 +1,237 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.hillsdon.reviki.search.QuerySyntaxException;
+import net.hillsdon.reviki.search.SearchEngine;
+import net.hillsdon.reviki.search.SearchMatch;
+import net.hillsdon.reviki.search.SearchResults;
+import net.hillsdon.reviki.vc.PageInfo;
+import net.hillsdon.reviki.vc.PageStoreException;
+
+/**
+ * Remembers recent search results until an index they came from changes.
+ *
+ * The same queries are run over and over by search macros on popular pages.
+ * Entries are stamped with the {@link SearchIndices#getGeneration(File)}
+ * of each index searched so any change to those indices is a miss.  Results
+ * that may be incomplete (see {@link SearchResults#getWarnings()}) aren't kept.
+ *
+ * Results aren't filtered by user so this must sit below {@link BasicAuthAwareSearchEngine}.
+ */
+public class CachingSearchEngine implements SearchEngine {
+
+  static final int DEFAULT_MAX_ENTRIES = 500;
+
+  private static final class Key {
+    private final String _query;
+    private final boolean _provideExtracts;
+    private final boolean _singleWiki;
+    private final int _offset;
+    private final int _limit;
+
+    Key(final String query, final boolean provideExtracts, final boolean singleWiki, final int offset, final int limit) {
+      _query = query;
+      _provideExtracts = provideExtracts;
+      _singleWiki = singleWiki;
+      _offset = offset;
+      _limit = limit;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return _query.equals(other._query) && _provideExtracts == other._provideExtracts && _singleWiki == other._singleWiki && _offset == other._offset && _limit == other._limit;
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(new Object[] {_query, _provideExtracts, _singleWiki, _offset, _limit});
+    }
+  }
+
+  private static final class CachedResults {
+    final long[] _generations;
+    final SearchResults _results;
+
+    CachedResults(final long[] generations, final SearchResults results) {
+      _generations = generations;
+      _results = results;
+    }
+  }
+
+  private final SearchIndices _indices;
+  private final SearchEngine _delegate;
+  private final List<File> _singleWikiDirs;
+  private final List<File> _allDirs;
+  private final Map<Key, CachedResults> _entries;
+  private final AtomicLong _hits = new AtomicLong();
+  private final AtomicLong _misses = new AtomicLong();
+
+  /**
+   * @param indices Tells us when an index has changed.
+   * @param delegate Searcher whose results we cache.
+   * @param primarySearchDir The index searched for the current wiki, may be null if there is none.
+   * @param otherSearchDirs The indices also searched when not restricted to the current wiki.
+   * @param maxEntries Number of results to keep, least recently used are dropped first.
+   */
+  public CachingSearchEngine(final SearchIndices indices, final SearchEngine delegate, final File primarySearchDir, final List<File> otherSearchDirs, final int maxEntries) {
+    _indices = indices;
+    _delegate = delegate;
+    _singleWikiDirs = new ArrayList<File>();
+    if (primarySearchDir != null) {
+      _singleWikiDirs.add(primarySearchDir);
+    }
+    _allDirs = new ArrayList<File>(_singleWikiDirs);
+    _allDirs.addAll(otherSearchDirs);
+    _entries = new LinkedHashMap<Key, CachedResults>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Key, CachedResults> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  public CachingSearchEngine(final SearchIndices indices, final SearchEngine delegate, final File primarySearchDir, final List<File> otherSearchDirs) {
+    this(indices, delegate, primarySearchDir, otherSearchDirs, DEFAULT_MAX_ENTRIES);
+  }
+
+  public Set<SearchMatch> search(final String query, final boolean provideExtracts, final boolean singleWiki) throws IOException, QuerySyntaxException, PageStoreException {
+    return new LinkedHashSet<SearchMatch>(search(query, provideExtracts, singleWiki, 0, Integer.MAX_VALUE).getMatches());
+  }
+
+  public SearchResults search(final String query, final boolean provideExtracts, final boolean singleWiki, final int offset, final int limit) throws IOException, QuerySyntaxException, PageStoreException {
+    if (query == null) {
+      return _delegate.search(query, provideExtracts, singleWiki, offset, limit);
+    }
+    final Key key = new Key(normalize(query), provideExtracts, singleWiki, offset, limit);
+    // Read before searching so a change made during the search makes the entry stale.
+    final long[] generations = generations(singleWiki ? _singleWikiDirs : _allDirs);
+    synchronized (_entries) {
+      final CachedResults entry = _entries.get(key);
+      if (entry != null) {
+        if (Arrays.equals(entry._generations, generations)) {
+          _hits.incrementAndGet();
+          return entry._results;
+        }
+        _entries.remove(key);
+      }
+    }
+    _misses.incrementAndGet();
+    final SearchResults results = _delegate.search(query, provideExtracts, singleWiki, offset, limit);
+    if (results.getWarnings().isEmpty()) {
+      synchronized (_entries) {
+        _entries.put(key, new CachedResults(generations, results));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Whitespace between terms doesn't change the meaning of a query, case can (e.g. "OR").
+   */
+  static String normalize(final String query) {
+    return query.trim().replaceAll("\\s+", " ");
+  }
+
+  private long[] generations(final List<File> dirs) throws IOException {
+    final long[] generations = new long[dirs.size()];
+    for (int i = 0; i < generations.length; ++i) {
+      generations[i] = _indices.getGeneration(dirs.get(i));
+    }
+    return generations;
+  }
+
+  /**
+   * @return Number of searches answered from the cache.
+   */
+  public long getHitCount() {
+    return _hits.get();
+  }
+
+  /**
+   * @return Number of searches passed on to the delegate.
+   */
+  public long getMissCount() {
+    return _misses.get();
+  }
+
+  public int size() {
+    synchronized (_entries) {
+      return _entries.size();
+    }
+  }
+
+  public Map<String, Map<String, Integer>> facets(final String query, final List<String> keys) throws IOException, QuerySyntaxException, PageStoreException {
+    return _delegate.facets(query, keys);
+  }
+
+  public void index(final PageInfo page, final boolean buildingIndex) throws IOException, PageStoreException {
+    _delegate.index(page, buildingIndex);
+  }
+
+  public void delete(final String wiki, final String path, final boolean buildingIndex) throws IOException {
+    _delegate.delete(wiki, path, buildingIndex);
+  }
+
+  public Set<String> outgoingLinks(final String page) throws IOException, PageStoreException {
+    return _delegate.outgoingLinks(page);
+  }
+
+  public Set<String> incomingLinks(final String page) throws IOException, PageStoreException {
+    return _delegate.incomingLinks(page);
+  }
+
+  public Set<String> isolatedPages(final Set<String> existing) throws IOException, PageStoreException {
+    return _delegate.isolatedPages(existing);
+  }
+
+  public long getHighestIndexedRevision() throws IOException {
+    return _delegate.getHighestIndexedRevision();
+  }
+
+  public void rememberHighestIndexedRevision(final long revision) throws IOException {
+    _delegate.rememberHighestIndexedRevision(revision);
+  }
+
+  public boolean isIndexBeingBuilt() throws IOException {
+    return _delegate.isIndexBeingBuilt();
+  }
+
+  public void setIndexBeingBuilt(final boolean buildingIndex) throws IOException {
+    _delegate.setIndexBeingBuilt(buildingIndex);
+  }
+
+  public String escape(final String in) {
+    return _delegate.escape(in);
+  }
+
+}
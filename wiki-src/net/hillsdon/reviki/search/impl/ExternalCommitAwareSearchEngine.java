@@ -16,26 +16,32 @@
 package net.hillsdon.reviki.search.impl;
 
 import java.io.IOException;
-import java.util.LinkedHashSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import net.hillsdon.reviki.search.QuerySyntaxException;
 import net.hillsdon.reviki.search.SearchEngine;
 import net.hillsdon.reviki.search.SearchMatch;
+import net.hillsdon.reviki.search.SearchResults;
 import net.hillsdon.reviki.vc.ChangeInfo;
 import net.hillsdon.reviki.vc.ChangeSubscriber;
 import net.hillsdon.reviki.vc.PageInfo;
-import net.hillsdon.reviki.vc.VersionedPageInfo;
 import net.hillsdon.reviki.vc.PageReference;
 import net.hillsdon.reviki.vc.PageStore;
 import net.hillsdon.reviki.vc.PageStoreException;
 import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.vc.VersionedPageInfo;
 import net.hillsdon.reviki.vc.impl.PageReferenceImpl;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.google.common.collect.Iterables;
+
 /**
  * Notifies the search engine of page changes immediately after they happen.
  *
@@ -48,11 +54,31 @@ public class ExternalCommitAwareSearchEngine implements SearchEngine, ChangeSubs
 
   private static final Log LOG = LogFactory.getLog(ExternalCommitAwareSearchEngine.class);
 
+  static final int FETCH_BATCH_SIZE = 100;
+
   private PageStore _store;
   private final SearchEngine _delegate;
+  private final IndexUpdateQueue _queue;
+  private final AttachmentIndexer _attachments;
 
   public ExternalCommitAwareSearchEngine(final SearchEngine delegate) {
+    this(delegate, null, null);
+  }
+
+  /**
+   * @param queue If non-null, saves queued there count as synced and reads first wait for them, see {@link IndexUpdateQueue#awaitQueued()}.
+   * @param attachments If non-null, told of attachment changes.
+   */
+  public ExternalCommitAwareSearchEngine(final SearchEngine delegate, final IndexUpdateQueue queue, final AttachmentIndexer attachments) {
     _delegate = delegate;
+    _queue = queue;
+    _attachments = attachments;
+  }
+
+  private void awaitQueuedUpdates() {
+    if (_queue != null) {
+      _queue.awaitQueued();
+    }
   }
 
   /**
@@ -67,47 +93,131 @@ public class ExternalCommitAwareSearchEngine implements SearchEngine, ChangeSubs
   }
 
   public Set<SearchMatch> search(final String query, final boolean provideExtracts, boolean singleWiki) throws IOException, QuerySyntaxException, PageStoreException {
+    awaitQueuedUpdates();
     return _delegate.search(query, provideExtracts, singleWiki);
   }
 
+  public SearchResults search(final String query, final boolean provideExtracts, final boolean singleWiki, final int offset, final int limit) throws IOException, QuerySyntaxException, PageStoreException {
+    awaitQueuedUpdates();
+    return _delegate.search(query, provideExtracts, singleWiki, offset, limit);
+  }
+
+  public Map<String, Map<String, Integer>> facets(final String query, final List<String> keys) throws IOException, QuerySyntaxException, PageStoreException {
+    awaitQueuedUpdates();
+    return _delegate.facets(query, keys);
+  }
+
   public long getHighestSyncedRevision() throws IOException {
-    return _delegate.getHighestIndexedRevision();
+    final long indexed = _delegate.getHighestIndexedRevision();
+    // Our own saves are in hand even if not yet applied, unless a commit from elsewhere came first.
+    return _queue == null || indexed < 0 ? indexed : _queue.getHighestSyncedRevision(indexed);
   }
 
   public synchronized void handleChanges(final long upto, final List<ChangeInfo> chronological) throws PageStoreException, IOException {
     if(_delegate.getHighestIndexedRevision() == -1 && !_delegate.isIndexBeingBuilt()) throw new PageStoreException(new Exception("Search index couldn't be built, please provide valid SVN authentication details in ConfigSvnLocation page."));
     final boolean newDataToIndex = _delegate.getHighestIndexedRevision() >= 0 && !_delegate.isIndexBeingBuilt();
     if (newDataToIndex) {
-      _delegate.setIndexBeingBuilt(true);
-      // We're going to work from head for the indexing so collapse edits down to page names.
-      final Set<PageReference> minimized = new LinkedHashSet<PageReference>();
-      for (ChangeInfo change : chronological) {
-        if (change.getKind() == StoreKind.PAGE) {
-          minimized.add(new PageReferenceImpl(change.getPage()));
+      // Our queued saves wait so an older one can't overwrite what we index here.
+      if (_queue != null) {
+        _queue.pause();
+      }
+      try {
+        _delegate.setIndexBeingBuilt(true);
+        try {
+          indexChanges(upto, chronological);
+          _delegate.rememberHighestIndexedRevision(upto);
+        }
+        finally {
+          _delegate.setIndexBeingBuilt(false);
         }
       }
-      for (PageReference page : minimized) {
+      finally {
+        if (_queue != null) {
+          _queue.resume();
+        }
+      }
+    }
+  }
+
+  private void indexChanges(final long upto, final List<ChangeInfo> chronological) throws PageStoreException {
+    // Collapse edits down to page names, the last change saying whether the page still exists.
+    final Map<PageReference, Boolean> minimized = new LinkedHashMap<PageReference, Boolean>();
+    for (ChangeInfo change : chronological) {
+      if (change.getKind() == StoreKind.PAGE) {
+        final PageReference page = new PageReferenceImpl(change.getPage());
+        minimized.remove(page);
+        minimized.put(page, !change.isDeletion());
+      }
+      else if (change.getKind() == StoreKind.ATTACHMENT && _attachments != null) {
+        if (change.isDeletion()) {
+          _attachments.deleted(change.getPage(), change.getName());
+        }
+        else {
+          _attachments.changed(change.getPage(), change.getName());
+        }
+      }
+    }
+    final List<PageReference> existing = new ArrayList<PageReference>();
+    for (Map.Entry<PageReference, Boolean> entry : minimized.entrySet()) {
+      final String path = entry.getKey().getPath();
+      if (_queue != null) {
+        // Whatever we index is as of upto so queued saves up to then are stale.
+        _queue.supersede(_store.getWiki(), path, upto);
+      }
+      if (entry.getValue()) {
+        existing.add(entry.getKey());
+      }
+      else {
         try {
-          VersionedPageInfo info = _store.get(page, -1);
-          // Note we pass 'upto' as the revision here.  At the moment we get
-          // back the revision of deleted pages as -2 which isn't such a good
-          // thing to set our 'highest indexed revision' to...
-          if (info.isNewPage()) {
-            _delegate.delete(info.getWiki(), info.getPath(), true);
-          }
-          else {
-            _delegate.index(info, true);
-          }
+          _delegate.delete(_store.getWiki(), path, true);
+        }
+        catch (Exception ex) {
+          LOG.error(ex);
+        }
+      }
+    }
+    // Content and attributes are all the index needs so fetch in batches without the lock and metadata.
+    for (List<PageReference> batch : Iterables.partition(existing, FETCH_BATCH_SIZE)) {
+      for (PageInfo info : fetch(batch, upto)) {
+        try {
+          _delegate.index(info, true);
         }
         catch (Exception ex) {
           LOG.error(ex);
         }
       }
-      _delegate.rememberHighestIndexedRevision(upto);
-      _delegate.setIndexBeingBuilt(false);
     }
   }
 
+  /**
+   * @return The pages that exist at revision, any that don't are removed from the index.
+   */
+  private Collection<PageInfo> fetch(final List<PageReference> batch, final long revision) {
+    try {
+      return _store.getPages(batch, revision);
+    }
+    catch (PageStoreException ex) {
+      // One bad path fails the whole batch so fall back to fetching them one by one.
+      LOG.warn("Failed to fetch batch, fetching pages individually", ex);
+    }
+    final List<PageInfo> pages = new ArrayList<PageInfo>(batch.size());
+    for (PageReference ref : batch) {
+      try {
+        final VersionedPageInfo page = _store.get(ref, revision);
+        if (page.isNewPage()) {
+          _delegate.delete(page.getWiki(), page.getPath(), true);
+        }
+        else {
+          pages.add(page);
+        }
+      }
+      catch (Exception ex) {
+        LOG.error(ex);
+      }
+    }
+    return pages;
+  }
+
   public long getHighestIndexedRevision() throws IOException {
     return _delegate.getHighestIndexedRevision();
   }
@@ -133,11 +243,18 @@ public class ExternalCommitAwareSearchEngine implements SearchEngine, ChangeSubs
   }
 
   public Set<String> incomingLinks(final String page) throws IOException, PageStoreException {
+    awaitQueuedUpdates();
     return _delegate.incomingLinks(page);
   }
 
   public Set<String> outgoingLinks(final String page) throws IOException, PageStoreException {
+    awaitQueuedUpdates();
     return _delegate.outgoingLinks(page);
   }
 
+  public Set<String> isolatedPages(final Set<String> existing) throws IOException, PageStoreException {
+    awaitQueuedUpdates();
+    return _delegate.isolatedPages(existing);
+  }
+
 }
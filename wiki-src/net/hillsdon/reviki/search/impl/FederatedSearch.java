@@ -0,0 +1,331 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.search.IndexSearcher;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs a query against several indices in parallel using the pooled searchers
+ * from {@link IndexSearcherPool}.  There's one per {@link SearchIndices}.
+ *
+ * Indices that haven't answered by the timeout are left to finish in the
+ * background and reported as timed out, so one slow wiki can't hold up a
+ * search of all of them.  Likewise indices we've no thread or queue space
+ * for are reported as timed out rather than searched on the caller's thread.  The time each index takes is recorded, see {@link #getLatencies()}.
+ */
+final class FederatedSearch {
+
+  private static final Log LOG = LogFactory.getLog(FederatedSearch.class);
+
+  static final int THREADS = 8;
+  static final long TIMEOUT_MILLIS = 3000;
+
+  private final SearchIndices _indices;
+  private final ThreadPoolExecutor _executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(THREADS * 16), new ThreadFactoryBuilder().setDaemon(true).setNameFormat("search-federated-%d").build(), new ThreadPoolExecutor.AbortPolicy());
+  private final Map<File, Latency> _latencies = new ConcurrentHashMap<File, Latency>();
+
+  FederatedSearch(final SearchIndices indices) {
+    _indices = indices;
+    _executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * The search to run against each index.
+   */
+  interface IndexQuery {
+    LuceneSearcher.TopHits execute(IndexSearcher searcher) throws IOException;
+  }
+
+  /**
+   * The hits from one index.  The searcher stays open until {@link Results#release()}.
+   */
+  static final class IndexHits {
+    private final File _dir;
+    private final IndexSearcher _searcher;
+    private final LuceneSearcher.TopHits _hits;
+
+    IndexHits(final File dir, final IndexSearcher searcher, final LuceneSearcher.TopHits hits) {
+      _dir = dir;
+      _searcher = searcher;
+      _hits = hits;
+    }
+
+    public File getDir() {
+      return _dir;
+    }
+
+    public IndexSearcher getSearcher() {
+      return _searcher;
+    }
+
+    public LuceneSearcher.TopHits getHits() {
+      return _hits;
+    }
+  }
+
+  /**
+   * A search in progress.  Call {@link #await(long)} for the results and
+   * {@link #release()} exactly once when done with them.
+   */
+  final class Results {
+    private final List<File> _dirs;
+    private final List<Task> _tasks;
+    private final List<Future<IndexHits>> _futures;
+    private final List<IndexHits> _answered = new ArrayList<IndexHits>();
+    private final Map<File, Exception> _failed = new LinkedHashMap<File, Exception>();
+    private final List<File> _timedOut = new ArrayList<File>();
+
+    private Results(final List<File> dirs, final List<Task> tasks, final List<Future<IndexHits>> futures) {
+      _dirs = dirs;
+      _tasks = tasks;
+      _futures = futures;
+    }
+
+    /**
+     * Waits for the indices to answer, giving up on any that don't in time.
+     *
+     * @param timeoutMillis How long to wait for all the indices to answer.
+     * @return this.
+     */
+    public Results await(final long timeoutMillis) {
+      final long deadline = System.currentTimeMillis() + timeoutMillis;
+      for (int i = 0; i < _dirs.size(); ++i) {
+        final File dir = _dirs.get(i);
+        if (_futures.get(i) == null) {
+          latency(dir).timedOut();
+          _timedOut.add(dir);
+          LOG.warn("Search of " + dir + " rejected as too many searches are queued");
+          continue;
+        }
+        try {
+          _answered.add(_futures.get(i).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+        }
+        catch (TimeoutException ex) {
+          // Let it finish in the background, the task releases its lease.
+          _tasks.get(i).release();
+          latency(dir).timedOut();
+          _timedOut.add(dir);
+          LOG.warn("Search of " + dir + " timed out after " + timeoutMillis + "ms");
+        }
+        catch (ExecutionException ex) {
+          final Exception cause = ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+          _failed.put(dir, cause);
+          LOG.warn("Search of " + dir + " failed", cause);
+        }
+        catch (InterruptedException ex) {
+          _tasks.get(i).release();
+          _timedOut.add(dir);
+          Thread.currentThread().interrupt();
+        }
+      }
+      return this;
+    }
+
+    /**
+     * @return Hits from the indices that answered in time, in the order the directories were given.
+     */
+    public List<IndexHits> getAnswered() {
+      return _answered;
+    }
+
+    public Map<File, Exception> getFailed() {
+      return _failed;
+    }
+
+    public List<File> getTimedOut() {
+      return _timedOut;
+    }
+
+    public void release() {
+      for (Task task : _tasks) {
+        task.release();
+      }
+    }
+  }
+
+  /**
+   * Time taken to search an index.
+   */
+  public static final class Latency {
+    private long _searches = 0;
+    private long _totalMillis = 0;
+    private long _maxMillis = 0;
+    private long _lastMillis = 0;
+    private long _timeouts = 0;
+
+    private synchronized void record(final long millis) {
+      _searches++;
+      _totalMillis += millis;
+      _maxMillis = Math.max(_maxMillis, millis);
+      _lastMillis = millis;
+    }
+
+    private synchronized void timedOut() {
+      _timeouts++;
+    }
+
+    public synchronized long getSearches() {
+      return _searches;
+    }
+
+    public synchronized double getMeanMillis() {
+      return _searches == 0 ? 0 : (double) _totalMillis / _searches;
+    }
+
+    public synchronized long getMaxMillis() {
+      return _maxMillis;
+    }
+
+    public synchronized long getLastMillis() {
+      return _lastMillis;
+    }
+
+    public synchronized long getTimeouts() {
+      return _timeouts;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return String.format("%d searches, mean %.1fms, max %dms, last %dms, %d timeouts", _searches, getMeanMillis(), _maxMillis, _lastMillis, _timeouts);
+    }
+  }
+
+  /**
+   * Searches one index, holding its lease until released or, if we've given up
+   * waiting, as soon as the search finishes.
+   */
+  private final class Task implements Callable<IndexHits> {
+    private final File _dir;
+    private final IndexQuery _query;
+    private IndexSearcherPool.Lease _lease = null;
+    private boolean _released = false;
+
+    Task(final File dir, final IndexQuery query) {
+      _dir = dir;
+      _query = query;
+    }
+
+    public IndexHits call() throws IOException {
+      final long start = System.currentTimeMillis();
+      final IndexSearcherPool.Lease lease = _indices.getSearcherPool(_dir).acquire();
+      final LuceneSearcher.TopHits hits;
+      try {
+        hits = _query.execute(lease.getSearcher());
+      }
+      catch (IOException ex) {
+        lease.release();
+        throw ex;
+      }
+      catch (RuntimeException ex) {
+        lease.release();
+        throw ex;
+      }
+      latency(_dir).record(System.currentTimeMillis() - start);
+      synchronized (this) {
+        if (_released) {
+          lease.release();
+          return null;
+        }
+        _lease = lease;
+      }
+      return new IndexHits(_dir, lease.getSearcher(), hits);
+    }
+
+    synchronized void release() {
+      _released = true;
+      if (_lease != null) {
+        _lease.release();
+        _lease = null;
+      }
+    }
+  }
+
+  /**
+   * Starts searching each index in the background.
+   *
+   * @param dirs Index directories to search.
+   * @param query The search to run against each.
+   * @return The search in progress.
+   */
+  Results start(final List<File> dirs, final IndexQuery query) {
+    final List<Task> tasks = new ArrayList<Task>(dirs.size());
+    final List<Future<IndexHits>> futures = new ArrayList<Future<IndexHits>>(dirs.size());
+    for (File dir : dirs) {
+      final Task task = new Task(dir, query);
+      tasks.add(task);
+      Future<IndexHits> future;
+      try {
+        future = _executor.submit(task);
+      }
+      catch (RejectedExecutionException ex) {
+        // Reported as timed out by Results.await.
+        future = null;
+      }
+      futures.add(future);
+    }
+    return new Results(dirs, tasks, futures);
+  }
+
+  private Latency latency(final File dir) {
+    Latency latency = _latencies.get(dir);
+    if (latency == null) {
+      synchronized (_latencies) {
+        latency = _latencies.get(dir);
+        if (latency == null) {
+          latency = new Latency();
+          _latencies.put(dir, latency);
+        }
+      }
+    }
+    return latency;
+  }
+
+  /**
+   * @return Search times for each index directory searched so far.
+   */
+  Map<File, Latency> getLatencies() {
+    return Collections.unmodifiableMap(_latencies);
+  }
+
+  /**
+   * Stops our threads, searches in progress are left to finish.
+   */
+  void shutdown() {
+    _executor.shutdown();
+  }
+
+}
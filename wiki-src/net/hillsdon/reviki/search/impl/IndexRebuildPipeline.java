@@ -0,0 +1,308 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.PageInfo;
+import net.hillsdon.reviki.vc.PageReference;
+import net.hillsdon.reviki.vc.PageStore;
+import net.hillsdon.reviki.vc.PageStoreException;
+import net.hillsdon.reviki.vc.VersionedPageInfo;
+import net.hillsdon.reviki.wiki.MarkupRenderer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.document.Document;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Bulk (re)indexes pages in three stages so SVN, the parser and the index
+ * writer are all kept busy:
+ * <ol>
+ * <li>fetch content in batches of {@link #FETCH_BATCH_SIZE} with {@link PageStore#getPages(Collection, long)},</li>
+ * <li>parse and extract links on a bounded pool of workers, each with its own renderer,</li>
+ * <li>write from a single thread so the {@link BatchingIndexWriter} commits in large batches.</li>
+ * </ol>
+ *
+ * Attachment changes are handed to an {@link AttachmentIndexer} once the pages
+ * are done, and we wait for it so the rebuilt index covers them too.
+ *
+ * The counters can be read from other threads while {@link #run} is in progress.
+ */
+public class IndexRebuildPipeline {
+
+  private static final Log LOG = LogFactory.getLog(IndexRebuildPipeline.class);
+
+  static final int FETCH_BATCH_SIZE = 100;
+
+  /** How often we check for cancellation while waiting for attachments. */
+  private static final long ATTACHMENT_POLL_MILLIS = 1000;
+
+  /** Tells the writer there are no more documents. */
+  private static final Document END = new Document();
+
+  private final PageStore _store;
+  private final LuceneSearcher _searcher;
+  private final Supplier<? extends MarkupRenderer<?>> _renderers;
+  private final int _workers;
+  private final AttachmentIndexer _attachments;
+
+  private final AtomicLong _fetched = new AtomicLong();
+  private final AtomicLong _parsed = new AtomicLong();
+  private final AtomicLong _written = new AtomicLong();
+  private final AtomicLong _deleted = new AtomicLong();
+  private final AtomicLong _failed = new AtomicLong();
+  private volatile long _total = 0;
+  private volatile long _startTime = 0;
+  private volatile boolean _cancelled = false;
+
+  /**
+   * @param store Where to fetch pages from.
+   * @param searcher The index to write to.
+   * @param renderers Called once per worker thread as renderers aren't thread-safe.
+   * @param workers Number of parsing threads.
+   */
+  public IndexRebuildPipeline(final PageStore store, final LuceneSearcher searcher, final Supplier<? extends MarkupRenderer<?>> renderers, final int workers) {
+    this(store, searcher, renderers, workers, null);
+  }
+
+  /**
+   * @param attachments If non-null, indexes attachment changes given to {@link #run(Collection, Collection, List, long)}.
+   */
+  public IndexRebuildPipeline(final PageStore store, final LuceneSearcher searcher, final Supplier<? extends MarkupRenderer<?>> renderers, final int workers, final AttachmentIndexer attachments) {
+    _store = store;
+    _searcher = searcher;
+    _renderers = renderers;
+    _workers = workers;
+    _attachments = attachments;
+  }
+
+  /**
+   * Indexes pages as of revision and removes deleted from the index.
+   *
+   * @param pages Pages that exist at revision.
+   * @param deleted Pages that don't.
+   * @param revision Revision to index.
+   * @throws InterruptedException If interrupted while waiting for a stage.
+   */
+  public void run(final Collection<PageReference> pages, final Collection<PageReference> deleted, final long revision) throws InterruptedException, IOException, PageStoreException {
+    run(pages, deleted, Collections.<ChangeInfo>emptyList(), revision);
+  }
+
+  /**
+   * As {@link #run(Collection, Collection, long)} also indexing attachments.
+   *
+   * @param attachmentChanges Attachment changes up to revision, oldest first.
+   */
+  public void run(final Collection<PageReference> pages, final Collection<PageReference> deleted, final List<ChangeInfo> attachmentChanges, final long revision) throws InterruptedException, IOException, PageStoreException {
+    _startTime = System.currentTimeMillis();
+    _total = pages.size() + deleted.size();
+    final String wiki = _store.getWiki();
+    for (PageReference page : deleted) {
+      _searcher.delete(wiki, page.getPath(), true);
+      _deleted.incrementAndGet();
+    }
+
+    final BlockingQueue<Document> documents = new ArrayBlockingQueue<Document>(FETCH_BATCH_SIZE * 2);
+    final Thread writer = new Thread(new Runnable() {
+      public void run() {
+        write(documents);
+      }
+    }, "search-index-rebuild-writer");
+    writer.start();
+
+    final ThreadLocal<MarkupRenderer<?>> renderer = new ThreadLocal<MarkupRenderer<?>>() {
+      @Override
+      protected MarkupRenderer<?> initialValue() {
+        return _renderers.get();
+      }
+    };
+    // Caller runs when the queue is full which holds off fetching until the workers catch up.
+    final ThreadPoolExecutor parsers = new ThreadPoolExecutor(_workers, _workers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(FETCH_BATCH_SIZE), new ThreadFactoryBuilder().setNameFormat("search-index-rebuild-parser-%d").build(), new ThreadPoolExecutor.CallerRunsPolicy());
+    try {
+      for (List<PageReference> batch : Iterables.partition(pages, FETCH_BATCH_SIZE)) {
+        if (_cancelled) {
+          break;
+        }
+        for (final PageInfo page : fetch(batch, revision)) {
+          _fetched.incrementAndGet();
+          parsers.execute(new Runnable() {
+            public void run() {
+              parse(page, renderer.get(), documents);
+            }
+          });
+        }
+        LOG.info(wiki + ": " + describeProgress());
+      }
+    }
+    finally {
+      parsers.shutdown();
+      try {
+        parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      }
+      finally {
+        documents.put(END);
+        writer.join();
+      }
+    }
+    if (_attachments != null && !attachmentChanges.isEmpty() && !_cancelled) {
+      indexAttachments(wiki, attachmentChanges);
+    }
+    LOG.info(wiki + ": finished, " + describeProgress());
+  }
+
+  private void indexAttachments(final String wiki, final List<ChangeInfo> attachmentChanges) throws InterruptedException {
+    // The indexer coalesces by attachment so the last change wins.
+    for (ChangeInfo change : attachmentChanges) {
+      if (change.isDeletion()) {
+        _attachments.deleted(change.getPage(), change.getName());
+      }
+      else {
+        _attachments.changed(change.getPage(), change.getName());
+      }
+    }
+    LOG.info(wiki + ": indexing " + attachmentChanges.size() + " attachment changes");
+    while (!_attachments.awaitIdle(ATTACHMENT_POLL_MILLIS) && !_cancelled) {
+      // Keep waiting.
+    }
+  }
+
+  private Collection<PageInfo> fetch(final List<PageReference> batch, final long revision) {
+    try {
+      return _store.getPages(batch, revision);
+    }
+    catch (PageStoreException ex) {
+      // One bad path fails the whole batch so fall back to fetching them one by one.
+      LOG.warn("Failed to fetch batch, fetching pages individually", ex);
+    }
+    final List<PageInfo> pages = new ArrayList<PageInfo>(batch.size());
+    for (PageReference ref : batch) {
+      try {
+        VersionedPageInfo page = _store.get(ref, revision);
+        if (!page.isNewPage()) {
+          pages.add(page);
+        }
+      }
+      catch (PageStoreException ex) {
+        LOG.error("Failed to fetch " + ref.getPath() + " for indexing", ex);
+        _failed.incrementAndGet();
+      }
+    }
+    return pages;
+  }
+
+  private void parse(final PageInfo page, final MarkupRenderer<?> renderer, final BlockingQueue<Document> documents) {
+    final Document document;
+    try {
+      document = _searcher.createWikiPageDocument(page, renderer);
+      _parsed.incrementAndGet();
+    }
+    catch (Exception ex) {
+      LOG.error("Failed to parse " + page.getPath() + " for indexing", ex);
+      _failed.incrementAndGet();
+      return;
+    }
+    try {
+      documents.put(document);
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void write(final BlockingQueue<Document> documents) {
+    try {
+      for (Document document = documents.take(); document != END; document = documents.take()) {
+        try {
+          _searcher.indexDocument(document);
+          _written.incrementAndGet();
+        }
+        catch (Exception ex) {
+          LOG.error("Failed to write page to search index", ex);
+          _failed.incrementAndGet();
+        }
+      }
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Stops fetching further pages.  Pages already fetched are still indexed.
+   */
+  public void cancel() {
+    _cancelled = true;
+  }
+
+  public boolean isCancelled() {
+    return _cancelled;
+  }
+
+  public long getTotal() {
+    return _total;
+  }
+
+  public long getFetched() {
+    return _fetched.get();
+  }
+
+  public long getParsed() {
+    return _parsed.get();
+  }
+
+  public long getWritten() {
+    return _written.get();
+  }
+
+  public long getDeleted() {
+    return _deleted.get();
+  }
+
+  public long getFailed() {
+    return _failed.get();
+  }
+
+  /**
+   * @return Pages written or deleted per second since we started.
+   */
+  public double getPagesPerSecond() {
+    final long elapsed = System.currentTimeMillis() - _startTime;
+    if (_startTime == 0 || elapsed <= 0) {
+      return 0;
+    }
+    return (getWritten() + getDeleted()) * 1000.0 / elapsed;
+  }
+
+  public String describeProgress() {
+    return String.format("%d of %d done (fetched %d, parsed %d, written %d, deleted %d, failed %d) at %.1f pages/s", getWritten() + getDeleted(), getTotal(), getFetched(), getParsed(), getWritten(), getDeleted(), getFailed(), getPagesPerSecond());
+  }
+
+}
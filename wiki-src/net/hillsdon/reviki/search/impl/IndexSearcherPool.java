@@ -0,0 +1,145 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+
+/**
+ * Shares an open {@link IndexReader} and {@link IndexSearcher} per index directory
+ * rather than opening them for every read.  Get them from {@link SearchIndices#getSearcherPool(File)}.
+ *
+ * Leases are reference counted so a reader is only closed once it has been
+ * replaced and every lease on it has been released.  We re-open when
+ * {@link BatchingIndexWriter} tells us it committed to the directory, and
+ * otherwise check the directory on disk at most every {@link #DISK_CHECK_INTERVAL_MILLIS}
+ * to pick up writes from elsewhere (e.g. another reviki).
+ */
+public final class IndexSearcherPool {
+
+  private static final Log LOG = LogFactory.getLog(IndexSearcherPool.class);
+
+  static final long DISK_CHECK_INTERVAL_MILLIS = 1000;
+
+  /**
+   * A reference counted reader/searcher pair.  Call {@link #release()} exactly once when done.
+   */
+  public final class Lease {
+    private final IndexReader _reader;
+    private final IndexSearcher _searcher;
+    private int _references = 1;
+    private boolean _retired = false;
+
+    private Lease(final IndexReader reader) {
+      _reader = reader;
+      _searcher = new IndexSearcher(reader);
+    }
+
+    public IndexReader getReader() {
+      return _reader;
+    }
+
+    public IndexSearcher getSearcher() {
+      return _searcher;
+    }
+
+    public void release() {
+      synchronized (IndexSearcherPool.this) {
+        _references--;
+        closeIfUnused(this);
+      }
+    }
+  }
+
+  private final File _dir;
+  private Lease _current = null;
+  private boolean _stale = false;
+  private long _lastDiskCheck = 0;
+
+  IndexSearcherPool(final File dir) {
+    _dir = dir;
+  }
+
+  /**
+   * @return A lease on an up to date searcher, release it when done.
+   * @throws IOException If we fail to open the index.
+   */
+  public synchronized Lease acquire() throws IOException {
+    if (_current != null && isOutOfDate()) {
+      retire(_current);
+      _current = null;
+    }
+    if (_current == null) {
+      _current = new Lease(IndexReader.open(_dir));
+      _stale = false;
+      _lastDiskCheck = System.currentTimeMillis();
+    }
+    _current._references++;
+    return _current;
+  }
+
+  private boolean isOutOfDate() throws IOException {
+    if (_stale) {
+      return true;
+    }
+    final long now = System.currentTimeMillis();
+    if (now - _lastDiskCheck >= DISK_CHECK_INTERVAL_MILLIS) {
+      _lastDiskCheck = now;
+      return !_current.getReader().isCurrent();
+    }
+    return false;
+  }
+
+  synchronized void invalidate() {
+    _stale = true;
+  }
+
+  private void retire(final Lease lease) {
+    lease._retired = true;
+    // Drop the pool's own reference.
+    lease._references--;
+    closeIfUnused(lease);
+  }
+
+  private void closeIfUnused(final Lease lease) {
+    if (lease._retired && lease._references == 0) {
+      closeReader(lease);
+    }
+  }
+
+  private void closeReader(final Lease lease) {
+    try {
+      lease._searcher.close();
+      lease._reader.close();
+    }
+    catch (IOException ex) {
+      LOG.error("Failed to close search index reader: " + _dir, ex);
+    }
+  }
+
+  synchronized void close() {
+    if (_current != null) {
+      closeReader(_current);
+      _current = null;
+    }
+  }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Bookkeeping for a search index: the highest revision indexed and whether
+ * the index is being built.
+ *
+ * Kept in memory and written through to {@link #FILE_NAME} in the index
+ * directory, which is replaced rather than rewritten so a crash leaves either
+ * the old or new state.  One instance per directory, see
+ * {@link SearchIndices#getIndexState(File)}.
+ */
+public final class IndexState {
+
+  private static final Log LOG = LogFactory.getLog(IndexState.class);
+
+  static final String FILE_NAME = "index-state.properties";
+  private static final String KEY_HIGHEST_INDEXED_REVISION = "highest-indexed-revision";
+  private static final String KEY_BEING_BUILT = "being-built";
+
+  /**
+   * @param dir An index directory.
+   * @return State for that directory, read from disk if it was saved there.
+   * @throws IOException If we fail to read it.
+   */
+  static IndexState load(final File dir) throws IOException {
+    final IndexState state = new IndexState(new File(dir, FILE_NAME));
+    state.load();
+    return state;
+  }
+
+  /**
+   * Replaces target with source, as atomically as the platform allows.
+   *
+   * @throws IOException If we fail.
+   */
+  static void replace(final File source, final File target) throws IOException {
+    // Not atomic on Windows, where renaming over an existing file fails.
+    if (!source.renameTo(target) && !(target.delete() && source.renameTo(target))) {
+      throw new IOException("Failed to replace " + target);
+    }
+  }
+
+  private final File _file;
+  private volatile long _highestIndexedRevision = 0;
+  private volatile boolean _beingBuilt = false;
+  private volatile boolean _saved = false;
+
+  private IndexState(final File file) {
+    _file = file;
+  }
+
+  public long getHighestIndexedRevision() {
+    return _highestIndexedRevision;
+  }
+
+  public boolean isBeingBuilt() {
+    return _beingBuilt;
+  }
+
+  /**
+   * @return true if the state has been written to disk, either by us or a previous run.
+   */
+  public boolean isSaved() {
+    return _saved;
+  }
+
+  public synchronized void setHighestIndexedRevision(final long revision) throws IOException {
+    save(revision, _beingBuilt);
+  }
+
+  public synchronized void setBeingBuilt(final boolean beingBuilt) throws IOException {
+    save(_highestIndexedRevision, beingBuilt);
+  }
+
+  public synchronized void save(final long highestIndexedRevision, final boolean beingBuilt) throws IOException {
+    final Properties properties = new Properties();
+    properties.setProperty(KEY_HIGHEST_INDEXED_REVISION, String.valueOf(highestIndexedRevision));
+    properties.setProperty(KEY_BEING_BUILT, String.valueOf(beingBuilt));
+    final File temp = new File(_file.getPath() + ".tmp");
+    final OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+    try {
+      properties.store(out, null);
+    }
+    finally {
+      out.close();
+    }
+    replace(temp, _file);
+    _highestIndexedRevision = highestIndexedRevision;
+    _beingBuilt = beingBuilt;
+    _saved = true;
+  }
+
+  private void load() throws IOException {
+    if (!_file.exists()) {
+      return;
+    }
+    final Properties properties = new Properties();
+    final InputStream in = new BufferedInputStream(new FileInputStream(_file));
+    try {
+      properties.load(in);
+    }
+    finally {
+      in.close();
+    }
+    try {
+      _highestIndexedRevision = Long.parseLong(properties.getProperty(KEY_HIGHEST_INDEXED_REVISION, "0"));
+    }
+    catch (NumberFormatException ex) {
+      LOG.warn("Ignoring bad highest indexed revision in " + _file);
+    }
+    _beingBuilt = Boolean.valueOf(properties.getProperty(KEY_BEING_BUILT));
+    _saved = true;
+  }
+
+}
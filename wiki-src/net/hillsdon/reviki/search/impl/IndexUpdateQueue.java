@@ -0,0 +1,411 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.hillsdon.reviki.vc.PageInfo;
+import net.hillsdon.reviki.vc.PageStoreException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.document.Document;
+
+/**
+ * Applies page saves to the search index in the background so the saving
+ * request doesn't wait for the index write and commit.
+ *
+ * The page is still parsed when it is queued as macros expanded by the parse
+ * may need the saving request's page store.  Updates are applied in the order they were queued, a page saved again
+ * before its earlier update was applied is only indexed once, at the later
+ * revision.  The index's highest indexed revision only moves past an update
+ * once it has been applied, and only while every revision before it is either
+ * indexed or one of ours.  So a commit made elsewhere between our saves, or
+ * updates still queued when we stop, are picked up from the repository log by
+ * {@link ExternalCommitAwareSearchEngine}.
+ *
+ * Updates are never dropped.  They are held while the engine syncs external
+ * changes, see {@link #pause()}, and while the index is rebuilt, after which
+ * those the rebuild covered are discarded.
+ */
+public class IndexUpdateQueue {
+
+  private static final Log LOG = LogFactory.getLog(IndexUpdateQueue.class);
+
+  static final int BATCH_SIZE = 50;
+
+  /** How long reads wait for queued updates by default, see {@link #awaitQueued()}. */
+  public static final long DEFAULT_READ_YOUR_WRITES_MILLIS = 2000;
+
+  /** How often a held worker checks whether a rebuild has finished. */
+  private static final long REBUILD_POLL_MILLIS = 1000;
+
+  private static final class Update {
+    final String _wiki;
+    final String _path;
+    /** null for a deletion. */
+    final Document _document;
+    final long _revision;
+
+    Update(final String wiki, final String path, final Document document, final long revision) {
+      _wiki = wiki;
+      _path = path;
+      _document = document;
+      _revision = revision;
+    }
+  }
+
+  private final LuceneSearcher _indexer;
+  private final ScheduledExecutorService _worker;
+  private final long _readYourWritesMillis;
+  /** Keyed by wiki and path, in the order last queued. */
+  private final Map<List<String>, Update> _pending = new LinkedHashMap<List<String>, Update>();
+  /** Taken from _pending by the worker but not yet applied. */
+  private List<Update> _inFlight = Collections.emptyList();
+  /** Revisions of the saves queued, pruned once indexed. */
+  private final TreeSet<Long> _ownRevisions = new TreeSet<Long>();
+  private long _highestQueued = -1;
+  private boolean _drainScheduled = false;
+  private boolean _paused = false;
+  private boolean _heldForRebuild = false;
+  private long _applied = 0;
+  private long _coalesced = 0;
+
+  /**
+   * @param indices Provides the worker thread, shared by all wikis.
+   * @param indexer Where updates are applied.
+   * @param readYourWritesMillis How long {@link #awaitQueued()} waits, 0 to not wait.
+   */
+  public IndexUpdateQueue(final SearchIndices indices, final LuceneSearcher indexer, final long readYourWritesMillis) {
+    _indexer = indexer;
+    _worker = indices.getUpdateWorker();
+    _readYourWritesMillis = readYourWritesMillis;
+  }
+
+  /**
+   * @param page A page as saved, empty content means it was deleted.
+   * @param revision The revision it was saved as.
+   * @throws IOException If we fail to parse the page.
+   * @throws PageStoreException If we fail to parse the page.
+   */
+  public void enqueue(final PageInfo page, final long revision) throws IOException, PageStoreException {
+    final Document document = page.getContent().trim().length() > 0 ? _indexer.createWikiPageDocument(page) : null;
+    enqueue(new Update(page.getWiki(), page.getPath(), document, revision));
+  }
+
+  private synchronized void enqueue(final Update update) {
+    final List<String> key = Arrays.asList(update._wiki, update._path);
+    // Remove first so the page moves to the back of the queue.
+    if (_pending.remove(key) != null) {
+      _coalesced++;
+    }
+    _pending.put(key, update);
+    final long revision = update._revision;
+    _ownRevisions.add(revision);
+    _highestQueued = Math.max(_highestQueued, revision);
+    scheduleDrain();
+  }
+
+  private void scheduleDrain() {
+    if (!_drainScheduled && !_paused) {
+      _drainScheduled = true;
+      _worker.execute(new Runnable() {
+        public void run() {
+          drain();
+        }
+      });
+    }
+  }
+
+  /**
+   * Stops applying updates, waiting for any being applied, so the caller can
+   * write to the index knowing no queued update will be interleaved.  Saves are
+   * still queued.  Call {@link #resume()} when done.
+   */
+  public synchronized void pause() {
+    _paused = true;
+    while (!_inFlight.isEmpty()) {
+      try {
+        wait();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+  }
+
+  /**
+   * Drops queued updates to a page whose content as of revision has been indexed by other means.
+   */
+  public synchronized void supersede(final String wiki, final String path, final long revision) {
+    final List<String> key = Arrays.asList(wiki, path);
+    final Update update = _pending.get(key);
+    if (update != null && update._revision <= revision) {
+      _pending.remove(key);
+      _coalesced++;
+      notifyAll();
+    }
+  }
+
+  public synchronized void resume() {
+    _paused = false;
+    if (!_pending.isEmpty()) {
+      scheduleDrain();
+    }
+    notifyAll();
+  }
+
+  /**
+   * @return The highest revision queued so far, -1 if none.
+   */
+  public synchronized long getHighestQueuedRevision() {
+    return _highestQueued;
+  }
+
+  /**
+   * @param indexed The index's highest indexed revision.
+   * @return The highest revision such that every revision up to it is indexed
+   *         or one of our queued saves, so needn't be fetched from the log.
+   */
+  public synchronized long getHighestSyncedRevision(final long indexed) {
+    return contiguous(indexed, Long.MAX_VALUE);
+  }
+
+  /**
+   * @param limit Highest revision to count.
+   * @return The highest revision no greater than limit from indexed through consecutive revisions of ours.
+   */
+  private long contiguous(final long indexed, final long limit) {
+    _ownRevisions.headSet(indexed + 1).clear();
+    long revision = indexed;
+    for (long own : _ownRevisions) {
+      if (own != revision + 1 || own > limit) {
+        break;
+      }
+      revision = own;
+    }
+    return revision;
+  }
+
+  /**
+   * @return Number of updates waiting to be applied.
+   */
+  public synchronized int getPendingCount() {
+    return _pending.size();
+  }
+
+  /**
+   * @return Number of updates applied to the index.
+   */
+  public synchronized long getAppliedCount() {
+    return _applied;
+  }
+
+  /**
+   * @return Number of updates replaced by a later save of the same page before being applied.
+   */
+  public synchronized long getCoalescedCount() {
+    return _coalesced;
+  }
+
+  /**
+   * Waits for the updates queued so far, e.g. the current user's own save, for
+   * up to the read-your-writes time given on construction.
+   *
+   * @return true if they have all been applied.
+   */
+  public boolean awaitQueued() {
+    return awaitApplied(getHighestQueuedRevision(), _readYourWritesMillis);
+  }
+
+  /**
+   * @param revision A revision.
+   * @param timeoutMillis Maximum time to wait.
+   * @return true if all updates up to and including revision have been applied.
+   */
+  public synchronized boolean awaitApplied(final long revision, final long timeoutMillis) {
+    final long deadline = System.currentTimeMillis() + timeoutMillis;
+    long remaining = timeoutMillis;
+    while (!isApplied(revision) && remaining > 0) {
+      try {
+        wait(remaining);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      remaining = deadline - System.currentTimeMillis();
+    }
+    return isApplied(revision);
+  }
+
+  private boolean isApplied(final long revision) {
+    return revision < lowestUnapplied();
+  }
+
+  private long lowestUnapplied() {
+    return Math.min(lowest(_pending.values()), lowest(_inFlight));
+  }
+
+  private static long lowest(final Collection<Update> updates) {
+    long lowest = Long.MAX_VALUE;
+    for (Update update : updates) {
+      lowest = Math.min(lowest, update._revision);
+    }
+    return lowest;
+  }
+
+  private void drain() {
+    boolean finished = false;
+    try {
+      if (heldForRebuild()) {
+        // Check again later rather than tie up the worker other wikis share.
+        _worker.schedule(new Runnable() {
+          public void run() {
+            drain();
+          }
+        }, REBUILD_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        finished = true;
+        return;
+      }
+      List<Update> batch;
+      while (!(batch = takeBatch()).isEmpty()) {
+        apply(batch);
+      }
+      finished = true;
+    }
+    finally {
+      if (!finished) {
+        abandon();
+      }
+    }
+  }
+
+  /**
+   * After an unexpected failure, so later saves are still applied and
+   * {@link #pause()} doesn't wait for the failed batch.  Its revisions are
+   * forgotten so the next sync fetches them from the log.
+   */
+  private synchronized void abandon() {
+    LOG.error("Failed to apply queued search index updates, they'll be picked up by the next sync");
+    for (Update update : _inFlight) {
+      _ownRevisions.remove(update._revision);
+    }
+    _inFlight = Collections.emptyList();
+    _drainScheduled = false;
+    notifyAll();
+  }
+
+  /**
+   * Holds updates while the index is being rebuilt, other than by our own
+   * engine's sync which pauses us.  Once the rebuild is done the updates it
+   * covered are discarded as it indexed those pages at a later revision.
+   *
+   * @return true if the rebuild is still going.
+   */
+  private synchronized boolean heldForRebuild() {
+    if (_paused || _pending.isEmpty()) {
+      return false;
+    }
+    try {
+      if (_indexer.isIndexBeingBuilt()) {
+        _heldForRebuild = true;
+        return true;
+      }
+      if (_heldForRebuild) {
+        _heldForRebuild = false;
+        final long rebuilt = _indexer.getHighestIndexedRevision();
+        final Iterator<Update> iter = _pending.values().iterator();
+        while (iter.hasNext()) {
+          if (iter.next()._revision <= rebuilt) {
+            iter.remove();
+          }
+        }
+        notifyAll();
+      }
+    }
+    catch (IOException e) {
+      LOG.error("Error checking whether the search index is being rebuilt", e);
+    }
+    return false;
+  }
+
+  private synchronized List<Update> takeBatch() {
+    if (_paused) {
+      _drainScheduled = false;
+      return Collections.emptyList();
+    }
+    final List<Update> batch = new ArrayList<Update>(Math.min(BATCH_SIZE, _pending.size()));
+    final Iterator<Update> iter = _pending.values().iterator();
+    while (iter.hasNext() && batch.size() < BATCH_SIZE) {
+      batch.add(iter.next());
+      iter.remove();
+    }
+    if (batch.isEmpty()) {
+      _drainScheduled = false;
+    }
+    _inFlight = batch;
+    return batch;
+  }
+
+  private void apply(final List<Update> batch) {
+    for (Update update : batch) {
+      try {
+        if (update._document != null) {
+          _indexer.indexDocument(update._document);
+        }
+        else {
+          _indexer.delete(update._wiki, update._path, false);
+        }
+      }
+      catch (IOException e) {
+        LOG.error("Error adding to search index, skipping page: " + update._path, e);
+      }
+    }
+    try {
+      final long indexed = _indexer.getHighestIndexedRevision();
+      final long safe;
+      synchronized (this) {
+        // Anything still queued at a lower revision hasn't been applied yet.
+        safe = contiguous(indexed, lowest(_pending.values()) - 1);
+      }
+      if (!_indexer.isIndexBeingBuilt() && safe > indexed) {
+        _indexer.rememberHighestIndexedRevision(safe);
+      }
+    }
+    catch (IOException e) {
+      LOG.error("Error recording highest indexed revision", e);
+    }
+    synchronized (this) {
+      _inFlight = Collections.emptyList();
+      _applied += batch.size();
+      notifyAll();
+    }
+  }
+
+}
@@ -0,0 +1,354 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Links between the pages of one wiki, in both directions.
+ *
+ * Page names are interned to ints and each page's outgoing and incoming links
+ * are sorted int arrays, so lookups don't touch the search index.  The pages
+ * without incoming links are tracked as links change.  Like
+ * {@link BatchingIndexWriter} there's one instance per index directory, shared
+ * via {@link SearchIndices#getLinkGraph(File)}.  It's saved to {@link #FILE_NAME} in the
+ * index directory along with the revision it's up to date with.
+ */
+public final class LinkGraph {
+
+  private static final Log LOG = LogFactory.getLog(LinkGraph.class);
+
+  static final String FILE_NAME = "link-graph";
+  private static final int FILE_FORMAT = 2;
+  private static final int[] NONE = new int[0];
+
+  /**
+   * @param dir An index directory.
+   * @return The graph for that directory, loaded from disk if it was saved there.
+   * @throws IOException If we fail to read it.
+   */
+  static LinkGraph load(final File dir) throws IOException {
+    final LinkGraph graph = new LinkGraph(new File(dir, FILE_NAME));
+    graph.load();
+    return graph;
+  }
+
+  private final File _file;
+  private final Map<String, Integer> _ids = new HashMap<String, Integer>();
+  private String[] _names = new String[64];
+  private int[][] _outgoing = new int[64][];
+  private int[][] _incoming = new int[64][];
+  /** Pages that have been indexed and not since deleted. */
+  private final BitSet _indexed = new BitSet();
+  /** Indexed pages with no incoming links. */
+  private final BitSet _orphans = new BitSet();
+  private int _size = 0;
+  private long _revision = -1;
+  private boolean _verified = false;
+
+  private LinkGraph(final File file) {
+    _file = file;
+  }
+
+  /**
+   * Replaces the outgoing links of page.
+   *
+   * @param page A page.
+   * @param targets The pages it links to, links to itself are ignored.
+   */
+  public synchronized void setOutgoing(final String page, final Collection<String> targets) {
+    final int source = intern(page);
+    final int[] before = _outgoing[source];
+    final int[] after = toSortedIds(source, targets);
+    for (int target : before) {
+      if (Arrays.binarySearch(after, target) < 0) {
+        _incoming[target] = without(_incoming[target], source);
+        updateOrphan(target);
+      }
+    }
+    for (int target : after) {
+      if (Arrays.binarySearch(before, target) < 0) {
+        _incoming[target] = with(_incoming[target], source);
+        updateOrphan(target);
+      }
+    }
+    _outgoing[source] = after;
+    _indexed.set(source);
+    updateOrphan(source);
+  }
+
+  /**
+   * @param page A deleted page.  Links to it are kept as the linking pages still have them.
+   */
+  public synchronized void remove(final String page) {
+    setOutgoing(page, Collections.<String>emptySet());
+    final int id = _ids.get(page);
+    _indexed.clear(id);
+    updateOrphan(id);
+  }
+
+  private void updateOrphan(final int id) {
+    _orphans.set(id, _indexed.get(id) && _incoming[id].length == 0);
+  }
+
+  /**
+   * @return Pages page links to, excluding itself.
+   */
+  public synchronized Set<String> outgoing(final String page) {
+    final Integer id = _ids.get(page);
+    return id == null ? Collections.<String>emptySet() : names(_outgoing[id]);
+  }
+
+  /**
+   * @return Pages linking to page, excluding itself.
+   */
+  public synchronized Set<String> incoming(final String page) {
+    final Integer id = _ids.get(page);
+    return id == null ? Collections.<String>emptySet() : names(_incoming[id]);
+  }
+
+  /**
+   * @return Pages that have been indexed and have no incoming links, excluding from themselves.
+   */
+  public synchronized Set<String> orphans() {
+    final Set<String> names = new LinkedHashSet<String>();
+    for (int id = _orphans.nextSetBit(0); id >= 0; id = _orphans.nextSetBit(id + 1)) {
+      names.add(_names[id]);
+    }
+    return names;
+  }
+
+  /**
+   * @param existing The pages that exist now.
+   * @return Those with no incoming links from other pages in existing, in the order given.
+   */
+  public synchronized Set<String> isolated(final Collection<String> existing) {
+    final BitSet live = new BitSet();
+    for (String page : existing) {
+      final Integer id = _ids.get(page);
+      if (id != null) {
+        live.set(id);
+      }
+    }
+    final Set<String> names = new LinkedHashSet<String>();
+    for (String page : existing) {
+      final Integer id = _ids.get(page);
+      if (id == null || _orphans.get(id) || !anySet(live, _incoming[id])) {
+        names.add(page);
+      }
+    }
+    return names;
+  }
+
+  private static boolean anySet(final BitSet bits, final int[] ids) {
+    for (int id : ids) {
+      if (bits.get(id)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public synchronized void clear() {
+    _ids.clear();
+    _indexed.clear();
+    _orphans.clear();
+    Arrays.fill(_names, 0, _size, null);
+    _size = 0;
+  }
+
+  /**
+   * @return The revision passed to the last {@link #save(long)}, or -1 if never saved.
+   */
+  public synchronized long getRevision() {
+    return _revision;
+  }
+
+  /**
+   * @return true once a caller has checked the graph agrees with the index, see {@link #setVerified()}.
+   */
+  public synchronized boolean isVerified() {
+    return _verified;
+  }
+
+  public synchronized void setVerified() {
+    _verified = true;
+  }
+
+  /**
+   * Writes the graph to disk, replacing the previous copy.
+   *
+   * @param revision The revision the graph is now up to date with.
+   * @throws IOException On failure to write.
+   */
+  public synchronized void save(final long revision) throws IOException {
+    final File temp = new File(_file.getPath() + ".tmp");
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+    try {
+      out.writeInt(FILE_FORMAT);
+      out.writeLong(revision);
+      out.writeInt(_size);
+      for (int i = 0; i < _size; ++i) {
+        out.writeUTF(_names[i]);
+      }
+      for (int i = 0; i < _size; ++i) {
+        out.writeBoolean(_indexed.get(i));
+        out.writeInt(_outgoing[i].length);
+        for (int target : _outgoing[i]) {
+          out.writeInt(target);
+        }
+      }
+    }
+    finally {
+      out.close();
+    }
+    IndexState.replace(temp, _file);
+    _revision = revision;
+  }
+
+  private void load() throws IOException {
+    if (!_file.exists()) {
+      return;
+    }
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)));
+    try {
+      if (in.readInt() != FILE_FORMAT) {
+        LOG.info("Ignoring link graph in unknown format: " + _file);
+        return;
+      }
+      final long revision = in.readLong();
+      final int size = in.readInt();
+      for (int i = 0; i < size; ++i) {
+        intern(in.readUTF());
+      }
+      for (int i = 0; i < size; ++i) {
+        _indexed.set(i, in.readBoolean());
+        final int[] outgoing = new int[in.readInt()];
+        for (int j = 0; j < outgoing.length; ++j) {
+          outgoing[j] = in.readInt();
+          if (outgoing[j] < 0 || outgoing[j] >= size) {
+            throw new IOException("Link to unknown page id " + outgoing[j]);
+          }
+          _incoming[outgoing[j]] = with(_incoming[outgoing[j]], i);
+        }
+        _outgoing[i] = outgoing;
+      }
+      for (int i = 0; i < size; ++i) {
+        updateOrphan(i);
+      }
+      _revision = revision;
+    }
+    catch (IOException ex) {
+      LOG.warn("Ignoring unreadable link graph: " + _file, ex);
+      clear();
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private int intern(final String page) {
+    final Integer existing = _ids.get(page);
+    if (existing != null) {
+      return existing;
+    }
+    if (_size == _names.length) {
+      final int capacity = _size * 2;
+      _names = Arrays.copyOf(_names, capacity);
+      _outgoing = Arrays.copyOf(_outgoing, capacity);
+      _incoming = Arrays.copyOf(_incoming, capacity);
+    }
+    final int id = _size++;
+    _names[id] = page;
+    _outgoing[id] = NONE;
+    _incoming[id] = NONE;
+    _ids.put(page, id);
+    return id;
+  }
+
+  private int[] toSortedIds(final int source, final Collection<String> pages) {
+    int[] ids = new int[pages.size()];
+    int count = 0;
+    for (String page : pages) {
+      final int id = intern(page);
+      if (id != source) {
+        ids[count++] = id;
+      }
+    }
+    Arrays.sort(ids, 0, count);
+    int unique = 0;
+    for (int i = 0; i < count; ++i) {
+      if (unique == 0 || ids[unique - 1] != ids[i]) {
+        ids[unique++] = ids[i];
+      }
+    }
+    return unique == 0 ? NONE : Arrays.copyOf(ids, unique);
+  }
+
+  private Set<String> names(final int[] ids) {
+    final Set<String> names = new LinkedHashSet<String>();
+    for (int id : ids) {
+      names.add(_names[id]);
+    }
+    return names;
+  }
+
+  private static int[] with(final int[] sorted, final int id) {
+    final int index = Arrays.binarySearch(sorted, id);
+    if (index >= 0) {
+      return sorted;
+    }
+    final int insertAt = -index - 1;
+    final int[] result = new int[sorted.length + 1];
+    System.arraycopy(sorted, 0, result, 0, insertAt);
+    result[insertAt] = id;
+    System.arraycopy(sorted, insertAt, result, insertAt + 1, sorted.length - insertAt);
+    return result;
+  }
+
+  private static int[] without(final int[] sorted, final int id) {
+    final int index = Arrays.binarySearch(sorted, id);
+    if (index < 0) {
+      return sorted;
+    }
+    if (sorted.length == 1) {
+      return NONE;
+    }
+    final int[] result = new int[sorted.length - 1];
+    System.arraycopy(sorted, 0, result, 0, index);
+    System.arraycopy(sorted, index + 1, result, index, result.length - index);
+    return result;
+  }
+
+}
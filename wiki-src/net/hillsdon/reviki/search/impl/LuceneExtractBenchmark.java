@@ -0,0 +1,111 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.StringReader;
+import java.util.Random;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.TermPositionVector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.highlight.Highlighter;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
+import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.apache.lucene.search.highlight.TokenSources;
+
+/**
+ * Compares highlighting extracts by analyzing the stored content against
+ * using the stored term vectors, on large generated pages.  Not a test, run
+ * by hand:
+ *
+ * <pre>java net.hillsdon.reviki.search.impl.LuceneExtractBenchmark [pages] [words per page] [iterations]</pre>
+ */
+public final class LuceneExtractBenchmark {
+
+  private static final String FIELD_CONTENT = "content";
+  private static final String[] QUERIES = {"wiki", "search index", "release*"};
+
+  public static void main(final String[] args) throws Exception {
+    final int pages = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+    final int words = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+    final int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    final BenchmarkIndex index = new BenchmarkIndex();
+    try {
+      final LuceneSearcher searcher = index.getSearcher();
+      final Random random = new Random(42);
+      for (int i = 0; i < pages; ++i) {
+        index.index("Page" + i, BenchmarkIndex.content(random, words, 12));
+      }
+      index.commit();
+
+      final Analyzer analyzer = searcher.createAnalyzer();
+      final IndexSearcherPool.Lease lease = index.acquire();
+      try {
+        final IndexReader reader = lease.getReader();
+        for (String queryString : QUERIES) {
+          final Query query = searcher.fieldQueries(analyzer, queryString).get(3);
+          // Warm up.
+          time(reader, analyzer, query, 1, false);
+          time(reader, analyzer, query, 1, true);
+          final double reanalysed = time(reader, analyzer, query, iterations, false);
+          final double vectors = time(reader, analyzer, query, iterations, true);
+          System.out.println(String.format("%-20s re-analysis %8.2fms  term vectors %8.2fms", queryString, reanalysed, vectors));
+        }
+      }
+      finally {
+        lease.release();
+      }
+    }
+    finally {
+      index.dispose();
+    }
+  }
+
+  /**
+   * @return Mean milliseconds per extract.
+   */
+  private static double time(final IndexReader reader, final Analyzer analyzer, final Query query, final int iterations, final boolean vectors) throws Exception {
+    final long start = System.nanoTime();
+    int extracts = 0;
+    for (int i = 0; i < iterations; ++i) {
+      for (int doc = 0; doc < reader.maxDoc(); ++doc) {
+        if (reader.isDeleted(doc)) {
+          continue;
+        }
+        final String text = reader.document(doc).get(FIELD_CONTENT);
+        if (text == null) {
+          // Not a page, e.g. the index format marker.
+          continue;
+        }
+        final TokenStream tokenStream = vectors
+            ? TokenSources.getTokenStream((TermPositionVector) reader.getTermFreqVector(doc, FIELD_CONTENT))
+            : analyzer.tokenStream(FIELD_CONTENT, new StringReader(text));
+        final Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter("<strong>", "</strong>"), new SimpleHTMLEncoder(), new QueryScorer(query));
+        highlighter.setMaxDocBytesToAnalyze(Integer.MAX_VALUE);
+        highlighter.getBestFragments(tokenStream, text, 3, "...");
+        ++extracts;
+      }
+    }
+    return (System.nanoTime() - start) / 1e6 / extracts;
+  }
+
+  private LuceneExtractBenchmark() {
+  }
+
+}
@@ -23,7 +23,11 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -34,6 +38,7 @@ import java.util.Set;
 import net.hillsdon.reviki.search.QuerySyntaxException;
 import net.hillsdon.reviki.search.SearchEngine;
 import net.hillsdon.reviki.search.SearchMatch;
+import net.hillsdon.reviki.search.SearchResults;
 import net.hillsdon.reviki.vc.PageInfo;
 import net.hillsdon.reviki.vc.PageStoreException;
 import net.hillsdon.reviki.wiki.MarkupRenderer;
@@ -41,7 +46,10 @@ import net.hillsdon.reviki.wiki.renderer.creole.ast.ASTNode;
 import net.hillsdon.reviki.wiki.renderer.creole.ast.ASTVisitor;
 import net.hillsdon.reviki.wiki.renderer.creole.ast.Link;
 
+import org.apache.commons.httpclient.URIException;
 import org.apache.commons.httpclient.util.URIUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.KeywordAnalyzer;
 import org.apache.lucene.analysis.PerFieldAnalyzerWrapper;
@@ -50,32 +58,39 @@ import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermFreqVector;
+import org.apache.lucene.index.TermPositionVector;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.queryParser.QueryParser.Operator;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.FieldCache;
 import org.apache.lucene.search.Hit;
 import org.apache.lucene.search.Hits;
 import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.MultiSearcher;
+import org.apache.lucene.search.PrefixFilter;
 import org.apache.lucene.search.WildcardQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Searcher;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocCollector;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.highlight.Highlighter;
 import org.apache.lucene.search.highlight.QueryScorer;
 import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
 import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+import org.apache.lucene.search.highlight.TokenSources;
 import org.apache.lucene.store.LockObtainFailedException;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Sets;
 
 /**
  * Uses lucene to provide search capabilities.
@@ -91,25 +106,61 @@ public class LuceneSearcher implements SearchEngine {
     }
   }
 
+  private static final Log LOG = LogFactory.getLog(LuceneSearcher.class);
+
   private static final String FIELD_UID = "uid";
   private static final String FIELD_WIKI = "wiki";
   private static final String FIELD_PATH = "path";
   private static final String FIELD_PATH_LOWER = "path-lower";
+  /**
+   * Every suffix of {@link #FIELD_PATH_LOWER}, for substring matching.
+   */
+  private static final String FIELD_PATH_SUFFIXES = "path-suffixes";
   private static final String FIELD_CONTENT = "content";
   private static final String FIELD_ATTRIBUTES = "attributes";
+  /**
+   * Each attribute is also a keyword field named for its key with this prefix,
+   * so "@status:open" finds pages with that attribute and values can be counted.
+   */
+  static final String FIELD_ATTRIBUTE_PREFIX = "@";
   /**
    * We tokenize the wiki word to allow e.g. 'another' to find 'AnotherNewPage'.
    */
   private static final String FIELD_TITLE_TOKENIZED = "title";
   private static final String FIELD_OUTGOING_LINKS = "outgoing-links";
+  /**
+   * Attachment documents have this instead of {@link #FIELD_UID}, so code
+   * dealing with pages passes them by.  Their {@link #FIELD_PATH} is their
+   * page's so matches are reported against the page.
+   */
+  private static final String FIELD_ATTACHMENT_UID = "attachment-uid";
+  private static final String FIELD_ATTACHMENT = "attachment";
 
   private static final String FIELD_PROPERTY_KEY = "property";
   private static final String FIELD_PROPERTY_VALUE = "property-value";
+  // These two are now kept by IndexState but older indices have them as documents.
   private static final String PROPERTY_LAST_INDEXED_REVISION = "last-indexed-revision";
   private static final String PROPERTY_BUILT = "index-was-built";
+  private static final String PROPERTY_INDEX_FORMAT = "index-format";
 
-  private static final String[] ALL_SEARCH_FIELDS = new String[] {FIELD_PATH, FIELD_PATH_LOWER, FIELD_TITLE_TOKENIZED, FIELD_CONTENT, FIELD_ATTRIBUTES};
+  /**
+   * Version of the document layout, increment when adding fields.
+   * 1: no format recorded.
+   * 2: added {@link #FIELD_PATH_SUFFIXES}.
+   * 3: term vectors for {@link #FIELD_CONTENT}.
+   * 4: added {@link #FIELD_ATTRIBUTE_PREFIX} fields.
+   */
+  static final int INDEX_FORMAT = 4;
 
+  static final String[] ALL_SEARCH_FIELDS = new String[] {FIELD_PATH, FIELD_PATH_SUFFIXES, FIELD_TITLE_TOKENIZED, FIELD_CONTENT, FIELD_ATTRIBUTES};
+  /**
+   * Prefer path, then title then content matches.  The gaps are far larger
+   * than the spread of scores within a field so a match in an earlier field
+   * always outranks one only in later fields.
+   */
+  private static final float[] SEARCH_FIELD_BOOSTS = new float[] {1e16f, 1e12f, 1e8f, 1e4f, 1f};
+
+  private final SearchIndices _indices;
   private final String _wikiName;
   private final File _dir;
   private final List<File> _otherDirs;
@@ -120,10 +171,12 @@ public class LuceneSearcher implements SearchEngine {
   }
 
   /**
+   * @param indices Writers, searchers etc shared with other searchers on the same indices.
    * @param dir The search index lives here.
    *            If null is passed the search will behave as a null implementation.
    */
-  public LuceneSearcher(final String wikiName, final File dir, final List<File> otherSearchDirs, final MarkupRenderer renderer) {
+  public LuceneSearcher(final SearchIndices indices, final String wikiName, final File dir, final List<File> otherSearchDirs, final MarkupRenderer renderer) {
+    _indices = indices;
     _wikiName = wikiName;
     _dir = dir;
     _otherDirs = otherSearchDirs;
@@ -132,11 +185,29 @@ public class LuceneSearcher implements SearchEngine {
 
   private void createIndexIfNecessary() throws IOException {
     if (_dir != null && !IndexReader.indexExists(_dir)) {
-      new IndexWriter(_dir, createAnalyzer(), true).close();
+      // New indices start at the current format, existing ones are upgraded in the background.
+      getWriter().updateDocument(new Term(FIELD_PROPERTY_KEY, PROPERTY_INDEX_FORMAT), createPropertyDocument(PROPERTY_INDEX_FORMAT, String.valueOf(INDEX_FORMAT)));
     }
   }
 
-  private Analyzer createAnalyzer() {
+  /**
+   * Brings our index up to {@link #INDEX_FORMAT}.  This can take a while for a
+   * large index so is done at startup by the index builder rather than on a
+   * request.  Other wikis' indices are searched as they are.
+   *
+   * @throws IOException On error reading or writing the index.
+   */
+  public void upgradeIndexIfNecessary() throws IOException {
+    if (_dir != null) {
+      upgradeIfNecessary(_dir);
+    }
+  }
+
+  private BatchingIndexWriter getWriter() throws IOException {
+    return _indices.getWriter(_dir, createAnalyzer());
+  }
+
+  Analyzer createAnalyzer() {
     final Analyzer text = new StandardAnalyzer() {
       @Override
       public TokenStream tokenStream(final String fieldName, final Reader reader) {
@@ -147,13 +218,19 @@ public class LuceneSearcher implements SearchEngine {
     final PerFieldAnalyzerWrapper perField = new PerFieldAnalyzerWrapper(new Analyzer() {
       @Override
       public TokenStream tokenStream(final String fieldName, final Reader reader) {
+        if (fieldName.startsWith(FIELD_ATTRIBUTE_PREFIX)) {
+          return id.tokenStream(fieldName, reader);
+        }
         throw new UnsupportedOperationException("Need to define analyser for: " + fieldName);
       }
     });
     perField.addAnalyzer(FIELD_UID, id);
+    perField.addAnalyzer(FIELD_ATTACHMENT_UID, id);
+    perField.addAnalyzer(FIELD_ATTACHMENT, id);
     perField.addAnalyzer(FIELD_WIKI, id);
     perField.addAnalyzer(FIELD_PATH, id);
     perField.addAnalyzer(FIELD_PATH_LOWER, id);
+    perField.addAnalyzer(FIELD_PATH_SUFFIXES, id);
     perField.addAnalyzer(FIELD_TITLE_TOKENIZED, text);
     perField.addAnalyzer(FIELD_PROPERTY_KEY, id);
     perField.addAnalyzer(FIELD_PROPERTY_VALUE, id);
@@ -163,12 +240,27 @@ public class LuceneSearcher implements SearchEngine {
     return perField;
   }
 
-  private Document createWikiPageDocument(final PageInfo page) throws IOException, PageStoreException {
-    ASTNode pageAST = _renderer.parse(page);
-    final String path = page.getPath();
-    final String wiki = page.getWiki();
-    final String content = page.getContent();
-    final List<String> attributes = attributesToStringList(page.getAttributes());
+  /**
+   * Also used by {@link IndexUpdateQueue} to parse on the saving request, where macros can see its page store.
+   */
+  Document createWikiPageDocument(final PageInfo page) throws IOException, PageStoreException {
+    return createWikiPageDocument(page, _renderer);
+  }
+
+  /**
+   * Renderers aren't thread-safe so this lets {@link IndexRebuildPipeline}
+   * parse pages concurrently with a renderer per thread.
+   */
+  Document createWikiPageDocument(final PageInfo page, final MarkupRenderer<?> renderer) throws IOException, PageStoreException {
+    ASTNode pageAST = renderer.parse(page);
+    final String outgoingLinks = Joiner.on(" ").join(findOutgoingWikiLinks(pageAST));
+    return createWikiPageDocument(page.getWiki(), page.getPath(), page.getContent(), page.getAttributes(), outgoingLinks);
+  }
+
+  /**
+   * Also used to re-create documents from their stored fields, see {@link #upgradeIfNecessary(File)}.
+   */
+  private static Document createWikiPageDocument(final String wiki, final String path, final String content, final Map<String, String> attributes, final String outgoingLinks) {
     Document document = new Document();
     final String title = pathToTitle(path);
     final String pathLower = lastComponentOfPath(path).toLowerCase();
@@ -176,17 +268,83 @@ public class LuceneSearcher implements SearchEngine {
     document.add(new Field(FIELD_WIKI, wiki, Field.Store.YES, Field.Index.UN_TOKENIZED));
     document.add(new Field(FIELD_PATH, path, Field.Store.YES, Field.Index.UN_TOKENIZED));
     document.add(new Field(FIELD_PATH_LOWER, pathLower, Field.Store.YES, Field.Index.UN_TOKENIZED));
+    // Every suffix so a substring match is a prefix match rather than a leading wildcard.
+    for (int i = 0; i < pathLower.length(); ++i) {
+      document.add(new Field(FIELD_PATH_SUFFIXES, pathLower.substring(i), Field.Store.NO, Field.Index.UN_TOKENIZED));
+    }
     document.add(new Field(FIELD_TITLE_TOKENIZED, title, Field.Store.YES, Field.Index.TOKENIZED));
-    document.add(new Field(FIELD_OUTGOING_LINKS, Joiner.on(" ").join(findOutgoingWikiLinks(pageAST)), Field.Store.YES, Field.Index.TOKENIZED));
+    document.add(new Field(FIELD_OUTGOING_LINKS, outgoingLinks, Field.Store.YES, Field.Index.TOKENIZED));
     // We store the content in order to show matching extracts.
-    document.add(new Field(FIELD_CONTENT, content, Field.Store.YES, Field.Index.TOKENIZED));
+    // Term vectors with offsets let us highlight extracts without analyzing the content again.
+    document.add(new Field(FIELD_CONTENT, content, Field.Store.YES, Field.Index.TOKENIZED, Field.TermVector.WITH_POSITIONS_OFFSETS));
     // Store the attributes like this, so that we only get matches which are exact
-    for(String attribute : attributes) {
+    for(String attribute : attributesToStringList(attributes)) {
       document.add(new Field(FIELD_ATTRIBUTES, attribute, Field.Store.YES, Field.Index.UN_TOKENIZED));
     }
+    // Not stored, FIELD_ATTRIBUTES has them.
+    for (Map.Entry<String, String> entry : attributes.entrySet()) {
+      document.add(new Field(FIELD_ATTRIBUTE_PREFIX + entry.getKey(), entry.getValue(), Field.Store.NO, Field.Index.UN_TOKENIZED));
+    }
     return document;
   }
 
+  /**
+   * Re-creates documents written with an older {@link #INDEX_FORMAT} from their
+   * stored fields so existing indices pick up new fields without a rebuild from SVN.
+   *
+   * @param dir An index directory, ignored if there's no index there.
+   */
+  private void upgradeIfNecessary(final File dir) throws IOException {
+    final File key = dir.getCanonicalFile();
+    final Set<File> upToDate = _indices.getUpToDateIndices();
+    synchronized (upToDate) {
+      if (upToDate.contains(key) || !IndexReader.indexExists(key)) {
+        return;
+      }
+      _indices.commitPending(key);
+      final BatchingIndexWriter writer = _indices.getWriter(key, createAnalyzer());
+      final IndexSearcherPool.Lease lease = _indices.getSearcherPool(key).acquire();
+      try {
+        if (indexFormat(lease.getSearcher()) < INDEX_FORMAT) {
+          final IndexReader reader = lease.getReader();
+          if (reader.numDocs() > 0) {
+            LOG.info("Upgrading search index " + key + " to format " + INDEX_FORMAT);
+          }
+          for (int i = 0; i < reader.maxDoc(); ++i) {
+            if (!reader.isDeleted(i)) {
+              final Document old = reader.document(i);
+              final String uid = old.get(FIELD_UID);
+              if (uid != null) {
+                final String[] attributes = old.getValues(FIELD_ATTRIBUTES);
+                final Map<String, String> attributeMap = attributesFromStringList(attributes == null ? Collections.<String>emptyList() : Arrays.asList(attributes));
+                writer.updateDocument(new Term(FIELD_UID, uid), createWikiPageDocument(old.get(FIELD_WIKI), old.get(FIELD_PATH), old.get(FIELD_CONTENT), attributeMap, old.get(FIELD_OUTGOING_LINKS)));
+              }
+            }
+          }
+          writer.updateDocument(new Term(FIELD_PROPERTY_KEY, PROPERTY_INDEX_FORMAT), createPropertyDocument(PROPERTY_INDEX_FORMAT, String.valueOf(INDEX_FORMAT)));
+          writer.commit();
+        }
+      }
+      finally {
+        lease.release();
+      }
+      upToDate.add(key);
+    }
+  }
+
+  private static int indexFormat(final Searcher searcher) throws IOException {
+    Hits hits = searcher.search(new TermQuery(new Term(FIELD_PROPERTY_KEY, PROPERTY_INDEX_FORMAT)));
+    if (hits.length() > 0) {
+      try {
+        return Integer.parseInt(hits.doc(0).get(FIELD_PROPERTY_VALUE));
+      }
+      catch (NumberFormatException ex) {
+        // Fallthrough to default.
+      }
+    }
+    return 1;
+  }
+
   private List<String> findOutgoingWikiLinks(ASTNode ast) {
     return (new Visitor()).visit(ast);
   }
@@ -232,42 +390,32 @@ public class LuceneSearcher implements SearchEngine {
   }
 
   private void deleteWikiDocument(final String wiki, final String path) throws IOException {
+    final LinkGraph links = getLinkGraph();
     deleteDocument(FIELD_UID, uidFor(wiki, path));
-  }
-
-  private void deleteDocument(final String keyField, final String value) throws IOException {
-    IndexWriter writer = new IndexWriter(_dir, createAnalyzer());
-    try {
-      writer.deleteDocuments(new Term(keyField, value));
-    }
-    finally {
-      writer.close();
+    if (_wikiName.equals(wiki)) {
+      // Our index only has our wiki's documents, so this is the page's attachments.
+      deleteDocument(FIELD_PATH, path);
     }
+    links.remove(path);
   }
 
-  private void replaceProperty(final Document propertyDocument) throws CorruptIndexException, LockObtainFailedException, IOException {
-    replaceDocument(FIELD_PROPERTY_KEY, propertyDocument);
+  private void deleteDocument(final String keyField, final String value) throws IOException {
+    getWriter().deleteDocuments(new Term(keyField, value));
   }
 
   private void replaceWikiDocument(final Document wikiDocument) throws CorruptIndexException, LockObtainFailedException, IOException {
+    final LinkGraph links = getLinkGraph();
     replaceDocument(FIELD_UID, wikiDocument);
+    links.setOutgoing(wikiDocument.get(FIELD_PATH), linkTargets(wikiDocument.get(FIELD_OUTGOING_LINKS)));
   }
 
   private void replaceDocument(final String keyField, final Document document) throws CorruptIndexException, LockObtainFailedException, IOException {
-    IndexWriter writer = new IndexWriter(_dir, createAnalyzer());
-    try {
-      writer.deleteDocuments(new Term(keyField, document.get(keyField)));
-      writer.addDocument(document);
-      writer.optimize();
-    }
-    finally {
-      writer.close();
-    }
+    getWriter().updateDocument(new Term(keyField, document.get(keyField)), document);
   }
 
   // Lucene allows multiple non-deleting readers and at most one writer at a time.
-  // It maintains a lock file but we never want it to fail to take the lock, so serialize writes.
-  public synchronized void index(final PageInfo page, final boolean buildingIndex) throws IOException, PageStoreException {
+  // Writes go via the single shared BatchingIndexWriter for the directory which serializes them.
+  public void index(final PageInfo page, final boolean buildingIndex) throws IOException, PageStoreException {
     if (_dir == null) {
       return;
     }
@@ -277,7 +425,18 @@ public class LuceneSearcher implements SearchEngine {
     }
   }
 
-  private List<String> attributesToStringList(Map<String, String> attributes) {
+  /**
+   * Adds or replaces a document from {@link #createWikiPageDocument(PageInfo, MarkupRenderer)}.
+   */
+  void indexDocument(final Document wikiDocument) throws IOException {
+    if (_dir == null) {
+      return;
+    }
+    createIndexIfNecessary();
+    replaceWikiDocument(wikiDocument);
+  }
+
+  private static List<String> attributesToStringList(Map<String, String> attributes) {
     List<String> attrs= new ArrayList<String>();
     for(Map.Entry<String, String> entry: attributes.entrySet()) {
       attrs.add("\"" + entry.getKey() + "\":\"" + entry.getValue() + "\"");
@@ -285,8 +444,63 @@ public class LuceneSearcher implements SearchEngine {
     return attrs;
   }
 
+  /**
+   * Reverses {@link #attributesToStringList(Map)}, for documents from older indices.
+   */
+  private static Map<String, String> attributesFromStringList(final List<String> attrs) {
+    final Map<String, String> attributes = new LinkedHashMap<String, String>();
+    for (String attr : attrs) {
+      final int separator = attr.indexOf("\":\"");
+      if (attr.startsWith("\"") && attr.endsWith("\"") && separator > 0) {
+        attributes.put(attr.substring(1, separator), attr.substring(separator + 3, attr.length() - 1));
+      }
+    }
+    return attributes;
+  }
+
+  /**
+   * Adds or replaces the text of an attachment, found by searches as its page.
+   *
+   * @param wiki Wiki name.
+   * @param page The page the attachment belongs to.
+   * @param attachment The attachment's name.
+   * @param text Text extracted from the attachment.
+   * @throws IOException On error writing to the search index.
+   */
+  public void indexAttachment(final String wiki, final String page, final String attachment, final String text) throws IOException {
+    if (_dir == null) {
+      return;
+    }
+    createIndexIfNecessary();
+    Document document = new Document();
+    document.add(new Field(FIELD_ATTACHMENT_UID, attachmentUidFor(wiki, page, attachment), Field.Store.YES, Field.Index.UN_TOKENIZED));
+    document.add(new Field(FIELD_WIKI, wiki, Field.Store.YES, Field.Index.UN_TOKENIZED));
+    document.add(new Field(FIELD_PATH, page, Field.Store.YES, Field.Index.UN_TOKENIZED));
+    document.add(new Field(FIELD_ATTACHMENT, attachment, Field.Store.YES, Field.Index.UN_TOKENIZED));
+    document.add(new Field(FIELD_CONTENT, text, Field.Store.YES, Field.Index.TOKENIZED, Field.TermVector.WITH_POSITIONS_OFFSETS));
+    replaceDocument(FIELD_ATTACHMENT_UID, document);
+  }
+
+  /**
+   * @param wiki Wiki name.
+   * @param page The page the attachment belonged to.
+   * @param attachment The attachment's name.
+   * @throws IOException On error writing to the search index.
+   */
+  public void deleteAttachment(final String wiki, final String page, final String attachment) throws IOException {
+    if (_dir == null) {
+      return;
+    }
+    createIndexIfNecessary();
+    deleteDocument(FIELD_ATTACHMENT_UID, attachmentUidFor(wiki, page, attachment));
+  }
+
+  private static String attachmentUidFor(final String wiki, final String page, final String attachment) {
+    return uidFor(wiki, page) + "/" + attachment;
+  }
+
   // See comment on index.
-  public synchronized void delete(final String wiki, final String path, boolean buildingIndex) throws IOException {
+  public void delete(final String wiki, final String path, boolean buildingIndex) throws IOException {
     if (!isIndexBeingBuilt() || buildingIndex) {
       createIndexIfNecessary();
       deleteWikiDocument(wiki, path);
@@ -297,40 +511,62 @@ public class LuceneSearcher implements SearchEngine {
     if (_dir == null) {
       return Collections.emptySet();
     }
-    try {
-      return doReadOperation(new ReadOperation<Set<String>>() {
-        public Set<String> execute(final IndexReader reader, final Searcher searcher, final Analyzer analyzer) throws IOException, ParseException {
-          final String pageEscaped = escape(URIUtil.encodeWithinPath(page));
-          Set<String> results = Sets.newLinkedHashSet(Iterables.transform(query(reader, createAnalyzer(), searcher, FIELD_OUTGOING_LINKS, pageEscaped, false), SearchMatch.TO_PAGE_NAME));
-          results.remove(page);
-          return results;
-        }
-      }, false);
-    }
-    catch (QuerySyntaxException ex) {
-      throw new NoQueryPerformedException(ex);
-    }
+    return getLinkGraph().incoming(page);
   }
 
   public Set<String> outgoingLinks(final String page) throws IOException, PageStoreException {
     if (_dir == null) {
       return Collections.emptySet();
     }
+    return getLinkGraph().outgoing(page);
+  }
+
+  public Set<String> isolatedPages(final Set<String> existing) throws IOException, PageStoreException {
+    if (_dir == null) {
+      return existing;
+    }
+    return getLinkGraph().isolated(existing);
+  }
+
+  /**
+   * @return The link graph for our index, rebuilt from the index if it wasn't saved at the revision the index is at.
+   */
+  private LinkGraph getLinkGraph() throws IOException {
+    createIndexIfNecessary();
+    final LinkGraph graph = _indices.getLinkGraph(_dir);
+    synchronized (graph) {
+      if (!graph.isVerified()) {
+        final long indexed = getHighestIndexedRevision();
+        if (graph.getRevision() != indexed) {
+          rebuildLinkGraph(graph);
+          graph.save(indexed);
+        }
+        graph.setVerified();
+      }
+    }
+    return graph;
+  }
+
+  private void rebuildLinkGraph(final LinkGraph graph) throws IOException {
     try {
-      return doReadOperation(new ReadOperation<Set<String>>() {
-        public Set<String> execute(final IndexReader reader, final Searcher searcher, final Analyzer analyzer) throws IOException, ParseException {
-          Hits hits = searcher.search(new TermQuery(new Term(FIELD_PATH, page)));
-          Iterator<?> iterator = hits.iterator();
-          if (iterator.hasNext()) {
-            Hit hit = (Hit) iterator.next();
-            String outgoingLinks = hit.getDocument().get(FIELD_OUTGOING_LINKS);
-            Set<String> results = Sets.newHashSet(outgoingLinks.split("\\s"));
-            results.remove(page);
-            return ImmutableSet.copyOf(results);
+      doReadOperation(new ReadOperation<Void>() {
+        public Void execute(final IndexReader reader, final Searcher searcher, final Analyzer analyzer) throws IOException, ParseException {
+          if (reader.numDocs() > 0) {
+            LOG.debug("Building link graph from search index " + _dir);
           }
-          return Collections.emptySet();
+          final MapFieldSelector fields = new MapFieldSelector(new String[] {FIELD_UID, FIELD_PATH, FIELD_OUTGOING_LINKS});
+          graph.clear();
+          for (int i = 0; i < reader.maxDoc(); ++i) {
+            if (!reader.isDeleted(i)) {
+              final Document document = reader.document(i, fields);
+              if (document.get(FIELD_UID) != null) {
+                graph.setOutgoing(document.get(FIELD_PATH), linkTargets(document.get(FIELD_OUTGOING_LINKS)));
+              }
+            }
+          }
+          return null;
         }
-      }, false);
+      });
     }
     catch (QuerySyntaxException ex) {
       throw new NoQueryPerformedException(ex);
@@ -338,188 +574,503 @@ public class LuceneSearcher implements SearchEngine {
   }
 
   /**
-   * Reusable template that cleans up properly.
+   * @param outgoingLinks The {@link #FIELD_OUTGOING_LINKS} field, URL encoded page names separated by spaces.
+   * @return The page names.
+   */
+  private static List<String> linkTargets(final String outgoingLinks) {
+    final List<String> targets = new ArrayList<String>();
+    if (outgoingLinks != null) {
+      for (String link : outgoingLinks.split("\\s+")) {
+        if (link.length() > 0) {
+          try {
+            targets.add(URIUtil.decode(link));
+          }
+          catch (URIException ex) {
+            targets.add(link);
+          }
+        }
+      }
+    }
+    return targets;
+  }
+
+  /**
+   * Reusable template that runs an operation against our pooled searcher and releases it afterwards.
    * @param <T> Result type.
    * @param operation Operation to perform.
-   * @param allIndices If true, search all indices (other wikis) not just our own.
    * @return Result from operation.
    * @throws IOException On index read error,
    * @throws QuerySyntaxException If we can't parse a query.
    */
-  private <T> T doReadOperation(final ReadOperation<T> operation, final boolean allIndices) throws IOException, QuerySyntaxException {
-    createIndexIfNecessary();
-
-    List<Searcher> searchers = new ArrayList<Searcher>();
-    List<IndexReader> readers = new ArrayList<IndexReader>();
+  private <T> T doReadOperation(final ReadOperation<T> operation) throws IOException, QuerySyntaxException {
+    return doReadOperation(operation, true);
+  }
 
-    /* First add our reader/searcher. If this fails, it's an error but clean up. */
-    IndexReader reader = IndexReader.open(_dir);
-    Searcher searcher = null;
+  /**
+   * @param includePending If true, first commit any batched updates so the operation sees them.
+   */
+  private <T> T doReadOperation(final ReadOperation<T> operation, final boolean includePending) throws IOException, QuerySyntaxException {
+    createIndexIfNecessary();
+    if (includePending) {
+      _indices.commitPending(_dir);
+    }
+    final IndexSearcherPool.Lease lease = _indices.getSearcherPool(_dir).acquire();
     try {
-      searcher = new IndexSearcher(reader);
-      searchers.add(searcher);
-      readers.add(reader);
+      Analyzer analyzer = createAnalyzer();
+      return operation.execute(lease.getReader(), lease.getSearcher(), analyzer);
+    }
+    catch (ParseException ex) {
+      throw new QuerySyntaxException(ex.getMessage(), ex);
     }
     finally {
-      if (searcher==null) {
-        reader.close();
-      }
+      lease.release();
     }
+  }
 
-    if (allIndices) {
-      for (File dir: _otherDirs) {
-        searcher = null;
-        reader = null;
-        try {
-          reader = IndexReader.open(dir);
-          searcher = new IndexSearcher(reader);
-          searchers.add(searcher);
-          readers.add(reader);
-        }
-        catch (Exception e) {
-          // The index may not exist, but other wikis' indices aren't that important anyway, so
-          // just don't search them.
-          if (searcher!=null) {
-            searcher.close();
-          }
-          if (reader!=null) {
-            reader.close();
-          }
+  /**
+   * Starts searching the other wikis' indices in the background.
+   */
+  private FederatedSearch.Results searchOtherIndices(final Query query, final int wanted) {
+    final List<File> dirs = new ArrayList<File>(_otherDirs.size());
+    for (File dir : _otherDirs) {
+      try {
+        // We only read, leaving any upgrade to the other wiki, but do want its latest changes.
+        _indices.commitPending(dir);
+        if (IndexReader.indexExists(dir)) {
+          dirs.add(dir);
         }
       }
-    }
-
-    try {
-      /* Don't bother using a multi searcher if we only have one */
-      if (searchers.size()>1) {
-        searcher = new MultiSearcher(searchers.toArray(new Searcher[]{}));
-        /* Add to list of searchers so it gets closed */
-        searchers.add(searcher);
+      catch (IOException e) {
+        // Other wikis' indices aren't that important anyway, so just don't search them.
       }
-      else {
-        searcher = searchers.get(0);
+    }
+    return _indices.getFederatedSearch().start(dirs, new FederatedSearch.IndexQuery() {
+      public TopHits execute(final IndexSearcher searcher) throws IOException {
+        return collect(searcher, query, wanted);
       }
+    });
+  }
 
-      try {
-        Analyzer analyzer = createAnalyzer();
-        return operation.execute(readers.get(0), searcher, analyzer);
-      }
-      catch (ParseException ex) {
-        throw new QuerySyntaxException(ex.getMessage(), ex);
-      }
+  public Set<SearchMatch> search(final String queryString, final boolean provideExtracts, final boolean singleWiki) throws IOException, QuerySyntaxException {
+    return new LinkedHashSet<SearchMatch>(search(queryString, provideExtracts, singleWiki, 0, Integer.MAX_VALUE).getMatches());
+  }
+
+  public SearchResults search(final String queryString, final boolean provideExtracts, final boolean singleWiki, final int offset, final int limit) throws IOException, QuerySyntaxException {
+    if (_dir == null || queryString == null || queryString.trim().length() == 0) {
+      return new SearchResults(Collections.<SearchMatch>emptyList(), offset, 0);
+    }
+    final Analyzer analyzer = createAnalyzer();
+    final List<Query> fieldQueries;
+    try {
+      fieldQueries = fieldQueries(analyzer, queryString);
+    }
+    catch (ParseException ex) {
+      throw new QuerySyntaxException(ex.getMessage(), ex);
+    }
+    final Query query = combine(fieldQueries);
+    // Other wikis are searched in parallel with our own.
+    // Each index only ranks as many hits as could make the requested page.
+    final int wanted = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+    final FederatedSearch.Results others = singleWiki ? null : searchOtherIndices(query, wanted);
+    try {
+      return doReadOperation(new ReadOperation<SearchResults>() {
+        public SearchResults execute(final IndexReader reader, final Searcher searcher, final Analyzer unused) throws IOException, ParseException {
+          // Ranking is by score alone so no documents are loaded.
+          final List<RankedMatch> ranked = new ArrayList<RankedMatch>();
+          final List<TopHits> all = new ArrayList<TopHits>();
+          final TopHits own = collect(searcher, query, wanted);
+          all.add(own);
+          addRankedMatches(ranked, searcher, own.getHits());
+          final List<String> warnings = new ArrayList<String>();
+          if (others != null) {
+            others.await(FederatedSearch.TIMEOUT_MILLIS);
+            for (FederatedSearch.IndexHits hits : others.getAnswered()) {
+              all.add(hits.getHits());
+              addRankedMatches(ranked, hits.getSearcher(), hits.getHits().getHits());
+            }
+            for (File dir : others.getTimedOut()) {
+              warnings.add("Results from " + dir.getName() + " may be missing as its search index didn't respond in time.");
+            }
+            for (File dir : others.getFailed().keySet()) {
+              warnings.add("Results from " + dir.getName() + " may be missing as its search index couldn't be searched.");
+            }
+            Collections.sort(ranked, RankedMatch.BY_SCORE);
+          }
+          final Map<String, RankedMatch> matches = new LinkedHashMap<String, RankedMatch>();
+          for (RankedMatch match : ranked) {
+            final String uid = uidFor(match.wiki, match.path);
+            if (!matches.containsKey(uid)) {
+              matches.put(uid, match);
+            }
+          }
+          final List<RankedMatch> ordered = orderResults(matches.values());
+          final int from = Math.min(offset, ordered.size());
+          final int to = (int) Math.min(ordered.size(), (long) offset + limit);
+          final List<SearchMatch> page = new ArrayList<SearchMatch>(to - from);
+          for (RankedMatch match : ordered.subList(from, to)) {
+            final String extract = provideExtracts ? extract(analyzer, match.searcher, match.doc, fieldQueries) : null;
+            page.add(new SearchMatch(_wikiName.equals(match.wiki), match.wiki, match.path, extract));
+          }
+          return new SearchResults(page, offset, countPages(all), warnings);
+        }
+      });
     }
     finally {
-      for (Searcher s: searchers) {
-        try {
-          s.close();
-        } catch (Exception e) {}
-      }
-      for (IndexReader r: readers) {
-        try {
-          r.close();
-        } catch (Exception e) {}
+      if (others != null) {
+        others.release();
       }
     }
   }
 
-  public Set<SearchMatch> search(final String queryString, final boolean provideExtracts, final boolean singleWiki) throws IOException, QuerySyntaxException {
-    if (_dir == null || queryString == null || queryString.trim().length() == 0) {
-      return Collections.emptySet();
+  public Map<String, Map<String, Integer>> facets(final String queryString, final List<String> keys) throws IOException, QuerySyntaxException {
+    if (_dir == null) {
+      final Map<String, Map<String, Integer>> facets = new LinkedHashMap<String, Map<String, Integer>>();
+      for (String key : keys) {
+        facets.put(key, Collections.<String, Integer>emptyMap());
+      }
+      return facets;
     }
-    return doReadOperation(new ReadOperation<Set<SearchMatch>>() {
-      public Set<SearchMatch> execute(final IndexReader reader, final Searcher searcher, final Analyzer analyzer) throws IOException, ParseException {
-        LinkedHashSet<SearchMatch> results = new LinkedHashSet<SearchMatch>();
-        // Prefer path, then title then content matches (match equality is on page name)
-        for (String field : ALL_SEARCH_FIELDS) {
-          if (field.equals(FIELD_PATH_LOWER)) {
-            final Query query = new WildcardQuery(new Term(FIELD_PATH_LOWER, "*" + queryString.toLowerCase() + "*"));
-            results.addAll(doQuery(reader, analyzer, searcher, field, provideExtracts, query));
+    return doReadOperation(new ReadOperation<Map<String, Map<String, Integer>>>() {
+      public Map<String, Map<String, Integer>> execute(final IndexReader reader, final Searcher searcher, final Analyzer analyzer) throws IOException, ParseException {
+        // Null for all pages.  Attachment matches count for their page, as they do in search results.
+        Set<String> matchingPaths = null;
+        if (queryString.trim().length() > 0) {
+          matchingPaths = new HashSet<String>();
+          for (Set<String> paths : collect(searcher, combine(fieldQueries(analyzer, queryString)), 0).getPathsByWiki().values()) {
+            matchingPaths.addAll(paths);
           }
-          else {
-            results.addAll(query(reader, analyzer, searcher, field, queryString, provideExtracts));
+        }
+        final String[] uids = FieldCache.DEFAULT.getStrings(reader, FIELD_UID);
+        final String[] paths = FieldCache.DEFAULT.getStrings(reader, FIELD_PATH);
+        final List<String[]> values = new ArrayList<String[]>(keys.size());
+        final List<Map<String, Integer>> counts = new ArrayList<Map<String, Integer>>(keys.size());
+        for (String key : keys) {
+          values.add(FieldCache.DEFAULT.getStrings(reader, FIELD_ATTRIBUTE_PREFIX + key));
+          counts.add(new LinkedHashMap<String, Integer>());
+        }
+        for (int doc = 0; doc < reader.maxDoc(); ++doc) {
+          if (uids[doc] != null && !reader.isDeleted(doc) && (matchingPaths == null || matchingPaths.contains(paths[doc]))) {
+            for (int i = 0; i < values.size(); ++i) {
+              final String value = values.get(i)[doc];
+              if (value != null) {
+                final Integer count = counts.get(i).get(value);
+                counts.get(i).put(value, count == null ? 1 : count + 1);
+              }
+            }
           }
         }
-        return orderResults(results);
+        final Map<String, Map<String, Integer>> facets = new LinkedHashMap<String, Map<String, Integer>>();
+        for (int i = 0; i < keys.size(); ++i) {
+          facets.put(keys.get(i), mostCommonFirst(counts.get(i)));
+        }
+        return facets;
       }
-    }, !singleWiki);
+    });
+  }
+
+  private static Map<String, Integer> mostCommonFirst(final Map<String, Integer> counts) {
+    final List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(counts.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+      public int compare(final Map.Entry<String, Integer> a, final Map.Entry<String, Integer> b) {
+        final int result = b.getValue().compareTo(a.getValue());
+        return result != 0 ? result : a.getKey().compareTo(b.getKey());
+      }
+    });
+    final Map<String, Integer> sorted = new LinkedHashMap<String, Integer>();
+    for (Map.Entry<String, Integer> entry : entries) {
+      sorted.put(entry.getKey(), entry.getValue());
+    }
+    return sorted;
+  }
+
+  private static void addRankedMatches(final List<RankedMatch> ranked, final Searcher searcher, final List<ScoreDoc> hits) throws IOException {
+    for (ScoreDoc hit : hits) {
+      ranked.add(new RankedMatch(searcher, hit.doc, hit.score, cachedField(searcher, hit.doc, FIELD_WIKI), cachedField(searcher, hit.doc, FIELD_PATH)));
+    }
+  }
+
+  /**
+   * A match we've ranked but not yet loaded.
+   */
+  private static final class RankedMatch {
+    static final Comparator<RankedMatch> BY_SCORE = new Comparator<RankedMatch>() {
+      public int compare(final RankedMatch a, final RankedMatch b) {
+        return Float.compare(b.score, a.score);
+      }
+    };
+
+    final Searcher searcher;
+    final int doc;
+    final float score;
+    final String wiki;
+    final String path;
+
+    RankedMatch(final Searcher searcher, final int doc, final float score, final String wiki, final String path) {
+      this.searcher = searcher;
+      this.doc = doc;
+      this.score = score;
+      this.wiki = wiki;
+      this.path = path;
+    }
   }
 
-  private Set<SearchMatch> orderResults(final Set<SearchMatch> results) {
+  private List<RankedMatch> orderResults(final Collection<RankedMatch> results) {
     /* Split single set of results into per-wiki sets, maintaining order (within each set) */
-    Map<String, Set<SearchMatch>> byWiki = new LinkedHashMap<String, Set<SearchMatch>>();
-    for(SearchMatch match: results) {
-      Set<SearchMatch> matchesForWiki = byWiki.get(match.getWiki());
-      if (matchesForWiki==null) {
-        byWiki.put(match.getWiki(), matchesForWiki = new LinkedHashSet<SearchMatch>());
+    Map<String, List<RankedMatch>> byWiki = new LinkedHashMap<String, List<RankedMatch>>();
+    for (RankedMatch match : results) {
+      List<RankedMatch> matchesForWiki = byWiki.get(match.wiki);
+      if (matchesForWiki == null) {
+        byWiki.put(match.wiki, matchesForWiki = new ArrayList<RankedMatch>());
       }
       matchesForWiki.add(match);
     }
 
-    Set<SearchMatch> sortedSet = new LinkedHashSet<SearchMatch>();
+    List<RankedMatch> sorted = new ArrayList<RankedMatch>(results.size());
 
     /* Find the set for this wiki, and force it to be first */
-    Set<SearchMatch> sameWikiMatches = byWiki.get(_wikiName);
-    if (sameWikiMatches!=null) {
-      sortedSet.addAll(sameWikiMatches);
-      byWiki.remove(_wikiName);
+    List<RankedMatch> sameWikiMatches = byWiki.remove(_wikiName);
+    if (sameWikiMatches != null) {
+      sorted.addAll(sameWikiMatches);
     }
 
-    /* Flatten remaining per-wiki sets into single set, maintaining order */
-    for (Set<SearchMatch> matches: byWiki.values()) {
-      sortedSet.addAll(matches);
+    /* Flatten remaining per-wiki sets into single list, maintaining order */
+    for (List<RankedMatch> matches : byWiki.values()) {
+      sorted.addAll(matches);
+    }
+    return sorted;
+  }
+
+  /**
+   * @return A query per entry in {@link #ALL_SEARCH_FIELDS}, boosted by {@link #SEARCH_FIELD_BOOSTS}, null if nothing to search for in that field.
+   */
+  List<Query> fieldQueries(final Analyzer analyzer, final String queryString) throws ParseException {
+    final List<Query> queries = new ArrayList<Query>(ALL_SEARCH_FIELDS.length);
+    for (int i = 0; i < ALL_SEARCH_FIELDS.length; ++i) {
+      final String field = ALL_SEARCH_FIELDS[i];
+      final Query query;
+      if (field.equals(FIELD_PATH_SUFFIXES)) {
+        query = substringOfPathQuery(queryString.toLowerCase());
+      }
+      else {
+        query = parse(analyzer, field, queryString);
+      }
+      if (query != null) {
+        query.setBoost(query.getBoost() * SEARCH_FIELD_BOOSTS[i]);
+      }
+      queries.add(query);
+    }
+    return queries;
+  }
+
+  /**
+   * Matches pages with queryString anywhere in the last component of their path.
+   * A prefix of some suffix, so we never need a leading wildcard.
+   */
+  private static Query substringOfPathQuery(final String queryString) {
+    if (queryString.indexOf('*') != -1 || queryString.indexOf('?') != -1) {
+      return new WildcardQuery(new Term(FIELD_PATH_SUFFIXES, queryString + "*"));
+    }
+    // Constant score as path matches all rank alike, and it can't hit the clause limit.
+    return new ConstantScoreQuery(new PrefixFilter(new Term(FIELD_PATH_SUFFIXES, queryString)));
+  }
+
+  /**
+   * Any of the field queries may match.  We disable coord so matching in fewer
+   * fields isn't penalised, the boosts alone decide which field wins.
+   */
+  static Query combine(final List<Query> fieldQueries) {
+    final BooleanQuery combined = new BooleanQuery(true);
+    for (Query query : fieldQueries) {
+      if (query != null) {
+        combined.add(query, BooleanClause.Occur.SHOULD);
+      }
     }
-    return sortedSet;
+    return combined;
   }
 
-  private LinkedHashSet<SearchMatch> query(final IndexReader reader, final Analyzer analyzer, final Searcher searcher, final String field, final String queryString, final boolean provideExtracts) throws IOException, ParseException {
+  private Query parse(final Analyzer analyzer, final String field, final String queryString) throws ParseException {
     QueryParser parser = new QueryParser(field, analyzer);
     parser.setLowercaseExpandedTerms(!FIELD_PATH.equals(field));
     parser.setDefaultOperator(Operator.AND);
-    Query query = parser.parse(queryString);
-    return doQuery(reader, analyzer, searcher, field, provideExtracts, query);
-  }
-
-  private LinkedHashSet<SearchMatch> doQuery(final IndexReader reader, final Analyzer analyzer, final Searcher searcher, final String field, final boolean provideExtracts, final Query query) throws IOException, CorruptIndexException {
-    Highlighter highlighter = null;
-    if (provideExtracts) {
-      highlighter = new Highlighter(new SimpleHTMLFormatter("<strong>", "</strong>"), new SimpleHTMLEncoder(), new QueryScorer(query));
-    }
-    Hits hits = searcher.search(query);
-    LinkedHashSet<SearchMatch> results = new LinkedHashSet<SearchMatch>();
-    @SuppressWarnings("unchecked") Iterator<Hit> iter = hits.iterator();
-    while (iter.hasNext()) {
-      Hit hit = iter.next();
-      String text = hit.get(field);
-      String extract = null;
-      // The text is not stored for all fields, just provide a null extract.
-      if (highlighter != null && text != null) {
-        TokenStream tokenStream = analyzer.tokenStream(field, new StringReader(text));
+    return parser.parse(queryString);
+  }
+
+  /**
+   * The best hits from one index, and every page its hits matched so we can
+   * count results without ranking them all.
+   */
+  static final class TopHits {
+    private final List<ScoreDoc> _hits;
+    private final Map<String, Set<String>> _pathsByWiki;
+
+    TopHits(final List<ScoreDoc> hits, final Map<String, Set<String>> pathsByWiki) {
+      _hits = hits;
+      _pathsByWiki = pathsByWiki;
+    }
+
+    /**
+     * @return The best hits, highest score first.
+     */
+    public List<ScoreDoc> getHits() {
+      return _hits;
+    }
+
+    /**
+     * @return The paths of all the pages matched, by wiki.  Attachment hits count for their page.
+     */
+    public Map<String, Set<String>> getPathsByWiki() {
+      return _pathsByWiki;
+    }
+  }
+
+  /**
+   * Hits ranked beyond those wanted as a page's attachments can match alongside it.
+   */
+  static final int DUPLICATE_HITS_MARGIN = 20;
+
+  /**
+   * Only the best hits are ranked, the rest are just counted.
+   *
+   * @param wanted The number of distinct pages wanted.
+   * @return The best hits in the order {@link Hits} would give them, enough for wanted pages if there are that many, without loading any documents.
+   */
+  static TopHits collect(final Searcher searcher, final Query query, final int wanted) throws IOException {
+    final IndexReader reader = ((IndexSearcher) searcher).getIndexReader();
+    final String[] wikis = FieldCache.DEFAULT.getStrings(reader, FIELD_WIKI);
+    final String[] paths = FieldCache.DEFAULT.getStrings(reader, FIELD_PATH);
+    long size = (long) wanted + DUPLICATE_HITS_MARGIN;
+    while (true) {
+      final Map<String, Set<String>> pathsByWiki = new LinkedHashMap<String, Set<String>>();
+      final TopDocCollector collector = new TopDocCollector((int) Math.max(1, Math.min(size, reader.maxDoc()))) {
+        @Override
+        public void collect(final int doc, final float score) {
+          if (score > 0.0f) {
+            Set<String> matched = pathsByWiki.get(wikis[doc]);
+            if (matched == null) {
+              pathsByWiki.put(wikis[doc], matched = new HashSet<String>());
+            }
+            matched.add(paths[doc]);
+          }
+          super.collect(doc, score);
+        }
+      };
+      searcher.search(query, collector);
+      final TopDocs top = collector.topDocs();
+      final List<ScoreDoc> hits = Arrays.asList(top.scoreDocs);
+      if (hits.size() == top.totalHits || distinctPages(hits, wikis, paths) >= wanted) {
+        return new TopHits(hits, pathsByWiki);
+      }
+      // Too many of the best hits were for the same pages, look further.
+      size *= 2;
+    }
+  }
+
+  private static int distinctPages(final List<ScoreDoc> hits, final String[] wikis, final String[] paths) {
+    final Set<String> uids = new HashSet<String>();
+    for (ScoreDoc hit : hits) {
+      uids.add(uidFor(wikis[hit.doc], paths[hit.doc]));
+    }
+    return uids.size();
+  }
+
+  /**
+   * @return The number of distinct pages matched across the given hits.
+   */
+  private static int countPages(final List<TopHits> all) {
+    final Map<String, Set<String>> pathsByWiki = new LinkedHashMap<String, Set<String>>();
+    for (TopHits hits : all) {
+      for (Map.Entry<String, Set<String>> entry : hits.getPathsByWiki().entrySet()) {
+        final Set<String> paths = pathsByWiki.get(entry.getKey());
+        if (paths == null) {
+          pathsByWiki.put(entry.getKey(), entry.getValue());
+        }
+        else {
+          paths.addAll(entry.getValue());
+        }
+      }
+    }
+    int count = 0;
+    for (Set<String> paths : pathsByWiki.values()) {
+      count += paths.size();
+    }
+    return count;
+  }
+
+  /**
+   * Reads a single valued field from the field cache of the (sub-)index holding doc.
+   */
+  private static String cachedField(final Searcher searcher, final int doc, final String field) throws IOException {
+    return FieldCache.DEFAULT.getStrings(((IndexSearcher) searcher).getIndexReader(), field)[doc];
+  }
+
+  /**
+   * Highlights the highest priority field that the query matches.
+   */
+  private String extract(final Analyzer analyzer, final Searcher searcher, final int doc, final List<Query> fieldQueries) throws IOException {
+    final Document document = searcher.doc(doc);
+    for (int i = 0; i < ALL_SEARCH_FIELDS.length; ++i) {
+      final String field = ALL_SEARCH_FIELDS[i];
+      final String text = document.get(field);
+      // The text is not stored for all fields.
+      if (text != null && fieldQueries.get(i) != null) {
+        Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter("<strong>", "</strong>"), new SimpleHTMLEncoder(), new QueryScorer(fieldQueries.get(i)));
+        TokenStream tokenStream = tokenStream(analyzer, searcher, doc, field, text);
         // Get 3 best fragments and separate with a "..."
-        extract = highlighter.getBestFragments(tokenStream, text, 3, "...");
+        final String extract = highlighter.getBestFragments(tokenStream, text, 3, "...");
+        if (extract.length() > 0) {
+          return extract;
+        }
       }
-      results.add(new SearchMatch(_wikiName.equals(hit.get(FIELD_WIKI)), hit.get(FIELD_WIKI), hit.get(FIELD_PATH), extract));
     }
-    return results;
+    return "";
   }
 
-  public long getHighestIndexedRevision() throws IOException {
-    createIndexIfNecessary();
-    String property = getProperty(PROPERTY_LAST_INDEXED_REVISION);
-    try {
-      if (property != null) {
-        return Long.valueOf(property);
+  /**
+   * @return The tokens of a stored field, from its term vector if it has one rather than analyzing it again.
+   */
+  static TokenStream tokenStream(final Analyzer analyzer, final Searcher searcher, final int doc, final String field, final String text) throws IOException {
+    if (searcher instanceof IndexSearcher) {
+      final TermFreqVector vector = ((IndexSearcher) searcher).getIndexReader().getTermFreqVector(doc, field);
+      if (vector instanceof TermPositionVector && vector.size() > 0 && ((TermPositionVector) vector).getOffsets(0) != null) {
+        return TokenSources.getTokenStream((TermPositionVector) vector);
       }
     }
-    catch (NumberFormatException ex) {
-      // Fallthrough to default.
+    return analyzer.tokenStream(field, new StringReader(text));
+  }
+
+  /**
+   * @return The bookkeeping for our index, taken from the older property documents the first time.
+   */
+  private IndexState getIndexState() throws IOException {
+    final IndexState state = _indices.getIndexState(_dir);
+    synchronized (state) {
+      if (!state.isSaved() && IndexReader.indexExists(_dir)) {
+        long revision = 0;
+        try {
+          final String property = getProperty(PROPERTY_LAST_INDEXED_REVISION);
+          if (property != null) {
+            revision = Long.parseLong(property);
+          }
+        }
+        catch (NumberFormatException ex) {
+          // Fallthrough to default.
+        }
+        state.save(revision, Boolean.valueOf(getProperty(PROPERTY_BUILT)));
+        deleteDocument(FIELD_PROPERTY_KEY, PROPERTY_LAST_INDEXED_REVISION);
+        deleteDocument(FIELD_PROPERTY_KEY, PROPERTY_BUILT);
+      }
     }
-    return 0;
+    return state;
   }
 
-  private String getProperty(final String propertyName) throws IOException {
+  public long getHighestIndexedRevision() throws IOException {
     if (_dir == null) {
-      return null;
+      return 0;
     }
+    return getIndexState().getHighestIndexedRevision();
+  }
+
+  private String getProperty(final String propertyName) throws IOException {
     try {
       return doReadOperation(new ReadOperation<String>() {
         public String execute(final IndexReader reader, final Searcher searcher, final Analyzer analyzer) throws IOException, ParseException {
@@ -538,21 +1089,29 @@ public class LuceneSearcher implements SearchEngine {
   }
 
   public void rememberHighestIndexedRevision(final long revision) throws CorruptIndexException, LockObtainFailedException, IOException {
-    replaceProperty(createPropertyDocument(PROPERTY_LAST_INDEXED_REVISION, String.valueOf(revision)));
+    if (_dir == null) {
+      return;
+    }
+    final LinkGraph links = getLinkGraph();
+    // This records indexing progress so commit everything before it first.
+    getWriter().commit();
+    getIndexState().setHighestIndexedRevision(revision);
+    links.save(revision);
   }
 
   public boolean isIndexBeingBuilt() throws IOException {
-    createIndexIfNecessary();
-    String property = getProperty(PROPERTY_BUILT);
-    if (property != null) {
-      return Boolean.valueOf(property);
+    if (_dir == null) {
+      return false;
     }
-    return false;
+    return getIndexState().isBeingBuilt();
   }
 
   public void setIndexBeingBuilt(boolean buildingIndex) throws IOException {
-    createIndexIfNecessary();
-    replaceProperty(createPropertyDocument(PROPERTY_BUILT, String.valueOf(buildingIndex)));
+    if (_dir == null) {
+      return;
+    }
+    getWriter().commit();
+    getIndexState().setBeingBuilt(buildingIndex);
   }
 
   public String escape(final String in) {
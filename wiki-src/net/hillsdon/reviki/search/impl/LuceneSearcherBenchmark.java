@@ -0,0 +1,96 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Searcher;
+
+/**
+ * Compares one query per search field against a single combined query on a
+ * generated index.  Not a test, run by hand:
+ *
+ * <pre>java net.hillsdon.reviki.search.impl.LuceneSearcherBenchmark [pages] [iterations]</pre>
+ */
+public final class LuceneSearcherBenchmark {
+
+  private static final String[] QUERIES = {"the", "wiki page", "search OR index", "content", "FrontPage", "release*"};
+  /** Pages ranked per search, as for the first page of results. */
+  private static final int RESULTS = 20;
+
+  public static void main(final String[] args) throws Exception {
+    final int pages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    final BenchmarkIndex index = new BenchmarkIndex();
+    try {
+      final LuceneSearcher searcher = index.getSearcher();
+      final Random random = new Random(42);
+      for (int i = 0; i < pages; ++i) {
+        final String content = BenchmarkIndex.content(random, 200, 0);
+        index.index(BenchmarkIndex.WORDS[random.nextInt(BenchmarkIndex.WORDS.length)].toUpperCase().charAt(0) + "Page" + i, content);
+      }
+      index.commit();
+
+      final Analyzer analyzer = searcher.createAnalyzer();
+      final IndexSearcherPool.Lease lease = index.acquire();
+      try {
+        final Searcher indexSearcher = lease.getSearcher();
+        for (String queryString : QUERIES) {
+          final List<Query> fieldQueries = searcher.fieldQueries(analyzer, queryString);
+          // Warm up.
+          time(indexSearcher, fieldQueries, 2, false);
+          time(indexSearcher, fieldQueries, 2, true);
+          final double perField = time(indexSearcher, fieldQueries, iterations, false);
+          final double combined = time(indexSearcher, fieldQueries, iterations, true);
+          System.out.println(String.format("%-20s per-field %8.2fms  combined %8.2fms", queryString, perField, combined));
+        }
+      }
+      finally {
+        lease.release();
+      }
+    }
+    finally {
+      index.dispose();
+    }
+  }
+
+  /**
+   * @return Mean milliseconds per search.
+   */
+  private static double time(final Searcher searcher, final List<Query> fieldQueries, final int iterations, final boolean combined) throws Exception {
+    final long start = System.nanoTime();
+    for (int i = 0; i < iterations; ++i) {
+      if (combined) {
+        LuceneSearcher.collect(searcher, LuceneSearcher.combine(fieldQueries), RESULTS);
+      }
+      else {
+        for (Query query : fieldQueries) {
+          if (query != null) {
+            LuceneSearcher.collect(searcher, query, RESULTS);
+          }
+        }
+      }
+    }
+    return (System.nanoTime() - start) / 1e6 / iterations;
+  }
+
+  private LuceneSearcherBenchmark() {
+  }
+
+}
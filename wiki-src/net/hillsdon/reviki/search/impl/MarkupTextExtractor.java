@@ -0,0 +1,162 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+import net.hillsdon.reviki.search.AttachmentTextExtractor;
+
+/**
+ * The text between the tags of HTML and XML files, read as UTF-8.
+ *
+ * Not a parser, just enough to keep tag names, attributes and comments out
+ * of the index.
+ */
+public class MarkupTextExtractor implements AttachmentTextExtractor {
+
+  private static final int MAX_ENTITY_LENGTH = 10;
+
+  private final Collection<String> _extensions;
+
+  public MarkupTextExtractor() {
+    this("html", "htm", "xhtml", "xml");
+  }
+
+  public MarkupTextExtractor(final String... extensions) {
+    _extensions = new HashSet<String>(Arrays.asList(extensions));
+  }
+
+  public boolean handles(final String fileName) {
+    return _extensions.contains(PlainTextExtractor.extension(fileName));
+  }
+
+  public String extract(final String fileName, final InputStream in, final int maxChars) throws IOException {
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+    final StringBuilder text = new StringBuilder();
+    int c;
+    while (text.length() < maxChars && (c = reader.read()) != -1) {
+      if (c == '<') {
+        skipTag(reader);
+        // Tags often separate words.
+        appendSpace(text);
+      }
+      else if (c == '&') {
+        text.append(entity(reader));
+      }
+      else if (Character.isWhitespace(c)) {
+        appendSpace(text);
+      }
+      else {
+        text.append((char) c);
+      }
+    }
+    return text.toString().trim();
+  }
+
+  private static void appendSpace(final StringBuilder text) {
+    if (text.length() > 0 && text.charAt(text.length() - 1) != ' ') {
+      text.append(' ');
+    }
+  }
+
+  private static void skipTag(final BufferedReader reader) throws IOException {
+    reader.mark(3);
+    if (reader.read() == '!' && reader.read() == '-' && reader.read() == '-') {
+      // A comment, which may contain '>'.
+      int dashes = 0;
+      int c;
+      while ((c = reader.read()) != -1 && !(c == '>' && dashes >= 2)) {
+        dashes = c == '-' ? dashes + 1 : 0;
+      }
+      return;
+    }
+    reader.reset();
+    char quote = 0;
+    int c;
+    while ((c = reader.read()) != -1) {
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      }
+      else if (c == '"' || c == '\'') {
+        quote = (char) c;
+      }
+      else if (c == '>') {
+        return;
+      }
+    }
+  }
+
+  private static String entity(final BufferedReader reader) throws IOException {
+    reader.mark(MAX_ENTITY_LENGTH + 1);
+    final StringBuilder name = new StringBuilder();
+    int c;
+    while (name.length() < MAX_ENTITY_LENGTH && (c = reader.read()) != -1) {
+      if (c == ';') {
+        final String decoded = decode(name.toString());
+        if (decoded != null) {
+          return decoded;
+        }
+        break;
+      }
+      name.append((char) c);
+    }
+    // Not an entity we understand, leave it as it was.
+    reader.reset();
+    return "&";
+  }
+
+  private static String decode(final String entity) {
+    if (entity.equals("amp")) {
+      return "&";
+    }
+    if (entity.equals("lt")) {
+      return "<";
+    }
+    if (entity.equals("gt")) {
+      return ">";
+    }
+    if (entity.equals("quot")) {
+      return "\"";
+    }
+    if (entity.equals("apos")) {
+      return "'";
+    }
+    if (entity.equals("nbsp")) {
+      return " ";
+    }
+    try {
+      if (entity.startsWith("#x") || entity.startsWith("#X")) {
+        return new String(Character.toChars(Integer.parseInt(entity.substring(2), 16)));
+      }
+      if (entity.startsWith("#")) {
+        return new String(Character.toChars(Integer.parseInt(entity.substring(1))));
+      }
+    }
+    catch (IllegalArgumentException ex) {
+      // Including NumberFormatException.
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.ChangeSubscriber;
+import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.vc.impl.DeletedRevisionTracker;
+
+/**
+ * In-memory page names for one wiki, for autocomplete.
+ *
+ * Names are held in sorted arrays so both prefix ("FrontP") and camel hump
+ * ("FP", "FrPa") lookups are a binary search and a short scan.  The arrays are
+ * replaced rather than modified so lookups need no locking.
+ */
+public class PageNameIndex implements ChangeSubscriber {
+
+  private static final Comparator<String> LOWER_CASE_THEN_NATURAL = new Comparator<String>() {
+    public int compare(final String a, final String b) {
+      final int result = a.toLowerCase().compareTo(b.toLowerCase());
+      return result != 0 ? result : a.compareTo(b);
+    }
+  };
+
+  /**
+   * Immutable sorted view of the names.
+   */
+  private static final class Snapshot {
+    /** Names sorted by their lower case form. */
+    final String[] _names;
+    /** Lower case versions of _names, for prefix lookup. */
+    final String[] _lowerNames;
+    /** Upper case hump initials, e.g. "FP" for FrontPage, sorted. */
+    final String[] _humpKeys;
+    /** Index into _names for each entry in _humpKeys. */
+    final int[] _humpNames;
+
+    Snapshot(final Collection<String> sortedNames) {
+      _names = sortedNames.toArray(new String[sortedNames.size()]);
+      _lowerNames = new String[_names.length];
+      final Integer[] byHumpKey = new Integer[_names.length];
+      final String[] humpKeys = new String[_names.length];
+      for (int i = 0; i < _names.length; ++i) {
+        _lowerNames[i] = _names[i].toLowerCase();
+        humpKeys[i] = humpKey(humps(_names[i]));
+        byHumpKey[i] = i;
+      }
+      Arrays.sort(byHumpKey, new Comparator<Integer>() {
+        public int compare(final Integer a, final Integer b) {
+          return humpKeys[a].compareTo(humpKeys[b]);
+        }
+      });
+      _humpKeys = new String[_names.length];
+      _humpNames = new int[_names.length];
+      for (int i = 0; i < byHumpKey.length; ++i) {
+        _humpNames[i] = byHumpKey[i];
+        _humpKeys[i] = humpKeys[byHumpKey[i]];
+      }
+    }
+  }
+
+  private final DeletedRevisionTracker _tracker;
+  private final Set<String> _names = new TreeSet<String>(LOWER_CASE_THEN_NATURAL);
+  private volatile Snapshot _snapshot = new Snapshot(_names);
+  private long _lastSyncedRevision = -1;
+
+  /**
+   * @param tracker Source of the names that already exist when we're first synced,
+   *                further changes come via {@link #handleChanges}.
+   */
+  public PageNameIndex(final DeletedRevisionTracker tracker) {
+    _tracker = tracker;
+  }
+
+  private void seedIfNecessary() throws IOException {
+    if (_lastSyncedRevision < 0) {
+      _lastSyncedRevision = _tracker.getHighestSyncedRevision();
+      _names.addAll(_tracker.currentExistingEntries());
+      _snapshot = new Snapshot(_names);
+    }
+  }
+
+  public synchronized void handleChanges(final long upto, final List<ChangeInfo> chronological) throws IOException {
+    seedIfNecessary();
+    boolean changed = false;
+    for (ChangeInfo change : chronological) {
+      if (change.getKind() == StoreKind.PAGE) {
+        if (change.isDeletion()) {
+          changed |= _names.remove(change.getPage());
+        }
+        else {
+          changed |= _names.add(change.getPage());
+        }
+      }
+    }
+    if (changed) {
+      _snapshot = new Snapshot(_names);
+    }
+    _lastSyncedRevision = upto;
+  }
+
+  public synchronized long getHighestSyncedRevision() throws IOException {
+    seedIfNecessary();
+    return _lastSyncedRevision;
+  }
+
+  public int size() {
+    return _snapshot._names.length;
+  }
+
+  /**
+   * @param query Start of a page name (case-insensitive) or its camel humps.
+   * @param limit Maximum number of names to return.
+   * @return Names starting with query in alphabetical order, then names whose humps match.
+   */
+  public List<String> suggest(final String query, final int limit) {
+    final Snapshot snapshot = _snapshot;
+    final Set<String> results = new LinkedHashSet<String>();
+    if (query.length() == 0 || limit <= 0) {
+      return new ArrayList<String>(results);
+    }
+
+    final String lowerQuery = query.toLowerCase();
+    for (int i = lowerBound(snapshot._lowerNames, lowerQuery); i < snapshot._names.length && results.size() < limit; ++i) {
+      if (!snapshot._lowerNames[i].startsWith(lowerQuery)) {
+        break;
+      }
+      results.add(snapshot._names[i]);
+    }
+
+    final List<String> queryHumps = humps(query);
+    if (queryHumps.size() > 1) {
+      final String key = humpKey(queryHumps);
+      for (int i = lowerBound(snapshot._humpKeys, key); i < snapshot._humpKeys.length && results.size() < limit; ++i) {
+        if (!snapshot._humpKeys[i].startsWith(key)) {
+          break;
+        }
+        final String name = snapshot._names[snapshot._humpNames[i]];
+        if (humpsMatch(humps(name), queryHumps)) {
+          results.add(name);
+        }
+      }
+    }
+    return new ArrayList<String>(results);
+  }
+
+  private static int lowerBound(final String[] sorted, final String key) {
+    final int index = Arrays.binarySearch(sorted, key);
+    return index < 0 ? -index - 1 : index;
+  }
+
+  private static boolean humpsMatch(final List<String> nameHumps, final List<String> queryHumps) {
+    for (int i = 0; i < queryHumps.size(); ++i) {
+      if (!nameHumps.get(i).toLowerCase().startsWith(queryHumps.get(i).toLowerCase())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String humpKey(final List<String> humps) {
+    final StringBuilder key = new StringBuilder(humps.size());
+    for (String hump : humps) {
+      key.append(Character.toUpperCase(hump.charAt(0)));
+    }
+    return key.toString();
+  }
+
+  /**
+   * Splits before each upper case letter and at the start of each run of digits,
+   * so "FrontPage2" is "Front", "Page", "2".
+   */
+  static List<String> humps(final String name) {
+    final List<String> humps = new ArrayList<String>();
+    int start = 0;
+    for (int i = 1; i < name.length(); ++i) {
+      final char c = name.charAt(i);
+      if (Character.isUpperCase(c) || (Character.isDigit(c) && !Character.isDigit(name.charAt(i - 1)))) {
+        humps.add(name.substring(start, i));
+        start = i;
+      }
+    }
+    if (start < name.length()) {
+      humps.add(name.substring(start));
+    }
+    return humps;
+  }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.hillsdon.reviki.search.SearchMatch;
+
+/**
+ * The {@link PageNameIndex} of every wiki in the application, so suggestions can
+ * span wikis in the same way as search.
+ */
+public class PageNameIndices {
+
+  private final Map<String, PageNameIndex> _indices = new LinkedHashMap<String, PageNameIndex>();
+
+  public synchronized void register(final String wiki, final PageNameIndex index) {
+    _indices.put(wiki, index);
+  }
+
+  public synchronized PageNameIndex get(final String wiki) {
+    return _indices.get(wiki);
+  }
+
+  /**
+   * @param currentWiki The wiki the suggestions are for, its pages come first.
+   * @param query Start of a page name or its camel humps.
+   * @param limit Maximum number of names to return from each wiki.
+   * @return Matches from the current wiki, then from the others in the order they were registered.
+   */
+  public List<SearchMatch> suggest(final String currentWiki, final String query, final int limit) {
+    final Map<String, PageNameIndex> indices;
+    synchronized (this) {
+      indices = new LinkedHashMap<String, PageNameIndex>(_indices);
+    }
+    final List<SearchMatch> matches = new ArrayList<SearchMatch>();
+    final PageNameIndex current = indices.remove(currentWiki);
+    if (current != null) {
+      addMatches(matches, true, currentWiki, current.suggest(query, limit));
+    }
+    for (Map.Entry<String, PageNameIndex> entry : indices.entrySet()) {
+      addMatches(matches, false, entry.getKey(), entry.getValue().suggest(query, limit));
+    }
+    return matches;
+  }
+
+  private static void addMatches(final List<SearchMatch> matches, final boolean sameWiki, final String wiki, final List<String> pages) {
+    for (String page : pages) {
+      matches.add(new SearchMatch(sameWiki, wiki, page, null));
+    }
+  }
+
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.util.List;
+
+import net.hillsdon.reviki.search.SearchMatch;
+
+/**
+ * Page name suggestions for one wiki's search box.  Pages from other wikis are
+ * filtered as for search results.
+ */
+public class PageNameSuggestions {
+
+  private final String _wiki;
+  private final PageNameIndices _indices;
+  private final BasicAuthAwareSearchEngine _access;
+
+  public PageNameSuggestions(final String wiki, final PageNameIndices indices, final BasicAuthAwareSearchEngine access) {
+    _wiki = wiki;
+    _indices = indices;
+    _access = access;
+  }
+
+  /**
+   * @param query Start of a page name or its camel humps.
+   * @param limit Maximum number of suggestions.
+   * @return Accessible matching pages, those from this wiki first.
+   */
+  public List<SearchMatch> suggest(final String query, final int limit) {
+    final List<SearchMatch> matches = _indices.suggest(_wiki, query, limit);
+    _access.filterInaccessible(matches);
+    return matches.size() > limit ? matches.subList(0, limit) : matches;
+  }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+
+import net.hillsdon.reviki.search.AttachmentTextExtractor;
+
+/**
+ * Text files, read as UTF-8.
+ */
+public class PlainTextExtractor implements AttachmentTextExtractor {
+
+  private final Collection<String> _extensions;
+
+  public PlainTextExtractor() {
+    this("txt", "text", "csv", "log", "md");
+  }
+
+  public PlainTextExtractor(final String... extensions) {
+    _extensions = new HashSet<String>(Arrays.asList(extensions));
+  }
+
+  public boolean handles(final String fileName) {
+    return _extensions.contains(extension(fileName));
+  }
+
+  public String extract(final String fileName, final InputStream in, final int maxChars) throws IOException {
+    final Reader reader = new InputStreamReader(in, "UTF-8");
+    final StringBuilder text = new StringBuilder();
+    final char[] buffer = new char[4096];
+    int read;
+    while (text.length() < maxChars && (read = reader.read(buffer, 0, Math.min(buffer.length, maxChars - text.length()))) != -1) {
+      text.append(buffer, 0, read);
+    }
+    return text.toString();
+  }
+
+  static String extension(final String fileName) {
+    final int dot = fileName.lastIndexOf('.');
+    return dot == -1 ? "" : fileName.substring(dot + 1).toLowerCase(Locale.ENGLISH);
+  }
+
+}
@@ -37,10 +37,19 @@ public class SearchIndexPopulatingPageStore extends SimpleDelegatingPageStore {
   private static final Log LOG = LogFactory.getLog(SearchIndexPopulatingPageStore.class);
 
   private final SearchEngine _indexer;
+  private final IndexUpdateQueue _queue;
 
   public SearchIndexPopulatingPageStore(final SearchEngine indexer, final PageStore delegate) {
+    this(indexer, null, delegate);
+  }
+
+  /**
+   * @param queue If non-null edits are queued for indexing rather than indexed before returning.
+   */
+  public SearchIndexPopulatingPageStore(final SearchEngine indexer, final IndexUpdateQueue queue, final PageStore delegate) {
     super(delegate);
     _indexer = indexer;
+    _queue = queue;
   }
 
   @Override
@@ -48,6 +57,10 @@ public class SearchIndexPopulatingPageStore extends SimpleDelegatingPageStore {
     long newRevision = super.set(page, lockToken, baseRevision, commitMessage);
     try {
       if(!_indexer.isIndexBeingBuilt()) {
+        if (_queue != null) {
+          _queue.enqueue(page, newRevision);
+          return newRevision;
+        }
         if(page.getContent().trim().length() > 0) {
           _indexer.index(page, false);
         }
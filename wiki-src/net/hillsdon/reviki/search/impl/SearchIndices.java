@@ -0,0 +1,262 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.analysis.Analyzer;
+import org.picocontainer.Disposable;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * What's shared between all {@link LuceneSearcher}s on an index directory: its
+ * writer, pooled searchers, link graph and state.  Also the threads that
+ * search other wikis' indices.
+ *
+ * There's one per application, in the application session's container, so
+ * everything is closed when it's disposed.
+ */
+public class SearchIndices implements Disposable {
+
+  private static final Log LOG = LogFactory.getLog(SearchIndices.class);
+
+  private final Map<File, BatchingIndexWriter> _writers = new HashMap<File, BatchingIndexWriter>();
+  /** Kept across {@link #close()} so a generation is never reused for different content. */
+  private final Map<File, AtomicLong> _generations = new HashMap<File, AtomicLong>();
+  private final Map<File, IndexSearcherPool> _pools = new HashMap<File, IndexSearcherPool>();
+  private final Map<File, LinkGraph> _graphs = new HashMap<File, LinkGraph>();
+  private final Map<File, IndexState> _states = new HashMap<File, IndexState>();
+  /** Canonical index directories known to be at {@link LuceneSearcher#INDEX_FORMAT}. */
+  private final Set<File> _upToDate = new HashSet<File>();
+  private final ScheduledExecutorService _commitTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("search-index-commit-%d").build());
+  private final ScheduledExecutorService _updateWorker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("search-index-queue-%d").build());
+  private final ExecutorService _attachmentPool = Executors.newFixedThreadPool(AttachmentIndexer.THREADS, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("search-attachments-%d").build());
+  private final FederatedSearch _federatedSearch = new FederatedSearch(this);
+
+  /**
+   * @param dir An index directory, created if it doesn't exist.
+   * @param analyzer Analyzer used if we need to open the writer.
+   * @return The shared writer for that directory.
+   * @throws IOException If we fail to open the index.
+   */
+  public BatchingIndexWriter getWriter(final File dir, final Analyzer analyzer) throws IOException {
+    final File key = dir.getCanonicalFile();
+    synchronized (_writers) {
+      BatchingIndexWriter writer = _writers.get(key);
+      if (writer == null) {
+        writer = new BatchingIndexWriter(this, key, analyzer);
+        _writers.put(key, writer);
+      }
+      return writer;
+    }
+  }
+
+  /**
+   * Commits pending updates for dir if we have a writer open on it.
+   * Doesn't open a writer if we don't.
+   *
+   * @param dir An index directory.
+   * @throws IOException On failure to commit.
+   */
+  public void commitPending(final File dir) throws IOException {
+    final BatchingIndexWriter writer;
+    synchronized (_writers) {
+      writer = _writers.get(dir.getCanonicalFile());
+    }
+    if (writer != null) {
+      writer.commitIfPending();
+    }
+  }
+
+  /**
+   * Changes whenever a document in dir is added, replaced or deleted, whether
+   * or not the change has been committed yet.
+   *
+   * @param dir An index directory.
+   * @return A number that differs from any earlier one for dir if its contents may have changed.
+   * @throws IOException If we fail to resolve dir.
+   */
+  public long getGeneration(final File dir) throws IOException {
+    return generationCounter(dir.getCanonicalFile()).get();
+  }
+
+  AtomicLong generationCounter(final File key) {
+    synchronized (_generations) {
+      AtomicLong generation = _generations.get(key);
+      if (generation == null) {
+        generation = new AtomicLong();
+        _generations.put(key, generation);
+      }
+      return generation;
+    }
+  }
+
+  ScheduledExecutorService getCommitTimer() {
+    return _commitTimer;
+  }
+
+  /**
+   * @return The thread that applies every {@link IndexUpdateQueue}'s updates.
+   */
+  ScheduledExecutorService getUpdateWorker() {
+    return _updateWorker;
+  }
+
+  /**
+   * @return The threads every {@link AttachmentIndexer} extracts text on.
+   */
+  ExecutorService getAttachmentPool() {
+    return _attachmentPool;
+  }
+
+  /**
+   * @param dir An index directory.
+   * @return The shared searchers for that directory.
+   * @throws IOException If we fail to resolve dir.
+   */
+  public IndexSearcherPool getSearcherPool(final File dir) throws IOException {
+    final File key = dir.getCanonicalFile();
+    synchronized (_pools) {
+      IndexSearcherPool pool = _pools.get(key);
+      if (pool == null) {
+        pool = new IndexSearcherPool(key);
+        _pools.put(key, pool);
+      }
+      return pool;
+    }
+  }
+
+  /**
+   * Marks the current reader for dir (if any) as out of date.
+   *
+   * @param dir An index directory.
+   */
+  void indexChanged(final File dir) throws IOException {
+    final IndexSearcherPool pool;
+    synchronized (_pools) {
+      pool = _pools.get(dir.getCanonicalFile());
+    }
+    if (pool != null) {
+      pool.invalidate();
+    }
+  }
+
+  /**
+   * @param dir An index directory.
+   * @return The shared graph for that directory, loaded from disk if it was saved there.
+   * @throws IOException If we fail to read a saved graph.
+   */
+  public LinkGraph getLinkGraph(final File dir) throws IOException {
+    final File key = dir.getCanonicalFile();
+    synchronized (_graphs) {
+      LinkGraph graph = _graphs.get(key);
+      if (graph == null) {
+        graph = LinkGraph.load(key);
+        _graphs.put(key, graph);
+      }
+      return graph;
+    }
+  }
+
+  /**
+   * @param dir An index directory.
+   * @return The shared state for that directory, read from disk if it was saved there.
+   * @throws IOException If we fail to read saved state.
+   */
+  public IndexState getIndexState(final File dir) throws IOException {
+    final File key = dir.getCanonicalFile();
+    synchronized (_states) {
+      IndexState state = _states.get(key);
+      if (state == null) {
+        state = IndexState.load(key);
+        _states.put(key, state);
+      }
+      return state;
+    }
+  }
+
+  /**
+   * @return The directories known to be at the current format, synchronize on it.
+   */
+  Set<File> getUpToDateIndices() {
+    return _upToDate;
+  }
+
+  FederatedSearch getFederatedSearch() {
+    return _federatedSearch;
+  }
+
+  /**
+   * Commits and closes all writers, closes all pooled readers regardless of
+   * outstanding leases and forgets link graphs and state.  They're re-opened
+   * if used again.  Link graph changes since they were last saved are lost.
+   */
+  public void close() {
+    final List<BatchingIndexWriter> writers;
+    synchronized (_writers) {
+      writers = new ArrayList<BatchingIndexWriter>(_writers.values());
+      _writers.clear();
+    }
+    for (BatchingIndexWriter writer : writers) {
+      try {
+        writer.close();
+      }
+      catch (IOException ex) {
+        LOG.error("Failed to close search index: " + writer.getDirectory(), ex);
+      }
+    }
+    final List<IndexSearcherPool> pools;
+    synchronized (_pools) {
+      pools = new ArrayList<IndexSearcherPool>(_pools.values());
+      _pools.clear();
+    }
+    for (IndexSearcherPool pool : pools) {
+      pool.close();
+    }
+    synchronized (_graphs) {
+      _graphs.clear();
+    }
+    synchronized (_states) {
+      _states.clear();
+    }
+  }
+
+  /**
+   * Closes everything and stops our threads, we can't be used again.
+   */
+  public void dispose() {
+    _updateWorker.shutdown();
+    close();
+    _commitTimer.shutdown();
+    _federatedSearch.shutdown();
+    _attachmentPool.shutdown();
+  }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.hillsdon.fij.io.Lsof;
+
+/**
+ * Temporary index directories for the tests in this package.
+ */
+final class TempIndexDirs {
+
+  /**
+   * @return A new empty directory.
+   */
+  static File createTempDir() throws IOException {
+    File file = File.createTempFile("testDir", "");
+    assertTrue(file.delete());
+    assertTrue(file.mkdir());
+    return file;
+  }
+
+  /**
+   * Deletes tmpDir and its contents, failing if any of them are still open.
+   */
+  static void cleanupTempDir(final File tmpDir) {
+    // Nothing in tmpDir should be open.  Note this only works on Linux-like
+    // machines at the moment (silently passing on others).
+    for (File file : Lsof.lsof()) {
+      final String dir = tmpDir.getAbsolutePath() + File.separator;
+      final String filePath = file.getAbsolutePath();
+      if (filePath.startsWith(dir)) {
+        fail(file.toString() + " should be closed!");
+      }
+    }
+    recursivelyDelete(tmpDir);
+  }
+
+  private static void recursivelyDelete(final File dir) {
+    File[] contents = dir.listFiles();
+    for (File f : contents) {
+      if (f.isFile()) {
+        assertTrue(f.delete());
+      }
+      else {
+        recursivelyDelete(f);
+      }
+    }
+    assertTrue(dir.delete());
+  }
+
+  private TempIndexDirs() {
+  }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isNull;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.search.AttachmentTextExtractor;
+import net.hillsdon.reviki.search.SearchMatch;
+import net.hillsdon.reviki.vc.impl.BasicSVNOperations;
+import net.hillsdon.reviki.wiki.MarkupRenderer;
+
+import org.easymock.IAnswer;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+
+/**
+ * Tests for {@link AttachmentIndexer}.
+ */
+public class TestAttachmentIndexer extends TestCase {
+
+  private static final String WIKI_NAME = "wiki";
+  private static final int MAX_BYTES = 20;
+
+  private SearchIndices _indices;
+  private File _dir;
+  private LuceneSearcher _searcher;
+  private BasicSVNOperations _operations;
+  private AttachmentIndexer _indexer;
+
+  @Override
+  protected void setUp() throws Exception {
+    _indices = new SearchIndices();
+    _dir = TempIndexDirs.createTempDir();
+    _searcher = new LuceneSearcher(_indices, WIKI_NAME, _dir, Collections.<File>emptyList(), MarkupRenderer.AS_IS);
+    _operations = createMock(BasicSVNOperations.class);
+    final Supplier<List<AttachmentTextExtractor>> extractors = Suppliers.<List<AttachmentTextExtractor>>ofInstance(Arrays.<AttachmentTextExtractor>asList(new PlainTextExtractor(), new MarkupTextExtractor()));
+    _indexer = new AttachmentIndexer(_indices, WIKI_NAME, _searcher, Suppliers.ofInstance(_operations), extractors, MAX_BYTES);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _indices.dispose();
+    TempIndexDirs.cleanupTempDir(_dir);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void expectFile(final String path, final String content) throws Exception {
+    _operations.getFile(eq(path), eq(-1L), (Map<String, String>) isNull(), (OutputStream) anyObject());
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        ((OutputStream) getCurrentArguments()[3]).write(content.getBytes("UTF-8"));
+        return null;
+      }
+    });
+    _operations.dispose();
+  }
+
+  /**
+   * @return The only page matching query, null if none.
+   */
+  private String pageMatching(final String query) throws Exception {
+    assertTrue(_indexer.awaitIdle(5000));
+    Set<SearchMatch> matches = _searcher.search(query, false, true);
+    assertTrue(matches.size() <= 1);
+    return matches.isEmpty() ? null : matches.iterator().next().getPage();
+  }
+
+  public void testAttachmentTextIsFoundAsItsPage() throws Exception {
+    expectFile("ThePage-attachments/notes.html", "<p class='spam'>eggs &amp; ham</p>");
+    replay(_operations);
+
+    _indexer.changed("ThePage", "notes.html");
+
+    assertEquals("ThePage", pageMatching("eggs"));
+    assertNull(pageMatching("spam"));
+    verify(_operations);
+  }
+
+  public void testOnlyFetchesUpToTheLimit() throws Exception {
+    expectFile("ThePage-attachments/notes.txt", "first second third fourth fifth");
+    replay(_operations);
+
+    _indexer.changed("ThePage", "notes.txt");
+
+    assertEquals("ThePage", pageMatching("second"));
+    assertNull(pageMatching("fifth"));
+  }
+
+  public void testDeletionRemovesText() throws Exception {
+    expectFile("ThePage-attachments/notes.txt", "eggs");
+    replay(_operations);
+    _indexer.changed("ThePage", "notes.txt");
+    assertEquals("ThePage", pageMatching("eggs"));
+
+    _indexer.deleted("ThePage", "notes.txt");
+
+    assertNull(pageMatching("eggs"));
+  }
+
+  public void testAttachmentsWeCantExtractAreNotFetched() throws Exception {
+    replay(_operations);
+    _indexer.changed("ThePage", "picture.png");
+    assertTrue(_indexer.awaitIdle(5000));
+    verify(_operations);
+  }
+
+}
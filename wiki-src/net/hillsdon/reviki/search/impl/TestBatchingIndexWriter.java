@@ -0,0 +1,96 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+
+/**
+ * Tests for {@link BatchingIndexWriter}.
+ */
+public class TestBatchingIndexWriter extends TestCase {
+
+  private SearchIndices _indices;
+  private File _dir;
+
+  @Override
+  protected void setUp() throws Exception {
+    _indices = new SearchIndices();
+    _dir = TempIndexDirs.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _indices.dispose();
+    TempIndexDirs.cleanupTempDir(_dir);
+  }
+
+  private static Document document(final String id) {
+    Document document = new Document();
+    document.add(new Field("id", id, Field.Store.YES, Field.Index.UN_TOKENIZED));
+    return document;
+  }
+
+  private int numDocs() throws IOException {
+    IndexReader reader = IndexReader.open(_dir);
+    try {
+      return reader.numDocs();
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  public void testSharedPerDirectory() throws Exception {
+    assertSame(_indices.getWriter(_dir, new KeywordAnalyzer()), _indices.getWriter(new File(_dir, "."), new KeywordAnalyzer()));
+  }
+
+  public void testUpdatesInvisibleUntilCommitted() throws Exception {
+    BatchingIndexWriter writer = _indices.getWriter(_dir, new KeywordAnalyzer());
+    writer.updateDocument(new Term("id", "a"), document("a"));
+    writer.updateDocument(new Term("id", "a"), document("a"));
+    assertEquals(0, numDocs());
+    assertEquals(2, writer.getPendingCount());
+    _indices.commitPending(_dir);
+    assertEquals(0, writer.getPendingCount());
+    assertEquals(1, numDocs());
+  }
+
+  public void testCommitsWhenBatchIsFull() throws Exception {
+    BatchingIndexWriter writer = _indices.getWriter(_dir, new KeywordAnalyzer());
+    for (int i = 0; i < BatchingIndexWriter.BATCH_SIZE; ++i) {
+      writer.updateDocument(new Term("id", String.valueOf(i)), document(String.valueOf(i)));
+    }
+    assertEquals(0, writer.getPendingCount());
+    assertEquals(BatchingIndexWriter.BATCH_SIZE, numDocs());
+  }
+
+  public void testCommitsAfterDelay() throws Exception {
+    BatchingIndexWriter writer = _indices.getWriter(_dir, new KeywordAnalyzer());
+    writer.updateDocument(new Term("id", "a"), document("a"));
+    Thread.sleep(BatchingIndexWriter.MAX_COMMIT_DELAY_MILLIS * 3);
+    assertEquals(1, numDocs());
+  }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.File;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.search.SearchResults;
+import net.hillsdon.reviki.vc.impl.PageInfoImpl;
+import net.hillsdon.reviki.wiki.MarkupRenderer;
+
+/**
+ * Tests for {@link CachingSearchEngine}.
+ */
+public class TestCachingSearchEngine extends TestCase {
+
+  private static final String WIKI_NAME = "wiki";
+
+  private SearchIndices _indices;
+  private File _dir;
+  private LuceneSearcher _searcher;
+  private CachingSearchEngine _cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    _indices = new SearchIndices();
+    _dir = TempIndexDirs.createTempDir();
+    _searcher = new LuceneSearcher(_indices, WIKI_NAME, _dir, Collections.<File>emptyList(), MarkupRenderer.AS_IS);
+    _cache = new CachingSearchEngine(_indices, _searcher, _dir, Collections.<File>emptyList(), 2);
+    index("FirstPage", "spam");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _indices.dispose();
+    TempIndexDirs.cleanupTempDir(_dir);
+  }
+
+  private void index(final String path, final String content) throws Exception {
+    _searcher.index(new PageInfoImpl(WIKI_NAME, path, content, Collections.<String, String>emptyMap()), false);
+  }
+
+  public void testRepeatedQueryIsAHit() throws Exception {
+    SearchResults first = _cache.search("spam", false, true, 0, 10);
+    assertSame(first, _cache.search("  spam ", false, true, 0, 10));
+    assertEquals(1, _cache.getHitCount());
+    assertEquals(1, _cache.getMissCount());
+  }
+
+  public void testFlagsAndPagingArePartOfTheKey() throws Exception {
+    _cache.search("spam", false, true, 0, 10);
+    _cache.search("spam", true, true, 0, 10);
+    _cache.search("spam", false, false, 0, 10);
+    _cache.search("spam", false, true, 0, 5);
+    assertEquals(0, _cache.getHitCount());
+    assertEquals(4, _cache.getMissCount());
+  }
+
+  public void testIndexChangeInvalidates() throws Exception {
+    assertEquals(1, _cache.search("spam", false, true).size());
+    index("SecondPage", "spam");
+    assertEquals(2, _cache.search("spam", false, true).size());
+    _searcher.delete(WIKI_NAME, "FirstPage", false);
+    assertEquals(1, _cache.search("spam", false, true).size());
+    assertEquals(0, _cache.getHitCount());
+    assertEquals(3, _cache.getMissCount());
+  }
+
+  public void testBounded() throws Exception {
+    _cache.search("spam", false, true);
+    _cache.search("eggs", false, true);
+    _cache.search("ham", false, true);
+    assertEquals(2, _cache.size());
+    _cache.search("spam", false, true);
+    assertEquals(0, _cache.getHitCount());
+  }
+
+}
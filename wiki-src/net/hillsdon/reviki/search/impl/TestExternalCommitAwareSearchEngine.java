@@ -0,0 +1,176 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.ChangeType;
+import net.hillsdon.reviki.vc.PageInfo;
+import net.hillsdon.reviki.vc.PageReference;
+import net.hillsdon.reviki.vc.PageStoreException;
+import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.vc.VersionedPageInfo;
+import net.hillsdon.reviki.vc.impl.PageInfoImpl;
+import net.hillsdon.reviki.vc.impl.SimplePageStore;
+import net.hillsdon.reviki.wiki.MarkupRenderer;
+
+import com.google.common.collect.ImmutableList;
+
+public class TestExternalCommitAwareSearchEngine extends TestCase {
+
+  private static final String WIKI_NAME = "wiki";
+
+  private SearchIndices _indices;
+  private File _dir;
+  private LuceneSearcher _searcher;
+  private int _singleGets;
+  private SimplePageStore _store;
+  private ExternalCommitAwareSearchEngine _engine;
+  private IndexUpdateQueue _queue;
+  /** Run during the next batch fetch, if set. */
+  private Runnable _duringFetch;
+
+  @Override
+  protected void setUp() throws Exception {
+    _indices = new SearchIndices();
+    _dir = TempIndexDirs.createTempDir();
+    _searcher = new LuceneSearcher(_indices, WIKI_NAME, _dir, Collections.<File>emptyList(), MarkupRenderer.AS_IS);
+    _searcher.rememberHighestIndexedRevision(1);
+    _singleGets = 0;
+    _store = new SimplePageStore(WIKI_NAME) {
+      @Override
+      public VersionedPageInfo get(final PageReference ref, final long revision) throws PageStoreException {
+        _singleGets++;
+        return super.get(ref, revision);
+      }
+      @Override
+      public Collection<PageInfo> getPages(final Collection<PageReference> pages, final long revision) throws PageStoreException {
+        if (_duringFetch != null) {
+          _duringFetch.run();
+          _duringFetch = null;
+        }
+        return super.getPages(pages, revision);
+      }
+    };
+    _engine = new ExternalCommitAwareSearchEngine(_searcher);
+    _engine.setPageStore(_store);
+    _queue = new IndexUpdateQueue(_indices, _searcher, 5000);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _indices.dispose();
+    TempIndexDirs.cleanupTempDir(_dir);
+  }
+
+  private void addPage(final String path, final String content) throws Exception {
+    _store.set(new PageInfoImpl(WIKI_NAME, path, content, Collections.<String, String>emptyMap()), "", 0, "");
+  }
+
+  private void save(final String path, final String content, final long revision) throws Exception {
+    _queue.enqueue(new PageInfoImpl(WIKI_NAME, path, content, Collections.<String, String>emptyMap()), revision);
+  }
+
+  private ExternalCommitAwareSearchEngine queueingEngine() {
+    final ExternalCommitAwareSearchEngine engine = new ExternalCommitAwareSearchEngine(_searcher, _queue, null);
+    engine.setPageStore(_store);
+    return engine;
+  }
+
+  private static ChangeInfo change(final String page, final ChangeType type) {
+    return new ChangeInfo(page, page, "bob", new Date(), 5, "", StoreKind.PAGE, type, null, -1);
+  }
+
+  public void testFetchesChangedPagesInOneBatchAndDeletesWithoutFetching() throws Exception {
+    _searcher.index(new PageInfoImpl(WIKI_NAME, "GonePage", "eggs", Collections.<String, String>emptyMap()), true);
+    addPage("FirstPage", "spam");
+    addPage("SecondPage", "spam");
+    final List<ChangeInfo> changes = ImmutableList.of(change("FirstPage", ChangeType.ADDED), change("SecondPage", ChangeType.MODIFIED), change("FirstPage", ChangeType.MODIFIED), change("GonePage", ChangeType.DELETED));
+
+    _engine.handleChanges(5, changes);
+
+    assertEquals(0, _singleGets);
+    assertEquals(2, _searcher.search("spam", false, true).size());
+    assertEquals(0, _searcher.search("eggs", false, true).size());
+    assertEquals(5, _searcher.getHighestIndexedRevision());
+    assertFalse(_searcher.isIndexBeingBuilt());
+  }
+
+  public void testFetchesIndividuallyIfBatchFails() throws Exception {
+    _searcher.index(new PageInfoImpl(WIKI_NAME, "MissingPage", "eggs", Collections.<String, String>emptyMap()), true);
+    addPage("FirstPage", "spam");
+    final List<ChangeInfo> changes = ImmutableList.of(change("FirstPage", ChangeType.MODIFIED), change("MissingPage", ChangeType.MODIFIED));
+
+    _engine.handleChanges(5, changes);
+
+    assertEquals(2, _singleGets);
+    assertEquals(1, _searcher.search("spam", false, true).size());
+    assertEquals(0, _searcher.search("eggs", false, true).size());
+  }
+
+  public void testSaveDuringSyncIsHeldThenApplied() throws Exception {
+    final ExternalCommitAwareSearchEngine engine = queueingEngine();
+    addPage("FirstPage", "spam");
+    final boolean[] heldDuringSync = new boolean[1];
+    _duringFetch = new Runnable() {
+      public void run() {
+        try {
+          save("SecondPage", "eggs", 6);
+          heldDuringSync[0] = !_queue.awaitApplied(6, 200);
+        }
+        catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+
+    engine.handleChanges(5, ImmutableList.of(change("FirstPage", ChangeType.MODIFIED)));
+
+    assertTrue(heldDuringSync[0]);
+    assertTrue(_queue.awaitQueued());
+    assertEquals(1, _searcher.search("spam", false, true).size());
+    assertEquals(1, _searcher.search("eggs", false, true).size());
+    assertEquals(6, _searcher.getHighestIndexedRevision());
+  }
+
+  public void testQueuedSaveOlderThanSyncIsSuperseded() throws Exception {
+    final ExternalCommitAwareSearchEngine engine = queueingEngine();
+    addPage("FirstPage", "spam");
+    synchronized (_queue) {
+      // The worker can't take the save until the sync has superseded it.
+      save("FirstPage", "eggs", 4);
+      engine.handleChanges(5, ImmutableList.of(change("FirstPage", ChangeType.MODIFIED)));
+    }
+    assertTrue(_queue.awaitQueued());
+    assertEquals(0, _queue.getAppliedCount());
+    assertEquals(1, _searcher.search("spam", false, true).size());
+    assertEquals(0, _searcher.search("eggs", false, true).size());
+  }
+
+  public void testReadsSeeQueuedSaves() throws Exception {
+    final ExternalCommitAwareSearchEngine engine = queueingEngine();
+    save("FirstPage", "spam", 2);
+    assertEquals(1, engine.search("spam", false, true).size());
+    assertEquals(2, engine.getHighestSyncedRevision());
+  }
+
+}
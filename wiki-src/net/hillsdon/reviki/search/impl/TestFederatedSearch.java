@@ -0,0 +1,128 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.vc.impl.PageInfoImpl;
+import net.hillsdon.reviki.wiki.MarkupRenderer;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * Tests for {@link FederatedSearch}.
+ */
+public class TestFederatedSearch extends TestCase {
+
+  private SearchIndices _indices;
+  private File _fast;
+  private File _slow;
+  private File _missing;
+
+  private File createIndex(final String wiki) throws Exception {
+    File dir = TempIndexDirs.createTempDir();
+    new LuceneSearcher(_indices, wiki, dir, Collections.<File>emptyList(), MarkupRenderer.AS_IS).index(new PageInfoImpl(wiki, "ThePage", "content", Collections.<String, String>emptyMap()), true);
+    _indices.commitPending(dir);
+    return dir;
+  }
+
+  @Override
+  protected void setUp() throws Exception {
+    _indices = new SearchIndices();
+    _fast = createIndex("fast");
+    _slow = createIndex("slow");
+    _missing = new File(_fast, "missing");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _indices.dispose();
+    TempIndexDirs.cleanupTempDir(_fast);
+    TempIndexDirs.cleanupTempDir(_slow);
+  }
+
+  public void testSlowIndexTimesOutAndOthersAnswer() throws Exception {
+    final CountDownLatch slowCanFinish = new CountDownLatch(1);
+    final CountDownLatch slowFinished = new CountDownLatch(1);
+    FederatedSearch.Results results = _indices.getFederatedSearch().start(Arrays.asList(_fast, _slow, _missing), new FederatedSearch.IndexQuery() {
+      public LuceneSearcher.TopHits execute(final IndexSearcher searcher) throws IOException {
+        if (searcher.getIndexReader().directory().toString().endsWith(_slow.getName())) {
+          try {
+            slowCanFinish.await();
+          }
+          catch (InterruptedException e) {
+            throw new IOException("Interrupted");
+          }
+          slowFinished.countDown();
+        }
+        return LuceneSearcher.collect(searcher, new TermQuery(new Term("path", "ThePage")), 10);
+      }
+    });
+    try {
+      results.await(200);
+      assertEquals(1, results.getAnswered().size());
+      assertEquals(_fast, results.getAnswered().get(0).getDir());
+      assertEquals(1, results.getAnswered().get(0).getHits().getHits().size());
+      assertEquals(Arrays.asList(_slow), results.getTimedOut());
+      assertEquals(Collections.singleton(_missing), results.getFailed().keySet());
+    }
+    finally {
+      results.release();
+      slowCanFinish.countDown();
+    }
+    slowFinished.await();
+    assertEquals(1, _indices.getFederatedSearch().getLatencies().get(_slow).getTimeouts());
+    assertTrue(_indices.getFederatedSearch().getLatencies().get(_fast).getSearches() > 0);
+  }
+
+  public void testSearchesBeyondTheQueueAreReportedAsTimedOut() throws Exception {
+    final CountDownLatch canFinish = new CountDownLatch(1);
+    final List<File> dirs = new ArrayList<File>();
+    for (int i = 0; i < FederatedSearch.THREADS * 17 + 1; ++i) {
+      dirs.add(_fast);
+    }
+    FederatedSearch.Results results = _indices.getFederatedSearch().start(dirs, new FederatedSearch.IndexQuery() {
+      public LuceneSearcher.TopHits execute(final IndexSearcher searcher) throws IOException {
+        try {
+          canFinish.await();
+        }
+        catch (InterruptedException e) {
+          throw new IOException("Interrupted");
+        }
+        return LuceneSearcher.collect(searcher, new TermQuery(new Term("path", "ThePage")), 10);
+      }
+    });
+    canFinish.countDown();
+    try {
+      results.await(5000);
+      assertEquals(dirs.size() - 1, results.getAnswered().size());
+      assertEquals(Arrays.asList(_fast), results.getTimedOut());
+    }
+    finally {
+      results.release();
+    }
+  }
+
+}
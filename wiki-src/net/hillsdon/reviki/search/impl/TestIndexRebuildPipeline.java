@@ -0,0 +1,162 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isNull;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.search.AttachmentTextExtractor;
+import net.hillsdon.reviki.search.SearchMatch;
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.ChangeType;
+import net.hillsdon.reviki.vc.PageReference;
+import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.vc.impl.BasicSVNOperations;
+import net.hillsdon.reviki.vc.impl.PageInfoImpl;
+import net.hillsdon.reviki.vc.impl.PageReferenceImpl;
+import net.hillsdon.reviki.vc.impl.SimplePageStore;
+import net.hillsdon.reviki.wiki.MarkupRenderer;
+
+import org.easymock.IAnswer;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Tests for {@link IndexRebuildPipeline}.
+ */
+public class TestIndexRebuildPipeline extends TestCase {
+
+  private static final String WIKI_NAME = "wiki";
+  private static final int WORKERS = 2;
+
+  private SearchIndices _indices;
+  private File _dir;
+  private SimplePageStore _store;
+  private LuceneSearcher _searcher;
+  private AtomicInteger _renderersCreated;
+  private IndexRebuildPipeline _pipeline;
+
+  @Override
+  protected void setUp() throws Exception {
+    _indices = new SearchIndices();
+    _dir = TempIndexDirs.createTempDir();
+    _store = new SimplePageStore(WIKI_NAME);
+    _searcher = new LuceneSearcher(_indices, WIKI_NAME, _dir, Collections.<File>emptyList(), MarkupRenderer.AS_IS);
+    _renderersCreated = new AtomicInteger();
+    _pipeline = new IndexRebuildPipeline(_store, _searcher, new Supplier<MarkupRenderer<?>>() {
+      public MarkupRenderer<?> get() {
+        _renderersCreated.incrementAndGet();
+        return MarkupRenderer.AS_IS;
+      }
+    }, WORKERS);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _indices.dispose();
+    TempIndexDirs.cleanupTempDir(_dir);
+  }
+
+  private PageReference addPage(final String path, final String content) throws Exception {
+    _store.set(new PageInfoImpl(WIKI_NAME, path, content, Collections.<String, String>emptyMap()), "", 0, "");
+    return new PageReferenceImpl(path);
+  }
+
+  public void testIndexesExistingAndRemovesDeleted() throws Exception {
+    _searcher.index(new PageInfoImpl(WIKI_NAME, "GonePage", "eggs", Collections.<String, String>emptyMap()), true);
+    List<PageReference> pages = ImmutableList.of(addPage("FirstPage", "spam"), addPage("SecondPage", "spam"));
+
+    _pipeline.run(pages, ImmutableList.<PageReference>of(new PageReferenceImpl("GonePage")), -1);
+
+    assertEquals(2, _searcher.search("spam", false, true).size());
+    assertEquals(0, _searcher.search("eggs", false, true).size());
+    assertEquals(3, _pipeline.getTotal());
+    assertEquals(2, _pipeline.getFetched());
+    assertEquals(2, _pipeline.getParsed());
+    assertEquals(2, _pipeline.getWritten());
+    assertEquals(1, _pipeline.getDeleted());
+    assertEquals(0, _pipeline.getFailed());
+    assertTrue(_renderersCreated.get() <= WORKERS + 1);
+  }
+
+  public void testFetchesIndividuallyIfBatchFails() throws Exception {
+    List<PageReference> pages = ImmutableList.of(addPage("FirstPage", "spam"), new PageReferenceImpl("NoSuchPage"), addPage("SecondPage", "spam"));
+
+    _pipeline.run(pages, ImmutableList.<PageReference>of(), -1);
+
+    assertEquals(2, _searcher.search("spam", false, true).size());
+    assertEquals(2, _pipeline.getWritten());
+    assertEquals(0, _pipeline.getFailed());
+  }
+
+  public void testCancelledPipelineFetchesNothing() throws Exception {
+    List<PageReference> pages = ImmutableList.of(addPage("FirstPage", "spam"));
+    _pipeline.cancel();
+
+    _pipeline.run(pages, ImmutableList.<PageReference>of(), -1);
+
+    assertEquals(0, _pipeline.getFetched());
+    assertEquals(0, _searcher.search("spam", false, true).size());
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testIndexesAttachmentsAfterPages() throws Exception {
+    final BasicSVNOperations operations = createMock(BasicSVNOperations.class);
+    operations.getFile(eq("ThePage-attachments/notes.txt"), eq(-1L), (Map<String, String>) isNull(), (OutputStream) anyObject());
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+      public Object answer() throws Throwable {
+        ((OutputStream) getCurrentArguments()[3]).write("eggs".getBytes("UTF-8"));
+        return null;
+      }
+    });
+    operations.dispose();
+    replay(operations);
+    final Supplier<List<AttachmentTextExtractor>> extractors = Suppliers.<List<AttachmentTextExtractor>>ofInstance(Arrays.<AttachmentTextExtractor>asList(new PlainTextExtractor()));
+    final AttachmentIndexer attachments = new AttachmentIndexer(_indices, WIKI_NAME, _searcher, Suppliers.ofInstance(operations), extractors, AttachmentIndexer.DEFAULT_MAX_BYTES);
+    _pipeline = new IndexRebuildPipeline(_store, _searcher, Suppliers.ofInstance(MarkupRenderer.AS_IS), WORKERS, attachments);
+    _searcher.indexAttachment(WIKI_NAME, "ThePage", "gone.txt", "ham");
+    final List<ChangeInfo> changes = ImmutableList.of(attachmentChange("notes.txt", ChangeType.ADDED), attachmentChange("gone.txt", ChangeType.DELETED));
+
+    _pipeline.run(ImmutableList.of(addPage("ThePage", "spam")), ImmutableList.<PageReference>of(), changes, -1);
+
+    assertEquals(Collections.singleton(new SearchMatch(true, WIKI_NAME, "ThePage", null)), _searcher.search("eggs", false, true));
+    assertEquals(0, _searcher.search("ham", false, true).size());
+    verify(operations);
+  }
+
+  private static ChangeInfo attachmentChange(final String attachment, final ChangeType type) {
+    return new ChangeInfo("ThePage", attachment, "bob", new Date(), 5, "", StoreKind.ATTACHMENT, type, null, -1);
+  }
+
+}
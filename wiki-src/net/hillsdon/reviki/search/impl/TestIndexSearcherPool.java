@@ -0,0 +1,96 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.AlreadyClosedException;
+
+/**
+ * Tests for {@link IndexSearcherPool}.
+ */
+public class TestIndexSearcherPool extends TestCase {
+
+  private SearchIndices _indices;
+  private File _dir;
+  private BatchingIndexWriter _writer;
+  private IndexSearcherPool _pool;
+
+  @Override
+  protected void setUp() throws Exception {
+    _indices = new SearchIndices();
+    _dir = TempIndexDirs.createTempDir();
+    _writer = _indices.getWriter(_dir, new KeywordAnalyzer());
+    _pool = _indices.getSearcherPool(_dir);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _indices.dispose();
+    TempIndexDirs.cleanupTempDir(_dir);
+  }
+
+  private void addDocument(final String id) throws Exception {
+    Document document = new Document();
+    document.add(new Field("id", id, Field.Store.YES, Field.Index.UN_TOKENIZED));
+    _writer.updateDocument(new Term("id", id), document);
+    _writer.commit();
+  }
+
+  public void testReusesReaderWhileIndexUnchanged() throws Exception {
+    IndexSearcherPool.Lease first = _pool.acquire();
+    first.release();
+    IndexSearcherPool.Lease second = _pool.acquire();
+    second.release();
+    assertSame(first, second);
+  }
+
+  public void testReopensAfterCommit() throws Exception {
+    IndexSearcherPool.Lease first = _pool.acquire();
+    first.release();
+    addDocument("a");
+    IndexSearcherPool.Lease second = _pool.acquire();
+    try {
+      assertNotSame(first, second);
+      assertEquals(1, second.getReader().numDocs());
+    }
+    finally {
+      second.release();
+    }
+  }
+
+  public void testReplacedReaderClosedOnlyOnceReleased() throws Exception {
+    IndexSearcherPool.Lease first = _pool.acquire();
+    addDocument("a");
+    _pool.acquire().release();
+    // Still usable as we hold a lease.
+    assertEquals(0, first.getReader().numDocs());
+    first.release();
+    try {
+      first.getReader().document(0);
+      fail("Expected reader to be closed");
+    }
+    catch (AlreadyClosedException expected) {
+    }
+  }
+
+}
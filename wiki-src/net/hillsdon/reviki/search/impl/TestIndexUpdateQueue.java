@@ -0,0 +1,130 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.vc.impl.PageInfoImpl;
+import net.hillsdon.reviki.wiki.MarkupRenderer;
+
+import org.apache.lucene.document.Document;
+
+/**
+ * Tests for {@link IndexUpdateQueue}.
+ */
+public class TestIndexUpdateQueue extends TestCase {
+
+  private static final String WIKI_NAME = "wiki";
+
+  private SearchIndices _indices;
+  private File _dir;
+  private LuceneSearcher _searcher;
+  private IndexUpdateQueue _queue;
+
+  @Override
+  protected void setUp() throws Exception {
+    _indices = new SearchIndices();
+    _dir = TempIndexDirs.createTempDir();
+    _searcher = new LuceneSearcher(_indices, WIKI_NAME, _dir, Collections.<File>emptyList(), MarkupRenderer.AS_IS);
+    _searcher.rememberHighestIndexedRevision(1);
+    _queue = new IndexUpdateQueue(_indices, _searcher, 5000);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _indices.dispose();
+    TempIndexDirs.cleanupTempDir(_dir);
+  }
+
+  private void save(final String path, final String content, final long revision) throws Exception {
+    _queue.enqueue(new PageInfoImpl(WIKI_NAME, path, content, Collections.<String, String>emptyMap()), revision);
+  }
+
+  public void testAppliesQueuedSavesAndAdvancesIndexedRevision() throws Exception {
+    save("FirstPage", "spam", 2);
+    save("SecondPage", "spam", 3);
+    assertEquals(3, _queue.getHighestQueuedRevision());
+
+    assertTrue(_queue.awaitQueued());
+    assertEquals(2, _searcher.search("spam", false, true).size());
+    assertEquals(3, _searcher.getHighestIndexedRevision());
+    assertEquals(0, _queue.getPendingCount());
+  }
+
+  public void testEmptyContentDeletes() throws Exception {
+    save("FirstPage", "spam", 2);
+    assertTrue(_queue.awaitQueued());
+    save("FirstPage", "", 3);
+    assertTrue(_queue.awaitQueued());
+    assertEquals(0, _searcher.search("spam", false, true).size());
+  }
+
+  public void testRepeatedSavesOfAPageAreCoalesced() throws Exception {
+    synchronized (_queue) {
+      // The worker can't take anything while we hold the lock.
+      save("FirstPage", "spam", 2);
+      save("FirstPage", "eggs", 3);
+    }
+    assertTrue(_queue.awaitQueued());
+    assertEquals(1, _queue.getCoalescedCount());
+    assertEquals(1, _queue.getAppliedCount());
+    assertEquals(0, _searcher.search("spam", false, true).size());
+    assertEquals(1, _searcher.search("eggs", false, true).size());
+  }
+
+  public void testSaveAfterACommitFromElsewhereDoesNotAdvanceIndexedRevision() throws Exception {
+    // Revision 2 was committed elsewhere and hasn't been synced.
+    save("FirstPage", "spam", 3);
+    assertEquals(1, _queue.getHighestSyncedRevision(1));
+    assertTrue(_queue.awaitQueued());
+    assertEquals(1, _searcher.getHighestIndexedRevision());
+
+    // Once synced our save counts too.
+    save("SecondPage", "spam", 4);
+    assertEquals(4, _queue.getHighestSyncedRevision(2));
+    assertEquals(1, _queue.getHighestSyncedRevision(1));
+    assertTrue(_queue.awaitQueued());
+  }
+
+  public void testFailedBatchDoesNotStopLaterSaves() throws Exception {
+    final LuceneSearcher failing = new LuceneSearcher(_indices, WIKI_NAME, _dir, Collections.<File>emptyList(), MarkupRenderer.AS_IS) {
+      private boolean _failed = false;
+      @Override
+      void indexDocument(final Document document) throws IOException {
+        if (!_failed) {
+          _failed = true;
+          throw new IllegalStateException("Failing once");
+        }
+        super.indexDocument(document);
+      }
+    };
+    _queue = new IndexUpdateQueue(_indices, failing, 5000);
+    save("FirstPage", "spam", 2);
+    assertTrue(_queue.awaitQueued());
+    assertEquals(1, _queue.getHighestSyncedRevision(1));
+
+    save("SecondPage", "spam", 3);
+    assertTrue(_queue.awaitQueued());
+    assertEquals(1, _searcher.search("spam", false, true).size());
+    // Pausing doesn't wait for the failed batch.
+    _queue.pause();
+    _queue.resume();
+  }
+
+}
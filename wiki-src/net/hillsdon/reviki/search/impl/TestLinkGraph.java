@@ -0,0 +1,106 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import static java.util.Collections.emptySet;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Tests for {@link LinkGraph}.
+ */
+public class TestLinkGraph extends TestCase {
+
+  private SearchIndices _indices;
+  private File _dir;
+  private LinkGraph _graph;
+
+  @Override
+  protected void setUp() throws Exception {
+    _indices = new SearchIndices();
+    _dir = TempIndexDirs.createTempDir();
+    _graph = _indices.getLinkGraph(_dir);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _indices.dispose();
+    TempIndexDirs.cleanupTempDir(_dir);
+  }
+
+  public void testLinksInBothDirections() {
+    _graph.setOutgoing("FrontPage", Arrays.asList("FindPage", "ConfigCss", "FindPage", "FrontPage"));
+    _graph.setOutgoing("FindPage", Arrays.asList("FrontPage"));
+    assertEquals(ImmutableSet.of("FindPage", "ConfigCss"), _graph.outgoing("FrontPage"));
+    assertEquals(ImmutableSet.of("FrontPage"), _graph.incoming("FindPage"));
+    assertEquals(ImmutableSet.of("FindPage"), _graph.incoming("FrontPage"));
+    assertEquals(emptySet(), _graph.incoming("NoSuchPage"));
+  }
+
+  public void testReplacingAndRemovingUpdateIncoming() {
+    _graph.setOutgoing("FrontPage", Arrays.asList("FindPage", "ConfigCss"));
+    _graph.setOutgoing("FrontPage", Arrays.asList("ConfigCss", "AllPages"));
+    assertEquals(emptySet(), _graph.incoming("FindPage"));
+    assertEquals(ImmutableSet.of("FrontPage"), _graph.incoming("AllPages"));
+
+    _graph.remove("FrontPage");
+    assertEquals(emptySet(), _graph.outgoing("FrontPage"));
+    assertEquals(emptySet(), _graph.incoming("ConfigCss"));
+  }
+
+  public void testOrphansTrackedAsLinksChange() {
+    _graph.setOutgoing("FrontPage", Arrays.asList("FindPage", "FrontPage"));
+    // Not indexed so not an orphan.
+    assertEquals(ImmutableSet.of("FrontPage"), _graph.orphans());
+    _graph.setOutgoing("FindPage", Arrays.asList("ConfigCss"));
+    assertEquals(ImmutableSet.of("FrontPage"), _graph.orphans());
+    _graph.setOutgoing("FrontPage", Arrays.asList("ConfigCss"));
+    assertEquals(ImmutableSet.of("FrontPage", "FindPage"), _graph.orphans());
+    _graph.remove("FrontPage");
+    assertEquals(ImmutableSet.of("FindPage"), _graph.orphans());
+  }
+
+  public void testIsolatedIncludesUnindexedPagesAndThoseLinkedOnlyFromMissingPages() {
+    _graph.setOutgoing("FrontPage", Arrays.asList("FindPage"));
+    _graph.setOutgoing("FindPage", Arrays.asList("ConfigCss"));
+    _graph.setOutgoing("GonePage", Arrays.asList("AllPages"));
+    assertEquals(ImmutableSet.of("FrontPage", "AllPages", "NewPage"), _graph.isolated(Arrays.asList("FrontPage", "FindPage", "ConfigCss", "AllPages", "NewPage")));
+  }
+
+  public void testSavedGraphIsReloaded() throws Exception {
+    assertEquals(-1, _graph.getRevision());
+    _graph.setOutgoing("FrontPage", Arrays.asList("FindPage", "ConfigCss"));
+    _graph.setOutgoing("FindPage", Arrays.asList("FrontPage"));
+    _graph.save(7);
+    _indices.close();
+
+    LinkGraph reloaded = _indices.getLinkGraph(_dir);
+    assertNotSame(_graph, reloaded);
+    assertEquals(7, reloaded.getRevision());
+    assertEquals(ImmutableSet.of("FindPage", "ConfigCss"), reloaded.outgoing("FrontPage"));
+    assertEquals(ImmutableSet.of("FrontPage"), reloaded.incoming("ConfigCss"));
+    assertEquals(ImmutableSet.of("FindPage"), reloaded.incoming("FrontPage"));
+    assertEquals(emptySet(), reloaded.orphans());
+    reloaded.remove("FindPage");
+    assertEquals(ImmutableSet.of("FrontPage"), reloaded.orphans());
+  }
+
+}
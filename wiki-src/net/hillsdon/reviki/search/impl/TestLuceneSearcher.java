@@ -21,19 +21,38 @@ import static java.util.Collections.unmodifiableSet;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 import junit.framework.AssertionFailedError;
 import junit.framework.TestCase;
-import net.hillsdon.fij.io.Lsof;
 import net.hillsdon.reviki.search.SearchMatch;
+import net.hillsdon.reviki.search.SearchResults;
 import net.hillsdon.reviki.vc.impl.PageInfoImpl;
 import net.hillsdon.reviki.wiki.MarkupRenderer;
 
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.TermPositionVector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.highlight.Highlighter;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
+import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
+
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 
 /**
  * Tests for {@link LuceneSearcher}.
@@ -53,26 +72,7 @@ public class TestLuceneSearcher extends TestCase {
   private static final Set<SearchMatch> FIRST_3 = unmodifiableSet(ImmutableSet.of(new SearchMatch(true, WIKI_NAME, PAGE_THE_NAME, null), new SearchMatch(true, WIKI_NAME, PAGE_THE_NAME2, null), new SearchMatch(true, WIKI_NAME, PAGE_THE_NAME3, null)));
   private static final Set<SearchMatch> ALL_4 = unmodifiableSet(ImmutableSet.of(new SearchMatch(true, WIKI_NAME, PAGE_THE_NAME, null), new SearchMatch(true, WIKI_NAME, PAGE_THE_NAME2, null), new SearchMatch(true, WIKI_NAME, PAGE_THE_NAME3, null), new SearchMatch(true, WIKI_NAME, PAGE_THE_NAME4, null)));
 
-  private static File createTempDir() throws IOException {
-    File file = File.createTempFile("testDir", "");
-    assertTrue(file.delete());
-    assertTrue(file.mkdir());
-    return file;
-  }
-
-  private static void recursivelyDelete(final File dir) {
-    File[] contents = dir.listFiles();
-    for (File f : contents) {
-      if (f.isFile()) {
-        assertTrue(f.delete());
-      }
-      else {
-        recursivelyDelete(f);
-      }
-    }
-    assertTrue(dir.delete());
-  }
-
+  private SearchIndices _indices;
   private File _dir;
   private File _dir2;
   private LuceneSearcher _searcher;
@@ -80,29 +80,18 @@ public class TestLuceneSearcher extends TestCase {
 
   @Override
   protected void setUp() throws Exception {
-    _dir = createTempDir();
-    _dir2 = createTempDir();
-    _searcher = new LuceneSearcher(WIKI_NAME, _dir, Arrays.asList(_dir2), MarkupRenderer.AS_IS);
-    _searcher2 = new LuceneSearcher(WIKI_NAME2, _dir2, Arrays.asList(_dir), MarkupRenderer.AS_IS);
+    _indices = new SearchIndices();
+    _dir = TempIndexDirs.createTempDir();
+    _dir2 = TempIndexDirs.createTempDir();
+    _searcher = new LuceneSearcher(_indices, WIKI_NAME, _dir, Arrays.asList(_dir2), MarkupRenderer.AS_IS);
+    _searcher2 = new LuceneSearcher(_indices, WIKI_NAME2, _dir2, Arrays.asList(_dir), MarkupRenderer.AS_IS);
   }
 
   @Override
   protected void tearDown() throws Exception {
-    cleanupTempDir(_dir);
-    cleanupTempDir(_dir2);
-  }
-
-  protected void cleanupTempDir(final File tmpDir) {
-    // Nothing in tmpDir should be open.  Note this only works on Linux-like
-    // machines at the moment (silently passing on others).
-    for (File file : Lsof.lsof()) {
-      final String dir = tmpDir.getAbsolutePath() + File.separator;
-      final String filePath = file.getAbsolutePath();
-      if (filePath.startsWith(dir)) {
-        fail(file.toString() + " should be closed!");
-      }
-    }
-    recursivelyDelete(tmpDir);
+    _indices.dispose();
+    TempIndexDirs.cleanupTempDir(_dir);
+    TempIndexDirs.cleanupTempDir(_dir2);
   }
 
   public void testRepeatedAddsForSamePathReplace() throws Exception {
@@ -150,6 +139,55 @@ public class TestLuceneSearcher extends TestCase {
     assertEquals(JUST_THE_PAGE, _searcher.search(query, false, false));
   }
 
+  public void testFindsByAttributeField() throws Exception {
+    _searcher.index(new PageInfoImpl(WIKI_NAME, PAGE_THE_NAME, "the content", Collections.<String, String>singletonMap("status", "in progress")), true);
+    assertEquals(JUST_THE_PAGE, _searcher.search("@status:\"in progress\"", false, false));
+    assertEquals(emptySet(), _searcher.search("@status:progress", false, false));
+    assertEquals(emptySet(), _searcher.search("@owner:\"in progress\"", false, false));
+  }
+
+  private void indexWithAttributes(final String path, final String content, final String... keysAndValues) throws Exception {
+    final Map<String, String> attributes = new LinkedHashMap<String, String>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      attributes.put(keysAndValues[i], keysAndValues[i + 1]);
+    }
+    _searcher.index(new PageInfoImpl(WIKI_NAME, path, content, attributes), true);
+  }
+
+  public void testFacetsCountAttributeValuesOfMatchingPages() throws Exception {
+    indexWithAttributes("BugOne", "crash", "status", "open", "owner", "alice");
+    indexWithAttributes("BugTwo", "crash", "status", "closed", "owner", "bob");
+    indexWithAttributes("BugThree", "typo", "status", "open");
+    indexWithAttributes("NotABug", "crash");
+    _searcher.indexAttachment(WIKI_NAME, "BugThree", "log.txt", "crash");
+
+    final Map<String, Map<String, Integer>> all = _searcher.facets("", Arrays.asList("status", "owner", "missing"));
+    assertEquals(Arrays.asList("status", "owner", "missing"), new ArrayList<String>(all.keySet()));
+    assertEquals(Arrays.asList("open", "closed"), new ArrayList<String>(all.get("status").keySet()));
+    assertEquals(Integer.valueOf(2), all.get("status").get("open"));
+    assertEquals(Integer.valueOf(1), all.get("status").get("closed"));
+    assertEquals(Arrays.asList("alice", "bob"), new ArrayList<String>(all.get("owner").keySet()));
+    assertTrue(all.get("missing").isEmpty());
+
+    // The attachment match counts for its page.
+    final Map<String, Integer> crashes = _searcher.facets("crash", Arrays.asList("status")).get("status");
+    assertEquals(Integer.valueOf(2), crashes.get("open"));
+    assertEquals(Integer.valueOf(1), crashes.get("closed"));
+    assertEquals(Integer.valueOf(1), _searcher.facets("@owner:bob", Arrays.asList("status")).get("status").get("closed"));
+    assertEquals(1, _searcher.facets("@owner:bob", Arrays.asList("status")).get("status").size());
+  }
+
+  public void testDeletingPageRemovesItsAttachments() throws Exception {
+    _searcher.index(new PageInfoImpl(WIKI_NAME, PAGE_THE_NAME, "content", Collections.<String, String>emptyMap()), true);
+    _searcher.indexAttachment(WIKI_NAME, PAGE_THE_NAME, "log.txt", "crash");
+    _searcher.indexAttachment(WIKI_NAME, PAGE_THE_NAME2, "log.txt", "crash");
+    assertEquals(2, _searcher.search("crash", false, true).size());
+
+    _searcher.delete(WIKI_NAME, PAGE_THE_NAME, true);
+
+    assertEquals(singleton(new SearchMatch(true, WIKI_NAME, PAGE_THE_NAME2, null)), _searcher.search("crash", false, true));
+  }
+
   public void testCaseInsensitiveLowerFindsMixed() throws Exception {
     _searcher.index(new PageInfoImpl(WIKI_NAME, PAGE_THE_NAME, "The Content", Collections.<String, String>emptyMap()), true);
     assertEquals(JUST_THE_PAGE, _searcher.search("content", true, false));
@@ -248,4 +286,198 @@ public class TestLuceneSearcher extends TestCase {
     assertEquals(WIKI_NAME, _searcher.search("some or content", false, false).iterator().next().getWiki());
     assertEquals(WIKI_NAME2, _searcher2.search("some or content", false, false).iterator().next().getWiki());
   }
+
+  public void testPagedSearch() throws Exception {
+    for (String page : Arrays.asList(PAGE_THE_NAME, PAGE_THE_NAME2, PAGE_THE_NAME3, PAGE_THE_NAME4)) {
+      _searcher.index(new PageInfoImpl(WIKI_NAME, page, "the content", Collections.<String, String>emptyMap()), true);
+    }
+    List<SearchMatch> all = new ArrayList<SearchMatch>(_searcher.search("content", false, true));
+    SearchResults results = _searcher.search("content", true, true, 1, 2);
+    assertEquals(4, results.getTotal());
+    assertEquals(1, results.getOffset());
+    assertEquals(all.subList(1, 3), results.getMatches());
+    assertTrue(results.hasMore());
+    for (SearchMatch match : results.getMatches()) {
+      assertEquals("the <strong>content</strong>", match.getHtmlExtract());
+    }
+
+    SearchResults last = _searcher.search("content", false, true, 3, 2);
+    assertEquals(all.subList(3, 4), last.getMatches());
+    assertFalse(last.hasMore());
+    assertEquals(0, _searcher.search("content", false, true, 10, 2).getMatches().size());
+  }
+
+  public void testPagedSearchCountsPagesNotHitsWhenAttachmentsCrowdOutOthers() throws Exception {
+    _searcher.index(new PageInfoImpl(WIKI_NAME, "BusyPage", "zebra", Collections.<String, String>emptyMap()), true);
+    for (int i = 0; i < LuceneSearcher.DUPLICATE_HITS_MARGIN * 2; ++i) {
+      _searcher.indexAttachment(WIKI_NAME, "BusyPage", "file" + i + ".txt", "zebra");
+    }
+    for (int i = 0; i < 5; ++i) {
+      _searcher.index(new PageInfoImpl(WIKI_NAME, "QuietPage" + i, "a zebra among many other words of content " + i, Collections.<String, String>emptyMap()), true);
+    }
+    List<SearchMatch> all = new ArrayList<SearchMatch>(_searcher.search("zebra", false, true));
+    assertEquals(6, all.size());
+    SearchResults results = _searcher.search("zebra", false, true, 1, 3);
+    assertEquals(6, results.getTotal());
+    assertEquals(all.subList(1, 4), results.getMatches());
+  }
+
+  public void testPathBeatsTitleBeatsContent() throws Exception {
+    _searcher.index(new PageInfoImpl(WIKI_NAME, "SomethingElse", "crossings zebra crossings zebra", Collections.<String, String>emptyMap()), true);
+    _searcher.index(new PageInfoImpl(WIKI_NAME, "ZebraCrossing", "nothing to see", Collections.<String, String>emptyMap()), true);
+    _searcher.index(new PageInfoImpl(WIKI_NAME, "zebra", "nothing to see", Collections.<String, String>emptyMap()), true);
+    assertEquals(Arrays.asList("zebra", "ZebraCrossing", "SomethingElse"), ImmutableList.copyOf(Iterables.transform(_searcher.search("zebra", false, true), SearchMatch.TO_PAGE_NAME)));
+    // Stemmed so only title and content match.
+    assertEquals(Arrays.asList("ZebraCrossing", "SomethingElse"), ImmutableList.copyOf(Iterables.transform(_searcher.search("crossings", false, true), SearchMatch.TO_PAGE_NAME)));
+  }
+
+  public void testFindsBySubstringOfPath() throws Exception {
+    _searcher.index(new PageInfoImpl(WIKI_NAME, "SomeLongPageName", "nothing to see", Collections.<String, String>emptyMap()), true);
+    assertEquals(ImmutableList.of("SomeLongPageName"), ImmutableList.copyOf(Iterables.transform(_searcher.search("gpagen", false, true), SearchMatch.TO_PAGE_NAME)));
+    assertEquals(ImmutableList.of("SomeLongPageName"), ImmutableList.copyOf(Iterables.transform(_searcher.search("long*name", false, true), SearchMatch.TO_PAGE_NAME)));
+  }
+
+  public void testExtractsFromTermVectorsMatchReanalysis() throws Exception {
+    final String content = "Zebras & lions; a zebra's <stripes>.";
+    _searcher.index(new PageInfoImpl(WIKI_NAME, PAGE_THE_NAME, content, Collections.<String, String>emptyMap()), true);
+    final String extract = _searcher.search("zebra", true, true).iterator().next().getHtmlExtract();
+    assertEquals("<strong>Zebras</strong> &amp; lions; a <strong>zebra's</strong> &lt;stripes&gt;.", extract);
+
+    final IndexSearcherPool.Lease lease = _indices.getSearcherPool(_dir).acquire();
+    try {
+      // The page is added after the index format marker.
+      assertTrue(lease.getReader().getTermFreqVector(lease.getReader().maxDoc() - 1, "content") instanceof TermPositionVector);
+      final Analyzer analyzer = _searcher.createAnalyzer();
+      final Query query = _searcher.fieldQueries(analyzer, "zebra").get(3);
+      final Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter("<strong>", "</strong>"), new SimpleHTMLEncoder(), new QueryScorer(query));
+      assertEquals(extract, highlighter.getBestFragments(analyzer.tokenStream("content", new StringReader(content)), content, 3, "..."));
+    }
+    finally {
+      lease.release();
+    }
+  }
+
+  /**
+   * Writes a page as it was before the index format was recorded.
+   */
+  private static void writeOldFormatPage(final File dir, final String path, final String outgoingLinks, final String content, final String... attributes) throws IOException {
+    Document document = new Document();
+    document.add(new Field("uid", LuceneSearcher.uidFor(WIKI_NAME, path), Field.Store.YES, Field.Index.UN_TOKENIZED));
+    document.add(new Field("wiki", WIKI_NAME, Field.Store.YES, Field.Index.UN_TOKENIZED));
+    document.add(new Field("path", path, Field.Store.YES, Field.Index.UN_TOKENIZED));
+    document.add(new Field("path-lower", path.toLowerCase(), Field.Store.YES, Field.Index.UN_TOKENIZED));
+    document.add(new Field("title", path, Field.Store.YES, Field.Index.TOKENIZED));
+    document.add(new Field("outgoing-links", outgoingLinks, Field.Store.YES, Field.Index.TOKENIZED));
+    document.add(new Field("content", content, Field.Store.YES, Field.Index.TOKENIZED));
+    for (String attribute : attributes) {
+      document.add(new Field("attributes", attribute, Field.Store.YES, Field.Index.UN_TOKENIZED));
+    }
+    IndexWriter writer = new IndexWriter(dir, new StandardAnalyzer(), true);
+    writer.addDocument(document);
+    writer.close();
+  }
+
+  public void testUpgradesIndexWithoutPathSuffixes() throws Exception {
+    File dir = TempIndexDirs.createTempDir();
+    try {
+      writeOldFormatPage(dir, "SomeLongPageName", "", "nothing to see");
+
+      LuceneSearcher searcher = new LuceneSearcher(_indices, WIKI_NAME, dir, Collections.<File>emptyList(), MarkupRenderer.AS_IS);
+      searcher.upgradeIndexIfNecessary();
+      assertEquals(ImmutableList.of("SomeLongPageName"), ImmutableList.copyOf(Iterables.transform(searcher.search("gpagen", false, true), SearchMatch.TO_PAGE_NAME)));
+      assertEquals(1, searcher.search("nothing", false, true).size());
+    }
+    finally {
+      _indices.close();
+      TempIndexDirs.cleanupTempDir(dir);
+    }
+  }
+
+  public void testSearchesOtherWikisIndicesWithoutUpgradingThem() throws Exception {
+    writeOldFormatPage(_dir2, "SomeLongPageName", "", "nothing to see");
+    assertEquals(1, _searcher.search("see", false, false).size());
+    assertEquals(0, _searcher.search("gpagen", false, false).size());
+
+    _searcher2.upgradeIndexIfNecessary();
+
+    assertEquals(1, _searcher.search("gpagen", false, false).size());
+  }
+
+  public void testUpgradesIndexWithoutAttributeFields() throws Exception {
+    File dir = TempIndexDirs.createTempDir();
+    try {
+      writeOldFormatPage(dir, "SomePage", "", "nothing to see", "\"status\":\"open\"");
+
+      LuceneSearcher searcher = new LuceneSearcher(_indices, WIKI_NAME, dir, Collections.<File>emptyList(), MarkupRenderer.AS_IS);
+      searcher.upgradeIndexIfNecessary();
+      assertEquals(1, searcher.search("@status:open", false, true).size());
+      assertEquals(Collections.singletonMap("open", 1), searcher.facets("", Arrays.asList("status")).get("status"));
+    }
+    finally {
+      _indices.close();
+      TempIndexDirs.cleanupTempDir(dir);
+    }
+  }
+
+  public void testBuildsLinkGraphFromExistingIndexAndMaintainsIt() throws Exception {
+    File dir = TempIndexDirs.createTempDir();
+    try {
+      writeOldFormatPage(dir, "SomePage", "OtherPage Another%20Page SomePage", "links");
+
+      LuceneSearcher searcher = new LuceneSearcher(_indices, WIKI_NAME, dir, Collections.<File>emptyList(), MarkupRenderer.AS_IS);
+      assertEquals(ImmutableSet.of("OtherPage", "Another Page"), searcher.outgoingLinks("SomePage"));
+      assertEquals(ImmutableSet.of("SomePage"), searcher.incomingLinks("OtherPage"));
+      assertTrue(new File(dir, LinkGraph.FILE_NAME).isFile());
+
+      searcher.delete(WIKI_NAME, "SomePage", true);
+      assertEquals(emptySet(), searcher.incomingLinks("OtherPage"));
+      searcher.rememberHighestIndexedRevision(2);
+
+      // Reloaded from disk rather than rebuilt.
+      _indices.close();
+      assertEquals(emptySet(), searcher.outgoingLinks("SomePage"));
+      assertEquals(2, _indices.getLinkGraph(dir).getRevision());
+    }
+    finally {
+      _indices.close();
+      TempIndexDirs.cleanupTempDir(dir);
+    }
+  }
+
+  public void testIndexStateIsKeptOutsideTheIndex() throws Exception {
+    assertEquals(0, _searcher.getHighestIndexedRevision());
+    assertFalse(_searcher.isIndexBeingBuilt());
+    _searcher.setIndexBeingBuilt(true);
+    _searcher.rememberHighestIndexedRevision(42);
+    assertTrue(new File(_dir, IndexState.FILE_NAME).isFile());
+
+    _indices.close();
+    LuceneSearcher reopened = new LuceneSearcher(_indices, WIKI_NAME, _dir, Collections.<File>emptyList(), MarkupRenderer.AS_IS);
+    assertEquals(42, reopened.getHighestIndexedRevision());
+    assertTrue(reopened.isIndexBeingBuilt());
+  }
+
+  public void testTakesIndexStateFromOldPropertyDocuments() throws Exception {
+    File dir = TempIndexDirs.createTempDir();
+    try {
+      IndexWriter writer = new IndexWriter(dir, new StandardAnalyzer(), true);
+      for (String[] property : new String[][] {{"last-indexed-revision", "17"}, {"index-was-built", "true"}}) {
+        Document document = new Document();
+        document.add(new Field("property", property[0], Field.Store.YES, Field.Index.UN_TOKENIZED));
+        document.add(new Field("property-value", property[1], Field.Store.YES, Field.Index.UN_TOKENIZED));
+        writer.addDocument(document);
+      }
+      writer.close();
+
+      LuceneSearcher searcher = new LuceneSearcher(_indices, WIKI_NAME, dir, Collections.<File>emptyList(), MarkupRenderer.AS_IS);
+      assertEquals(17, searcher.getHighestIndexedRevision());
+      assertTrue(searcher.isIndexBeingBuilt());
+      assertTrue(new File(dir, IndexState.FILE_NAME).isFile());
+    }
+    finally {
+      _indices.close();
+      TempIndexDirs.cleanupTempDir(dir);
+    }
+  }
+
 }
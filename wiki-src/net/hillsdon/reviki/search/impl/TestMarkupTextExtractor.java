@@ -0,0 +1,56 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.io.ByteArrayInputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link MarkupTextExtractor}.
+ */
+public class TestMarkupTextExtractor extends TestCase {
+
+  private final MarkupTextExtractor _extractor = new MarkupTextExtractor();
+
+  private String extract(final String markup, final int maxChars) throws Exception {
+    return _extractor.extract("file.html", new ByteArrayInputStream(markup.getBytes("UTF-8")), maxChars);
+  }
+
+  public void testHandlesByExtension() {
+    assertTrue(_extractor.handles("Page.HTML"));
+    assertTrue(_extractor.handles("data.xml"));
+    assertFalse(_extractor.handles("notes.txt"));
+    assertFalse(_extractor.handles("html"));
+  }
+
+  public void testKeepsTextBetweenTags() throws Exception {
+    assertEquals("Title Some bold text", extract("<html><h1 class=\"a>b\">Title</h1><p>Some <b>bold</b> text</p></html>", 100));
+  }
+
+  public void testSkipsComments() throws Exception {
+    assertEquals("before after", extract("before <!-- a > b -- c -->after", 100));
+  }
+
+  public void testDecodesEntities() throws Exception {
+    assertEquals("a & b < c é &bogus; & d", extract("a &amp; b &lt; c &#233; &bogus; & d", 100));
+  }
+
+  public void testStopsAtMaxChars() throws Exception {
+    assertEquals("abc", extract("<p>abcdef</p>", 3));
+  }
+
+}
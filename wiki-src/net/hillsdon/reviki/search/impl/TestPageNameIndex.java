@@ -0,0 +1,87 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.search.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.ChangeType;
+import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.vc.impl.InMemoryDeletedRevisionTracker;
+
+/**
+ * Tests for {@link PageNameIndex}.
+ */
+public class TestPageNameIndex extends TestCase {
+
+  private InMemoryDeletedRevisionTracker _tracker;
+  private PageNameIndex _index;
+
+  @Override
+  protected void setUp() throws Exception {
+    _tracker = new InMemoryDeletedRevisionTracker();
+    _tracker.handleChanges(2, Arrays.asList(
+        change("FrontPage", 1, ChangeType.ADDED),
+        change("FrontDoor", 1, ChangeType.ADDED),
+        change("FindPage", 2, ChangeType.ADDED),
+        change("ConfigAutoProperties", 2, ChangeType.ADDED)));
+    _index = new PageNameIndex(_tracker);
+    assertEquals(2, _index.getHighestSyncedRevision());
+  }
+
+  private static ChangeInfo change(final String page, final long revision, final ChangeType type) {
+    return new ChangeInfo(page, page, "user", new Date(), revision, "", StoreKind.PAGE, type, null, -1);
+  }
+
+  public void testPrefixIsCaseInsensitiveAndSorted() {
+    assertEquals(Arrays.asList("FrontDoor", "FrontPage"), _index.suggest("front", 10));
+    assertEquals(Arrays.asList("FindPage", "FrontDoor", "FrontPage"), _index.suggest("F", 10));
+    assertEquals(Collections.emptyList(), _index.suggest("Nothing", 10));
+  }
+
+  public void testCamelHumps() {
+    assertEquals(Arrays.asList("FindPage", "FrontPage"), _index.suggest("FP", 10));
+    assertEquals(Arrays.asList("FrontPage"), _index.suggest("FrP", 10));
+    assertEquals(Arrays.asList("ConfigAutoProperties"), _index.suggest("CAP", 10));
+    assertEquals(Arrays.asList("ConfigAutoProperties"), _index.suggest("CoAu", 10));
+  }
+
+  public void testPrefixMatchesComeFirstAndLimitApplies() throws Exception {
+    _index.handleChanges(3, Arrays.asList(change("FPages", 3, ChangeType.ADDED)));
+    assertEquals(Arrays.asList("FPages", "FindPage", "FrontPage"), _index.suggest("FP", 10));
+    assertEquals(Arrays.asList("FPages", "FindPage"), _index.suggest("FP", 2));
+  }
+
+  public void testUpdatedByChanges() throws Exception {
+    List<ChangeInfo> changes = Arrays.asList(
+        change("FrontDoor", 3, ChangeType.DELETED),
+        change("FreshPage", 3, ChangeType.ADDED),
+        new ChangeInfo("FrontPage", "file.txt", "user", new Date(), 3, "", StoreKind.ATTACHMENT, ChangeType.DELETED, null, -1));
+    _index.handleChanges(3, changes);
+    assertEquals(3, _index.getHighestSyncedRevision());
+    assertEquals(Arrays.asList("FreshPage", "FrontPage"), _index.suggest("Fr", 10));
+  }
+
+  public void testHumps() {
+    assertEquals(Arrays.asList("Front", "Page", "2"), PageNameIndex.humps("FrontPage2"));
+    assertEquals(Arrays.asList("front"), PageNameIndex.humps("front"));
+  }
+
+}
@@ -60,4 +60,9 @@ public interface VersionedPageInfo extends PageInfo  {
 
   VersionedPageInfo withAlternativeAttributes(Map<String, String> attributes);
 
+  /**
+   * @return The same page with the given lock details in place of ours, all null for unlocked.
+   */
+  VersionedPageInfo withLock(String lockedBy, String lockToken, Date lockedSince);
+
 }
@@ -14,7 +14,7 @@ public class AttachmentListingDebug {
     DAVRepositoryFactory.setup();
     SVNRepository repository = SVNRepositoryFactory.create(SVNURL.parseURIDecoded("https://svn-dev-plaintext.int.corefiling.com/svn/web/wiki/dsl"));
     repository.setAuthenticationManager(SVNWCUtil.createDefaultAuthenticationManager());
-    RepositoryBasicSVNOperations operations = new RepositoryBasicSVNOperations(repository, null);
+    RepositoryBasicSVNOperations operations = new RepositoryBasicSVNOperations(repository, null, new WikiRootLocationCache());
     SVNPageStore store = new SVNPageStore("wiki", new InMemoryDeletedRevisionTracker(), operations, null, null);
     for (AttachmentHistory attachment : store.attachments(new PageReferenceImpl("Printing"))) {
       System.err.println(attachment.getName());
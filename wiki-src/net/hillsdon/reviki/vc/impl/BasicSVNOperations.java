@@ -60,6 +60,15 @@ public interface BasicSVNOperations {
   void getFiles(long revision, final Map<String, Map<String, String>> properties, final Map<String, ? extends OutputStream> outputStreams) throws NotFoundException, PageStoreAuthenticationException, PageStoreException;
   void getFile(String path, long revision, Map<String, String> properties, OutputStream out) throws NotFoundException, PageStoreAuthenticationException, PageStoreException;
 
+  /**
+   * Fetches a page: the node kind, and for a file its content, properties and current lock.
+   * This is two requests for a file where checkPath, getFile and getLock separately are three or more.
+   *
+   * @param properties Filled in if it's a file.
+   * @param out Written to if it's a file.
+   */
+  FetchedNode fetch(String path, long revision, Map<String, String> properties, OutputStream out) throws PageStoreAuthenticationException, PageStoreException;
+
 
   <T> T execute(SVNAction<T> action) throws PageStoreException, PageStoreAuthenticationException;
 
@@ -94,11 +103,23 @@ public interface BasicSVNOperations {
   void moveDir(ISVNEditor commitEditor, String fromPath, long baseRevision, String toPath) throws SVNException;
 
   void unlock(PageReference ref, String lockToken) throws PageStoreAuthenticationException, PageStoreException;
-  void lock(PageReference ref, long revision) throws AlreadyLockedException, PageStoreAuthenticationException, PageStoreException;
+  /**
+   * @return The lock taken, null if the server didn't say.
+   */
+  SVNLock lock(PageReference ref, long revision) throws AlreadyLockedException, PageStoreAuthenticationException, PageStoreException;
   SVNLock getLock(String path) throws NotFoundException, PageStoreAuthenticationException, PageStoreException;
+  /**
+   * @return The current locks on files under the wiki root, keyed by path relative to it.
+   */
+  Map<String, SVNLock> getLocks() throws PageStoreAuthenticationException, PageStoreException;
 
   List<SVNDirEntry> ls(String path) throws NotFoundException, PageStoreException;
 
+  /**
+   * @return The number of requests made to the server so far.
+   */
+  long getRoundTripCount();
+
   void dispose();
 
 }
@@ -80,6 +80,10 @@ public abstract class DelegatingBasicSVNOperations implements BasicSVNOperations
   public void getFile(final String path, final long revision, final Map<String, String> properties, final OutputStream out) throws NotFoundException, PageStoreAuthenticationException, PageStoreException {
     getDelegate().getFile(path, revision, properties, out);
   }
+
+  public FetchedNode fetch(final String path, final long revision, final Map<String, String> properties, final OutputStream out) throws PageStoreAuthenticationException, PageStoreException {
+    return getDelegate().fetch(path, revision, properties, out);
+  }
   
   public void getFiles(final long revision, final Map<String, Map<String, String>> properties, final Map<String, ? extends OutputStream> outputStreams) throws NotFoundException, PageStoreAuthenticationException, PageStoreException {
     getDelegate().getFiles(revision, properties, outputStreams);
@@ -93,12 +97,16 @@ public abstract class DelegatingBasicSVNOperations implements BasicSVNOperations
     return getDelegate().getLock(path);
   }
 
+  public Map<String, SVNLock> getLocks() throws PageStoreAuthenticationException, PageStoreException {
+    return getDelegate().getLocks();
+  }
+
   public String getRoot() throws PageStoreAuthenticationException, PageStoreException {
     return getDelegate().getRoot();
   }
 
-  public void lock(final PageReference ref, final long revision) throws AlreadyLockedException, PageStoreAuthenticationException, PageStoreException {
-    getDelegate().lock(ref, revision);
+  public SVNLock lock(final PageReference ref, final long revision) throws AlreadyLockedException, PageStoreAuthenticationException, PageStoreException {
+    return getDelegate().lock(ref, revision);
   }
 
   public List<ChangeInfo> log(final String path, final long limit, final LogEntryFilter logEntryFilter, final boolean stopOnCopy, final long startRevision, final long endRevision) throws PageStoreAuthenticationException, PageStoreException {
@@ -113,6 +121,10 @@ public abstract class DelegatingBasicSVNOperations implements BasicSVNOperations
     return getDelegate().ls(path);
   }
 
+  public long getRoundTripCount() {
+    return getDelegate().getRoundTripCount();
+  }
+
   public void dispose() {
     getDelegate().dispose();
   }
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import org.tmatesoft.svn.core.SVNLock;
+import org.tmatesoft.svn.core.SVNNodeKind;
+
+/**
+ * What {@link BasicSVNOperations#fetch} found at a path.
+ */
+public class FetchedNode {
+
+  private final SVNNodeKind _kind;
+  private final SVNLock _lock;
+
+  public FetchedNode(final SVNNodeKind kind, final SVNLock lock) {
+    _kind = kind;
+    _lock = lock;
+  }
+
+  /**
+   * @return The kind of node at the path in the requested revision.
+   */
+  public SVNNodeKind getKind() {
+    return _kind;
+  }
+
+  /**
+   * @return The file's current lock, null if it isn't locked or isn't a file.
+   */
+  public SVNLock getLock() {
+    return _lock;
+  }
+
+}
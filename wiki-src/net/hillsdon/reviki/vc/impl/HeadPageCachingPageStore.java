@@ -0,0 +1,198 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.tmatesoft.svn.core.SVNLock;
+
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.ChangeSubscriber;
+import net.hillsdon.reviki.vc.InterveningCommitException;
+import net.hillsdon.reviki.vc.NotFoundException;
+import net.hillsdon.reviki.vc.PageInfo;
+import net.hillsdon.reviki.vc.VersionedPageInfo;
+import net.hillsdon.reviki.vc.PageReference;
+import net.hillsdon.reviki.vc.PageStore;
+import net.hillsdon.reviki.vc.PageStoreException;
+
+
+/**
+ * Caches the head revision of recently used pages, e.g. FrontPage,
+ * ConfigSideBar and anything commonly included, forgoing instant
+ * response to external commits.  Entries are expired as the changes
+ * reach {@link #handleChanges}.
+ *
+ * Locks aren't committed so never show up as changes.  They're read
+ * through the operations on every get, which answer from a
+ * {@link LockSnapshot}, so a lock taken elsewhere shows promptly
+ * without refetching the page.
+ *
+ * @author mth
+ */
+public class HeadPageCachingPageStore extends SimpleDelegatingPageStore implements CachingPageStore, ChangeSubscriber {
+  private static final Log LOG = LogFactory.getLog(HeadPageCachingPageStore.class);
+
+  public static final int DEFAULT_MAX_PAGES = 500;
+
+  private long _lowestUnsyncedRevision = Integer.MAX_VALUE; // When the cache is empty nothing is unsynced
+
+  private final BasicSVNOperations _operations;
+  private final int _maxPages;
+  // Access ordered for least recently used eviction, guarded by this.
+  private final LinkedHashMap<PageReference, VersionedPageInfo> _cache = new LinkedHashMap<PageReference, VersionedPageInfo>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<PageReference, VersionedPageInfo> eldest) {
+      if (size() > _maxPages) {
+        _evictions++;
+        return true;
+      }
+      return false;
+    }
+  };
+
+  private long _hits = 0;
+  private long _misses = 0;
+  private long _evictions = 0;
+
+  public HeadPageCachingPageStore(final PageStore delegate, final BasicSVNOperations operations) {
+    this(delegate, operations, DEFAULT_MAX_PAGES);
+  }
+
+  /**
+   * @param operations Used to read lock details, or null to keep those first fetched where they don't matter.
+   * @param maxPages Number of pages to cache.
+   */
+  public HeadPageCachingPageStore(final PageStore delegate, final BasicSVNOperations operations, final int maxPages) {
+    super(delegate);
+    _operations = operations;
+    _maxPages = maxPages;
+  }
+
+  @Override
+  public VersionedPageInfo get(final PageReference ref, final long revision) throws PageStoreException {
+    if (revision >= 0) {
+      return super.get(ref, revision);
+    }
+
+    VersionedPageInfo pageInfo;
+    synchronized (this) {
+      pageInfo = _cache.get(ref);
+      if (pageInfo == null) {
+        _misses++;
+      }
+      else {
+        _hits++;
+      }
+    }
+    if (pageInfo == null) {
+      pageInfo = super.get(ref, revision);
+      // NB. revision is one of -1, -2, -3, -4. See VersionedPageInfoImpl
+      synchronized (this) {
+        long pageRev = pageInfo.getRevision();
+        LOG.debug("Caching: " + ref.getPath() + " Revision: " + Long.toString(pageRev));
+        _cache.put(ref, pageInfo);
+        // Do not record reviki internal revisions (one of -1. -2. -3. -4 see VersionedPageInfoImpl).
+        if (pageRev >= 0 && pageRev <= _lowestUnsyncedRevision) {
+          _lowestUnsyncedRevision = pageRev + 1;
+        }
+      }
+      return pageInfo;
+    }
+    if (pageInfo.isNewPage() || _operations == null) {
+      return pageInfo;
+    }
+    SVNLock lock = null;
+    try {
+      lock = _operations.getLock(ref.getPath());
+    }
+    catch (NotFoundException ex) {
+      // Deleted since, the change will expire the page.
+    }
+    return lock == null ? pageInfo.withLock(null, null, null) : pageInfo.withLock(lock.getOwner(), lock.getID(), lock.getCreationDate());
+  }
+
+  @Override
+  public long set(final PageInfo page, final String lockToken, final long baseRevision, final String commitMessage) throws InterveningCommitException, PageStoreException {
+    expire(page);
+    return super.set(page, lockToken, baseRevision, commitMessage);
+  }
+
+  /**
+   * @return The underlying page store that non-caching access is delegated to.
+   */
+  public PageStore getUnderlying() {
+    return getDelegate();
+  }
+
+  public synchronized void expire(final PageReference ref) {
+    _cache.remove(ref);
+  }
+
+  /**
+   * Exposed for testing.
+   *
+   * @param ref A page ref.
+   * @return true if we have a cached copy.
+   */
+  synchronized boolean isCached(final PageReference ref) {
+    return _cache.containsKey(ref);
+  }
+
+  public synchronized long getHitCount() {
+    return _hits;
+  }
+
+  public synchronized long getMissCount() {
+    return _misses;
+  }
+
+  /**
+   * @return Hits as a fraction of head revision gets, 0 if there have been none.
+   */
+  public synchronized double getHitRate() {
+    final long total = _hits + _misses;
+    return total == 0 ? 0 : (double) _hits / total;
+  }
+
+  public synchronized long getEvictionCount() {
+    return _evictions;
+  }
+
+  public synchronized int size() {
+    return _cache.size();
+  }
+
+  @Override
+  public synchronized long getHighestSyncedRevision() throws IOException {
+    return _lowestUnsyncedRevision - 1;
+  }
+
+  @Override
+  public synchronized void handleChanges(long upto, List<ChangeInfo> chronological) throws PageStoreException, IOException {
+    for (ChangeInfo change: chronological) {
+      PageReference pr = new PageReferenceImpl(change.getPage());
+      expire(pr);
+      _lowestUnsyncedRevision = change.getRevision() + 1;
+    }
+  }
+}
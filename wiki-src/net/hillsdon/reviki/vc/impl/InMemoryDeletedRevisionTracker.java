@@ -16,6 +16,7 @@
 package net.hillsdon.reviki.vc.impl;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -68,4 +69,11 @@ public class InMemoryDeletedRevisionTracker implements DeletedRevisionTracker {
     return _lastSyncedRevision;
   }
 
+  /**
+   * @return The last change to each path we know of.
+   */
+  Collection<ChangeInfo> lastChanges() {
+    return Collections.unmodifiableCollection(_lastChangeForPath.values());
+  }
+
 }
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.hillsdon.reviki.vc.PageStoreException;
+
+import org.tmatesoft.svn.core.SVNLock;
+
+/**
+ * All the locks under a wiki root, fetched with one request and kept briefly
+ * so that looking up the lock on a page is usually free.
+ *
+ * Our own lock and unlock calls are applied as they happen, so only locks
+ * taken or released by other clients can be up to the maximum age out of date.
+ * The server is asked without holding our lock; a snapshot fetched while we
+ * applied one of our own calls answers that lookup but isn't kept.
+ */
+public class LockSnapshot {
+
+  public static final long DEFAULT_MAX_AGE_MILLIS = 5000;
+
+  private final long _maxAgeMillis;
+  private Map<String, SVNLock> _locks = null;
+  private long _fetched;
+  private long _fetchCount = 0;
+  /** Counts our own lock and unlock calls, so a fetch can tell if it missed one. */
+  private long _changes = 0;
+
+  public LockSnapshot() {
+    this(DEFAULT_MAX_AGE_MILLIS);
+  }
+
+  public LockSnapshot(final long maxAgeMillis) {
+    _maxAgeMillis = maxAgeMillis;
+  }
+
+  /**
+   * @param operations Used to refresh the snapshot if it is too old.
+   * @param path Path relative to the wiki root.
+   * @return The lock on path, null if there isn't one.
+   */
+  public SVNLock getLock(final BasicSVNOperations operations, final String path) throws PageStoreException {
+    final long changes;
+    synchronized (this) {
+      if (_locks != null && System.currentTimeMillis() - _fetched <= _maxAgeMillis) {
+        return _locks.get(path);
+      }
+      changes = _changes;
+    }
+    final long fetched = System.currentTimeMillis();
+    final Map<String, SVNLock> locks = new HashMap<String, SVNLock>(operations.getLocks());
+    synchronized (this) {
+      _fetchCount++;
+      if (changes == _changes) {
+        _locks = locks;
+        _fetched = fetched;
+      }
+    }
+    return locks.get(path);
+  }
+
+  /**
+   * @param lock The lock taken on path, null if we don't know what it was.
+   */
+  public synchronized void locked(final String path, final SVNLock lock) {
+    _changes++;
+    if (lock == null) {
+      _locks = null;
+    }
+    else if (_locks != null) {
+      _locks.put(path, lock);
+    }
+  }
+
+  public synchronized void unlocked(final String path) {
+    _changes++;
+    if (_locks != null) {
+      _locks.remove(path);
+    }
+  }
+
+  /**
+   * @return The number of times the locks have been fetched from the server.
+   */
+  public synchronized long getFetchCount() {
+    return _fetchCount;
+  }
+
+}
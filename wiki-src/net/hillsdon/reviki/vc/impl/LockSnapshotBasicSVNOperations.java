@@ -0,0 +1,95 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.OutputStream;
+import java.util.Map;
+
+import net.hillsdon.reviki.vc.AlreadyLockedException;
+import net.hillsdon.reviki.vc.NotFoundException;
+import net.hillsdon.reviki.vc.PageReference;
+import net.hillsdon.reviki.vc.PageStoreAuthenticationException;
+import net.hillsdon.reviki.vc.PageStoreException;
+
+import org.tmatesoft.svn.core.SVNLock;
+import org.tmatesoft.svn.core.SVNNodeKind;
+
+/**
+ * Answers lock lookups from a {@link LockSnapshot} rather than asking the
+ * server about each path, and keeps the snapshot up to date with our own
+ * lock and unlock calls.
+ */
+public class LockSnapshotBasicSVNOperations extends DelegatingBasicSVNOperations {
+
+  private final BasicSVNOperations _delegate;
+  private final LockSnapshot _locks;
+
+  public LockSnapshotBasicSVNOperations(final BasicSVNOperations delegate, final LockSnapshot locks) {
+    _delegate = delegate;
+    _locks = locks;
+  }
+
+  @Override
+  protected BasicSVNOperations getDelegate() {
+    return _delegate;
+  }
+
+  @Override
+  public SVNLock getLock(final String path) throws NotFoundException, PageStoreAuthenticationException, PageStoreException {
+    return _locks.getLock(_delegate, path);
+  }
+
+  @Override
+  public FetchedNode fetch(final String path, final long revision, final Map<String, String> properties, final OutputStream out) throws PageStoreAuthenticationException, PageStoreException {
+    // As the delegate does it but without its getLock.
+    try {
+      _delegate.getFile(path, revision, properties, out);
+    }
+    catch (PageStoreAuthenticationException ex) {
+      throw ex;
+    }
+    catch (PageStoreException ex) {
+      final SVNNodeKind kind = _delegate.checkPath(path, revision);
+      if (SVNNodeKind.FILE.equals(kind)) {
+        throw ex;
+      }
+      return new FetchedNode(kind, null);
+    }
+    return new FetchedNode(SVNNodeKind.FILE, getLock(path));
+  }
+
+  @Override
+  public SVNLock lock(final PageReference ref, final long revision) throws AlreadyLockedException, PageStoreAuthenticationException, PageStoreException {
+    final SVNLock lock;
+    try {
+      lock = _delegate.lock(ref, revision);
+    }
+    catch (AlreadyLockedException ex) {
+      // Someone else got there since we last looked.
+      _locks.locked(ref.getPath(), null);
+      throw ex;
+    }
+    _locks.locked(ref.getPath(), lock);
+    return lock;
+  }
+
+  @Override
+  public void unlock(final PageReference ref, final String lockToken) throws PageStoreAuthenticationException, PageStoreException {
+    _delegate.unlock(ref, lockToken);
+    _locks.unlocked(ref.getPath());
+  }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.IOException;
+import java.util.List;
+
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.PageStoreAuthenticationException;
+import net.hillsdon.reviki.vc.PageStoreException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+/**
+ * Answers {@link #log} from an {@link SVNLogCache}, asking the server
+ * directly only if the cache fails.
+ */
+public class LogCachingBasicSVNOperations extends DelegatingBasicSVNOperations {
+
+  private static final Log LOG = LogFactory.getLog(LogCachingBasicSVNOperations.class);
+
+  private final BasicSVNOperations _delegate;
+  private final SVNLogCache _cache;
+
+  public LogCachingBasicSVNOperations(final BasicSVNOperations delegate, final SVNLogCache cache) {
+    _delegate = delegate;
+    _cache = cache;
+  }
+
+  @Override
+  protected BasicSVNOperations getDelegate() {
+    return _delegate;
+  }
+
+  @Override
+  public List<ChangeInfo> log(final String path, final long limit, final LogEntryFilter logEntryFilter, final boolean stopOnCopy, final long startRevision, final long endRevision) throws PageStoreAuthenticationException, PageStoreException {
+    final List<ChangeInfo> cached = execute(new SVNAction<List<ChangeInfo>>() {
+      public List<ChangeInfo> perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
+        try {
+          return _cache.log(repository, path, limit, logEntryFilter, stopOnCopy, startRevision, endRevision);
+        }
+        catch (IOException ex) {
+          LOG.warn("Log cache failed, asking the server", ex);
+          return null;
+        }
+      }
+    });
+    return cached != null ? cached : super.log(path, limit, logEntryFilter, stopOnCopy, startRevision, endRevision);
+  }
+
+}
@@ -0,0 +1,321 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.ChangeType;
+import net.hillsdon.reviki.vc.PageStoreException;
+import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.wiki.renderer.creole.PageLinkTarget;
+import net.hillsdon.reviki.wiki.renderer.creole.SimplePageLinkTarget;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps the tracked changes in a journal file so a restart only needs the
+ * log since the last sync rather than all of it.
+ *
+ * Each {@link #handleChanges} call appends one checksummed batch.  On load
+ * the batches are replayed, anything after a damaged batch is dropped and
+ * re-fetched, and the journal is rewritten as one batch of the last change
+ * to each path once it has grown well beyond that.
+ */
+public class PersistentDeletedRevisionTracker extends InMemoryDeletedRevisionTracker {
+
+  private static final Log LOG = LogFactory.getLog(PersistentDeletedRevisionTracker.class);
+
+  private static final int FORMAT = 1;
+  private static final int MIN_RECORDS_TO_COMPACT = 1000;
+
+  private static final byte NOT_RENAMED = 0;
+  private static final byte RENAMED_TO_PAGE = 1;
+  private static final byte RENAMED_TO_PATH = 2;
+
+  private final File _file;
+  private final String _namespace;
+  private boolean _journaling = true;
+
+  /**
+   * @param file The journal, created if necessary.
+   * @param namespace Distinguishes repositories, e.g. the wiki's URL, so a reconfigured wiki starts afresh.
+   */
+  public PersistentDeletedRevisionTracker(final File file, final String namespace) {
+    _file = file;
+    _namespace = namespace;
+    try {
+      load();
+    }
+    catch (IOException ex) {
+      LOG.warn("Discarding unreadable " + _file + ", we'll sync from the start", ex);
+      try {
+        rewrite();
+      }
+      catch (IOException rewriteFailure) {
+        LOG.error("Can't write " + _file + ", changes will not be remembered", rewriteFailure);
+        _journaling = false;
+      }
+    }
+  }
+
+  private void load() throws IOException {
+    if (!_file.exists()) {
+      rewrite();
+      return;
+    }
+    final long length = _file.length();
+    long validLength = 0;
+    int records = 0;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)));
+    try {
+      if (in.readInt() != FORMAT || !_namespace.equals(in.readUTF())) {
+        throw new IOException("Written in a different format or for a different repository");
+      }
+      validLength = length - in.available();
+      while (validLength < length) {
+        final byte[] batch = readBatch(in);
+        if (batch == null) {
+          LOG.warn("Dropping damaged end of " + _file + " after " + validLength + " bytes");
+          break;
+        }
+        records += replay(batch);
+        validLength += 4 + 8 + batch.length;
+      }
+    }
+    catch (EOFException ex) {
+      throw new IOException("Truncated header in " + _file);
+    }
+    finally {
+      IOUtils.closeQuietly(in);
+    }
+    if (validLength < length || (records > MIN_RECORDS_TO_COMPACT && records > 2 * lastChanges().size())) {
+      rewrite();
+    }
+  }
+
+  /**
+   * @return The batch's payload or null if it's incomplete or damaged.
+   */
+  private static byte[] readBatch(final DataInputStream in) throws IOException {
+    try {
+      final int length = in.readInt();
+      final long checksum = in.readLong();
+      if (length < 0 || length > in.available()) {
+        return null;
+      }
+      final byte[] batch = new byte[length];
+      in.readFully(batch);
+      return checksum(batch) == checksum ? batch : null;
+    }
+    catch (EOFException ex) {
+      return null;
+    }
+  }
+
+  private int replay(final byte[] batch) throws IOException {
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(batch));
+    final long upto = in.readLong();
+    final int count = in.readInt();
+    final List<ChangeInfo> changes = new ArrayList<ChangeInfo>(count);
+    for (int i = 0; i < count; ++i) {
+      changes.add(readChange(in));
+    }
+    try {
+      super.handleChanges(upto, changes);
+    }
+    catch (PageStoreException ex) {
+      throw new IOException(ex.getMessage());
+    }
+    return count;
+  }
+
+  /**
+   * Replaces the journal with a single batch holding what we know.
+   */
+  private synchronized void rewrite() throws IOException {
+    final List<ChangeInfo> changes = new ArrayList<ChangeInfo>(lastChanges());
+    Collections.sort(changes, new Comparator<ChangeInfo>() {
+      public int compare(final ChangeInfo a, final ChangeInfo b) {
+        return a.getRevision() < b.getRevision() ? -1 : a.getRevision() == b.getRevision() ? 0 : 1;
+      }
+    });
+    _file.getParentFile().mkdirs();
+    final File temp = new File(_file.getParentFile(), _file.getName() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+    try {
+      out.writeInt(FORMAT);
+      out.writeUTF(_namespace);
+      writeBatch(out, getHighestSyncedRevision(), changes);
+    }
+    finally {
+      out.close();
+    }
+    if (!temp.renameTo(_file)) {
+      _file.delete();
+      if (!temp.renameTo(_file)) {
+        throw new IOException("Failed to replace " + _file);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void handleChanges(final long upto, final List<ChangeInfo> chronological) throws PageStoreException, IOException {
+    final List<ChangeInfo> relevant = new ArrayList<ChangeInfo>(chronological.size());
+    for (ChangeInfo change : chronological) {
+      if (change.getPage() != null) {
+        relevant.add(change);
+      }
+    }
+    // Written first so what's on disk never claims more than we've seen.
+    if (_journaling) {
+      try {
+        append(upto, relevant);
+      }
+      catch (IOException ex) {
+        // A damaged tail is dropped on load so we just stop writing.
+        LOG.error("Can't write " + _file + ", further changes will not be remembered", ex);
+        _journaling = false;
+      }
+    }
+    super.handleChanges(upto, relevant);
+  }
+
+  private void append(final long upto, final List<ChangeInfo> changes) throws IOException {
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(_file, true));
+    try {
+      writeBatch(out, upto, changes);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private static void writeBatch(final OutputStream out, final long upto, final Collection<ChangeInfo> changes) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream batch = new DataOutputStream(bytes);
+    batch.writeLong(upto);
+    batch.writeInt(changes.size());
+    for (ChangeInfo change : changes) {
+      writeChange(batch, change);
+    }
+    batch.flush();
+    final byte[] payload = bytes.toByteArray();
+    final DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(payload.length);
+    data.writeLong(checksum(payload));
+    data.write(payload);
+    data.flush();
+  }
+
+  private static long checksum(final byte[] bytes) {
+    final CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return crc.getValue();
+  }
+
+  private static void writeChange(final DataOutputStream out, final ChangeInfo change) throws IOException {
+    writeString(out, change.getPage());
+    writeString(out, change.getName());
+    writeString(out, change.getUser());
+    out.writeLong(change.getDate() == null ? Long.MIN_VALUE : change.getDate().getTime());
+    out.writeLong(change.getRevision());
+    writeString(out, change.getCommitMessage());
+    writeString(out, change.getKind() == null ? null : change.getKind().name());
+    writeString(out, change.getChangeType() == null ? null : change.getChangeType().name());
+    writeString(out, change.getCopiedFrom());
+    out.writeLong(change.getCopiedFromRevision());
+    final PageLinkTarget renamedTo = change.getRenamedTo();
+    if (renamedTo instanceof SVNPathLinkTarget) {
+      out.writeByte(RENAMED_TO_PATH);
+      writeString(out, ((SVNPathLinkTarget) renamedTo).getRepositoryURL());
+      writeString(out, ((SVNPathLinkTarget) renamedTo).getPath());
+    }
+    else if (renamedTo != null) {
+      out.writeByte(RENAMED_TO_PAGE);
+      writeString(out, renamedTo.getPageName());
+    }
+    else {
+      out.writeByte(NOT_RENAMED);
+    }
+  }
+
+  private static ChangeInfo readChange(final DataInputStream in) throws IOException {
+    final String page = readString(in);
+    final String name = readString(in);
+    final String user = readString(in);
+    final long date = in.readLong();
+    final long revision = in.readLong();
+    final String commitMessage = readString(in);
+    final String kind = readString(in);
+    final String changeType = readString(in);
+    final String copiedFrom = readString(in);
+    final long copiedFromRevision = in.readLong();
+    PageLinkTarget renamedTo = null;
+    switch (in.readByte()) {
+      case RENAMED_TO_PATH:
+        renamedTo = new SVNPathLinkTarget(readString(in), readString(in));
+        break;
+      case RENAMED_TO_PAGE:
+        renamedTo = new SimplePageLinkTarget(null, readString(in), null, null);
+        break;
+      default:
+        break;
+    }
+    return new ChangeInfo(page, name, user, date == Long.MIN_VALUE ? null : new Date(date), revision, commitMessage, kind == null ? null : StoreKind.valueOf(kind), changeType == null ? null : ChangeType.valueOf(changeType), copiedFrom, copiedFromRevision, renamedTo);
+  }
+
+  private static void writeString(final DataOutputStream out, final String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    }
+    else {
+      final byte[] bytes = value.getBytes("UTF-8");
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(final DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+}
@@ -27,6 +27,7 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,7 +35,6 @@ import net.hillsdon.reviki.vc.AlreadyLockedException;
 import net.hillsdon.reviki.vc.ChangeInfo;
 import net.hillsdon.reviki.vc.ChangeType;
 import net.hillsdon.reviki.vc.NotFoundException;
-import net.hillsdon.reviki.vc.VersionedPageInfo;
 import net.hillsdon.reviki.vc.PageReference;
 import net.hillsdon.reviki.vc.PageStoreAuthenticationException;
 import net.hillsdon.reviki.vc.PageStoreException;
@@ -46,6 +46,7 @@ import org.tmatesoft.svn.core.ISVNLogEntryHandler;
 import org.tmatesoft.svn.core.SVNAuthenticationException;
 import org.tmatesoft.svn.core.SVNDirEntry;
 import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNLock;
 import org.tmatesoft.svn.core.SVNLogEntry;
@@ -54,6 +55,7 @@ import org.tmatesoft.svn.core.SVNNodeKind;
 import org.tmatesoft.svn.core.SVNProperties;
 import org.tmatesoft.svn.core.SVNProperty;
 import org.tmatesoft.svn.core.SVNPropertyValue;
+import org.tmatesoft.svn.core.SVNURL;
 import org.tmatesoft.svn.core.internal.util.SVNPathUtil;
 import org.tmatesoft.svn.core.internal.wc.SVNFileUtil;
 import org.tmatesoft.svn.core.io.ISVNEditor;
@@ -61,11 +63,6 @@ import org.tmatesoft.svn.core.io.ISVNFileCheckoutTarget;
 import org.tmatesoft.svn.core.io.SVNRepository;
 import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
 import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
-import org.tmatesoft.svn.core.wc.SVNClientManager;
-import org.tmatesoft.svn.core.wc.SVNInfo;
-import org.tmatesoft.svn.core.wc.SVNRevision;
-import org.tmatesoft.svn.core.wc.SVNWCClient;
-import org.tmatesoft.svn.core.wc.SVNWCUtil;
 
 /**
  * The real impl, using an {@link SVNRepository}.
@@ -78,10 +75,16 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
 
   private final SVNRepository _repository;
   private final AutoPropertiesApplier _autoPropertiesApplier;
+  private final WikiRootLocationCache _rootLocations;
+  private final AtomicLong _roundTrips = new AtomicLong();
 
-  public RepositoryBasicSVNOperations(final SVNRepository repository, final AutoPropertiesApplier autoPropertiesApplier) {
+  /**
+   * @param rootLocations Where wiki roots were in old revisions, shared between sessions.
+   */
+  public RepositoryBasicSVNOperations(final SVNRepository repository, final AutoPropertiesApplier autoPropertiesApplier, final WikiRootLocationCache rootLocations) {
     _repository = repository;
     _autoPropertiesApplier = autoPropertiesApplier;
+    _rootLocations = rootLocations;
   }
 
   public List<ChangeInfo> log(final String path, final long limit, final LogEntryFilter logEntryFilter, final boolean stopOnCopy, final long startRevision, final long endRevision) throws PageStoreAuthenticationException, PageStoreException {
@@ -92,6 +95,7 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
         SVNRepository repos = getSVNReposForRevision(_repository, endRevision);
         try {
           final String[] rootPath = {repos.getRepositoryPath("")};
+          _roundTrips.incrementAndGet();
           repos.log(new String[] { path }, endRevision, startRevision, true, stopOnCopy, limit, new ISVNLogEntryHandler() {
             public void handleLogEntry(final SVNLogEntry logEntry) throws SVNException {
               // Has the wiki root been renamed?  If so then follow the rename.
@@ -101,27 +105,27 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
                   rootPath[0] = changedPath.getCopyPath();
                 }
               }
-              entries.addAll(logEntryToChangeInfos(rootPath[0], path, logEntry, logEntryFilter));
+              entries.addAll(logEntryToChangeInfos(_repository, rootPath[0], path, logEntry, logEntryFilter));
             }
           });
           return entries;
         }
         finally {
-          repos.closeSession();
+          closeIfOther(repos, _repository);
         }
       }
     });
   }
 
   @SuppressWarnings("unchecked")
-  private List<ChangeInfo> logEntryToChangeInfos(final String rootPath, final String loggedPath, final SVNLogEntry entry, final LogEntryFilter logEntryFilter) throws SVNException {
+  static List<ChangeInfo> logEntryToChangeInfos(final SVNRepository repository, final String rootPath, final String loggedPath, final SVNLogEntry entry, final LogEntryFilter logEntryFilter) throws SVNException {
     final String fullLoggedPathFromAppend = SVNPathUtil.append(rootPath, loggedPath);
     final String fullLoggedPath = fixFullLoggedPath(fullLoggedPathFromAppend);
     final List<ChangeInfo> results = new LinkedList<ChangeInfo>();
     for (Map.Entry<String, SVNLogEntryPath> pathEntry : (Iterable<Map.Entry<String, SVNLogEntryPath>>) entry.getChangedPaths().entrySet()) {
       final String changedPath = pathEntry.getKey();
       if (logEntryFilter.accept(fullLoggedPath, pathEntry.getValue())) {
-        ChangeInfo change = classifiedChange(_repository, entry, rootPath, changedPath);
+        ChangeInfo change = classifiedChange(repository, entry, rootPath, changedPath);
         // Might want to put this at a higher level if we can ever do
         // something useful with 'other' changes.
         if (change.getKind() != StoreKind.OTHER) {
@@ -225,6 +229,7 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
     execute(new SVNAction<Void>() {
       public Void perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
         try {
+          _roundTrips.incrementAndGet();
           repository.unlock(singletonMap(ref.getPath(), lockToken), true, new SVNLockHandlerAdapter());
         }
         catch (SVNException ex) {
@@ -240,12 +245,19 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
     });
   }
 
-  public void lock(final PageReference ref, final long revision) throws AlreadyLockedException, PageStoreAuthenticationException, PageStoreException {
-    execute(new SVNAction<VersionedPageInfo>() {
-      public VersionedPageInfo perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
+  public SVNLock lock(final PageReference ref, final long revision) throws AlreadyLockedException, PageStoreAuthenticationException, PageStoreException {
+    return execute(new SVNAction<SVNLock>() {
+      public SVNLock perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
+        final SVNLock[] taken = {null};
         try {
           Map<String, Long> pathsToRevisions = singletonMap(ref.getPath(), revision);
-          repository.lock(pathsToRevisions, "Locked by reviki.", false, new SVNLockHandlerAdapter());
+          _roundTrips.incrementAndGet();
+          repository.lock(pathsToRevisions, "Locked by reviki.", false, new SVNLockHandlerAdapter() {
+            @Override
+            public void handleLock(final String path, final SVNLock lock, final SVNErrorMessage error) throws SVNException {
+              taken[0] = lock;
+            }
+          });
         }
         catch (SVNException ex) {
           if (SVNErrorCode.FS_PATH_ALREADY_LOCKED.equals(ex.getErrorMessage().getErrorCode())) {
@@ -254,10 +266,9 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
           }
           throw ex;
         }
-        return null;
+        return taken[0];
       }
     });
-
   }
 
   public void getFiles(final long revision, final Map<String, Map<String, String>> properties, final Map<String, ? extends OutputStream> outputStreams) throws NotFoundException, PageStoreAuthenticationException, PageStoreException {
@@ -280,31 +291,40 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
             }
           }
         };
+        final SVNRepository reposForRev = getSVNReposForRevision(repository, revision);
         try {
-          getSVNReposForRevision(repository, revision).checkoutFiles(revision, outputStreams.keySet().toArray(new String[outputStreams.size()]), coTarget);
+          _roundTrips.incrementAndGet();
+          reposForRev.checkoutFiles(revision, outputStreams.keySet().toArray(new String[outputStreams.size()]), coTarget);
         }
         catch (SVNException ex) {
           // FIXME: This used to check the code, but checkoutFiles gives much more random codes than getFile
           throw new NotFoundException(ex);
         }
+        finally {
+          closeIfOther(reposForRev, repository);
+        }
         return null;
       }
     });
   }
 
+  /**
+   * @return A session at the location of the wiki root as it was in the given revision,
+   *         repository itself if that's where it was.  Pass to {@link #closeIfOther} when done.
+   */
   private SVNRepository getSVNReposForRevision(final SVNRepository repository, final long revision) throws SVNException {
-    SVNClientManager manager = SVNClientManager.newInstance(SVNWCUtil.createDefaultOptions(true), repository.getAuthenticationManager());
-    try {
-      SVNWCClient client = manager.getWCClient();
-      SVNInfo info1 = client.doInfo(repository.getLocation(), SVNRevision.HEAD, SVNRevision.create(revision));
-
-      SVNRepository reposForRev = SVNRepositoryFactory.create(info1.getURL());
-      reposForRev.setAuthenticationManager(repository.getAuthenticationManager());
-
-      return reposForRev;
+    final SVNURL location = _rootLocations.forLocation(repository.getLocation()).locationAt(repository, revision);
+    if (location.equals(repository.getLocation())) {
+      return repository;
     }
-    finally {
-      manager.dispose();
+    SVNRepository reposForRev = SVNRepositoryFactory.create(location);
+    reposForRev.setAuthenticationManager(repository.getAuthenticationManager());
+    return reposForRev;
+  }
+
+  private static void closeIfOther(final SVNRepository reposForRev, final SVNRepository repository) {
+    if (reposForRev != repository) {
+      reposForRev.closeSession();
     }
   }
 
@@ -312,24 +332,9 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
     // Not quite all the tests pass if we implement getFile in terms of getFiles, and it would be less efficient
     // getFiles(revision, Collections.singletonMap(path, properties), Collections.singletonMap(path, out));
     execute(new SVNAction<Void>() {
-      @SuppressWarnings("unchecked")
       public Void perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
-        final SVNProperties props1 = properties == null ? null : new SVNProperties();
         try {
-          try {
-            repository.getFile(path, revision, props1, out);
-          }
-          catch (SVNException ex) {
-            // Try again using the location of the wiki root as it was in the given revision
-            getSVNReposForRevision(repository, revision).getFile(path, revision, props1, out);
-          }
-
-          if(properties != null) {
-            final Map<String, SVNPropertyValue> props2= props1.asMap();
-            for(Map.Entry<String, SVNPropertyValue> entry : props2.entrySet()) {
-              properties.put(entry.getKey(), entry.getValue().getString());
-            }
-          }
+          getFile(repository, path, revision, properties, out);
         }
         catch (SVNException ex) {
           // FIXME: Presumably this code would be different for non-http repositories.
@@ -343,9 +348,72 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
     });
   }
 
+  public FetchedNode fetch(final String path, final long revision, final Map<String, String> properties, final OutputStream out) throws PageStoreAuthenticationException, PageStoreException {
+    return execute(new SVNAction<FetchedNode>() {
+      public FetchedNode perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
+        // Optimistically assume a file, only asking what's there if that fails.
+        try {
+          getFile(repository, path, revision, properties, out);
+        }
+        catch (SVNException ex) {
+          final SVNNodeKind kind = operations.checkPath(path, revision);
+          if (SVNNodeKind.FILE.equals(kind)) {
+            throw ex;
+          }
+          return new FetchedNode(kind, null);
+        }
+        try {
+          _roundTrips.incrementAndGet();
+          return new FetchedNode(SVNNodeKind.FILE, repository.getLock(path));
+        }
+        catch (SVNException ex) {
+          // It was a file at 'revision' but is now deleted so there's no lock.
+          return new FetchedNode(SVNNodeKind.FILE, null);
+        }
+      }
+    });
+  }
+
+  /**
+   * Gets a file, trying the location of the wiki root as it was in the given revision if
+   * it isn't found at the current location.
+   */
+  @SuppressWarnings("unchecked")
+  private void getFile(final SVNRepository repository, final String path, final long revision, final Map<String, String> properties, final OutputStream out) throws SVNException {
+    final SVNProperties props1 = properties == null ? null : new SVNProperties();
+    try {
+      _roundTrips.incrementAndGet();
+      repository.getFile(path, revision, props1, out);
+    }
+    catch (SVNException ex) {
+      final SVNRepository reposForRev = getSVNReposForRevision(repository, revision);
+      if (reposForRev == repository) {
+        throw ex;
+      }
+      try {
+        _roundTrips.incrementAndGet();
+        reposForRev.getFile(path, revision, props1, out);
+      }
+      finally {
+        reposForRev.closeSession();
+      }
+    }
+
+    if(properties != null) {
+      final Map<String, SVNPropertyValue> props2= props1.asMap();
+      for(Map.Entry<String, SVNPropertyValue> entry : props2.entrySet()) {
+        // Local repositories give some entry properties without values.
+        if (entry.getValue() != null) {
+          properties.put(entry.getKey(), entry.getValue().getString());
+        }
+      }
+    }
+  }
+
   public long getLatestRevision() throws PageStoreAuthenticationException, PageStoreException {
     return execute(new SVNAction<Long>() {
       public Long perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
+        _roundTrips.incrementAndGet();
         return repository.getLatestRevision();
       }
     });
@@ -358,9 +426,19 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
   public SVNNodeKind checkPath(final String path, final long revision) throws PageStoreAuthenticationException, PageStoreException {
     return execute(new SVNAction<SVNNodeKind>() {
       public SVNNodeKind perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
+        _roundTrips.incrementAndGet();
         SVNNodeKind kind = repository.checkPath(path, revision);
         if (SVNNodeKind.NONE.equals(kind)) {
-          kind = getSVNReposForRevision(repository, revision).checkPath(path, revision);
+          final SVNRepository reposForRev = getSVNReposForRevision(repository, revision);
+          if (reposForRev != repository) {
+            try {
+              _roundTrips.incrementAndGet();
+              kind = reposForRev.checkPath(path, revision);
+            }
+            finally {
+              reposForRev.closeSession();
+            }
+          }
         }
         return kind;
       }
@@ -437,11 +515,31 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
   public SVNLock getLock(final String path) throws NotFoundException, PageStoreAuthenticationException, PageStoreException {
     return execute(new SVNAction<SVNLock>() {
       public SVNLock perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
+        _roundTrips.incrementAndGet();
         return repository.getLock(path);
       }
     });
   }
 
+  public Map<String, SVNLock> getLocks() throws PageStoreAuthenticationException, PageStoreException {
+    return execute(new SVNAction<Map<String, SVNLock>>() {
+      public Map<String, SVNLock> perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException {
+        String rootPath = repository.getRepositoryPath("");
+        if (!rootPath.endsWith("/")) {
+          rootPath = rootPath + "/";
+        }
+        final Map<String, SVNLock> locks = new LinkedHashMap<String, SVNLock>();
+        _roundTrips.incrementAndGet();
+        for (SVNLock lock : repository.getLocks("")) {
+          if (lock.getPath().startsWith(rootPath)) {
+            locks.put(lock.getPath().substring(rootPath.length()), lock);
+          }
+        }
+        return locks;
+      }
+    });
+  }
+
   public void moveFile(final ISVNEditor commitEditor, final String fromPath, final long baseRevision, final String toPath) throws SVNException {
     String dir = SVNPathUtil.removeTail(toPath);
     commitEditor.openDir(dir, -1);
@@ -462,12 +560,17 @@ public class RepositoryBasicSVNOperations implements BasicSVNOperations {
     return execute(new SVNAction<List<SVNDirEntry>>() {
       public List<SVNDirEntry> perform(final BasicSVNOperations operations, final SVNRepository repository) throws SVNException, PageStoreException, IOException {
         List<SVNDirEntry> list = new ArrayList<SVNDirEntry>();
+        _roundTrips.incrementAndGet();
         repository.getDir(path, -1, null, list);
         return list;
       }
     });
   }
 
+  public long getRoundTripCount() {
+    return _roundTrips.get();
+  }
+
   public void dispose() {
     _repository.closeSession();
   }
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import net.hillsdon.reviki.vc.NotFoundException;
+import net.hillsdon.reviki.vc.PageReference;
+import net.hillsdon.reviki.vc.PageStore;
+import net.hillsdon.reviki.vc.PageStoreException;
+import net.hillsdon.reviki.vc.VersionedPageInfo;
+
+import org.tmatesoft.svn.core.SVNLock;
+
+/**
+ * Serves pages at committed revisions from a {@link RevisionContentCache},
+ * e.g. for diffs, history and links to old revisions.
+ *
+ * The lock details are still fetched, as the page's current lock is reported
+ * whatever the revision, but that's one request rather than the several to
+ * fetch the page.
+ */
+public class RevisionCachingPageStore extends SimpleDelegatingPageStore {
+
+  private final String _wiki;
+  private final RevisionContentCache _cache;
+  private final BasicSVNOperations _operations;
+
+  public RevisionCachingPageStore(final String wiki, final PageStore delegate, final RevisionContentCache cache, final BasicSVNOperations operations) {
+    super(delegate);
+    _wiki = wiki;
+    _cache = cache;
+    _operations = operations;
+  }
+
+  @Override
+  public VersionedPageInfo get(final PageReference ref, final long revision) throws PageStoreException {
+    if (revision < 0) {
+      return super.get(ref, revision);
+    }
+    final VersionedPageInfo cached = _cache.get(_wiki, ref.getPath(), revision);
+    if (cached == null) {
+      final VersionedPageInfo page = super.get(ref, revision);
+      // Pseudo revisions (new, deleted, renamed) depend on what happened later.
+      if (page.getRevision() >= 0) {
+        _cache.put(page, revision);
+      }
+      return page;
+    }
+    SVNLock lock = null;
+    try {
+      lock = _operations.getLock(ref.getPath());
+    }
+    catch (NotFoundException ex) {
+      // Deleted since so no lock.
+    }
+    if (lock == null) {
+      return cached;
+    }
+    return new VersionedPageInfoImpl(_wiki, cached.getPath(), cached.getContent(), cached.getRevision(), cached.getLastChangedRevision(), cached.getLastChangedUser(), cached.getLastChangedDate(), lock.getOwner(), lock.getID(), lock.getCreationDate(), cached.getAttributes());
+  }
+
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.hillsdon.fij.text.Strings;
+import net.hillsdon.reviki.vc.VersionedPageInfo;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Pages as they were in committed revisions, kept on disk as they never change.
+ *
+ * An entry holds the content, attributes and last changed details of a page
+ * at a revision, in a file named for a hash of its path and revision.  Lock
+ * details aren't kept as they belong to the page now, not the revision.
+ * The least recently used entries are removed when the total size goes over
+ * the limit.
+ */
+public class RevisionContentCache {
+
+  private static final Log LOG = LogFactory.getLog(RevisionContentCache.class);
+
+  public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+  private static final int FORMAT = 1;
+  private static final String SUFFIX = ".rev";
+
+  private final File _dir;
+  private final String _namespace;
+  private final long _maxBytes;
+  /** File name to size, least recently used first. */
+  private final LinkedHashMap<String, Long> _entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+  private long _totalBytes = 0;
+  private long _hits = 0;
+  private long _misses = 0;
+  private long _evictions = 0;
+
+  /**
+   * @param dir Where to keep the entries, created if necessary.
+   * @param namespace Distinguishes repositories, e.g. the wiki's URL, so a reconfigured wiki doesn't see old entries.
+   * @param maxBytes Size limit for all the entries.
+   */
+  public RevisionContentCache(final File dir, final String namespace, final long maxBytes) {
+    _dir = dir;
+    _namespace = namespace;
+    _maxBytes = maxBytes;
+    _dir.mkdirs();
+    final File[] files = _dir.listFiles();
+    if (files != null) {
+      Arrays.sort(files, new Comparator<File>() {
+        public int compare(final File a, final File b) {
+          return a.lastModified() < b.lastModified() ? -1 : a.lastModified() == b.lastModified() ? 0 : 1;
+        }
+      });
+      for (File file : files) {
+        if (file.getName().endsWith(SUFFIX)) {
+          _entries.put(file.getName(), file.length());
+          _totalBytes += file.length();
+        }
+        else {
+          // An interrupted write.
+          file.delete();
+        }
+      }
+      evict();
+    }
+  }
+
+  private String fileName(final String path, final long revision) {
+    return DigestUtils.sha256Hex(_namespace + "\0" + path + "\0" + revision) + SUFFIX;
+  }
+
+  /**
+   * @param wiki The wiki, for the returned page.
+   * @param path A page.
+   * @param revision A committed revision.
+   * @return The page at that revision without lock details, null if we don't have it.
+   */
+  public VersionedPageInfo get(final String wiki, final String path, final long revision) {
+    final String name = fileName(path, revision);
+    synchronized (this) {
+      if (_entries.get(name) == null) {
+        _misses++;
+        return null;
+      }
+    }
+    try {
+      final VersionedPageInfo page = read(wiki, path, new File(_dir, name));
+      synchronized (this) {
+        _hits++;
+      }
+      return page;
+    }
+    catch (IOException ex) {
+      LOG.warn("Discarding unreadable cached revision " + name, ex);
+      remove(name);
+      synchronized (this) {
+        _misses++;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * @param page A page as it was at revision, which must be committed.
+   * @param revision The revision it was requested at.
+   */
+  public void put(final VersionedPageInfo page, final long revision) {
+    final String name = fileName(page.getPath(), revision);
+    synchronized (this) {
+      if (_entries.containsKey(name)) {
+        return;
+      }
+    }
+    final File temp = new File(_dir, name + ".tmp" + Thread.currentThread().getId());
+    try {
+      final FileOutputStream out = new FileOutputStream(temp);
+      try {
+        out.write(serialize(page));
+      }
+      finally {
+        out.close();
+      }
+      final File file = new File(_dir, name);
+      if (!temp.renameTo(file)) {
+        throw new IOException("Failed to rename " + temp + " to " + file);
+      }
+      synchronized (this) {
+        if (!_entries.containsKey(name)) {
+          _entries.put(name, file.length());
+          _totalBytes += file.length();
+          evict();
+        }
+      }
+    }
+    catch (IOException ex) {
+      LOG.warn("Failed to cache revision " + revision + " of " + page.getPath(), ex);
+      temp.delete();
+    }
+  }
+
+  private synchronized void evict() {
+    for (Iterator<Map.Entry<String, Long>> iter = _entries.entrySet().iterator(); _totalBytes > _maxBytes && iter.hasNext();) {
+      final Map.Entry<String, Long> eldest = iter.next();
+      iter.remove();
+      _totalBytes -= eldest.getValue();
+      _evictions++;
+      new File(_dir, eldest.getKey()).delete();
+    }
+  }
+
+  private synchronized void remove(final String name) {
+    final Long size = _entries.remove(name);
+    if (size != null) {
+      _totalBytes -= size;
+      new File(_dir, name).delete();
+    }
+  }
+
+  static byte[] serialize(final VersionedPageInfo page) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(FORMAT);
+    out.writeLong(page.getRevision());
+    out.writeLong(page.getLastChangedRevision());
+    writeString(out, page.getLastChangedUser());
+    out.writeLong(page.getLastChangedDate() == null ? Long.MIN_VALUE : page.getLastChangedDate().getTime());
+    out.writeInt(page.getAttributes().size());
+    for (Map.Entry<String, String> attribute : page.getAttributes().entrySet()) {
+      writeString(out, attribute.getKey());
+      writeString(out, attribute.getValue());
+    }
+    writeString(out, page.getContent());
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static void writeString(final DataOutputStream out, final String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    }
+    else {
+      final byte[] utf8 = Strings.fromUTF8(value);
+      out.writeInt(utf8.length);
+      out.write(utf8);
+    }
+  }
+
+  private static VersionedPageInfo read(final String wiki, final String path, final File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return deserialize(wiki, path, buffer);
+    }
+    finally {
+      raf.close();
+    }
+  }
+
+  static VersionedPageInfo deserialize(final String wiki, final String path, final ByteBuffer buffer) throws IOException {
+    try {
+      if (buffer.getInt() != FORMAT) {
+        throw new IOException("Unknown format");
+      }
+      final long revision = buffer.getLong();
+      final long lastChangedRevision = buffer.getLong();
+      final String lastChangedUser = readString(buffer);
+      final long date = buffer.getLong();
+      final int attributeCount = buffer.getInt();
+      final Map<String, String> attributes = new LinkedHashMap<String, String>();
+      for (int i = 0; i < attributeCount; ++i) {
+        attributes.put(readString(buffer), readString(buffer));
+      }
+      final String content = readString(buffer);
+      return new VersionedPageInfoImpl(wiki, path, content, revision, lastChangedRevision, lastChangedUser, date == Long.MIN_VALUE ? null : new Date(date), null, null, null, attributes);
+    }
+    catch (RuntimeException ex) {
+      // Truncated or otherwise corrupt.
+      throw new IOException("Corrupt entry: " + ex);
+    }
+  }
+
+  private static String readString(final ByteBuffer buffer) {
+    final int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    final byte[] utf8 = new byte[length];
+    buffer.get(utf8);
+    return Strings.toUTF8(utf8);
+  }
+
+  public synchronized long getHitCount() {
+    return _hits;
+  }
+
+  public synchronized long getMissCount() {
+    return _misses;
+  }
+
+  public synchronized long getEvictionCount() {
+    return _evictions;
+  }
+
+  public synchronized int size() {
+    return _entries.size();
+  }
+
+  public synchronized long getTotalBytes() {
+    return _totalBytes;
+  }
+
+}
@@ -0,0 +1,564 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import net.hillsdon.reviki.vc.ChangeInfo;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.picocontainer.Disposable;
+import org.tmatesoft.svn.core.ISVNLogEntryHandler;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.internal.util.SVNPathUtil;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+/**
+ * A local copy of the log of the wiki root, so history, recent changes and
+ * change notification don't each ask the server.
+ *
+ * Log entries, with all their changed paths, are appended to a file as
+ * they're fetched, only ever asking for revisions after the last one we
+ * checked.  In memory we keep each entry's offset and, for every changed
+ * path and its ancestors, the entries that touched it, so a query reads
+ * just the entries it needs.  The results are what
+ * {@link RepositoryBasicSVNOperations#log} gives for the same arguments.
+ */
+public class SVNLogCache implements Disposable {
+
+  private static final Log LOG = LogFactory.getLog(SVNLogCache.class);
+
+  private static final int FORMAT = 1;
+  private static final byte ENTRY = 'E';
+  private static final byte SYNCED = 'S';
+
+  /** Growable list of entry numbers, ascending. */
+  private static final class Postings {
+    int[] _entries = new int[2];
+    int _size = 0;
+
+    void add(final int entry) {
+      if (_size > 0 && _entries[_size - 1] == entry) {
+        return;
+      }
+      if (_size == _entries.length) {
+        _entries = Arrays.copyOf(_entries, _size * 2);
+      }
+      _entries[_size++] = entry;
+    }
+  }
+
+  /** A changed path that was copied from elsewhere, to follow renames of the root. */
+  private static final class Copy {
+    final int _entry;
+    final String _path;
+    final String _copyPath;
+
+    Copy(final int entry, final String path, final String copyPath) {
+      _entry = entry;
+      _path = path;
+      _copyPath = copyPath;
+    }
+  }
+
+  /** Entries from _lo to _hi inclusive were made when the root was at _root. */
+  private static final class Segment {
+    final int _lo;
+    final int _hi;
+    final String _root;
+
+    Segment(final int lo, final int hi, final String root) {
+      _lo = lo;
+      _hi = hi;
+      _root = root;
+    }
+  }
+
+  /** An entry to report, made when the root was at _root. */
+  private static final class Match {
+    final SVNLogEntry _entry;
+    final String _root;
+
+    Match(final SVNLogEntry entry, final String root) {
+      _entry = entry;
+      _root = root;
+    }
+  }
+
+  private final File _file;
+  private final String _namespace;
+  private RandomAccessFile _data;
+
+  private long _syncedTo = -1;
+  private int _size = 0;
+  private long[] _revisions = new long[1024];
+  private long[] _offsets = new long[1024];
+  private final Map<String, Postings> _byPath = new HashMap<String, Postings>();
+  private final List<Copy> _copies = new ArrayList<Copy>();
+  private long _fetches = 0;
+
+  /**
+   * @param dir Where to keep the log, created if necessary.
+   * @param namespace Distinguishes repositories, e.g. the wiki's URL, so a reconfigured wiki starts afresh.
+   */
+  public SVNLogCache(final File dir, final String namespace) {
+    dir.mkdirs();
+    _file = new File(dir, "log");
+    _namespace = namespace;
+    try {
+      load();
+    }
+    catch (IOException ex) {
+      LOG.warn("Discarding unreadable " + _file + ", we'll fetch the log again", ex);
+      clear();
+      try {
+        reset();
+      }
+      catch (IOException resetFailure) {
+        LOG.error("Can't write " + _file, resetFailure);
+      }
+    }
+  }
+
+  private void load() throws IOException {
+    _data = new RandomAccessFile(_file, "rw");
+    if (_data.length() == 0) {
+      reset();
+      return;
+    }
+    final long length = _data.length();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)));
+    long position;
+    try {
+      if (in.readInt() != FORMAT || !_namespace.equals(in.readUTF())) {
+        LOG.info("Ignoring " + _file + " as it's for a different format or repository");
+        reset();
+        return;
+      }
+      position = header().length;
+      while (position < length) {
+        final byte[] record = readRecord(in, length - position);
+        if (record == null) {
+          LOG.warn("Dropping damaged end of " + _file + " after " + position + " bytes");
+          break;
+        }
+        apply(record, position);
+        position += 4 + 8 + record.length;
+      }
+    }
+    catch (EOFException ex) {
+      throw new IOException("Truncated header in " + _file);
+    }
+    finally {
+      IOUtils.closeQuietly(in);
+    }
+    if (position < length) {
+      _data.setLength(position);
+    }
+  }
+
+  private void reset() throws IOException {
+    if (_data == null) {
+      _data = new RandomAccessFile(_file, "rw");
+    }
+    _data.setLength(0);
+    _data.write(header());
+  }
+
+  private byte[] header() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(FORMAT);
+    out.writeUTF(_namespace);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private void clear() {
+    _syncedTo = -1;
+    _size = 0;
+    _byPath.clear();
+    _copies.clear();
+  }
+
+  /**
+   * @return The record's payload or null if it's incomplete or damaged.
+   */
+  private static byte[] readRecord(final DataInputStream in, final long remaining) throws IOException {
+    if (remaining < 12) {
+      return null;
+    }
+    final int length = in.readInt();
+    final long checksum = in.readLong();
+    if (length < 1 || length > remaining - 12) {
+      return null;
+    }
+    final byte[] record = new byte[length];
+    in.readFully(record);
+    return checksum(record) == checksum ? record : null;
+  }
+
+  private static long checksum(final byte[] bytes) {
+    final CRC32 crc = new CRC32();
+    crc.update(bytes);
+    return crc.getValue();
+  }
+
+  /**
+   * Updates the in-memory state for a record at the given offset.
+   */
+  private void apply(final byte[] record, final long offset) throws IOException {
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+    final byte type = in.readByte();
+    if (type == SYNCED) {
+      _syncedTo = in.readLong();
+    }
+    else if (type == ENTRY) {
+      index(readEntry(in), offset);
+    }
+    else {
+      throw new IOException("Unknown record type " + type);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void index(final SVNLogEntry entry, final long offset) {
+    if (_size == _revisions.length) {
+      _revisions = Arrays.copyOf(_revisions, _size * 2);
+      _offsets = Arrays.copyOf(_offsets, _size * 2);
+    }
+    final int number = _size++;
+    _revisions[number] = entry.getRevision();
+    _offsets[number] = offset;
+    for (SVNLogEntryPath changed : (Iterable<SVNLogEntryPath>) entry.getChangedPaths().values()) {
+      // Every ancestor, ending with "" for the repository root.
+      String path = changed.getPath();
+      while (true) {
+        final String key = path.length() > 1 ? path : "";
+        Postings postings = _byPath.get(key);
+        if (postings == null) {
+          postings = new Postings();
+          _byPath.put(key, postings);
+        }
+        postings.add(number);
+        if (key.length() == 0) {
+          break;
+        }
+        path = SVNPathUtil.removeTail(path);
+      }
+      if (changed.getCopyPath() != null) {
+        _copies.add(new Copy(number, changed.getPath(), changed.getCopyPath()));
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static byte[] writeEntry(final SVNLogEntry entry) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(ENTRY);
+    out.writeLong(entry.getRevision());
+    writeString(out, entry.getAuthor());
+    out.writeLong(entry.getDate() == null ? Long.MIN_VALUE : entry.getDate().getTime());
+    writeString(out, entry.getMessage());
+    final Map<String, SVNLogEntryPath> changedPaths = entry.getChangedPaths();
+    out.writeInt(changedPaths.size());
+    for (SVNLogEntryPath changed : changedPaths.values()) {
+      writeString(out, changed.getPath());
+      out.writeChar(changed.getType());
+      writeString(out, changed.getCopyPath());
+      out.writeLong(changed.getCopyRevision());
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static SVNLogEntry readEntry(final DataInputStream in) throws IOException {
+    final long revision = in.readLong();
+    final String author = readString(in);
+    final long date = in.readLong();
+    final String message = readString(in);
+    final int count = in.readInt();
+    final Map<String, SVNLogEntryPath> changedPaths = new LinkedHashMap<String, SVNLogEntryPath>();
+    for (int i = 0; i < count; ++i) {
+      final String path = readString(in);
+      final char type = in.readChar();
+      final String copyPath = readString(in);
+      final long copyRevision = in.readLong();
+      changedPaths.put(path, new SVNLogEntryPath(path, type, copyPath, copyRevision));
+    }
+    return new SVNLogEntry(changedPaths, revision, author, date == Long.MIN_VALUE ? null : new Date(date), message);
+  }
+
+  private static void writeString(final DataOutputStream out, final String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    }
+    else {
+      final byte[] bytes = value.getBytes("UTF-8");
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(final DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  private void append(final byte[] record) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(record.length + 12);
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(record.length);
+    out.writeLong(checksum(record));
+    out.write(record);
+    out.flush();
+    final long offset = _data.length();
+    _data.seek(offset);
+    _data.write(bytes.toByteArray());
+    apply(record, offset);
+  }
+
+  private SVNLogEntry read(final int number) throws IOException {
+    _data.seek(_offsets[number]);
+    final byte[] record = new byte[_data.readInt()];
+    _data.readLong();
+    _data.readFully(record);
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+    in.readByte();
+    return readEntry(in);
+  }
+
+  /**
+   * Fetches any log entries for the wiki root after the last revision we checked.
+   *
+   * We only hold our lock to record them, so other queries aren't held up by the
+   * server.  Entries fetched concurrently that another sync has already recorded are skipped.
+   */
+  private void sync(final SVNRepository repository) throws SVNException, IOException {
+    final long from = getSyncedRevision() + 1;
+    final long latest = repository.getLatestRevision();
+    if (latest < from) {
+      return;
+    }
+    final List<SVNLogEntry> entries = new ArrayList<SVNLogEntry>();
+    repository.log(new String[] {""}, from, latest, true, false, 0, new ISVNLogEntryHandler() {
+      public void handleLogEntry(final SVNLogEntry logEntry) throws SVNException {
+        entries.add(logEntry);
+      }
+    });
+    Collections.sort(entries, new Comparator<SVNLogEntry>() {
+      public int compare(final SVNLogEntry a, final SVNLogEntry b) {
+        return a.getRevision() < b.getRevision() ? -1 : a.getRevision() == b.getRevision() ? 0 : 1;
+      }
+    });
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(SYNCED);
+    out.writeLong(latest);
+    out.flush();
+    synchronized (this) {
+      _fetches++;
+      if (latest <= _syncedTo) {
+        return;
+      }
+      for (SVNLogEntry entry : entries) {
+        if (entry.getRevision() > _syncedTo) {
+          append(writeEntry(entry));
+        }
+      }
+      append(bytes.toByteArray());
+    }
+  }
+
+  /**
+   * As {@link RepositoryBasicSVNOperations#log}, first fetching newer entries if endRevision is past what we've seen.
+   *
+   * @param repository At the wiki root.
+   */
+  public List<ChangeInfo> log(final SVNRepository repository, final String path, final long limit, final LogEntryFilter logEntryFilter, final boolean stopOnCopy, final long startRevision, final long endRevision) throws SVNException, IOException {
+    if (endRevision < 0 || endRevision > getSyncedRevision()) {
+      sync(repository);
+    }
+    final List<Match> matches;
+    final String root = repository.getRepositoryPath("");
+    synchronized (this) {
+      matches = entries(root, path, limit, stopOnCopy, startRevision, endRevision);
+    }
+    // Classifying changes may ask the server so we do it without our lock.
+    final List<ChangeInfo> results = new LinkedList<ChangeInfo>();
+    for (Match match : matches) {
+      results.addAll(RepositoryBasicSVNOperations.logEntryToChangeInfos(repository, match._root, path, match._entry, logEntryFilter));
+    }
+    return results;
+  }
+
+  /**
+   * @return The entries touching path within the revisions, newest first, with the root they were made under.
+   */
+  private List<Match> entries(final String root, final String path, final long limit, final boolean stopOnCopy, final long startRevision, final long endRevision) throws IOException {
+    final long end = endRevision < 0 ? _syncedTo : endRevision;
+    final int first = firstAtOrAfter(startRevision);
+    final int last = firstAtOrAfter(end + 1) - 1;
+    final List<Match> matches = new ArrayList<Match>();
+    for (Segment segment : segments(root, stopOnCopy)) {
+      final String fullLoggedPath = RepositoryBasicSVNOperations.fixFullLoggedPath(SVNPathUtil.append(segment._root, path));
+      final Postings postings = _byPath.get(fullLoggedPath);
+      if (postings == null) {
+        continue;
+      }
+      final int hi = Math.min(last, segment._hi);
+      final int lo = Math.max(first, segment._lo);
+      for (int i = lastAtOrBefore(postings, hi); i >= 0 && postings._entries[i] >= lo; --i) {
+        final SVNLogEntry entry = read(postings._entries[i]);
+        matches.add(new Match(entry, segment._root));
+        if (limit > 0 && matches.size() >= limit) {
+          return matches;
+        }
+        if (stopOnCopy && isCopy(entry, fullLoggedPath)) {
+          return matches;
+        }
+      }
+    }
+    return matches;
+  }
+
+  private static boolean isCopy(final SVNLogEntry entry, final String path) {
+    final SVNLogEntryPath changed = (SVNLogEntryPath) entry.getChangedPaths().get(path);
+    return changed != null && changed.getCopyPath() != null;
+  }
+
+  /**
+   * Works back from the current root location, following renames of the
+   * root as {@link RepositoryBasicSVNOperations#log} does, newest first.
+   */
+  private List<Segment> segments(final String root, final boolean stopOnCopy) {
+    final List<Segment> segments = new ArrayList<Segment>();
+    String current = root;
+    int hi = _size - 1;
+    for (int i = _copies.size() - 1; i >= 0 && hi >= 0; --i) {
+      final Copy copy = _copies.get(i);
+      if (copy._path.equals(current) && copy._entry <= hi) {
+        segments.add(new Segment(copy._entry + 1, hi, current));
+        // The log follows the rename before looking at the entry that made it.
+        current = copy._copyPath;
+        hi = copy._entry;
+        if (stopOnCopy) {
+          segments.add(new Segment(hi, hi, current));
+          return segments;
+        }
+      }
+    }
+    if (hi >= 0) {
+      segments.add(new Segment(0, hi, current));
+    }
+    return segments;
+  }
+
+  private int firstAtOrAfter(final long revision) {
+    int lo = 0;
+    int hi = _size;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (_revisions[mid] < revision) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  private static int lastAtOrBefore(final Postings postings, final int entry) {
+    int lo = 0;
+    int hi = postings._size;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (postings._entries[mid] <= entry) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo - 1;
+  }
+
+  /**
+   * @return The number of times we've asked the server for log entries.
+   */
+  public synchronized long getFetchCount() {
+    return _fetches;
+  }
+
+  /**
+   * @return The number of log entries we hold.
+   */
+  public synchronized int size() {
+    return _size;
+  }
+
+  /**
+   * @return The latest revision we've fetched the log up to.
+   */
+  public synchronized long getSyncedRevision() {
+    return _syncedTo;
+  }
+
+  public void dispose() {
+    close();
+  }
+
+  public synchronized void close() {
+    try {
+      _data.close();
+    }
+    catch (IOException ex) {
+      LOG.warn("Failed to close " + _file, ex);
+    }
+  }
+
+}
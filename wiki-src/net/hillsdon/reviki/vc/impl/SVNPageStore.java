@@ -181,7 +181,7 @@ public class SVNPageStore extends AbstractPageStore {
 
     _operations.getFiles(revision, properties, contents);
     for (Map.Entry<String, ByteArrayOutputStream> entry : contents.entrySet()) {
-      outputPages.add(new PageInfoImpl(_wiki, entry.getKey(), Strings.toUTF8(entry.getValue().toByteArray()), properties.get(entry.getKey())));
+      outputPages.add(new PageInfoImpl(_wiki, entry.getKey(), Strings.toUTF8(entry.getValue().toByteArray()), getAttributes(properties.get(entry.getKey()))));
     }
     return outputPages;
   }
@@ -189,9 +189,9 @@ public class SVNPageStore extends AbstractPageStore {
   public VersionedPageInfo get(final PageReference ref, final long revision) throws PageStoreException {
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
     Map<String, String> properties = new HashMap<String, String>();
-    SVNNodeKind kind = _operations.checkPath(ref.getPath(), revision);
+    final FetchedNode node = _operations.fetch(ref.getPath(), revision, properties, baos);
+    final SVNNodeKind kind = node.getKind();
     if (SVNNodeKind.FILE.equals(kind)) {
-      _operations.getFile(ref.getPath(), revision, properties, baos);
       long actualRevision = SVNProperty.longValue(properties.get(SVNProperty.REVISION));
       long lastChangedRevision = SVNProperty.longValue(properties.get(SVNProperty.COMMITTED_REVISION));
       Date lastChangedDate = SVNDate.parseDate(properties.get(SVNProperty.COMMITTED_DATE));
@@ -199,24 +199,12 @@ public class SVNPageStore extends AbstractPageStore {
       String lockOwner = null;
       String lockToken = null;
       Date lockedSince = null;
-      final Map<String, String> filteredProperties = Maps.filterKeys(properties, new Predicate<String>() {
-        public boolean apply(String key) {
-          return key.startsWith(REVIKI_ATTRIBUTE_PREFIX);
-        }
-      });
-      Map<String, String> attributes = stripPrefix(filteredProperties, REVIKI_ATTRIBUTE_PREFIX);
-      try {
-        if (revision == -1 || _operations.checkPath(ref.getPath(), -1) == SVNNodeKind.FILE) {
-          SVNLock lock = _operations.getLock(ref.getPath());
-          if (lock != null) {
-            lockOwner = lock.getOwner();
-            lockToken = lock.getID();
-            lockedSince = lock.getCreationDate();
-          }
-        }
-      }
-      catch (NotFoundException ex) {
-        // It was a file at 'revision' but is now deleted so we can't get the lock information.
+      Map<String, String> attributes = getAttributes(properties);
+      SVNLock lock = node.getLock();
+      if (lock != null) {
+        lockOwner = lock.getOwner();
+        lockToken = lock.getID();
+        lockedSince = lock.getCreationDate();
       }
       return new VersionedPageInfoImpl(_wiki, ref.getPath(), Strings.toUTF8(baos.toByteArray()), actualRevision, lastChangedRevision, lastChangedAuthor, lastChangedDate, lockOwner, lockToken, lockedSince, attributes);
     }
@@ -244,6 +232,15 @@ public class SVNPageStore extends AbstractPageStore {
     }
   }
 
+  private Map<String, String> getAttributes(final Map<String, String> properties) {
+    final Map<String, String> filteredProperties = Maps.filterKeys(properties, new Predicate<String>() {
+      public boolean apply(String key) {
+        return key.startsWith(REVIKI_ATTRIBUTE_PREFIX);
+      }
+    });
+    return stripPrefix(filteredProperties, REVIKI_ATTRIBUTE_PREFIX);
+  }
+
   private Map<String, String> stripPrefix(Map<String, String> properties, String propertyPrefix) {
     Map<String, String> attributes = new LinkedHashMap<String, String>();
     for(Map.Entry<String, String> entry: properties.entrySet()) {
@@ -266,7 +263,11 @@ public class SVNPageStore extends AbstractPageStore {
     }
     final long revision = page.getRevision();
     try {
-      _operations.lock(ref, revision);
+      final SVNLock lock = _operations.lock(ref, revision);
+      if (lock != null) {
+        // We already have the content at this revision, so no need to fetch it again.
+        return page.withLock(lock.getOwner(), lock.getID(), lock.getCreationDate());
+      }
     }
     catch (AlreadyLockedException ex) {
       // Just return, the caller will check whether they've locked the page.
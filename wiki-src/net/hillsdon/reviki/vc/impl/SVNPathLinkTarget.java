@@ -16,6 +16,14 @@ public class SVNPathLinkTarget extends PageLinkTarget {
     _path = path;
   }
 
+  String getRepositoryURL() {
+    return _repositoryURL;
+  }
+
+  String getPath() {
+    return _path;
+  }
+
   @Override
   public boolean isLinkToCurrentWiki() {
     return false;
@@ -16,6 +16,7 @@
 package net.hillsdon.reviki.vc.impl;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -28,6 +29,7 @@ import net.hillsdon.reviki.vc.AttachmentHistory;
 import net.hillsdon.reviki.vc.ChangeInfo;
 import net.hillsdon.reviki.vc.ContentTypedSink;
 import net.hillsdon.reviki.vc.InterveningCommitException;
+import net.hillsdon.reviki.vc.NotFoundException;
 import net.hillsdon.reviki.vc.PageInfo;
 import net.hillsdon.reviki.vc.VersionedPageInfo;
 import net.hillsdon.reviki.vc.PageReference;
@@ -141,7 +143,16 @@ public class SimplePageStore extends AbstractPageStore implements CachingPageSto
   }
   
   public Collection<PageInfo> getPages(Collection<PageReference> pages, long revision) throws PageStoreException {
-    throw new UnsupportedOperationException();
+    List<PageInfo> found = new ArrayList<PageInfo>(pages.size());
+    for (PageReference ref : pages) {
+      VersionedPageInfo page = _pages.get(ref);
+      // Like SVN, a missing page fails the lot.
+      if (page == null || page.isNewPage()) {
+        throw new NotFoundException();
+      }
+      found.add(page);
+    }
+    return found;
   }
 
 }
\ No newline at end of file
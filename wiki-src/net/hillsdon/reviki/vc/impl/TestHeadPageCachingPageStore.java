@@ -24,19 +24,26 @@ import junit.framework.TestCase;
 import net.hillsdon.reviki.vc.ChangeInfo;
 import net.hillsdon.reviki.vc.PageInfo;
 import net.hillsdon.reviki.vc.VersionedPageInfo;
-import static net.hillsdon.reviki.vc.impl.ConfigPageCachingPageStore.isConfigPage;
+import net.hillsdon.reviki.vc.PageReference;
 
-public class TestConfigPageCachingPageStore extends TestCase {
+import org.easymock.EasyMock;
+import org.tmatesoft.svn.core.SVNLock;
 
-  public void testIsConfigPage() {
-    assertFalse(isConfigPage("Config"));
-    assertTrue(isConfigPage("ConfigFoo"));
-    assertFalse(isConfigPage("ConfiguringStuff"));
+import static org.easymock.EasyMock.expect;
+
+public class TestHeadPageCachingPageStore extends TestCase {
+
+  private BasicSVNOperations _operations;
+
+  @Override
+  protected void setUp() throws Exception {
+    _operations = EasyMock.createNiceMock(BasicSVNOperations.class);
+    EasyMock.replay(_operations);
   }
 
   public void testDoesntCacheOldRevisionsOfConfigPages() throws Exception {
     PageInfo page = new PageInfoImpl(null, "ConfigFoo", "Hey there", Collections.<String, String>emptyMap());
-    ConfigPageCachingPageStore store = new ConfigPageCachingPageStore(new SimplePageStore());
+    HeadPageCachingPageStore store = new HeadPageCachingPageStore(new SimplePageStore(), _operations);
     store.getUnderlying().set(page, "", 1, "Initial commit");
     assertFalse(store.get(page, 2).isNewPage());
     assertFalse(store.isCached(page));
@@ -44,7 +51,7 @@ public class TestConfigPageCachingPageStore extends TestCase {
 
   public void testLockedConfigPageUsesCache() throws Exception {
     VersionedPageInfo page = new VersionedPageInfoImpl(null, "ConfigFoo", "foo", 1, 1, "pwc", new Date(), null, null, null);
-    ConfigPageCachingPageStore store = new ConfigPageCachingPageStore(new SimplePageStore());
+    HeadPageCachingPageStore store = new HeadPageCachingPageStore(new SimplePageStore(), _operations);
     store.getUnderlying().set(page, "", 1, "Initial commit");
     store.get(page, -1);
 
@@ -77,7 +84,7 @@ public class TestConfigPageCachingPageStore extends TestCase {
 
   public void testSpecialRevisionIsCached() throws Exception {
     PageInfo page = new PageInfoImpl(null, "ConfigFoo", "Hey there", Collections.<String, String>emptyMap());
-    ConfigPageCachingPageStore store = new ConfigPageCachingPageStore(new SimplePageStore());
+    HeadPageCachingPageStore store = new HeadPageCachingPageStore(new SimplePageStore(), _operations);
 
     // Cache the page
     VersionedPageInfo uncommittedPage = store.get(page, -1);
@@ -94,7 +101,7 @@ public class TestConfigPageCachingPageStore extends TestCase {
   public void testChangesExpireCache() throws Exception {
     // Cache a page
     PageInfo page = new PageInfoImpl(null, "ConfigFoo", "Hey there", Collections.<String, String>emptyMap());
-    ConfigPageCachingPageStore store = new ConfigPageCachingPageStore(new SimplePageStore());
+    HeadPageCachingPageStore store = new HeadPageCachingPageStore(new SimplePageStore(), _operations);
     store.getUnderlying().set(page, "", 1, "Initial commit");
     store.get(page, -1);
     assertTrue(store.isCached(page));
@@ -111,7 +118,7 @@ public class TestConfigPageCachingPageStore extends TestCase {
   public void testChangeToOtherPageDoesNotExpireCache() throws Exception {
     // Cache a page
     PageInfo page = new PageInfoImpl(null, "ConfigFoo", "Hey there", Collections.<String, String>emptyMap());
-    ConfigPageCachingPageStore store = new ConfigPageCachingPageStore(new SimplePageStore());
+    HeadPageCachingPageStore store = new HeadPageCachingPageStore(new SimplePageStore(), _operations);
     store.getUnderlying().set(page, "", 1, "Initial commit");
     store.get(page, -1);
     assertTrue(store.isCached(page));
@@ -126,7 +133,7 @@ public class TestConfigPageCachingPageStore extends TestCase {
   }
 
   public void testChangesUpdateHighestSyncedRevision() throws Exception {
-    ConfigPageCachingPageStore store = new ConfigPageCachingPageStore(new SimplePageStore());
+    HeadPageCachingPageStore store = new HeadPageCachingPageStore(new SimplePageStore(), _operations);
     // Assemble a change for the page
     List<ChangeInfo> changes = new ArrayList<ChangeInfo>();
     changes.add(new ChangeInfo("ConfigBar", "ConfigBar", "pwc", new Date(), 3L, "Second revision", null, null, null, -2));
@@ -137,4 +144,62 @@ public class TestConfigPageCachingPageStore extends TestCase {
 
     assertTrue(store.getHighestSyncedRevision() == 43L);
   }
+
+  public void testCachesAnyPageUpToLimit() throws Exception {
+    HeadPageCachingPageStore store = new HeadPageCachingPageStore(new SimplePageStore(), _operations, 2);
+    PageReference front = new PageReferenceImpl("FrontPage");
+    PageReference other = new PageReferenceImpl("OtherPage");
+    PageReference third = new PageReferenceImpl("ThirdPage");
+    store.getUnderlying().set(new PageInfoImpl(null, "FrontPage", "Hey there", Collections.<String, String>emptyMap()), "", 1, "Initial commit");
+    store.get(front, -1);
+    store.get(other, -1);
+    store.get(front, -1);
+    store.get(third, -1);
+
+    assertTrue(store.isCached(front));
+    assertFalse(store.isCached(other));
+    assertTrue(store.isCached(third));
+    assertEquals(2, store.size());
+    assertEquals(1, store.getEvictionCount());
+    assertEquals(1, store.getHitCount());
+    assertEquals(3, store.getMissCount());
+    assertEquals(0.25, store.getHitRate(), 0.001);
+  }
+
+  public void testLocksAreReadOnEachHitWithoutRefetchingContent() throws Exception {
+    PageReference ref = new PageReferenceImpl("FrontPage");
+    _operations = EasyMock.createMock(BasicSVNOperations.class);
+    expect(_operations.getLock("FrontPage")).andReturn(new SVNLock("FrontPage", "token", "mth", null, new Date(), null));
+    EasyMock.replay(_operations);
+    SimplePageStore underlying = new SimplePageStore();
+    HeadPageCachingPageStore store = new HeadPageCachingPageStore(underlying, _operations);
+    underlying.set(new PageInfoImpl(null, "FrontPage", "Hey there", Collections.<String, String>emptyMap()), "", 1, "Initial commit");
+    assertFalse(store.get(ref, -1).isLocked());
+    underlying.set(new PageInfoImpl(null, "FrontPage", "Changed elsewhere", Collections.<String, String>emptyMap()), "", 2, "Second commit");
+
+    VersionedPageInfo locked = store.get(ref, -1);
+    assertEquals("Hey there", locked.getContent());
+    assertEquals("mth", locked.getLockedBy());
+    assertEquals("token", locked.getLockToken());
+    EasyMock.verify(_operations);
+  }
+
+  public void testOwnLockAndUnlockAreSeenImmediately() throws Exception {
+    PageReference ref = new PageReferenceImpl("FrontPage");
+    _operations = EasyMock.createMock(BasicSVNOperations.class);
+    expect(_operations.getLock("FrontPage")).andReturn(new SVNLock("FrontPage", "token", "mth", null, new Date(), null));
+    expect(_operations.getLock("FrontPage")).andReturn(null);
+    EasyMock.replay(_operations);
+    SimplePageStore underlying = new SimplePageStore();
+    HeadPageCachingPageStore store = new HeadPageCachingPageStore(underlying, _operations);
+    underlying.set(new PageInfoImpl(null, "FrontPage", "Hey there", Collections.<String, String>emptyMap()), "", 1, "Initial commit");
+    store.get(ref, -1);
+
+    // The operations apply our own lock and unlock to their snapshot, see TestLockSnapshotBasicSVNOperations.
+    assertEquals("mth", store.get(ref, -1).getLockedBy());
+    assertFalse(store.get(ref, -1).isLocked());
+    assertTrue(store.isCached(ref));
+    EasyMock.verify(_operations);
+  }
+
 }
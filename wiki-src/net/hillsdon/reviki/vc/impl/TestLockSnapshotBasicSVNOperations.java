@@ -0,0 +1,104 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.vc.PageReference;
+
+import org.easymock.IAnswer;
+import org.tmatesoft.svn.core.SVNLock;
+
+public class TestLockSnapshotBasicSVNOperations extends TestCase {
+
+  private static final SVNLock FRONT_PAGE_LOCK = new SVNLock("/wiki/FrontPage", "token1", "bob", "Locked by reviki.", new Date(), null);
+
+  private BasicSVNOperations _delegate;
+
+  @Override
+  protected void setUp() throws Exception {
+    _delegate = createMock(BasicSVNOperations.class);
+  }
+
+  public void testLooksUpAllLocksOnceForManyPaths() throws Exception {
+    expect(_delegate.getLocks()).andReturn(Collections.singletonMap("FrontPage", FRONT_PAGE_LOCK)).once();
+    replay(_delegate);
+    final LockSnapshot snapshot = new LockSnapshot();
+    final BasicSVNOperations operations = new LockSnapshotBasicSVNOperations(_delegate, snapshot);
+    assertSame(FRONT_PAGE_LOCK, operations.getLock("FrontPage"));
+    assertNull(operations.getLock("OtherPage"));
+    assertNull(operations.getLock("FrontPage-attachments/file.txt"));
+    assertEquals(1, snapshot.getFetchCount());
+    verify(_delegate);
+  }
+
+  public void testOurOwnLockAndUnlockAreSeenWithoutRefetching() throws Exception {
+    final PageReference ref = new PageReferenceImpl("OtherPage");
+    final SVNLock taken = new SVNLock("/wiki/OtherPage", "token2", "bob", "Locked by reviki.", new Date(), null);
+    expect(_delegate.getLocks()).andReturn(Collections.<String, SVNLock>emptyMap()).once();
+    expect(_delegate.lock(ref, 3)).andReturn(taken);
+    _delegate.unlock(ref, "token2");
+    replay(_delegate);
+    final LockSnapshot snapshot = new LockSnapshot();
+    final BasicSVNOperations operations = new LockSnapshotBasicSVNOperations(_delegate, snapshot);
+    assertNull(operations.getLock("OtherPage"));
+    assertSame(taken, operations.lock(ref, 3));
+    assertSame(taken, operations.getLock("OtherPage"));
+    operations.unlock(ref, "token2");
+    assertNull(operations.getLock("OtherPage"));
+    assertEquals(1, snapshot.getFetchCount());
+    verify(_delegate);
+  }
+
+  public void testRefetchesWhenTooOld() throws Exception {
+    final Map<String, SVNLock> none = Collections.emptyMap();
+    expect(_delegate.getLocks()).andReturn(none).andReturn(Collections.singletonMap("FrontPage", FRONT_PAGE_LOCK));
+    replay(_delegate);
+    final LockSnapshot snapshot = new LockSnapshot(-1);
+    final BasicSVNOperations operations = new LockSnapshotBasicSVNOperations(_delegate, snapshot);
+    assertNull(operations.getLock("FrontPage"));
+    assertSame(FRONT_PAGE_LOCK, operations.getLock("FrontPage"));
+    assertEquals(2, snapshot.getFetchCount());
+    verify(_delegate);
+  }
+
+  public void testSnapshotFetchedDuringOurOwnUnlockIsNotKept() throws Exception {
+    final LockSnapshot snapshot = new LockSnapshot();
+    expect(_delegate.getLocks()).andAnswer(new IAnswer<Map<String, SVNLock>>() {
+      public Map<String, SVNLock> answer() throws Throwable {
+        // Our unlock lands while the server is answering.
+        snapshot.unlocked("FrontPage");
+        return Collections.singletonMap("FrontPage", FRONT_PAGE_LOCK);
+      }
+    });
+    expect(_delegate.getLocks()).andReturn(Collections.<String, SVNLock>emptyMap());
+    replay(_delegate);
+    final BasicSVNOperations operations = new LockSnapshotBasicSVNOperations(_delegate, snapshot);
+    assertSame(FRONT_PAGE_LOCK, operations.getLock("FrontPage"));
+    assertNull(operations.getLock("FrontPage"));
+    assertEquals(2, snapshot.getFetchCount());
+    verify(_delegate);
+  }
+
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Date;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.vc.ChangeInfo;
+import net.hillsdon.reviki.vc.ChangeType;
+import net.hillsdon.reviki.vc.StoreKind;
+import net.hillsdon.reviki.wiki.renderer.creole.SimplePageLinkTarget;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Tests for {@link PersistentDeletedRevisionTracker}.
+ */
+public class TestPersistentDeletedRevisionTracker extends TestCase {
+
+  private static final String URL = "http://svn/wiki";
+
+  private File _dir;
+  private File _file;
+
+  @Override
+  protected void setUp() throws Exception {
+    _dir = File.createTempFile("testDir", "");
+    assertTrue(_dir.delete());
+    _file = new File(_dir, "deleted-revisions");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (File f : _dir.listFiles()) {
+      assertTrue(f.delete());
+    }
+    assertTrue(_dir.delete());
+  }
+
+  private static ChangeInfo change(final String page, final long revision, final ChangeType type) {
+    return new ChangeInfo(page, page, "user", new Date(1000 * revision), revision, "Message " + revision, StoreKind.PAGE, type, null, -1);
+  }
+
+  public void testRemembersChangesAcrossRestart() throws Exception {
+    PersistentDeletedRevisionTracker tracker = new PersistentDeletedRevisionTracker(_file, URL);
+    assertEquals(0, tracker.getHighestSyncedRevision());
+    tracker.handleChanges(2, ImmutableList.of(change("PageOne", 1, ChangeType.ADDED), change("PageTwo", 2, ChangeType.ADDED)));
+    ChangeInfo rename = new ChangeInfo("PageTwo", "PageTwo", "user", new Date(), 5, "Rename", StoreKind.PAGE, ChangeType.DELETED, null, -1, new SimplePageLinkTarget(null, "PageThree", null, null));
+    tracker.handleChanges(5, ImmutableList.of(change("PageThree", 5, ChangeType.ADDED), rename));
+
+    PersistentDeletedRevisionTracker reloaded = new PersistentDeletedRevisionTracker(_file, URL);
+    assertEquals(5, reloaded.getHighestSyncedRevision());
+    assertEquals(ImmutableSet.of("PageOne", "PageThree"), reloaded.currentExistingEntries());
+    ChangeInfo deleted = reloaded.getChangeThatDeleted("PageTwo");
+    assertEquals(5, deleted.getRevision());
+    assertEquals("Rename", deleted.getCommitMessage());
+    assertEquals("PageThree", deleted.getRenamedTo().getPageName());
+    assertNull(reloaded.getChangeThatDeleted("PageOne"));
+  }
+
+  public void testDropsDamagedEnd() throws Exception {
+    PersistentDeletedRevisionTracker tracker = new PersistentDeletedRevisionTracker(_file, URL);
+    tracker.handleChanges(1, ImmutableList.of(change("PageOne", 1, ChangeType.ADDED)));
+    tracker.handleChanges(2, ImmutableList.of(change("PageTwo", 2, ChangeType.ADDED)));
+    RandomAccessFile file = new RandomAccessFile(_file, "rw");
+    try {
+      file.setLength(file.length() - 3);
+    }
+    finally {
+      file.close();
+    }
+
+    PersistentDeletedRevisionTracker reloaded = new PersistentDeletedRevisionTracker(_file, URL);
+    assertEquals(1, reloaded.getHighestSyncedRevision());
+    assertEquals(ImmutableSet.of("PageOne"), reloaded.currentExistingEntries());
+    reloaded.handleChanges(2, ImmutableList.of(change("PageTwo", 2, ChangeType.ADDED)));
+    assertEquals(2, new PersistentDeletedRevisionTracker(_file, URL).getHighestSyncedRevision());
+  }
+
+  public void testStartsAfreshForDifferentRepository() throws Exception {
+    new PersistentDeletedRevisionTracker(_file, URL).handleChanges(1, ImmutableList.of(change("PageOne", 1, ChangeType.ADDED)));
+
+    PersistentDeletedRevisionTracker other = new PersistentDeletedRevisionTracker(_file, "http://svn/other");
+    assertEquals(0, other.getHighestSyncedRevision());
+    assertTrue(other.currentExistingEntries().isEmpty());
+  }
+
+  public void testKeepsTrackingInMemoryIfJournalCantBeWritten() throws Exception {
+    PersistentDeletedRevisionTracker tracker = new PersistentDeletedRevisionTracker(_file, URL);
+    // A directory in its place makes appending fail.
+    assertTrue(_file.delete());
+    assertTrue(_file.mkdir());
+
+    tracker.handleChanges(1, ImmutableList.of(change("PageOne", 1, ChangeType.ADDED)));
+    tracker.handleChanges(2, ImmutableList.of(change("PageTwo", 2, ChangeType.ADDED)));
+    assertEquals(2, tracker.getHighestSyncedRevision());
+    assertEquals(ImmutableSet.of("PageOne", "PageTwo"), tracker.currentExistingEntries());
+  }
+
+  public void testCompactsToLastChangePerPath() throws Exception {
+    PersistentDeletedRevisionTracker tracker = new PersistentDeletedRevisionTracker(_file, URL);
+    for (int i = 1; i <= 2000; ++i) {
+      tracker.handleChanges(i, Collections.singletonList(change("PageOne", i, ChangeType.MODIFIED)));
+    }
+    final long uncompacted = _file.length();
+
+    PersistentDeletedRevisionTracker reloaded = new PersistentDeletedRevisionTracker(_file, URL);
+    assertTrue(_file.length() < uncompacted / 100);
+    assertEquals(2000, reloaded.getHighestSyncedRevision());
+    assertEquals(ImmutableSet.of("PageOne"), reloaded.currentExistingEntries());
+  }
+
+}
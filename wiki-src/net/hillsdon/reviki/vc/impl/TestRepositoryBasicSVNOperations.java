@@ -17,20 +17,30 @@ package net.hillsdon.reviki.vc.impl;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import junit.framework.TestCase;
 import net.hillsdon.reviki.vc.ChangeInfo;
 import net.hillsdon.reviki.vc.StoreKind;
 
+import org.tmatesoft.svn.core.SVNLock;
 import org.tmatesoft.svn.core.SVNLogEntry;
 import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.SVNNodeKind;
 import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
 import org.tmatesoft.svn.core.internal.io.dav.DAVRepositoryFactory;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
 import org.tmatesoft.svn.core.internal.util.SVNPathUtil;
 import org.tmatesoft.svn.core.internal.wc.SVNFileUtil;
+import org.tmatesoft.svn.core.io.ISVNEditor;
 import org.tmatesoft.svn.core.io.SVNRepository;
 import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
 
 public class TestRepositoryBasicSVNOperations extends TestCase {
 
@@ -105,5 +115,65 @@ public class TestRepositoryBasicSVNOperations extends TestCase {
     assertEquals("/test", RepositoryBasicSVNOperations.fixFullLoggedPath("test/"));
     assertEquals("/test", RepositoryBasicSVNOperations.fixFullLoggedPath("test"));
   }
-  
+
+  public void testFetchGetsContentPropertiesAndLockInTwoRequests() throws Exception {
+    FSRepositoryFactory.setup();
+    final File dir = File.createTempFile("testRepos", "");
+    assertTrue(dir.delete());
+    try {
+      final SVNURL root = SVNRepositoryFactory.createLocalRepository(dir, true, false);
+      final SVNRepository setup = SVNRepositoryFactory.create(root);
+      final ISVNEditor editor = setup.getCommitEditor("Add page", null);
+      editor.openRoot(-1);
+      editor.addDir("wiki", null, -1);
+      editor.addFile("wiki/FrontPage", null, -1);
+      editor.applyTextDelta("wiki/FrontPage", null);
+      final String checksum = new SVNDeltaGenerator().sendDelta("wiki/FrontPage", new ByteArrayInputStream("Content".getBytes()), editor, true);
+      editor.closeFile("wiki/FrontPage", checksum);
+      editor.closeDir();
+      editor.closeDir();
+      editor.closeEdit();
+      setup.closeSession();
+
+      final SVNRepository repository = SVNRepositoryFactory.create(root.appendPath("wiki", false));
+      repository.setAuthenticationManager(new BasicAuthenticationManager("bob", ""));
+      final RepositoryBasicSVNOperations operations = new RepositoryBasicSVNOperations(repository, null, new WikiRootLocationCache());
+      try {
+        final SVNLock taken = operations.lock(new PageReferenceImpl("FrontPage"), 1);
+        assertEquals("bob", taken.getOwner());
+
+        long before = operations.getRoundTripCount();
+        final Map<String, String> properties = new HashMap<String, String>();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final FetchedNode page = operations.fetch("FrontPage", -1, properties, out);
+        assertEquals(2, operations.getRoundTripCount() - before);
+        assertEquals(SVNNodeKind.FILE, page.getKind());
+        assertEquals("Content", out.toString());
+        assertEquals("1", properties.get("svn:entry:committed-rev"));
+        assertEquals(taken.getID(), page.getLock().getID());
+        assertEquals(Collections.singleton("FrontPage"), operations.getLocks().keySet());
+
+        final FetchedNode missing = operations.fetch("NoSuchPage", -1, new HashMap<String, String>(), new ByteArrayOutputStream());
+        assertEquals(SVNNodeKind.NONE, missing.getKind());
+        assertNull(missing.getLock());
+      }
+      finally {
+        operations.dispose();
+      }
+    }
+    finally {
+      delete(dir);
+    }
+  }
+
+  private static void delete(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
 }
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Date;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.vc.VersionedPageInfo;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Tests for {@link RevisionContentCache}.
+ */
+public class TestRevisionContentCache extends TestCase {
+
+  private static final String WIKI = "wiki";
+
+  private File _dir;
+
+  @Override
+  protected void setUp() throws Exception {
+    _dir = File.createTempFile("testDir", "");
+    assertTrue(_dir.delete());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    if (_dir.exists()) {
+      for (File f : _dir.listFiles()) {
+        assertTrue(f.delete());
+      }
+      assertTrue(_dir.delete());
+    }
+  }
+
+  private static VersionedPageInfo page(final String path, final String content, final long revision) {
+    return new VersionedPageInfoImpl(WIKI, path, content, revision, revision, "mth", new Date(1234567890000L), null, null, null, ImmutableMap.of("status", "draft"));
+  }
+
+  public void testRoundTripsPageAtRevision() throws Exception {
+    RevisionContentCache cache = new RevisionContentCache(_dir, "http://svn/wiki", RevisionContentCache.DEFAULT_MAX_BYTES);
+    cache.put(page("FrontPage", "Hello é", 3), 5);
+
+    VersionedPageInfo cached = cache.get(WIKI, "FrontPage", 5);
+    assertEquals("Hello é", cached.getContent());
+    assertEquals(3, cached.getRevision());
+    assertEquals(3, cached.getLastChangedRevision());
+    assertEquals("mth", cached.getLastChangedUser());
+    assertEquals(new Date(1234567890000L), cached.getLastChangedDate());
+    assertEquals("draft", cached.getAttributes().get("status"));
+    assertFalse(cached.isLocked());
+    assertNull(cache.get(WIKI, "FrontPage", 4));
+    assertNull(cache.get(WIKI, "OtherPage", 5));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  public void testRoundTripsNullDateAndUser() throws Exception {
+    RevisionContentCache cache = new RevisionContentCache(_dir, "http://svn/wiki", RevisionContentCache.DEFAULT_MAX_BYTES);
+    cache.put(new VersionedPageInfoImpl(WIKI, "FrontPage", "", 1, 1, null, null, null, null, null, Collections.<String, String>emptyMap()), 1);
+
+    VersionedPageInfo cached = cache.get(WIKI, "FrontPage", 1);
+    assertNull(cached.getLastChangedUser());
+    assertNull(cached.getLastChangedDate());
+  }
+
+  public void testSurvivesRestart() throws Exception {
+    new RevisionContentCache(_dir, "http://svn/wiki", RevisionContentCache.DEFAULT_MAX_BYTES).put(page("FrontPage", "Hello", 1), 1);
+
+    RevisionContentCache reopened = new RevisionContentCache(_dir, "http://svn/wiki", RevisionContentCache.DEFAULT_MAX_BYTES);
+    assertEquals(1, reopened.size());
+    assertEquals("Hello", reopened.get(WIKI, "FrontPage", 1).getContent());
+    assertNull(new RevisionContentCache(_dir, "http://svn/other", RevisionContentCache.DEFAULT_MAX_BYTES).get(WIKI, "FrontPage", 1));
+  }
+
+  public void testEvictsLeastRecentlyUsedOverSizeLimit() throws Exception {
+    final String content = new String(new char[1000]).replace('\0', 'x');
+    final long entryBytes = RevisionContentCache.serialize(page("Page", content, 1)).length;
+    RevisionContentCache cache = new RevisionContentCache(_dir, "http://svn/wiki", entryBytes * 2);
+    cache.put(page("Page", content, 1), 1);
+    cache.put(page("Page", content, 2), 2);
+    assertNotNull(cache.get(WIKI, "Page", 1));
+    cache.put(page("Page", content, 3), 3);
+
+    assertEquals(1, cache.getEvictionCount());
+    assertEquals(2, cache.size());
+    assertTrue(cache.getTotalBytes() <= entryBytes * 2);
+    assertNotNull(cache.get(WIKI, "Page", 1));
+    assertNull(cache.get(WIKI, "Page", 2));
+    assertNotNull(cache.get(WIKI, "Page", 3));
+  }
+
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.vc.ChangeInfo;
+
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
+
+/**
+ * Checks {@link SVNLogCache} answers as the server does.
+ */
+public class TestSVNLogCache extends TestCase {
+
+  private WikiRootLocationCache _rootLocations;
+  private File _dir;
+  private File _cacheDir;
+  private SVNURL _root;
+  private SVNRepository _repository;
+
+  @Override
+  protected void setUp() throws Exception {
+    FSRepositoryFactory.setup();
+    _dir = File.createTempFile("testRepos", "");
+    assertTrue(_dir.delete());
+    _cacheDir = File.createTempFile("testCache", "");
+    assertTrue(_cacheDir.delete());
+    _root = SVNRepositoryFactory.createLocalRepository(_dir, true, false);
+    _rootLocations = new WikiRootLocationCache();
+    createHistory();
+    _repository = SVNRepositoryFactory.create(_root.appendPath("renamed", false));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    _repository.closeSession();
+    delete(_dir);
+    delete(_cacheDir);
+  }
+
+  private static void delete(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * r1 adds /wiki/FrontPage, r2 edits it, r3 attaches a file, r4 renames it
+   * to Home, r5 adds something outside the wiki, r6 renames /wiki to /renamed
+   * and r7 adds /renamed/NewPage.
+   */
+  private void createHistory() throws Exception {
+    final SVNRepository repository = SVNRepositoryFactory.create(_root);
+    ISVNEditor editor = repository.getCommitEditor("Add wiki", null);
+    editor.openRoot(-1);
+    editor.addDir("wiki", null, -1);
+    addFile(editor, "wiki/FrontPage", "one");
+    editor.closeDir();
+    editor.closeDir();
+    editor.closeEdit();
+
+    editor = repository.getCommitEditor("Edit", null);
+    editor.openRoot(-1);
+    editor.openDir("wiki", -1);
+    editor.openFile("wiki/FrontPage", -1);
+    sendContent(editor, "wiki/FrontPage", "two");
+    editor.closeDir();
+    editor.closeDir();
+    editor.closeEdit();
+
+    editor = repository.getCommitEditor("Attach", null);
+    editor.openRoot(-1);
+    editor.openDir("wiki", -1);
+    editor.addDir("wiki/FrontPage-attachments", null, -1);
+    addFile(editor, "wiki/FrontPage-attachments/file.txt", "attached");
+    editor.closeDir();
+    editor.closeDir();
+    editor.closeDir();
+    editor.closeEdit();
+
+    editor = repository.getCommitEditor("Rename page", null);
+    editor.openRoot(-1);
+    editor.openDir("wiki", -1);
+    editor.addFile("wiki/Home", "/wiki/FrontPage", 3);
+    editor.closeFile("wiki/Home", null);
+    editor.deleteEntry("wiki/FrontPage", -1);
+    editor.closeDir();
+    editor.closeDir();
+    editor.closeEdit();
+
+    editor = repository.getCommitEditor("Elsewhere", null);
+    editor.openRoot(-1);
+    editor.addDir("other", null, -1);
+    editor.closeDir();
+    editor.closeDir();
+    editor.closeEdit();
+
+    editor = repository.getCommitEditor("Rename wiki", null);
+    editor.openRoot(-1);
+    editor.addDir("renamed", "/wiki", 5);
+    editor.closeDir();
+    editor.deleteEntry("wiki", -1);
+    editor.closeDir();
+    editor.closeEdit();
+
+    repository.closeSession();
+    addPage("NewPage");
+  }
+
+  private void addPage(final String page) throws Exception {
+    final SVNRepository repository = SVNRepositoryFactory.create(_root);
+    final ISVNEditor editor = repository.getCommitEditor("Add page", null);
+    editor.openRoot(-1);
+    editor.openDir("renamed", -1);
+    addFile(editor, "renamed/" + page, "new");
+    editor.closeDir();
+    editor.closeDir();
+    editor.closeEdit();
+    repository.closeSession();
+  }
+
+  private static void addFile(final ISVNEditor editor, final String path, final String content) throws Exception {
+    editor.addFile(path, null, -1);
+    sendContent(editor, path, content);
+  }
+
+  private static void sendContent(final ISVNEditor editor, final String path, final String content) throws Exception {
+    editor.applyTextDelta(path, null);
+    final String checksum = new SVNDeltaGenerator().sendDelta(path, new ByteArrayInputStream(content.getBytes("UTF-8")), editor, true);
+    editor.closeFile(path, checksum);
+  }
+
+  private static List<String> describe(final List<ChangeInfo> changes) {
+    final List<String> described = new ArrayList<String>();
+    for (ChangeInfo change : changes) {
+      described.add(change.getRevision() + " " + change.getChangeType() + " " + change.getKind() + " " + change.getPage() + " " + change.getName()
+          + " from " + change.getCopiedFrom() + "@" + change.getCopiedFromRevision() + " to " + (change.getRenamedTo() == null ? null : change.getRenamedTo().getPageName()));
+    }
+    return described;
+  }
+
+  private void assertSameLog(final SVNLogCache cache, final String path, final long limit, final LogEntryFilter filter, final boolean stopOnCopy, final long start, final long end) throws Exception {
+    final RepositoryBasicSVNOperations operations = new RepositoryBasicSVNOperations(_repository, null, _rootLocations);
+    final List<String> expected = describe(operations.log(path, limit, filter, stopOnCopy, start, end));
+    assertEquals(expected, describe(cache.log(_repository, path, limit, filter, stopOnCopy, start, end)));
+  }
+
+  public void testAnswersAsTheServerDoes() throws Exception {
+    final SVNLogCache cache = new SVNLogCache(_cacheDir, _root.toString());
+    assertSameLog(cache, "", -1, LogEntryFilter.DESCENDANTS, false, 0, -1);
+    assertSameLog(cache, "", 2, LogEntryFilter.DESCENDANTS, true, 0, -1);
+    assertSameLog(cache, "", -1, LogEntryFilter.DESCENDANTS, true, 0, -1);
+    assertSameLog(cache, "", -1, LogEntryFilter.DESCENDANTS, false, 2, 5);
+    assertSameLog(cache, "Home", -1, LogEntryFilter.PATH_ONLY, false, 0, -1);
+    assertSameLog(cache, "FrontPage", -1, LogEntryFilter.PATH_ONLY, false, 0, 3);
+    assertSameLog(cache, "FrontPage-attachments", -1, LogEntryFilter.DESCENDANTS, false, 0, -1);
+    assertEquals(1, cache.getFetchCount());
+    assertEquals(7, cache.getSyncedRevision());
+    cache.close();
+  }
+
+  public void testFetchesOnlyNewerRevisions() throws Exception {
+    SVNLogCache cache = new SVNLogCache(_cacheDir, _root.toString());
+    cache.log(_repository, "", -1, LogEntryFilter.DESCENDANTS, false, 0, -1);
+    final int size = cache.size();
+    cache.close();
+
+    cache = new SVNLogCache(_cacheDir, _root.toString());
+    assertEquals(size, cache.size());
+    assertEquals(7, cache.getSyncedRevision());
+    assertEquals(1, cache.log(_repository, "", -1, LogEntryFilter.DESCENDANTS, false, 7, 7).size());
+    assertEquals(0, cache.getFetchCount());
+
+    addPage("AnotherPage");
+    assertSameLog(cache, "", 1, LogEntryFilter.DESCENDANTS, false, 0, -1);
+    assertEquals(1, cache.getFetchCount());
+    assertEquals(size + 1, cache.size());
+    cache.close();
+  }
+
+}
@@ -197,16 +197,13 @@ public class TestSVNPageStore extends TestCase {
   public void testGetPage() throws PageStoreException {
     final String content = "Content";
     PageReferenceImpl ref = new PageReferenceImpl("Page");
-    expect(_operations.checkPath(ref.getPath(), -1L)).andReturn(SVNNodeKind.FILE);
-    _operations.getFile(eq(ref.getPath()), eq(-1L), (Map<String, String>) anyObject(), (OutputStream) anyObject());
-    expectLastCall().andAnswer(new IAnswer<Object>() {
-      public Object answer() throws Throwable {
+    expect(_operations.fetch(eq(ref.getPath()), eq(-1L), (Map<String, String>) anyObject(), (OutputStream) anyObject())).andAnswer(new IAnswer<FetchedNode>() {
+      public FetchedNode answer() throws Throwable {
         OutputStream out = (OutputStream) getCurrentArguments()[3];
         out.write(content.getBytes());
-        return null;
+        return new FetchedNode(SVNNodeKind.FILE, null);
       }
     });
-    expect(_operations.getLock(ref.getPath())).andReturn(null);
     replay();
     VersionedPageInfo returnValue = _store.get(ref, -1);
     assertEquals(ref.getName(), returnValue.getName());
@@ -255,20 +252,17 @@ public class TestSVNPageStore extends TestCase {
   public void testGetPageWithAttributes() throws PageStoreException {
     final String content = "Content";
     PageReferenceImpl ref = new PageReferenceImpl("Page");
-    expect(_operations.checkPath(ref.getPath(), -1L)).andReturn(SVNNodeKind.FILE);
-    _operations.getFile(eq(ref.getPath()), eq(-1L), (Map<String, String>) anyObject(), (OutputStream) anyObject());
-    expectLastCall().andAnswer(new IAnswer<Object>() {
-      public Object answer() throws Throwable {
+    expect(_operations.fetch(eq(ref.getPath()), eq(-1L), (Map<String, String>) anyObject(), (OutputStream) anyObject())).andAnswer(new IAnswer<FetchedNode>() {
+      public FetchedNode answer() throws Throwable {
         Map<String, String> properties = (Map<String, String>) getCurrentArguments()[2];
         properties.put("reviki:someKey", "someValue1");
         properties.put("svn:someKey", "someValue2");
         properties.put("someOtherKey", "someValue3");
         OutputStream out = (OutputStream) getCurrentArguments()[3];
         out.write(content.getBytes());
-        return null;
+        return new FetchedNode(SVNNodeKind.FILE, null);
       }
     });
-    expect(_operations.getLock(ref.getPath())).andReturn(null);
     replay();
     VersionedPageInfo pageInfo = _store.get(ref, -1);
     assertEquals(ref.getName(), pageInfo.getName());
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
+
+public class TestWikiRootLocations extends TestCase {
+
+  private WikiRootLocationCache _rootLocations;
+  private File _dir;
+  private SVNURL _root;
+
+  @Override
+  protected void setUp() throws Exception {
+    FSRepositoryFactory.setup();
+    _dir = File.createTempFile("testRepos", "");
+    assertTrue(_dir.delete());
+    _root = SVNRepositoryFactory.createLocalRepository(_dir, true, false);
+    _rootLocations = new WikiRootLocationCache();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    delete(_dir);
+  }
+
+  private static void delete(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private SVNRepository open(final String path) throws Exception {
+    return SVNRepositoryFactory.create(_root.appendPath(path, false));
+  }
+
+  /**
+   * r1 adds /wiki/OldPage, r2 renames /wiki to /renamed, r3 adds /renamed/NewPage.
+   */
+  private SVNRepository createRenamedWiki() throws Exception {
+    SVNRepository repository = SVNRepositoryFactory.create(_root);
+    ISVNEditor editor = repository.getCommitEditor("Add wiki", null);
+    editor.openRoot(-1);
+    editor.addDir("wiki", null, -1);
+    addFile(editor, "wiki/OldPage");
+    editor.closeDir();
+    editor.closeDir();
+    editor.closeEdit();
+
+    editor = repository.getCommitEditor("Rename wiki", null);
+    editor.openRoot(-1);
+    editor.addDir("renamed", "/wiki", 1);
+    editor.closeDir();
+    editor.deleteEntry("wiki", -1);
+    editor.closeDir();
+    editor.closeEdit();
+
+    repository.closeSession();
+    addPage("NewPage");
+    return open("renamed");
+  }
+
+  private void addPage(final String page) throws Exception {
+    final SVNRepository repository = SVNRepositoryFactory.create(_root);
+    final ISVNEditor editor = repository.getCommitEditor("Add page", null);
+    editor.openRoot(-1);
+    editor.openDir("renamed", -1);
+    addFile(editor, "renamed/" + page);
+    editor.closeDir();
+    editor.closeDir();
+    editor.closeEdit();
+    repository.closeSession();
+  }
+
+  private static void addFile(final ISVNEditor editor, final String path) throws Exception {
+    editor.addFile(path, null, -1);
+    editor.applyTextDelta(path, null);
+    final String checksum = new SVNDeltaGenerator().sendDelta(path, new ByteArrayInputStream("content".getBytes("UTF-8")), editor, true);
+    editor.closeFile(path, checksum);
+  }
+
+  public void testFollowsRenameOfRoot() throws Exception {
+    final SVNRepository repository = createRenamedWiki();
+    final WikiRootLocations locations = _rootLocations.forLocation(repository.getLocation());
+    assertEquals(_root.appendPath("wiki", false), locations.locationAt(repository, 1));
+    assertEquals(_root.appendPath("renamed", false), locations.locationAt(repository, 2));
+    assertEquals(_root.appendPath("renamed", false), locations.locationAt(repository, 3));
+    assertEquals(_root.appendPath("renamed", false), locations.locationAt(repository, -1));
+    assertEquals(1, locations.getFetchCount());
+
+    // Extended for later revisions.
+    addPage("AnotherPage");
+    assertEquals(_root.appendPath("renamed", false), locations.locationAt(repository, 4));
+    assertEquals(_root.appendPath("wiki", false), locations.locationAt(repository, 1));
+    assertEquals(2, locations.getFetchCount());
+  }
+
+  public void testOperationsFindPagesAtTheirOldLocation() throws Exception {
+    final SVNRepository repository = createRenamedWiki();
+    final RepositoryBasicSVNOperations operations = new RepositoryBasicSVNOperations(repository, null, _rootLocations);
+    assertEquals(SVNNodeKind.FILE, operations.checkPath("OldPage", 1));
+    assertEquals(SVNNodeKind.NONE, operations.checkPath("NewPage", 2));
+    assertEquals(SVNNodeKind.FILE, operations.checkPath("NewPage", 3));
+    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    operations.getFile("OldPage", 1, null, content);
+    assertEquals("content", content.toString("UTF-8"));
+    assertEquals(1, _rootLocations.forLocation(repository.getLocation()).getFetchCount());
+    operations.dispose();
+  }
+
+}
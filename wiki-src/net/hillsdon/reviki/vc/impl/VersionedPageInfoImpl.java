@@ -152,6 +152,12 @@ public class VersionedPageInfoImpl extends PageInfoImpl implements VersionedPage
     return new VersionedPageInfoImpl(this, attributes);
   }
 
+  public VersionedPageInfo withLock(final String lockedBy, final String lockToken, final Date lockedSince) {
+    VersionedPageInfoImpl page = new VersionedPageInfoImpl(getWiki(), getPath(), getContent(), _revision, _lastChangedRevision, _lastChangedAuthor, _lastChangedDate, lockedBy, lockToken, lockedSince, getAttributes());
+    page._renamed = _renamed;
+    return page;
+  }
+
   public VersionedPageInfo withoutLockToken() {
     return new VersionedPageInfoImpl(
       super.getWiki(),
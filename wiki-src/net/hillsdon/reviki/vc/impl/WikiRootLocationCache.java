@@ -0,0 +1,43 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.tmatesoft.svn.core.SVNURL;
+
+/**
+ * The {@link WikiRootLocations} for each wiki root URL.  There's one per
+ * application so the history is fetched once however many sessions there are.
+ */
+public class WikiRootLocationCache {
+
+  private final Map<String, WikiRootLocations> _locations = new HashMap<String, WikiRootLocations>();
+
+  /**
+   * @param location The wiki root URL as configured, i.e. its location at HEAD.
+   */
+  synchronized WikiRootLocations forLocation(final SVNURL location) {
+    WikiRootLocations locations = _locations.get(location.toString());
+    if (locations == null) {
+      locations = new WikiRootLocations(location);
+      _locations.put(location.toString(), locations);
+    }
+    return locations;
+  }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.vc.impl;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.io.ISVNLocationSegmentHandler;
+import org.tmatesoft.svn.core.io.SVNLocationSegment;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+/**
+ * Where a wiki root was in each revision, following renames of it or its
+ * parents, so looking at old revisions doesn't need a round trip to find it.
+ *
+ * The history is fetched once up to the latest revision and extended when a
+ * later revision is asked about.  One per root URL, shared by
+ * all sessions via {@link WikiRootLocationCache}.
+ */
+class WikiRootLocations {
+
+  private final SVNURL _location;
+  /** Repository path of the root from each revision until the next entry, null where it didn't exist. */
+  private final TreeMap<Long, String> _paths = new TreeMap<Long, String>();
+  private SVNURL _repositoryRoot;
+  private long _knownUpTo = -1;
+  private int _fetches = 0;
+
+  WikiRootLocations(final SVNURL location) {
+    _location = location;
+  }
+
+  /**
+   * @param repository A session at our location, used if we need to fetch more history.
+   * @param revision A revision, negative for HEAD.
+   * @return The URL of the wiki root in that revision, our location if it's unchanged or didn't exist.
+   * @throws SVNException If we fail to fetch the history.
+   */
+  synchronized SVNURL locationAt(final SVNRepository repository, final long revision) throws SVNException {
+    if (revision < 0) {
+      return _location;
+    }
+    if (revision > _knownUpTo) {
+      fetch(repository);
+    }
+    final Map.Entry<Long, String> entry = _paths.floorEntry(revision);
+    if (entry == null || entry.getValue() == null) {
+      return _location;
+    }
+    return _repositoryRoot.appendPath(entry.getValue(), false);
+  }
+
+  private void fetch(final SVNRepository repository) throws SVNException {
+    if (_repositoryRoot == null) {
+      _repositoryRoot = repository.getRepositoryRoot(true);
+    }
+    // We can only trace back from a revision where our location exists.
+    final long revision = repository.getLatestRevision();
+    final long oldest = _knownUpTo + 1;
+    final TreeMap<Long, String> segments = segments(repository, revision, oldest);
+    if (oldest > 0 && !_paths.isEmpty()) {
+      final Map.Entry<Long, String> last = _paths.floorEntry(_knownUpTo);
+      final String before = last == null ? null : last.getValue();
+      final String after = segments.isEmpty() ? null : segments.firstEntry().getValue();
+      if (segments.isEmpty() || segments.firstKey() != oldest || !(before == null ? after == null : before.equals(after))) {
+        // Something new is at our location, start again.
+        _paths.clear();
+        _paths.putAll(segments(repository, revision, 0));
+        _knownUpTo = revision;
+        return;
+      }
+      // Continues the last range we know.
+      segments.remove(oldest);
+    }
+    _paths.putAll(segments);
+    _knownUpTo = revision;
+  }
+
+  /**
+   * @param youngest A revision where our location exists.
+   */
+  private TreeMap<Long, String> segments(final SVNRepository repository, final long youngest, final long oldest) throws SVNException {
+    _fetches++;
+    final TreeMap<Long, String> segments = new TreeMap<Long, String>();
+    repository.getLocationSegments("", youngest, youngest, oldest, new ISVNLocationSegmentHandler() {
+      public void handleLocationSegment(final SVNLocationSegment segment) throws SVNException {
+        segments.put(segment.getStartRevision(), segment.getPath());
+      }
+    });
+    return segments;
+  }
+
+  /**
+   * @return Number of times history has been fetched from the server.
+   */
+  synchronized int getFetchCount() {
+    return _fetches;
+  }
+
+}
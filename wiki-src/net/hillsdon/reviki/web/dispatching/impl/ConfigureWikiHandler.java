@@ -21,8 +21,10 @@ import javax.servlet.http.HttpServletResponse;
 import net.hillsdon.reviki.configuration.DeploymentConfiguration;
 import net.hillsdon.reviki.configuration.SearchIndexBuilder;
 import net.hillsdon.reviki.configuration.WikiConfiguration;
+import net.hillsdon.reviki.search.impl.SearchIndices;
 import net.hillsdon.reviki.vc.PageStoreAuthenticationException;
 import net.hillsdon.reviki.vc.PageStoreInvalidException;
+import net.hillsdon.reviki.vc.impl.WikiRootLocationCache;
 import net.hillsdon.reviki.web.common.ConsumedPath;
 import net.hillsdon.reviki.web.common.InvalidInputException;
 import net.hillsdon.reviki.web.common.JspView;
@@ -40,12 +42,16 @@ public class ConfigureWikiHandler implements RequestHandler {
   private final DeploymentConfiguration _configuration;
   private final ActiveWikis _activeWikis;
   private final ApplicationUrls _applicationUrls;
+  private final SearchIndices _searchIndices;
+  private final WikiRootLocationCache _rootLocations;
 
-  public ConfigureWikiHandler(final DeploymentConfiguration configuration, final ActiveWikis activeWikis, final WikiConfiguration perWikiConfiguration, final ApplicationUrls applicationUrls) {
+  public ConfigureWikiHandler(final DeploymentConfiguration configuration, final ActiveWikis activeWikis, final WikiConfiguration perWikiConfiguration, final ApplicationUrls applicationUrls, final SearchIndices searchIndices, final WikiRootLocationCache rootLocations) {
     _configuration = configuration;
     _activeWikis = activeWikis;
     _perWikiConfiguration = perWikiConfiguration;
     _applicationUrls = applicationUrls;
+    _searchIndices = searchIndices;
+    _rootLocations = rootLocations;
   }
 
   public View handle(final ConsumedPath path, final HttpServletRequest request, final HttpServletResponse response) throws Exception {
@@ -80,7 +86,7 @@ public class ConfigureWikiHandler implements RequestHandler {
           _activeWikis.installHandler(_perWikiConfiguration, handler);
         }
         try {
-          SearchIndexBuilder indexBuilder = new SearchIndexBuilder(_configuration);
+          SearchIndexBuilder indexBuilder = new SearchIndexBuilder(_configuration, _searchIndices, _rootLocations);
           indexBuilder.indexWiki(_perWikiConfiguration);
         }
         catch(PageStoreAuthenticationException e) {
@@ -38,6 +38,7 @@ public class DispatcherServlet extends HttpServlet {
 
   private static final long serialVersionUID = 1L;
 
+  private ApplicationSession _applicationSession;
   private Dispatcher _dispatcher;
 
   @Override
@@ -47,13 +48,13 @@ public class DispatcherServlet extends HttpServlet {
     // putting the impl class name in the web.xml so this is a reasonable
     // temporary step to get back to zero cycles.
     try {
-      final ApplicationSession applicationSession = new PicoBuilder().build()
+      _applicationSession = new PicoBuilder().build()
         .addComponent(Class.forName("net.hillsdon.reviki.di.impl.ApplicationSessionImpl"))
         .addComponent(config)
         .addComponent(config.getServletContext())
         .getComponent(ApplicationSession.class);
-      applicationSession.start();
-      _dispatcher = applicationSession.getDispatcher();
+      _applicationSession.start();
+      _dispatcher = _applicationSession.getDispatcher();
 
       // Default limit of 1024 clauses was too small in some cases (e.g. when searching for "story").
       // Therefore this limit was increased in r1202, to allow searching for common terms.
@@ -66,6 +67,14 @@ public class DispatcherServlet extends HttpServlet {
     }
   }
 
+  @Override
+  public void destroy() {
+    if (_applicationSession != null) {
+      _applicationSession.dispose();
+    }
+    super.destroy();
+  }
+
   @Override
   protected void service(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
     request.getSession();
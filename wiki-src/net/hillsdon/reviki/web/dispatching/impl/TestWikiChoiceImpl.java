@@ -8,7 +8,7 @@ public class TestWikiChoiceImpl extends TestCase {
 
   @Override
   public void setUp() {
-    _choice = new WikiChoiceImpl(null, null, null);
+    _choice = new WikiChoiceImpl(null, null, null, null, null);
   }
 
   public void testNullIsInvalidWikiName() {
@@ -25,7 +25,9 @@ import net.hillsdon.reviki.configuration.DeploymentConfiguration;
 import net.hillsdon.reviki.configuration.WikiConfiguration;
 import net.hillsdon.reviki.di.ApplicationSession;
 import net.hillsdon.reviki.di.WikiSession;
+import net.hillsdon.reviki.search.impl.SearchIndices;
 import net.hillsdon.reviki.vc.NotFoundException;
+import net.hillsdon.reviki.vc.impl.WikiRootLocationCache;
 import net.hillsdon.reviki.web.common.ConsumedPath;
 import net.hillsdon.reviki.web.common.RequestHandler;
 import net.hillsdon.reviki.web.common.View;
@@ -44,11 +46,15 @@ public class WikiChoiceImpl implements WikiChoice, Startable {
   private final DeploymentConfiguration _configuration;
   private final ApplicationSession _applicationSession;
   private final ApplicationUrls _applicationUrls;
+  private final SearchIndices _searchIndices;
+  private final WikiRootLocationCache _rootLocations;
 
-  public WikiChoiceImpl(final DeploymentConfiguration configuration, final ApplicationSession applicationSession, final ApplicationUrls applicationUrls) {
+  public WikiChoiceImpl(final DeploymentConfiguration configuration, final ApplicationSession applicationSession, final ApplicationUrls applicationUrls, final SearchIndices searchIndices, final WikiRootLocationCache rootLocations) {
     _configuration = configuration;
     _applicationSession = applicationSession;
     _applicationUrls = applicationUrls;
+    _searchIndices = searchIndices;
+    _rootLocations = rootLocations;
   }
 
   public void start() {
@@ -89,7 +95,7 @@ public class WikiChoiceImpl implements WikiChoice, Startable {
   private RequestHandler getWikiHandler(final HttpServletRequest request, final WikiConfiguration perWikiConfiguration, final ConsumedPath path) throws NotFoundException {
     final RequestHandler wiki = _wikis.get(perWikiConfiguration);
     if ("ConfigSvnLocation".equals(path.peek())) {
-      return new ConfigureWikiHandler(_configuration, this, perWikiConfiguration, _applicationUrls);
+      return new ConfigureWikiHandler(_configuration, this, perWikiConfiguration, _applicationUrls, _searchIndices, _rootLocations);
     }
     else if (wiki == null) {
       return new RequestHandler() {
@@ -15,15 +15,13 @@
  */
 package net.hillsdon.reviki.web.pages.impl;
 
-import java.util.ArrayList;
-import java.util.Set;
-
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import net.hillsdon.fij.text.Escape;
 import net.hillsdon.reviki.search.SearchEngine;
-import net.hillsdon.reviki.search.SearchMatch;
+import net.hillsdon.reviki.search.SearchResults;
+import net.hillsdon.reviki.search.impl.PageNameSuggestions;
 import net.hillsdon.reviki.vc.PageReference;
 import net.hillsdon.reviki.vc.PageStore;
 import net.hillsdon.reviki.vc.impl.PageReferenceImpl;
@@ -53,21 +51,36 @@ public class FindPage extends AbstractSpecialPage {
 
   static final String PARAM_QUERY = "query";
   private static final String PARAM_QUERY_ALTERNATE = "q";
+  static final String PARAM_OFFSET = "offset";
+  static final String PARAM_LIMIT = "limit";
+  static final String SUGGEST = "suggest";
+
+  /**
+   * Number of results per page if no limit is given.
+   */
+  static final int DEFAULT_PAGE_SIZE = 50;
 
+  /**
+   * Number of page name suggestions if no limit is given.
+   */
+  static final int DEFAULT_SUGGESTIONS = 20;
 
   private final PageStore _store;
   private final SearchEngine _searchEngine;
   private final WikiUrls _wikiUrls;
+  private final PageNameSuggestions _suggestions;
 
-  public FindPage(final PageStore store, final SearchEngine searchEngine, final WikiUrls wikiUrls, final DefaultPage defaultPage) {
+  public FindPage(final PageStore store, final SearchEngine searchEngine, final WikiUrls wikiUrls, final PageNameSuggestions suggestions, final DefaultPage defaultPage) {
     super(defaultPage);
     _store = store;
     _searchEngine = searchEngine;
     _wikiUrls = wikiUrls;
+    _suggestions = suggestions;
   }
 
   public View get(PageReference page, final ConsumedPath path, final HttpServletRequest request, final HttpServletResponse response) throws Exception {
-    if ("opensearch.xml".equals(path.next())) {
+    final String subPage = path.next();
+    if ("opensearch.xml".equals(subPage)) {
       return new View() {
         public void render(final HttpServletRequest request, final HttpServletResponse response) throws Exception {
           response.setContentType("application/opensearchdescription+xml");
@@ -84,6 +97,11 @@ public class FindPage extends AbstractSpecialPage {
     if (query == null) {
       return super.get(page, path, request, response);
     }
+    if (SUGGEST.equals(subPage)) {
+      // Page names only, from memory, for the search box autocomplete.
+      final Long limit = getLong(request, PARAM_LIMIT);
+      return new TextFormatSearchResults(_suggestions.suggest(query.trim(), limit == null ? DEFAULT_SUGGESTIONS : toInt(limit)));
+    }
 
     final PageReference queryPage = new PageReferenceImpl(query);
     boolean pageExists = _store.list().contains(queryPage);
@@ -91,24 +109,41 @@ public class FindPage extends AbstractSpecialPage {
       return new RedirectToPageView(_wikiUrls, queryPage);
     }
 
-    final Set<SearchMatch> results = _searchEngine.search(query, true, pageExists);
-    Long limit = getLong(request.getParameter("limit"), "limit");
-    if (limit != null) {
-      results.retainAll(new ArrayList<SearchMatch>(results).subList(0, (int) Math.min(results.size(), limit)));
-    }
-    if (ViewTypeConstants.is(request, CTYPE_TEXT)) {
-      return new TextFormatSearchResults(results);
+    final boolean textFormat = ViewTypeConstants.is(request, CTYPE_TEXT);
+    final Long offset = getLong(request, PARAM_OFFSET);
+    final Long limit = getLong(request, PARAM_LIMIT);
+    final int from = offset == null ? 0 : toInt(offset);
+    final int count = limit != null ? toInt(limit) : textFormat ? Integer.MAX_VALUE : DEFAULT_PAGE_SIZE;
+    // The text format is for autocomplete which doesn't show extracts.
+    final SearchResults results = _searchEngine.search(query, !textFormat, pageExists, from, count);
+    if (textFormat) {
+      return new TextFormatSearchResults(results.getMatches());
     }
     else {
       if (!pageExists && isWikiWord(query)) {
         request.setAttribute("suggestCreate", query);
       }
-      request.setAttribute("results", results);
+      request.setAttribute("results", results.getMatches());
+      request.setAttribute("total", results.getTotal());
+      request.setAttribute("warnings", results.getWarnings());
+      request.setAttribute("offset", from);
+      request.setAttribute("end", from + results.getMatches().size());
+      request.setAttribute("limit", count);
+      if (from > 0) {
+        request.setAttribute("previousOffset", Math.max(0, from - count));
+      }
+      if (results.hasMore()) {
+        request.setAttribute("nextOffset", from + results.getMatches().size());
+      }
       request.setAttribute("thisWiki", _wikiUrls.getWikiName());
       return new JspView("SearchResults");
     }
   }
 
+  private static int toInt(final long value) {
+    return (int) Math.max(0, Math.min(value, Integer.MAX_VALUE));
+  }
+
   public String getName() {
     return "FindPage";
   }
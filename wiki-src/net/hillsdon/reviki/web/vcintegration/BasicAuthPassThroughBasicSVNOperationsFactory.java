@@ -23,16 +23,21 @@ import javax.servlet.http.HttpServletRequest;
 import net.hillsdon.reviki.vc.impl.AutoPropertiesApplier;
 import net.hillsdon.reviki.vc.impl.BasicSVNOperations;
 import net.hillsdon.reviki.vc.impl.BasicSVNOperationsFactory;
+import net.hillsdon.reviki.vc.impl.LockSnapshot;
+import net.hillsdon.reviki.vc.impl.LockSnapshotBasicSVNOperations;
+import net.hillsdon.reviki.vc.impl.LogCachingBasicSVNOperations;
 import net.hillsdon.reviki.vc.impl.RepositoryBasicSVNOperations;
+import net.hillsdon.reviki.vc.impl.SVNLogCache;
+import net.hillsdon.reviki.vc.impl.WikiRootLocationCache;
 import net.hillsdon.reviki.web.common.RequestAttributes;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNURL;
-import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
 import org.tmatesoft.svn.core.internal.io.dav.DAVRepositoryFactory;
 import org.tmatesoft.svn.core.io.SVNRepository;
-import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
 
 /**
  * Creates a page store that will authenticate with credentials provided in
@@ -79,15 +84,39 @@ public class BasicAuthPassThroughBasicSVNOperationsFactory implements BasicSVNOp
     }
   }
 
+  private static final Log LOG = LogFactory.getLog(BasicAuthPassThroughBasicSVNOperationsFactory.class);
+
   private final SVNURL _url;
   private final AutoPropertiesApplier _autoPropertiesApplier;
+  private final SVNSessionPool _sessions;
+  private final WikiRootLocationCache _rootLocations;
+  private final SVNLogCache _logCache;
+  private final LockSnapshot _lockSnapshot;
+
+  /**
+   * @param sessions Shared by all wikis, sessions are kept per URL and credentials.
+   * @param rootLocations Shared by all wikis.
+   */
+  public BasicAuthPassThroughBasicSVNOperationsFactory(final SVNURL url, final AutoPropertiesApplier autoPropertiesApplier, final SVNSessionPool sessions, final WikiRootLocationCache rootLocations) {
+    this(url, autoPropertiesApplier, sessions, rootLocations, null, null);
+  }
 
-  public BasicAuthPassThroughBasicSVNOperationsFactory(final SVNURL url, final AutoPropertiesApplier autoPropertiesApplier) {
+  /**
+   * @param sessions Shared by all wikis, sessions are kept per URL and credentials.
+   * @param rootLocations Shared by all wikis.
+   * @param logCache If non-null, used to answer log requests.
+   * @param lockSnapshot If non-null, used to answer lock lookups.
+   */
+  public BasicAuthPassThroughBasicSVNOperationsFactory(final SVNURL url, final AutoPropertiesApplier autoPropertiesApplier, final SVNSessionPool sessions, final WikiRootLocationCache rootLocations, final SVNLogCache logCache, final LockSnapshot lockSnapshot) {
     if (null == url) {
       throw new IllegalArgumentException("url can not be null");
     }
     _url = url;
     _autoPropertiesApplier = autoPropertiesApplier;
+    _sessions = sessions;
+    _rootLocations = rootLocations;
+    _logCache = logCache;
+    _lockSnapshot = lockSnapshot;
   }
 
   static UsernamePassword getBasicAuthCredentials(String authorization) {
@@ -119,18 +148,28 @@ public class BasicAuthPassThroughBasicSVNOperationsFactory implements BasicSVNOp
 
   public BasicSVNOperations apply(final HttpServletRequest request) {
     DAVRepositoryFactory.setup();
-    SVNRepository repository = createRepository();
     UsernamePassword credentials = getBasicAuthCredentials(request.getHeader("Authorization"));
     // To get proxy support for testing/debug:
     // repository.setAuthenticationManager(SVNWCUtil.createDefaultAuthenticationManager());
-    repository.setAuthenticationManager(new BasicAuthenticationManager(credentials.getUsername(), credentials.getPassword()));
+    final SVNRepository repository = leaseRepository(credentials);
     request.setAttribute(RequestAttributes.USERNAME, credentials.getUsername());
-    return new RepositoryBasicSVNOperations(repository, _autoPropertiesApplier);
+    final BasicSVNOperations operations = new RepositoryBasicSVNOperations(repository, _autoPropertiesApplier, _rootLocations) {
+      @Override
+      public void dispose() {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(getRoundTripCount() + " repository requests for " + request.getRequestURI());
+        }
+        // Back to the pool for the next request with these credentials.
+        _sessions.release(repository);
+      }
+    };
+    final BasicSVNOperations logged = _logCache == null ? operations : new LogCachingBasicSVNOperations(operations, _logCache);
+    return _lockSnapshot == null ? logged : new LockSnapshotBasicSVNOperations(logged, _lockSnapshot);
   }
 
-  private SVNRepository createRepository() {
+  private SVNRepository leaseRepository(final UsernamePassword credentials) {
     try {
-      return SVNRepositoryFactory.create(_url);
+      return _sessions.lease(_url, credentials.getUsername(), credentials.getPassword());
     }
     catch (SVNException ex) {
       throw new RuntimeException("Invalid repository.", ex);
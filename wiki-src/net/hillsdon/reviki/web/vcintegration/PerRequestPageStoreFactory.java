@@ -16,6 +16,7 @@
 package net.hillsdon.reviki.web.vcintegration;
 
 import net.hillsdon.reviki.search.SearchEngine;
+import net.hillsdon.reviki.search.impl.IndexUpdateQueue;
 import net.hillsdon.reviki.search.impl.SearchIndexPopulatingPageStore;
 import net.hillsdon.reviki.vc.MimeIdentifier;
 import net.hillsdon.reviki.vc.PageStore;
@@ -23,6 +24,8 @@ import net.hillsdon.reviki.vc.impl.AutoPropertiesApplier;
 import net.hillsdon.reviki.vc.impl.BasicSVNOperations;
 import net.hillsdon.reviki.vc.impl.DeletedRevisionTracker;
 import net.hillsdon.reviki.vc.impl.PageListCachingPageStore;
+import net.hillsdon.reviki.vc.impl.RevisionCachingPageStore;
+import net.hillsdon.reviki.vc.impl.RevisionContentCache;
 import net.hillsdon.reviki.vc.impl.SVNPageStore;
 
 import com.google.common.base.Supplier;
@@ -31,22 +34,37 @@ public class PerRequestPageStoreFactory implements Supplier<PageStore> {
 
   private final String _wiki;
   private final SearchEngine _indexer;
+  private final IndexUpdateQueue _indexQueue;
   private final DeletedRevisionTracker _tracker;
   private final BasicSVNOperations _operations;
   private final AutoPropertiesApplier _autoPropertiesApplier;
   private final MimeIdentifier _mimeIdentifier;
+  private final RevisionContentCache _revisionCache;
 
-  public PerRequestPageStoreFactory(final String wiki, final SearchEngine indexer, final DeletedRevisionTracker tracker, final BasicSVNOperations operations, final AutoPropertiesApplier autoPropertiesApplier, final MimeIdentifier mimeIdentifier) {
+  public PerRequestPageStoreFactory(final String wiki, final SearchEngine indexer, final IndexUpdateQueue indexQueue, final DeletedRevisionTracker tracker, final BasicSVNOperations operations, final AutoPropertiesApplier autoPropertiesApplier, final MimeIdentifier mimeIdentifier) {
+    this(wiki, indexer, indexQueue, tracker, operations, autoPropertiesApplier, mimeIdentifier, null);
+  }
+
+  /**
+   * @param revisionCache If non-null, pages at committed revisions are kept there.
+   */
+  public PerRequestPageStoreFactory(final String wiki, final SearchEngine indexer, final IndexUpdateQueue indexQueue, final DeletedRevisionTracker tracker, final BasicSVNOperations operations, final AutoPropertiesApplier autoPropertiesApplier, final MimeIdentifier mimeIdentifier, final RevisionContentCache revisionCache) {
     _wiki = wiki;
     _indexer = indexer;
+    _indexQueue = indexQueue;
     _tracker = tracker;
     _operations = operations;
     _autoPropertiesApplier = autoPropertiesApplier;
     _mimeIdentifier = mimeIdentifier;
+    _revisionCache = revisionCache;
   }
 
   public PageStore get() {
-    return new SearchIndexPopulatingPageStore(_indexer, new PageListCachingPageStore(new SpecialPagePopulatingPageStore(new SVNPageStore(_wiki, _tracker, _operations, _autoPropertiesApplier, _mimeIdentifier))));
+    PageStore store = new SVNPageStore(_wiki, _tracker, _operations, _autoPropertiesApplier, _mimeIdentifier);
+    if (_revisionCache != null) {
+      store = new RevisionCachingPageStore(_wiki, store, _revisionCache, _operations);
+    }
+    return new SearchIndexPopulatingPageStore(_indexer, _indexQueue, new PageListCachingPageStore(new SpecialPagePopulatingPageStore(store)));
   }
 
 }
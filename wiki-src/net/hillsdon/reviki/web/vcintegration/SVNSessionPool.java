@@ -0,0 +1,225 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.web.vcintegration;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.picocontainer.Disposable;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.auth.BasicAuthenticationManager;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+
+/**
+ * Reuses {@link SVNRepository} sessions between requests so each doesn't pay
+ * for connecting and authenticating again.
+ *
+ * Sessions are kept per repository URL and hash of the credentials they
+ * authenticate with, so a session is only ever reused with the credentials it
+ * was created for.  A leased session belongs to one request until it is
+ * released, which keeps the one thread per session rule {@link SVNRepository}
+ * needs.
+ *
+ * There's one per application, idle sessions are closed when it's disposed.
+ */
+public class SVNSessionPool implements Disposable {
+
+  private static final Log LOG = LogFactory.getLog(SVNSessionPool.class);
+
+  public static final int DEFAULT_MAX_IDLE_PER_KEY = 8;
+  public static final long DEFAULT_IDLE_MILLIS = 5 * 60 * 1000;
+  public static final long DEFAULT_VALIDATE_AFTER_MILLIS = 30 * 1000;
+
+  private static final class Idle {
+    final SVNRepository repository;
+    final long since;
+
+    Idle(final SVNRepository repository, final long since) {
+      this.repository = repository;
+      this.since = since;
+    }
+  }
+
+  private final int _maxIdlePerKey;
+  private final long _idleMillis;
+  private final long _validateAfterMillis;
+  /** Most recently released last. */
+  private final Map<String, LinkedList<Idle>> _idle = new LinkedHashMap<String, LinkedList<Idle>>();
+  private final Map<SVNRepository, String> _leased = new IdentityHashMap<SVNRepository, String>();
+  private long _created = 0;
+  private long _reused = 0;
+
+  /**
+   * @param maxIdlePerKey Idle sessions kept for each URL and credentials, more are closed on release.
+   * @param idleMillis Idle sessions are closed after this long.
+   * @param validateAfterMillis Sessions idle for longer than this are checked with the server before reuse.
+   */
+  public SVNSessionPool(final int maxIdlePerKey, final long idleMillis, final long validateAfterMillis) {
+    _maxIdlePerKey = maxIdlePerKey;
+    _idleMillis = idleMillis;
+    _validateAfterMillis = validateAfterMillis;
+  }
+
+  public SVNSessionPool() {
+    this(DEFAULT_MAX_IDLE_PER_KEY, DEFAULT_IDLE_MILLIS, DEFAULT_VALIDATE_AFTER_MILLIS);
+  }
+
+  static String key(final SVNURL url, final String username, final String password) {
+    return url + " " + DigestUtils.sha256Hex(orNul(username) + "\0" + orNul(password));
+  }
+
+  /**
+   * Keeps a null credential distinct from the string "null".
+   */
+  private static String orNul(final String credential) {
+    return credential == null ? "\0" : "+" + credential;
+  }
+
+  /**
+   * @return A session for url authenticating with the credentials, to be passed to {@link #release} when done.
+   * @throws SVNException If we can't create a new session.
+   */
+  public SVNRepository lease(final SVNURL url, final String username, final String password) throws SVNException {
+    final String key = key(url, username, password);
+    while (true) {
+      final Idle idle;
+      synchronized (this) {
+        evictExpired();
+        final LinkedList<Idle> sessions = _idle.get(key);
+        if (sessions == null) {
+          break;
+        }
+        idle = sessions.removeLast();
+        if (sessions.isEmpty()) {
+          _idle.remove(key);
+        }
+      }
+      if (isValid(idle, url)) {
+        synchronized (this) {
+          _leased.put(idle.repository, key);
+          _reused++;
+        }
+        return idle.repository;
+      }
+      idle.repository.closeSession();
+    }
+
+    final SVNRepository repository = SVNRepositoryFactory.create(url);
+    repository.setAuthenticationManager(new BasicAuthenticationManager(username, password));
+    synchronized (this) {
+      _leased.put(repository, key);
+      _created++;
+    }
+    return repository;
+  }
+
+  private boolean isValid(final Idle idle, final SVNURL url) {
+    if (!url.equals(idle.repository.getLocation())) {
+      return false;
+    }
+    if (System.currentTimeMillis() - idle.since > _validateAfterMillis) {
+      try {
+        idle.repository.testConnection();
+      }
+      catch (SVNException ex) {
+        LOG.debug("Discarding pooled SVN session for " + url, ex);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param repository A session from {@link #lease}, not to be used again by the caller.
+   */
+  public void release(final SVNRepository repository) {
+    synchronized (this) {
+      final String key = _leased.remove(repository);
+      if (key != null) {
+        evictExpired();
+        LinkedList<Idle> sessions = _idle.get(key);
+        if (sessions == null) {
+          sessions = new LinkedList<Idle>();
+          _idle.put(key, sessions);
+        }
+        if (sessions.size() < _maxIdlePerKey) {
+          sessions.addLast(new Idle(repository, System.currentTimeMillis()));
+          return;
+        }
+      }
+    }
+    repository.closeSession();
+  }
+
+  private synchronized void evictExpired() {
+    final long now = System.currentTimeMillis();
+    for (Iterator<LinkedList<Idle>> keys = _idle.values().iterator(); keys.hasNext();) {
+      final LinkedList<Idle> sessions = keys.next();
+      // Oldest first.
+      while (!sessions.isEmpty() && now - sessions.getFirst().since >= _idleMillis) {
+        sessions.removeFirst().repository.closeSession();
+      }
+      if (sessions.isEmpty()) {
+        keys.remove();
+      }
+    }
+  }
+
+  /**
+   * Closes all idle sessions.
+   */
+  public synchronized void closeIdle() {
+    for (LinkedList<Idle> sessions : _idle.values()) {
+      for (Idle idle : sessions) {
+        idle.repository.closeSession();
+      }
+    }
+    _idle.clear();
+  }
+
+  public void dispose() {
+    closeIdle();
+  }
+
+  public synchronized int getIdleCount() {
+    int count = 0;
+    for (LinkedList<Idle> sessions : _idle.values()) {
+      count += sessions.size();
+    }
+    return count;
+  }
+
+  public synchronized int getLeasedCount() {
+    return _leased.size();
+  }
+
+  public synchronized long getCreatedCount() {
+    return _created;
+  }
+
+  public synchronized long getReusedCount() {
+    return _reused;
+  }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.web.vcintegration;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+
+public class TestSVNSessionPool extends TestCase {
+
+  private File _dir;
+  private SVNURL _url;
+
+  @Override
+  protected void setUp() throws Exception {
+    FSRepositoryFactory.setup();
+    _dir = File.createTempFile("testRepos", "");
+    assertTrue(_dir.delete());
+    _url = SVNRepositoryFactory.createLocalRepository(_dir, true, false);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    delete(_dir);
+  }
+
+  private static void delete(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  public void testReusesSessionsOnlyForTheSameCredentials() throws Exception {
+    final SVNSessionPool pool = new SVNSessionPool();
+    final SVNRepository alice = pool.lease(_url, "alice", "secret");
+    assertEquals(0, alice.getLatestRevision());
+    pool.release(alice);
+    assertEquals(1, pool.getIdleCount());
+
+    assertNotSame(alice, pool.lease(_url, "bob", "secret"));
+    assertNotSame(alice, pool.lease(_url, "alice", "guess"));
+    assertNotSame(alice, pool.lease(_url, null, null));
+    assertSame(alice, pool.lease(_url, "alice", "secret"));
+    assertEquals(4, pool.getLeasedCount());
+    assertEquals(0, pool.getIdleCount());
+    assertEquals(1, pool.getReusedCount());
+  }
+
+  public void testKeepsAtMostMaxIdlePerKey() throws Exception {
+    final SVNSessionPool pool = new SVNSessionPool(2, SVNSessionPool.DEFAULT_IDLE_MILLIS, SVNSessionPool.DEFAULT_VALIDATE_AFTER_MILLIS);
+    final SVNRepository first = pool.lease(_url, "alice", "secret");
+    final SVNRepository second = pool.lease(_url, "alice", "secret");
+    final SVNRepository third = pool.lease(_url, "alice", "secret");
+    pool.release(first);
+    pool.release(second);
+    pool.release(third);
+    assertEquals(2, pool.getIdleCount());
+    assertEquals(0, pool.getLeasedCount());
+
+    pool.lease(_url, "bob", "secret");
+    assertEquals(2, pool.getIdleCount());
+  }
+
+  public void testEvictsIdleSessions() throws Exception {
+    final SVNSessionPool pool = new SVNSessionPool(2, 1, SVNSessionPool.DEFAULT_VALIDATE_AFTER_MILLIS);
+    final SVNRepository session = pool.lease(_url, "alice", "secret");
+    pool.release(session);
+    Thread.sleep(10);
+    assertNotSame(session, pool.lease(_url, "alice", "secret"));
+    assertEquals(0, pool.getIdleCount());
+    assertEquals(0, pool.getReusedCount());
+  }
+
+  public void testValidatesSessionsBeforeReuse() throws Exception {
+    final SVNSessionPool pool = new SVNSessionPool(2, SVNSessionPool.DEFAULT_IDLE_MILLIS, 0);
+    final SVNRepository session = pool.lease(_url, "alice", "secret");
+    pool.release(session);
+    Thread.sleep(10);
+    assertSame(session, pool.lease(_url, "alice", "secret"));
+    pool.release(session);
+    Thread.sleep(10);
+
+    delete(_dir);
+    final SVNRepository replacement = pool.lease(_url, "alice", "secret");
+    assertNotSame(session, replacement);
+    assertEquals(2, pool.getCreatedCount());
+  }
+
+}
@@ -19,6 +19,7 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 
 import java.util.Collections;
+import java.util.Set;
 
 import junit.framework.TestCase;
 import net.hillsdon.reviki.search.SearchEngine;
@@ -57,4 +58,14 @@ public class TestWikiGraphImpl extends TestCase {
     assertEquals(ImmutableSet.of("FooPage"), _graph.incomingLinks("RootPage"));
   }
 
+  public void testIsolatedPagesIncludePagesNotYetIndexedOrLinkedOnlyFromDeletedPages() throws Exception {
+    _store.set(new PageInfoImpl(null, "LinkedPage", "", Collections.<String, String>emptyMap()), "", -1, "");
+    _store.set(new PageInfoImpl(null, "NewPage", "", Collections.<String, String>emptyMap()), "", -1, "");
+    _store.set(new PageInfoImpl(null, "DeletedLinkerPage", "", Collections.<String, String>emptyMap()), "", -1, "");
+    final Set<String> existing = ImmutableSet.of("FooPage", "LinkedPage", "NewPage", "DeletedLinkerPage");
+    expect(_mockedSearchEngine.isolatedPages(existing)).andReturn(ImmutableSet.of("FooPage", "NewPage"));
+    replay(_mockedSearchEngine);
+    assertEquals(ImmutableSet.of("FooPage", "NewPage"), _graph.isolatedPages());
+  }
+
 }
@@ -16,7 +16,6 @@
 package net.hillsdon.reviki.wiki.graph;
 
 import java.io.IOException;
-import java.util.LinkedHashSet;
 import java.util.Set;
 
 import net.hillsdon.reviki.search.SearchEngine;
@@ -50,14 +49,8 @@ public class WikiGraphImpl implements WikiGraph {
   }
 
   public Set<String> isolatedPages() throws IOException, PageStoreException {
-    final Set<String> isolated = new LinkedHashSet<String>();
-    for (PageReference page : _pageStore.list()) {
-      final String name = page.getPath();
-      if (incomingLinks(name).isEmpty()) {
-        isolated.add(name);
-      }
-    }
-    return isolated;
+    // Pages not yet indexed or linked only from deleted pages count as isolated too.
+    return _searchEngine.isolatedPages(allExistingPages());
   }
 
   /**
@@ -68,8 +61,11 @@ public class WikiGraphImpl implements WikiGraph {
    * @throws PageStoreException If we can't get the page list.
    */
   private Set<String> onlyExistingPages(final Set<String> pages) throws PageStoreException {
-    Set<String> allExisting = ImmutableSet.copyOf(Iterables.transform(_pageStore.list(), PageReference.TO_NAME));
-    return Sets.intersection(pages, allExisting);
+    return Sets.intersection(pages, allExistingPages());
+  }
+
+  private Set<String> allExistingPages() throws PageStoreException {
+    return ImmutableSet.copyOf(Iterables.transform(_pageStore.list(), PageReference.TO_NAME));
   }
 
 }
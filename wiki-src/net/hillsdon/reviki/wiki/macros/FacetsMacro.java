@@ -0,0 +1,77 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.wiki.macros;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import net.hillsdon.reviki.search.SearchEngine;
+import net.hillsdon.reviki.vc.PageInfo;
+import net.hillsdon.reviki.wiki.renderer.macro.Macro;
+import net.hillsdon.reviki.wiki.renderer.macro.ResultFormat;
+
+/**
+ * Tables of how many pages have each value of some attributes, e.g.
+ * &lt;&lt;facets:status,owner @type:bug&gt;&gt; for bug pages by status and
+ * owner.  The keys are comma separated and the rest is a query as for
+ * {@link SearchMacro}, all pages if there isn't one.
+ */
+public class FacetsMacro implements Macro {
+
+  private final SearchEngine _searchEngine;
+
+  public FacetsMacro(final SearchEngine searchEngine) {
+    _searchEngine = searchEngine;
+  }
+
+  public String getName() {
+    return "facets";
+  }
+
+  public ResultFormat getResultFormat() {
+    return ResultFormat.WIKI;
+  }
+
+  public String handle(final PageInfo page, /* mutable */ String remainder) throws Exception {
+    if (remainder == null) {
+      return "";
+    }
+    if (page != null) {
+      remainder = remainder.replace("@_currentPage", page.getPath());
+    }
+    remainder = remainder.trim();
+    final int keysEnd = remainder.indexOf(' ') == -1 ? remainder.length() : remainder.indexOf(' ');
+    final String query = SearchMacro.escapeQueryForSearch(_searchEngine, remainder.substring(keysEnd));
+    final Map<String, Map<String, Integer>> facets = _searchEngine.facets(query.trim(), Arrays.asList(remainder.substring(0, keysEnd).split(",")));
+
+    final StringBuilder tables = new StringBuilder();
+    for (Map.Entry<String, Map<String, Integer>> facet : facets.entrySet()) {
+      if (tables.length() > 0) {
+        tables.append("\n");
+      }
+      tables.append("|=").append(escape(facet.getKey())).append("|=Pages|\n");
+      for (Map.Entry<String, Integer> value : facet.getValue().entrySet()) {
+        tables.append("|").append(escape(value.getKey())).append("|").append(value.getValue()).append("|\n");
+      }
+    }
+    return tables.toString();
+  }
+
+  private static String escape(final String cell) {
+    return cell.replace("~", "~~").replace("|", "~|");
+  }
+
+}
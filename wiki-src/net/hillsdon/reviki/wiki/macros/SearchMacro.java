@@ -37,13 +37,14 @@ public class SearchMacro extends AbstractListOfPagesMacro {
 
   @Override
   protected Collection<String> getPages(final String remainder) throws Exception {
-    String query = escapeQueryForSearch(remainder);
+    String query = escapeQueryForSearch(_searchEngine, remainder);
     return ImmutableList.copyOf(Iterables.transform(_searchEngine.search(query, false, true), SearchMatch.TO_PAGE_NAME));
   }
 
   // convert attributes from @(")?attrKey(")?:(")?attrValue(")? into
-  // properly escaped attributes:"attrKey":"attrValue" form accepted by searcher
-  private String escapeQueryForSearch(String query) {
+  // properly escaped @attrKey:"attrValue" form accepted by searcher,
+  // also used by FacetsMacro
+  static String escapeQueryForSearch(final SearchEngine searchEngine, String query) {
     StringBuilder searchQuery = new StringBuilder();
     String initialQuery = query.trim();
     int attributeStart = initialQuery.indexOf('@');
@@ -88,7 +89,13 @@ public class SearchMacro extends AbstractListOfPagesMacro {
         initialQuery = "";
       }
       attributeStart = initialQuery.indexOf('@');
-      searchQuery.append("attributes:\"" + _searchEngine.escape("\"" + key + "\":\"" + value + "\"") + "\" ");
+      if (key.matches("[^\\s]+")) {
+        searchQuery.append("@" + searchEngine.escape(key) + ":\"" + searchEngine.escape(value) + "\" ");
+      }
+      else {
+        // Can't write a field name with spaces so use the combined field.
+        searchQuery.append("attributes:\"" + searchEngine.escape("\"" + key + "\":\"" + value + "\"") + "\" ");
+      }
     }
     searchQuery.append(initialQuery);
     return searchQuery.toString();
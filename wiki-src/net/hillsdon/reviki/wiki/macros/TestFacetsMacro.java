@@ -0,0 +1,69 @@
+/**
+ * Copyright 2008 Matthew Hillsdon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.hillsdon.reviki.wiki.macros;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.hillsdon.reviki.search.SearchEngine;
+import net.hillsdon.reviki.vc.impl.PageInfoImpl;
+
+import org.easymock.EasyMock;
+
+public class TestFacetsMacro extends TestCase {
+
+  private SearchEngine _searchEngine;
+  private FacetsMacro _macro;
+
+  @Override
+  protected void setUp() throws Exception {
+    _searchEngine = EasyMock.createMock(SearchEngine.class);
+    _macro = new FacetsMacro(_searchEngine);
+  }
+
+  public void testRendersATablePerKey() throws Exception {
+    final Map<String, Integer> status = new LinkedHashMap<String, Integer>();
+    status.put("open", 2);
+    status.put("won't|fix", 1);
+    final Map<String, Map<String, Integer>> facets = new LinkedHashMap<String, Map<String, Integer>>();
+    facets.put("status", status);
+    facets.put("owner", new LinkedHashMap<String, Integer>());
+    expect(_searchEngine.escape("type")).andReturn("type");
+    expect(_searchEngine.escape("bug")).andReturn("bug");
+    expect(_searchEngine.facets("@type:\"bug\"", Arrays.asList("status", "owner"))).andReturn(facets);
+    replay(_searchEngine);
+
+    assertEquals("|=status|=Pages|\n|open|2|\n|won't~|fix|1|\n\n|=owner|=Pages|\n", _macro.handle(new PageInfoImpl("SomePage"), "status,owner @type:bug"));
+    verify(_searchEngine);
+  }
+
+  public void testAllPagesWithoutAQuery() throws Exception {
+    final Map<String, Map<String, Integer>> facets = new LinkedHashMap<String, Map<String, Integer>>();
+    facets.put("status", new LinkedHashMap<String, Integer>());
+    expect(_searchEngine.facets("", Arrays.asList("status"))).andReturn(facets);
+    replay(_searchEngine);
+
+    assertEquals("|=status|=Pages|\n", _macro.handle(null, "status"));
+    verify(_searchEngine);
+  }
+
+}
@@ -112,6 +112,11 @@ public class FakeConfiguration extends PageStoreConfiguration {
           public File getSearchIndexDirectory() {
             return null;
           }
+
+          @Override
+          public File getCacheDirectory() {
+            return null;
+          }
           
           @Override
           public String getSVNUser() {